@@ -0,0 +1,195 @@
+package cs555.system.benchmark;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import cs555.system.metadata.PeerInformation;
+import cs555.system.metadata.PeerMetadata;
+import cs555.system.node.Node;
+import cs555.system.transport.TCPConnection;
+import cs555.system.transport.TCPServerThread;
+import cs555.system.util.ConnectionUtilities;
+import cs555.system.util.IdentifierUtilities;
+import cs555.system.wireformats.DiscoverPeerRequest;
+import cs555.system.wireformats.Event;
+import cs555.system.wireformats.GenericPeerMessage;
+import cs555.system.wireformats.Protocol;
+
+/**
+ * Compare the cached thread pool with virtual threads when a single
+ * node holds many concurrent connections.
+ * 
+ * <p>
+ * A server node routes each {@link DiscoverPeerRequest} through a
+ * populated routing table and responds on the same connection. Every
+ * client connection keeps exactly one request outstanding. For each
+ * executor the number of platform threads, the heap in use, and the
+ * lookup throughput are reported.
+ * </p>
+ * 
+ * <p>
+ * USAGE: {@code gradle executorBenchmark -Pconnections=10000}
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+public class ExecutorBenchmark {
+
+  private static final long DURATION = 10_000;
+
+  /**
+   * 
+   * @param args optional number of concurrent connections
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    int connections = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 10_000;
+
+    System.out.println( String.format( "%-8s %12s %12s %12s %16s", "Executor",
+        "Connections", "Threads", "Heap (MB)", "Lookups / sec" ) );
+    run( "CACHED", Executors.newCachedThreadPool(), connections );
+    run( "VIRTUAL", Executors.newVirtualThreadPerTaskExecutor(),
+        connections );
+  }
+
+  /**
+   * Open the connections, measure the resources held while they are
+   * idle, then measure lookups for a fixed duration.
+   * 
+   * @param name of the executor
+   * @param executorService
+   * @param connections
+   * @throws Exception
+   */
+  private static void run(String name, ExecutorService executorService,
+      int connections) throws Exception {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    try ( ServerSocketChannel serverChannel = ServerSocketChannel.open() )
+    {
+      serverChannel.bind( new InetSocketAddress( 0 ), connections );
+      int port = serverChannel.socket().getLocalPort();
+      Thread server = new Thread( new TCPServerThread( new RoutingNode(),
+          serverChannel.socket(), executorService ), "Server Thread" );
+      server.setDaemon( true );
+      server.start();
+
+      ClientNode client = new ClientNode();
+      List<TCPConnection> open = new ArrayList<>( connections );
+      for ( int i = 0; i < connections; ++i )
+      {
+        TCPConnection connection = ConnectionUtilities
+            .establishConnection( client, "localhost", port );
+        connection.submitTo( executorService );
+        open.add( connection );
+      }
+      Thread.sleep( 1000 );
+      System.gc();
+      int threadCount = threads.getThreadCount();
+      long heap = memory.getHeapMemoryUsage().getUsed() / ( 1024 * 1024 );
+
+      client.running = true;
+      for ( TCPConnection connection : open )
+      {
+        client.request( connection );
+      }
+      Thread.sleep( DURATION );
+      client.running = false;
+      double throughput = client.completed.get() / ( DURATION / 1000.0 );
+
+      System.out.println( String.format( "%-8s %12d %12d %12d %16.0f", name,
+          connections, threadCount, heap, throughput ) );
+
+      open.forEach( TCPConnection::close );
+    }
+    executorService.shutdownNow();
+    Thread.sleep( 1000 );
+  }
+
+  /**
+   * Peer that routes each request with its routing table and leaf set.
+   * 
+   * @author stock
+   *
+   */
+  private static class RoutingNode implements Node {
+
+    private final PeerMetadata metadata;
+
+    private RoutingNode() {
+      this.metadata = new PeerMetadata( "localhost", 0 );
+      this.metadata.setIdentifier( "8000" );
+      Random random = new Random( 555 );
+      for ( int i = 0; i < 1000; ++i )
+      {
+        metadata.addPeerToTable( new PeerInformation(
+            String.format( "%04X", random.nextInt( 0x10000 ) ), "localhost",
+            i ) );
+      }
+      metadata.addSelfToTable();
+    }
+
+    @Override
+    public void onEvent(Event event, TCPConnection connection) {
+      DiscoverPeerRequest request = ( DiscoverPeerRequest ) event;
+      PeerInformation closest =
+          IdentifierUtilities.closest( metadata, request.getDestination() );
+      try
+      {
+        connection.getTCPSender().sendData( new GenericPeerMessage(
+            Protocol.FORWARD_PEER_IDENTIFIER, closest ) );
+      } catch ( IOException e )
+      {
+        connection.close();
+      }
+    }
+  }
+
+  /**
+   * Client that sends the next lookup as soon as the previous one has
+   * been answered.
+   * 
+   * @author stock
+   *
+   */
+  private static class ClientNode implements Node {
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private volatile boolean running = false;
+
+    private void request(TCPConnection connection) {
+      String identifier = String.format( "%04X",
+          ( int ) ( Math.random() * 0x10000 ) );
+      try
+      {
+        connection.getTCPSender()
+            .sendData( new DiscoverPeerRequest( Protocol.DISCOVER_PEER_REQUEST,
+                new PeerInformation( identifier, "localhost", 0 ) ) );
+      } catch ( IOException e )
+      {
+        connection.close();
+      }
+    }
+
+    @Override
+    public void onEvent(Event event, TCPConnection connection) {
+      if ( running )
+      {
+        completed.incrementAndGet();
+        request( connection );
+      }
+    }
+  }
+}
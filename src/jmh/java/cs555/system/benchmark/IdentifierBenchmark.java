@@ -0,0 +1,74 @@
+package cs555.system.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import cs555.system.util.IdentifierUtilities;
+
+/**
+ * Cost of deriving and comparing identifiers.
+ * 
+ * <p>
+ * USAGE: {@code gradle jmh -Pinclude=IdentifierBenchmark}
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class IdentifierBenchmark {
+
+  private byte[] path = "/images/2019/greta.jpeg".getBytes();
+
+  private String a = "B6DB", b = "B6D0";
+
+  private int x = 0xB6DB, y = 0xB6D0;
+
+  /**
+   * 
+   * @return the content identifier of a file system path
+   */
+  @Benchmark
+  public String crc16() {
+    return IdentifierUtilities.CRC16CCITT( path );
+  }
+
+  /**
+   * 
+   * @return the shared prefix of two hexadecimal identifiers
+   */
+  @Benchmark
+  public int longestCommonPrefixLength() {
+    return IdentifierUtilities.longestCommonPrefixLength( a, b );
+  }
+
+  /**
+   * 
+   * @return the shared prefix of two integer keys
+   */
+  @Benchmark
+  public int longestCommonPrefixLengthOfKeys() {
+    return IdentifierUtilities.longestCommonPrefixLength( x, y );
+  }
+
+  /**
+   * 
+   * @return the integer key of a hexadecimal identifier
+   */
+  @Benchmark
+  public long identifierToKey() {
+    return IdentifierUtilities.identifierToKey( a );
+  }
+}
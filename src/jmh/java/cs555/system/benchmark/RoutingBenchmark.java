@@ -0,0 +1,216 @@
+package cs555.system.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import cs555.system.metadata.PeerInformation;
+import cs555.system.metadata.PeerMetadata;
+import cs555.system.metadata.RoutingSnapshot;
+import cs555.system.util.Constants;
+import cs555.system.util.IdentifierUtilities;
+
+/**
+ * Cost of a single routing decision on a peer with a populated routing
+ * table and leaf set.
+ * 
+ * <p>
+ * USAGE: {@code gradle jmh -Pinclude=RoutingBenchmark}
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class RoutingBenchmark {
+
+  private static final int DESTINATIONS = 1024;
+
+  private PeerMetadata metadata;
+
+  private PeerInformation[] destinations;
+
+  private int index;
+
+  @Setup
+  public void setup() {
+    Random random = new Random( 555 );
+    metadata = populate( random );
+    destinations = new PeerInformation[ DESTINATIONS ];
+    for ( int i = 0; i < DESTINATIONS; ++i )
+    {
+      destinations[ i ] = new PeerInformation(
+          String.format( "%04X", random.nextInt( 0x10000 ) ), "localhost", 0 );
+    }
+  }
+
+  /**
+   * Create the metadata of a peer in a network of 1000 random peers.
+   * 
+   * @param random
+   * @return the metadata with a populated routing table and leaf set
+   */
+  protected static PeerMetadata populate(Random random) {
+    PeerMetadata metadata = new PeerMetadata( "localhost", 0 );
+    metadata.setIdentifier( "8000" );
+    List<PeerInformation> peers = new ArrayList<>();
+    for ( int i = 0; i < 1000; ++i )
+    {
+      peers.add( new PeerInformation(
+          String.format( "%04X", random.nextInt( 0x10000 ) ), "localhost", i ) );
+      metadata.addPeerToTable( peers.get( i ) );
+    }
+    metadata.addSelfToTable();
+    metadata.addLeaves( peers );
+    return metadata;
+  }
+
+  private PeerInformation destination() {
+    index = ( index + 1 ) & ( DESTINATIONS - 1 );
+    return destinations[ index ];
+  }
+
+  /**
+   * Scan of every entry in the routing table and leaf set for the
+   * numerically closest peer.
+   * 
+   * @return the closest peer
+   */
+  @Benchmark
+  public PeerInformation closest() {
+    return IdentifierUtilities.closest( metadata, destination() );
+  }
+
+  /**
+   * Next hop by prefix digit, falling back to the closest peer.
+   * 
+   * @return the next hop
+   */
+  @Benchmark
+  public PeerInformation nextHop() {
+    return IdentifierUtilities.nextHop( metadata, destination() );
+  }
+
+  /**
+   * Leaf set bounds check given a hexadecimal identifier.
+   * 
+   * @return the closest leaf
+   */
+  @Benchmark
+  public PeerInformation closestLeafByIdentifier() {
+    return metadata.leaf().getClosestLeaf( destination().getIdentifier() );
+  }
+
+  /**
+   * Leaf set bounds check given an integer key.
+   * 
+   * @return the closest leaf
+   */
+  @Benchmark
+  public PeerInformation closestLeafByKey() {
+    return metadata.leaf().getClosestLeaf( destination().getKey() );
+  }
+
+  /**
+   * The routing decision made for each lookup: the leaf set is checked
+   * first, and the routing table only if the destination falls outside
+   * of it.
+   * 
+   * @return the peer the lookup is forwarded to, or this peer
+   */
+  @Benchmark
+  public PeerInformation lookup() {
+    PeerInformation destination = destination();
+    PeerInformation closest =
+        metadata.leaf().getClosestLeaf( destination.getKey() );
+    return closest != null ? closest
+        : IdentifierUtilities.nextHop( metadata, destination );
+  }
+
+  /**
+   * Routing table shared by the threads of a group, where lookups read
+   * the published snapshot while another thread updates the table.
+   * 
+   * @author stock
+   *
+   */
+  @State( Scope.Group )
+  public static class Shared {
+
+    private PeerMetadata metadata;
+
+    private PeerInformation peer;
+
+    private boolean added;
+
+    @Setup
+    public void setup() {
+      metadata = populate( new Random( 555 ) );
+      peer = new PeerInformation( "0123", "localhost", 0 );
+    }
+  }
+
+  /**
+   * The routing decision of {@link #lookup()} made by three threads
+   * against a shared peer, while {@link #update(Shared)} changes its
+   * routing table.
+   * 
+   * @param shared
+   * @return the peer the lookup is forwarded to, or this peer
+   */
+  @Benchmark
+  @Group( "contended" )
+  @GroupThreads( 3 )
+  public PeerInformation contendedLookup(Shared shared) {
+    PeerInformation destination = destination();
+    RoutingSnapshot routing = shared.metadata.routing();
+    PeerInformation closest = routing.getClosestLeaf( destination.getKey() );
+    return closest != null ? closest
+        : IdentifierUtilities.nextHop( routing, destination );
+  }
+
+  /**
+   * Add and remove a peer from the shared routing table.
+   * 
+   * @param shared
+   * @return true if the peer was in the table
+   */
+  @Benchmark
+  @Group( "contended" )
+  @GroupThreads( 1 )
+  public boolean update(Shared shared) {
+    shared.added = !shared.added;
+    return shared.added ? shared.metadata.addPeerToTable( shared.peer )
+        : shared.metadata.removePeerFromTable( shared.peer );
+  }
+
+  /**
+   * Replace the nearest clockwise leaf, as when a leaf fails and is
+   * added back from the leaf set of another leaf.
+   * 
+   * @return true if the leaf set changed
+   */
+  @Benchmark
+  public boolean replaceLeaf() {
+    PeerInformation leaf = metadata.leaf().getCW();
+    metadata.removeLeaf( leaf );
+    return metadata.addLeaf( leaf );
+  }
+}
@@ -0,0 +1,309 @@
+package cs555.system.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import cs555.system.metadata.PeerInformation;
+import cs555.system.metadata.PeerMetadata;
+import cs555.system.metadata.RoutingSnapshot;
+import cs555.system.util.Constants;
+import cs555.system.util.IdentifierUtilities;
+
+/**
+ * Simulate the routing of lookups through a network of many peers in
+ * a single process, to compare identifier widths and leaf set sizes.
+ * 
+ * <p>
+ * Each peer is given a random identifier, a leaf set of its
+ * {@link Constants#LEAF_SET_SIZE} nearest neighbors on the ring, and a
+ * routing table filled with a random peer for every prefix that exists
+ * in the network. Lookups for random keys are then
+ * routed from random peers the same way a {@code Peer} routes them,
+ * i.e., to the closest leaf, otherwise to the next hop of the routing
+ * table. For each network the heap held by the routing state, the
+ * number of hops, and any lookup that did not end at the numerically
+ * closest peer are reported.
+ * </p>
+ * 
+ * <p>
+ * USAGE:
+ * {@code gradle routingSimulation -Pbits=64 -Pleaves=8 -Ppeers=1000,10000}
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+public class RoutingSimulation {
+
+  private static final int LOOKUPS = 100_000;
+
+  private static final int MAX_HOPS = 64;
+
+  private static final int LEAVES = Math.max( 1, Constants.LEAF_SET_SIZE / 2 );
+
+  /**
+   * 
+   * @param args optional comma separated numbers of peers
+   */
+  public static void main(String[] args) {
+    String peers = args.length > 0 ? args[ 0 ] : "1000,10000,100000";
+
+    System.out.println( String.format( "%d-bit identifiers, %d rows, %d leaves",
+        Constants.IDENTIFIER_BIT_LENGTH, Constants.NUMBER_OF_ROWS,
+        Constants.LEAF_SET_SIZE ) );
+    System.out.println( String.format( "%8s %10s %12s %10s %10s %8s %10s",
+        "Peers", "Heap (MB)", "Bytes / Peer", "Entries", "Mean Hops",
+        "Max", "Misrouted" ) );
+    for ( String count : peers.split( "," ) )
+    {
+      int n = Integer.parseInt( count.trim() );
+      if ( Constants.IDENTIFIER_BIT_LENGTH < Long.SIZE
+          && n > 1L << Constants.IDENTIFIER_BIT_LENGTH )
+      {
+        System.out.println( String.format( "%8d exceeds the %d identifiers",
+            n, 1L << Constants.IDENTIFIER_BIT_LENGTH ) );
+        continue;
+      }
+      run( n, new Random( 555 ) );
+    }
+  }
+
+  /**
+   * Construct the network, measure the heap it holds, then route the
+   * lookups through it.
+   * 
+   * @param n number of peers
+   * @param random
+   */
+  private static void run(int n, Random random) {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    long[] keys = keys( n, random );
+
+    System.gc();
+    long before = memory.getHeapMemoryUsage().getUsed();
+    PeerMetadata[] network = network( keys, random );
+    System.gc();
+    long heap = memory.getHeapMemoryUsage().getUsed() - before;
+
+    long entries = 0;
+    for ( PeerMetadata metadata : network )
+    {
+      for ( PeerInformation[] row : metadata.routing().table() )
+      {
+        for ( PeerInformation peer : row )
+        {
+          if ( peer != null && peer != metadata.self() )
+          {
+            ++entries;
+          }
+        }
+      }
+    }
+
+    long hops = 0;
+    int max = 0, misrouted = 0;
+    for ( int i = 0; i < LOOKUPS; ++i )
+    {
+      long key = random.nextLong() & Constants.IDENTIFIER_MASK;
+      int count = route( network, keys, random.nextInt( n ), key );
+      if ( count < 0 )
+      {
+        ++misrouted;
+      } else
+      {
+        hops += count;
+        max = Math.max( max, count );
+      }
+    }
+
+    System.out.println( String.format( "%8d %10d %12d %10.1f %10.2f %8d %10d",
+        n, heap / ( 1024 * 1024 ), heap / n, ( double ) entries / n,
+        ( double ) hops / ( LOOKUPS - misrouted ), max, misrouted ) );
+  }
+
+  /**
+   * 
+   * @param n
+   * @param random
+   * @return unique random keys sorted in ascending unsigned order
+   */
+  private static long[] keys(int n, Random random) {
+    Set<Long> unique = new HashSet<>( n * 2 );
+    while ( unique.size() < n )
+    {
+      unique.add( random.nextLong() & Constants.IDENTIFIER_MASK );
+    }
+    long[] keys = new long[ n ];
+    int i = 0;
+    for ( long key : unique )
+    {
+      // flip the sign bit so a signed sort orders the unsigned keys
+      keys[ i++ ] = key ^ Long.MIN_VALUE;
+    }
+    Arrays.sort( keys );
+    for ( i = 0; i < n; ++i )
+    {
+      keys[ i ] ^= Long.MIN_VALUE;
+    }
+    return keys;
+  }
+
+  /**
+   * Create the metadata of every peer, the port of which is its index
+   * in the network.
+   * 
+   * @param keys sorted keys of the peers
+   * @param random
+   * @return the metadata of the peers
+   */
+  private static PeerMetadata[] network(long[] keys, Random random) {
+    int n = keys.length;
+    PeerMetadata[] network = new PeerMetadata[ n ];
+    for ( int i = 0; i < n; ++i )
+    {
+      network[ i ] = new PeerMetadata( "localhost", i );
+      network[ i ].setIdentifier(
+          IdentifierUtilities.keyToIdentifier( keys[ i ] ) );
+    }
+    for ( int i = 0; i < n; ++i )
+    {
+      PeerMetadata metadata = network[ i ];
+      metadata.setTable( table( network, keys, i, random ) );
+      List<PeerInformation> leaves = new ArrayList<>();
+      for ( int j = 1; j <= LEAVES && j < n; ++j )
+      {
+        leaves.add( network[ ( i + j ) % n ].self() );
+        leaves.add( network[ ( i + n - j ) % n ].self() );
+      }
+      metadata.addLeaves( leaves );
+    }
+    return network;
+  }
+
+  /**
+   * Fill the routing table of a peer with a random peer for each prefix
+   * that exists in the network.
+   * 
+   * @param network
+   * @param keys
+   * @param index of the peer
+   * @param random
+   * @return the routing table of the peer
+   */
+  private static PeerInformation[][] table(PeerMetadata[] network,
+      long[] keys, int index, Random random) {
+    PeerInformation self = network[ index ].self();
+    long key = keys[ index ];
+    PeerInformation[][] table = new PeerInformation[ Constants.NUMBER_OF_ROWS ][
+        Constants.NUMBER_OF_COLUMNS ];
+    boolean alone = false;
+    for ( int row = 0; row < Constants.NUMBER_OF_ROWS; ++row )
+    {
+      int own = IdentifierUtilities.digit( key, row );
+      table[ row ][ own ] = self;
+      if ( alone )
+      {
+        continue;
+      }
+      int shift = Constants.IDENTIFIER_BIT_LENGTH - ( ( row + 1 ) << 2 );
+      long prefix =
+          row == 0 ? 0 : ( key >>> ( shift + 4 ) ) << ( shift + 4 );
+      for ( int col = 0; col < Constants.NUMBER_OF_COLUMNS; ++col )
+      {
+        long low = prefix | ( ( long ) col << shift );
+        long high = low | ( ( 1L << shift ) - 1 );
+        int from = search( keys, low );
+        int to = search( keys, high + 1 );
+        if ( high == Constants.IDENTIFIER_MASK )
+        {
+          to = keys.length;
+        }
+        if ( col == own )
+        {
+          alone = to - from == 1;
+        } else if ( to > from )
+        {
+          table[ row ][ col ] =
+              network[ from + random.nextInt( to - from ) ].self();
+        }
+      }
+    }
+    return table;
+  }
+
+  /**
+   * 
+   * @param keys sorted in ascending unsigned order
+   * @param key
+   * @return the index of the first key not less than {@code key}
+   */
+  private static int search(long[] keys, long key) {
+    int low = 0, high = keys.length;
+    while ( low < high )
+    {
+      int mid = ( low + high ) >>> 1;
+      if ( Long.compareUnsigned( keys[ mid ], key ) < 0 )
+      {
+        low = mid + 1;
+      } else
+      {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Route a lookup from a peer until a peer delivers it to itself.
+   * 
+   * @param network
+   * @param keys
+   * @param source index of the peer the lookup starts at
+   * @param key of the lookup
+   * @return the number of hops, or -1 if the lookup did not end at the
+   *         peer that owns the key
+   */
+  private static int route(PeerMetadata[] network, long[] keys, int source,
+      long key) {
+    PeerInformation destination = new PeerInformation( key, null, 0 );
+    int current = source;
+    for ( int hops = 0; hops <= MAX_HOPS; ++hops )
+    {
+      RoutingSnapshot routing = network[ current ].routing();
+      PeerInformation next = routing.getClosestLeaf( key );
+      if ( next == null )
+      {
+        next = IdentifierUtilities.nextHop( routing, destination );
+      }
+      if ( next.getPort() == current )
+      {
+        return isOwner( keys, current, key ) ? hops : -1;
+      }
+      current = next.getPort();
+    }
+    return -1;
+  }
+
+  /**
+   * 
+   * @param keys
+   * @param owner index of the peer a lookup ended at
+   * @param key of the lookup
+   * @return true if no peer is closer to the key than the owner
+   */
+  private static boolean isOwner(long[] keys, int owner, long key) {
+    int n = keys.length;
+    int after = search( keys, key ) % n;
+    int before = ( after + n - 1 ) % n;
+    long distance = IdentifierUtilities.distance( keys[ owner ], key );
+    return Long.compareUnsigned( distance,
+        IdentifierUtilities.distance( keys[ after ], key ) ) <= 0
+        && Long.compareUnsigned( distance,
+            IdentifierUtilities.distance( keys[ before ], key ) ) <= 0;
+  }
+}
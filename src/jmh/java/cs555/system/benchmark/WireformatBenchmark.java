@@ -0,0 +1,181 @@
+package cs555.system.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import cs555.system.metadata.PeerInformation;
+import cs555.system.metadata.PeerMetadata;
+import cs555.system.util.BufferPool;
+import cs555.system.util.Constants;
+import cs555.system.wireformats.DataBatch;
+import cs555.system.wireformats.DataChunk;
+import cs555.system.wireformats.DataTransfer;
+import cs555.system.wireformats.DiscoverNodeResponse;
+import cs555.system.wireformats.DiscoverPeerRequest;
+import cs555.system.wireformats.Event;
+import cs555.system.wireformats.EventFactory;
+import cs555.system.wireformats.GenericMessage;
+import cs555.system.wireformats.GenericPeerMessage;
+import cs555.system.wireformats.JoinNetwork;
+import cs555.system.wireformats.LeafSetMessage;
+import cs555.system.wireformats.MessageEncoder;
+import cs555.system.wireformats.Protocol;
+
+/**
+ * Cost of marshalling and unmarshalling each of the wireformats.
+ * 
+ * <p>
+ * Messages are populated as they are on the network, e.g., a
+ * {@link JoinNetwork} carries every row of a populated routing table
+ * and a {@link DiscoverPeerRequest} carries a trace of several hops.
+ * Encoding goes through the pooled buffers used by the senders, and
+ * decoding goes through the {@link EventFactory}, as it does in the
+ * receiver.
+ * </p>
+ * 
+ * <p>
+ * USAGE: {@code gradle jmh -Pinclude=WireformatBenchmark}
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class WireformatBenchmark {
+
+  private static final int CONTENT_SIZE = 4096;
+
+  private static final String[] HOPS = { "1111", "8000", "B294", "B6D0" };
+
+  @Param( { "GenericMessage", "GenericPeerMessage", "DiscoverNodeResponse",
+      "DiscoverPeerRequest", "JoinNetwork", "DataTransfer", "DataChunk",
+      "DataBatch", "LeafSetMessage" } )
+  private String event;
+
+  private Event message;
+
+  private ByteBuffer marshalled;
+
+  private final EventFactory factory = EventFactory.getInstance();
+
+  @Setup
+  public void setup() throws IOException {
+    PeerInformation peer = new PeerInformation( "8000", "localhost", 5001 );
+    PeerInformation destination =
+        new PeerInformation( "B6DB", "localhost", 5002 );
+    byte[] content = new byte[ CONTENT_SIZE ];
+    new Random( 555 ).nextBytes( content );
+    String descriptor = "/greta.jpeg" + Constants.SEPERATOR + "93FD";
+
+    switch ( event )
+    {
+      case "GenericMessage" :
+        message = new GenericMessage( Protocol.READ_DATA_REQUEST, descriptor );
+        break;
+
+      case "GenericPeerMessage" :
+        message = new GenericPeerMessage( Protocol.STORE_DATA_RESPONSE, peer,
+            descriptor, Constants.SUCCESS );
+        break;
+
+      case "DiscoverNodeResponse" :
+        message = new DiscoverNodeResponse( peer, destination );
+        break;
+
+      case "DiscoverPeerRequest" :
+        DiscoverPeerRequest request =
+            new DiscoverPeerRequest( Protocol.DISCOVER_PEER_REQUEST,
+                destination );
+        for ( String hop : HOPS )
+        {
+          request.addNetworkTraceRoute( hop );
+        }
+        message = request;
+        break;
+
+      case "JoinNetwork" :
+        JoinNetwork join = new JoinNetwork( destination );
+        PeerMetadata metadata = RoutingBenchmark.populate( new Random( 555 ) );
+        for ( int row = 0; row < Constants.NUMBER_OF_ROWS; ++row )
+        {
+          join.setTableRow( metadata.table().getTableRow( row ) );
+          join.incrementRow();
+        }
+        for ( String hop : HOPS )
+        {
+          join.addNetworkTraceRoute( hop );
+        }
+        join.setLeaves( metadata.leaf().getLeaves() );
+        message = join;
+        break;
+
+      case "DataTransfer" :
+        message =
+            new DataTransfer( Protocol.STORE_DATA_REQUEST, content, descriptor );
+        break;
+
+      case "DataChunk" :
+        message = new DataChunk( 555L, content, content.length );
+        break;
+
+      case "DataBatch" :
+        DataBatch batch =
+            new DataBatch( Protocol.STORE_DATA_BATCH_REQUEST, null );
+        for ( int i = 0; i < HOPS.length; ++i )
+        {
+          batch.add( i, descriptor, content, Constants.SUCCESS );
+        }
+        message = batch;
+        break;
+
+      case "LeafSetMessage" :
+        message = new LeafSetMessage( Protocol.LEAF_SET_RESPONSE, peer,
+            RoutingBenchmark.populate( new Random( 555 ) ).leaf()
+                .getLeaves() );
+        break;
+    }
+    marshalled = ByteBuffer.wrap( message.getBytes() );
+  }
+
+  /**
+   * Encode the message into a pooled buffer as it is framed by the
+   * senders.
+   * 
+   * @return the length of the frame
+   */
+  @Benchmark
+  public int encode() {
+    ByteBuffer frame = MessageEncoder.frame( message );
+    int length = frame.remaining();
+    BufferPool.getInstance().release( frame );
+    return length;
+  }
+
+  /**
+   * 
+   * @return the unmarshalled message
+   * @throws IOException
+   */
+  @Benchmark
+  public Event decode() throws IOException {
+    marshalled.rewind();
+    return factory.createEvent( marshalled );
+  }
+}
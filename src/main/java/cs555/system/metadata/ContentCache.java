@@ -0,0 +1,243 @@
+package cs555.system.metadata;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import cs555.system.util.Constants;
+
+/**
+ * Bounded cache of the content of files recently read through a peer,
+ * so a repeated read of a popular file is answered by the first peer
+ * it is routed through that holds a copy, rather than by its owner.
+ * 
+ * <p>
+ * Entries are evicted least recently used first once the content held
+ * exceeds {@code capacity} bytes, and an entry expires {@code ttl}
+ * milliseconds after it was added.
+ * </p>
+ * 
+ * <p>
+ * Each copy carries the version of the file on the peer that sent it.
+ * A peer that rewrites a file invalidates the copies it has sent with
+ * the new version, and a copy older than that version which is still
+ * in flight is refused once it arrives.
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+public class ContentCache {
+
+  private final long capacity;
+
+  private final long ttl;
+
+  private final Map<String, Entry> entries;
+
+  private final Map<String, Floor> floors;
+
+  private long bytes;
+
+  /**
+   * Default constructor -
+   * 
+   * @param capacity most bytes of content held, or zero to disable the
+   *        cache
+   * @param ttl milliseconds an entry is valid for
+   */
+  public ContentCache(long capacity, long ttl) {
+    this.capacity = capacity;
+    this.ttl = ttl;
+    this.entries = new LinkedHashMap<>( 16, 0.75f, true );
+    this.floors = new LinkedHashMap<>();
+    this.bytes = 0;
+  }
+
+  /**
+   * 
+   * @return true if content is cached, false if the cache is disabled
+   */
+  public boolean isEnabled() {
+    return capacity > 0;
+  }
+
+  /**
+   * 
+   * @param identifier of the content
+   * @return true if a copy of the content is cached and has not
+   *         expired, false otherwise
+   */
+  public synchronized boolean contains(String identifier) {
+    return entry( identifier ) != null;
+  }
+
+  /**
+   * 
+   * @param identifier of the content
+   * @param filename the content is stored as
+   * @return the cached content, or {@code null} if the file is not
+   *         cached or has expired
+   */
+  public synchronized byte[] get(String identifier, String filename) {
+    Entry entry = entry( identifier );
+    return entry != null && entry.filename.equals( filename ) ? entry.data
+        : null;
+  }
+
+  /**
+   * 
+   * @param identifier
+   * @return the entry, or {@code null} if it is not cached or has
+   *         expired
+   */
+  private Entry entry(String identifier) {
+    Entry entry = entries.get( identifier );
+    if ( entry != null && System.currentTimeMillis() > entry.expires )
+    {
+      remove( identifier );
+      return null;
+    }
+    return entry;
+  }
+
+  /**
+   * Cache a copy of a file, evicting the least recently used entries
+   * until it fits.
+   * 
+   * @param identifier of the content
+   * @param filename the content is stored as
+   * @param holder identifier of the peer that sent the copy
+   * @param version of the file on the holder
+   * @param data content of the file
+   * @return true if the copy was cached, false if it is larger than the
+   *         cache or older than a version it was invalidated with
+   */
+  public synchronized boolean put(String identifier, String filename,
+      String holder, long version, byte[] data) {
+    if ( data.length > capacity )
+    {
+      return false;
+    }
+    expireFloors();
+    Floor floor = floors.get( holder + Constants.SEPERATOR + identifier );
+    if ( floor != null && version < floor.version )
+    {
+      return false;
+    }
+    remove( identifier );
+    entries.put( identifier, new Entry( filename, data,
+        System.currentTimeMillis() + ttl ) );
+    bytes += data.length;
+    Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+    while ( bytes > capacity )
+    {
+      bytes -= eldest.next().getValue().data.length;
+      eldest.remove();
+    }
+    return true;
+  }
+
+  /**
+   * Remove the copy of a file that was rewritten on a peer holding it,
+   * and refuse copies from that peer older than the new version.
+   * 
+   * @param identifier of the content
+   * @param holder identifier of the peer that rewrote the file
+   * @param version of the file on the holder once rewritten
+   */
+  public synchronized void invalidate(String identifier, String holder,
+      long version) {
+    remove( identifier );
+    if ( isEnabled() )
+    {
+      expireFloors();
+      // re-inserted so the floors stay in the order they expire
+      String key = holder + Constants.SEPERATOR + identifier;
+      Floor floor = floors.remove( key );
+      floors.put( key, new Floor(
+          floor == null ? version : Math.max( version, floor.version ),
+          System.currentTimeMillis() + ttl ) );
+    }
+  }
+
+  /**
+   * Forget the versions that no copy still in flight could be older
+   * than.
+   * 
+   */
+  private void expireFloors() {
+    long now = System.currentTimeMillis();
+    Iterator<Floor> iterator = floors.values().iterator();
+    while ( iterator.hasNext() && now > iterator.next().expires )
+    {
+      iterator.remove();
+    }
+  }
+
+  /**
+   * 
+   * @param identifier
+   */
+  private void remove(String identifier) {
+    Entry entry = entries.remove( identifier );
+    if ( entry != null )
+    {
+      bytes -= entry.data.length;
+    }
+  }
+
+  /**
+   * 
+   * @return the bytes of content cached, including any that has expired
+   */
+  public synchronized long bytes() {
+    return bytes;
+  }
+
+  /**
+   * 
+   * @return the number of entries, including any that have expired
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * The content of a file and the time the entry expires.
+   * 
+   * @author stock
+   *
+   */
+  private static class Entry {
+
+    private final String filename;
+
+    private final byte[] data;
+
+    private final long expires;
+
+    private Entry(String filename, byte[] data, long expires) {
+      this.filename = filename;
+      this.data = data;
+      this.expires = expires;
+    }
+  }
+
+  /**
+   * The version copies from a peer must be at least, until it expires.
+   * 
+   * @author stock
+   *
+   */
+  private static class Floor {
+
+    private final long version;
+
+    private final long expires;
+
+    private Floor(long version, long expires) {
+      this.version = version;
+      this.expires = expires;
+    }
+  }
+}
@@ -0,0 +1,241 @@
+package cs555.system.metadata;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the content of files stored on a peer, so a file
+ * that is read repeatedly is sent from memory rather than read from
+ * disk again.
+ * 
+ * <p>
+ * Content is held in direct buffers outside of the heap, which are
+ * written to the socket without being copied, and do not add to the
+ * garbage collected by the peer. Entries are evicted least recently
+ * used first once the content held exceeds {@code capacity} bytes.
+ * </p>
+ * 
+ * <p>
+ * A file is cached as it is written, or once it is read from disk.
+ * Content read from disk is only cached if no file was written or
+ * removed while it was read, so an older copy of a file that was
+ * rewritten in the meantime is never cached.
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+public class FileCache {
+
+  private final long capacity;
+
+  private final Map<String, ByteBuffer> entries;
+
+  private long bytes;
+
+  private long modifications;
+
+  private long hits;
+
+  private long misses;
+
+  private long evictions;
+
+  private long evicted;
+
+  /**
+   * Default constructor -
+   * 
+   * @param capacity most bytes of content held, or zero to disable the
+   *        cache
+   */
+  public FileCache(long capacity) {
+    this.capacity = capacity;
+    this.entries = new LinkedHashMap<>( 16, 0.75f, true );
+    this.bytes = 0;
+    this.modifications = 0;
+  }
+
+  /**
+   * 
+   * @return true if content is cached, false if the cache is disabled
+   */
+  public boolean isEnabled() {
+    return capacity > 0;
+  }
+
+  /**
+   * 
+   * @return the most bytes of content held
+   */
+  public long capacity() {
+    return capacity;
+  }
+
+  /**
+   * 
+   * @param filename the content is stored as
+   * @return a read-only view of the cached content, or {@code null} if
+   *         the file is not cached
+   */
+  public synchronized ByteBuffer get(String filename) {
+    ByteBuffer content = entries.get( filename );
+    if ( content == null )
+    {
+      ++misses;
+      return null;
+    }
+    ++hits;
+    return content.duplicate();
+  }
+
+  /**
+   * Cache the content of a file that was just written.
+   * 
+   * @param filename the content is stored as
+   * @param data content of the file
+   * @return true if the content was cached, false if it is larger than
+   *         the cache
+   */
+  public synchronized boolean put(String filename, byte[] data) {
+    remove( filename );
+    if ( data.length > capacity )
+    {
+      return false;
+    }
+    ByteBuffer content = ByteBuffer.allocateDirect( data.length );
+    content.put( data ).flip();
+    add( filename, content.asReadOnlyBuffer() );
+    return true;
+  }
+
+  /**
+   * 
+   * @return a stamp to pass to {@link #load(String, ByteBuffer, long)}
+   *         for content that is about to be read from disk
+   */
+  public synchronized long stamp() {
+    return modifications;
+  }
+
+  /**
+   * Cache the content of a file that was read from disk.
+   * 
+   * @param filename the content is stored as
+   * @param content of the file, which must not be modified once cached
+   * @param stamp taken before the file was read
+   * @return true if the content was cached, false if it is larger than
+   *         the cache or a file was written or removed since the stamp
+   *         was taken
+   */
+  public synchronized boolean load(String filename, ByteBuffer content,
+      long stamp) {
+    if ( stamp != modifications || content.remaining() > capacity )
+    {
+      return false;
+    }
+    remove( filename );
+    add( filename, content.asReadOnlyBuffer() );
+    return true;
+  }
+
+  /**
+   * 
+   * @param filename
+   * @param content
+   */
+  private void add(String filename, ByteBuffer content) {
+    entries.put( filename, content );
+    bytes += content.remaining();
+    Iterator<ByteBuffer> eldest = entries.values().iterator();
+    while ( bytes > capacity )
+    {
+      int length = eldest.next().remaining();
+      eldest.remove();
+      bytes -= length;
+      evicted += length;
+      ++evictions;
+    }
+  }
+
+  /**
+   * Remove a file that was removed from disk, or is about to be
+   * written.
+   * 
+   * @param filename the content is stored as
+   */
+  public synchronized void remove(String filename) {
+    ++modifications;
+    ByteBuffer content = entries.remove( filename );
+    if ( content != null )
+    {
+      bytes -= content.remaining();
+    }
+  }
+
+  /**
+   * 
+   * @return the bytes of content cached
+   */
+  public synchronized long bytes() {
+    return bytes;
+  }
+
+  /**
+   * 
+   * @return the number of files cached
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * 
+   * @return the number of reads served from the cache
+   */
+  public synchronized long hits() {
+    return hits;
+  }
+
+  /**
+   * 
+   * @return the number of reads of files that were not cached
+   */
+  public synchronized long misses() {
+    return misses;
+  }
+
+  /**
+   * 
+   * @return the number of files evicted to make room for others
+   */
+  public synchronized long evictions() {
+    return evictions;
+  }
+
+  /**
+   * 
+   * @return the bytes of content evicted to make room for others
+   */
+  public synchronized long evicted() {
+    return evicted;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized String toString() {
+    StringBuilder sb = new StringBuilder( "Files cached in memory: \n\n" );
+    sb.append( "\tfiles cached : " ).append( entries.size() ).append( "\n" );
+    sb.append( "\tbytes cached : " ).append( bytes ).append( " of " )
+        .append( capacity ).append( "\n" );
+    sb.append( "\thits : " ).append( hits ).append( ", misses : " )
+        .append( misses ).append( "\n" );
+    sb.append( "\tevictions : " ).append( evictions ).append( " (" )
+        .append( evicted ).append( " bytes)\n" );
+    return sb.toString();
+  }
+}
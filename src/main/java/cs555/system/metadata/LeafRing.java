@@ -0,0 +1,336 @@
+package cs555.system.metadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import cs555.system.util.Constants;
+import cs555.system.util.IdentifierUtilities;
+
+/**
+ * Immutable leaf set of a peer, held as the peers in the order they
+ * fall on the ring, i.e., the counter-clockwise leaves, this peer, then
+ * the clockwise leaves.
+ * 
+ * <p>
+ * The clockwise distance of each peer from the first is kept as a
+ * sorted array of primitive keys, so the leaf closest to an identifier
+ * is found with a binary search in one step, regardless of the number
+ * of leaves.
+ * </p>
+ * 
+ * <p>
+ * When there are fewer peers in the network than the leaf set holds,
+ * the clockwise and counter-clockwise leaves meet, and cover the whole
+ * ring, so every identifier falls within the leaf set. The leaves only
+ * wrap if they are complete, i.e., no leaf was removed since they were
+ * last repaired from the leaf set of a neighbor, as a leaf set that
+ * lost a leaf in a large network also holds too few peers. Until then
+ * each side holds only the peers in its half of the ring, and an
+ * identifier beyond either side falls outside of the leaf set.
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+final class LeafRing {
+
+  private final PeerInformation self;
+
+  private final PeerInformation[] cw;
+
+  private final PeerInformation[] ccw;
+
+  private final PeerInformation[] ring;
+
+  private final long[] offsets;
+
+  private final List<PeerInformation> leaves;
+
+  private final boolean complete;
+
+  private final boolean wraps;
+
+  /**
+   * Constructor - from the peers that are candidates to be leaves.
+   * 
+   * @param self
+   * @param candidates known peers, which may contain this peer or
+   *        duplicates
+   * @param size the most leaves on either side
+   * @param complete true if no leaf was removed since the candidates
+   *        were last repaired, false otherwise
+   */
+  LeafRing(PeerInformation self, Iterable<PeerInformation> candidates,
+      int size, boolean complete) {
+    this.self = self;
+    List<PeerInformation> peers = new ArrayList<>();
+    for ( PeerInformation peer : candidates )
+    {
+      if ( peer != null && !peer.equals( self ) && !peers.contains( peer ) )
+      {
+        peers.add( peer );
+      }
+    }
+    // clockwise order starting after this peer
+    long s = self == null ? 0 : self.getKey();
+    peers.sort( ( a, b ) -> Long.compareUnsigned(
+        IdentifierUtilities.clockwise( s, a.getKey() ),
+        IdentifierUtilities.clockwise( s, b.getKey() ) ) );
+    int n = peers.size();
+    int split = n;
+    if ( !complete )
+    {
+      // the peers in the clockwise half of the ring come first
+      long half = ( Constants.IDENTIFIER_MASK >>> 1 ) + 1;
+      split = 0;
+      while ( split < n && Long.compareUnsigned( IdentifierUtilities
+          .clockwise( s, peers.get( split ).getKey() ), half ) < 0 )
+      {
+        ++split;
+      }
+    }
+    this.complete = complete;
+    this.cw = new PeerInformation[ Math.min( size, split ) ];
+    this.ccw =
+        new PeerInformation[ Math.min( size, complete ? n : n - split ) ];
+    for ( int i = 0; i < cw.length; ++i )
+    {
+      cw[ i ] = peers.get( i );
+    }
+    for ( int i = 0; i < ccw.length; ++i )
+    {
+      ccw[ i ] = peers.get( n - 1 - i );
+    }
+    // the sides meet once the furthest clockwise leaf is at or past the
+    // furthest counter-clockwise leaf, going clockwise
+    this.wraps = complete && cw.length > 0
+        && cw.length - 1 >= n - ccw.length;
+
+    if ( wraps )
+    {
+      // every peer is known, so the ring starts at this peer
+      this.ring = new PeerInformation[ n + 1 ];
+      ring[ 0 ] = self;
+      for ( int i = 0; i < n; ++i )
+      {
+        ring[ i + 1 ] = peers.get( i );
+      }
+    } else
+    {
+      this.ring = new PeerInformation[ ccw.length + 1 + cw.length ];
+      for ( int i = 0; i < ccw.length; ++i )
+      {
+        ring[ ccw.length - 1 - i ] = ccw[ i ];
+      }
+      ring[ ccw.length ] = self;
+      for ( int i = 0; i < cw.length; ++i )
+      {
+        ring[ ccw.length + 1 + i ] = cw[ i ];
+      }
+    }
+    List<PeerInformation> leaves = new ArrayList<>( ring.length );
+    for ( PeerInformation peer : ring )
+    {
+      if ( peer != self )
+      {
+        leaves.add( peer );
+      }
+    }
+    this.leaves = Collections.unmodifiableList( leaves );
+    this.offsets = new long[ ring.length ];
+    for ( int i = 1; i < ring.length && self != null; ++i )
+    {
+      offsets[ i ] = IdentifierUtilities.clockwise( ring[ 0 ].getKey(),
+          ring[ i ].getKey() );
+    }
+  }
+
+  /**
+   * 
+   * @return this peer
+   */
+  PeerInformation self() {
+    return self;
+  }
+
+  /**
+   * 
+   * @return true if there is a leaf on either side, false otherwise
+   */
+  boolean isPopulated() {
+    return !leaves.isEmpty();
+  }
+
+  /**
+   * 
+   * @return true if no leaf was removed since the leaves were last
+   *         repaired, false otherwise
+   */
+  boolean isComplete() {
+    return complete;
+  }
+
+  /**
+   * 
+   * @return true if the leaves cover the whole ring, false otherwise
+   */
+  boolean wraps() {
+    return wraps;
+  }
+
+  /**
+   * 
+   * @return the nearest clockwise leaf, or {@code null} if there is
+   *         none
+   */
+  PeerInformation getCW() {
+    return cw.length > 0 ? cw[ 0 ] : null;
+  }
+
+  /**
+   * 
+   * @return the nearest counter-clockwise leaf, or {@code null} if
+   *         there is none
+   */
+  PeerInformation getCCW() {
+    return ccw.length > 0 ? ccw[ 0 ] : null;
+  }
+
+  /**
+   * 
+   * @return every leaf once in clockwise order, from the furthest
+   *         counter-clockwise, or from this peer if the leaves cover the
+   *         ring, excluding this peer
+   */
+  List<PeerInformation> getLeaves() {
+    return leaves;
+  }
+
+  /**
+   * 
+   * @param peer
+   * @return true if the peer is a leaf, false otherwise
+   */
+  boolean contains(PeerInformation peer) {
+    return leaves.contains( peer );
+  }
+
+  /**
+   * Find the peer in the leaf set that is numerically closest to a key.
+   * A key exactly between two peers belongs to the clockwise one, so
+   * that every peer agrees on its owner.
+   * 
+   * @param o key of the identifier to check if within bounds
+   * @return the closest peer, this peer if there are no leaves, or
+   *         {@code null} if {@code o} falls outside the leaf set
+   */
+  PeerInformation closest(long o) {
+    if ( !isPopulated() )
+    {
+      return self;
+    }
+    long offset = IdentifierUtilities.clockwise( ring[ 0 ].getKey(), o );
+    int last = ring.length - 1;
+    if ( !wraps && Long.compareUnsigned( offset, offsets[ last ] ) > 0 )
+    {
+      return null;
+    }
+    int low = 0, high = ring.length;
+    while ( low < high )
+    {
+      int mid = ( low + high ) >>> 1;
+      if ( Long.compareUnsigned( offsets[ mid ], offset ) < 0 )
+      {
+        low = mid + 1;
+      } else
+      {
+        high = mid;
+      }
+    }
+    if ( low < ring.length && offsets[ low ] == offset )
+    {
+      return ring[ low ];
+    }
+    // the key falls after the last peer only when the ring wraps
+    PeerInformation before = ring[ low - 1 ];
+    PeerInformation after = low < ring.length ? ring[ low ] : ring[ 0 ];
+    long toAfter = IdentifierUtilities.clockwise( o, after.getKey() );
+    long fromBefore = IdentifierUtilities.clockwise( before.getKey(), o );
+    return Long.compareUnsigned( toAfter, fromBefore ) <= 0 ? after : before;
+  }
+
+  /**
+   * Find the peers in the leaf set that are numerically closest to a
+   * key, which hold a copy of its content. The owner is first, and the
+   * others follow nearest first, where the clockwise peer is nearer on
+   * a tie, as with {@link #closest(long)}.
+   * 
+   * @param o key of the content identifier
+   * @param k the most peers to return, including the owner
+   * @return the closest peers, which may include this peer, or an empty
+   *         list if {@code o} falls outside the leaf set
+   */
+  List<PeerInformation> replicas(long o, int k) {
+    PeerInformation owner = closest( o );
+    if ( owner == null )
+    {
+      return Collections.emptyList();
+    }
+    int n = ring.length;
+    int i = 0;
+    while ( ring[ i ] != owner )
+    {
+      ++i;
+    }
+    List<PeerInformation> replicas = new ArrayList<>( Math.min( k, n ) );
+    replicas.add( owner );
+    // expand from the owner to whichever side is nearer the key
+    int before = i - 1, after = i + 1;
+    while ( replicas.size() < Math.min( k, n ) )
+    {
+      PeerInformation ccw =
+          wraps || before >= 0 ? ring[ Math.floorMod( before, n ) ] : null;
+      PeerInformation cw = wraps || after < n ? ring[ after % n ] : null;
+      if ( cw != null && ( ccw == null || Long.compareUnsigned(
+          IdentifierUtilities.distance( cw.getKey(), o ),
+          IdentifierUtilities.distance( ccw.getKey(), o ) ) <= 0 ) )
+      {
+        replicas.add( cw );
+        ++after;
+      } else
+      {
+        replicas.add( ccw );
+        --before;
+      }
+    }
+    return replicas;
+  }
+
+  /**
+   * 
+   * @return the leaves as
+   *         <tt>{ counter-clockwise <- this -> clockwise }</tt>
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder( "{ " );
+    if ( ccw.length == 0 )
+    {
+      sb.append( "null " );
+    }
+    for ( int i = ccw.length - 1; i >= 0; --i )
+    {
+      sb.append( ccw[ i ].getIdentifier() ).append( " " );
+    }
+    sb.append( "ccw <- " ).append( self.getIdentifier() ).append( " -> cw" );
+    if ( cw.length == 0 )
+    {
+      sb.append( " null" );
+    }
+    for ( PeerInformation peer : cw )
+    {
+      sb.append( " " ).append( peer.getIdentifier() );
+    }
+    return sb.append( " }" ).toString();
+  }
+}
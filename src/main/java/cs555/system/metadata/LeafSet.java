@@ -1,11 +1,29 @@
 package cs555.system.metadata;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import cs555.system.util.Constants;
+import cs555.system.util.IdentifierUtilities;
+
 /**
  * Contains information relating to the leaf set for some peer.
  * 
  * <p>
  * The leaf set contains {@code l} peers in the clockwise direction
- * and {@code l} peers in the counter-clockwise direction.
+ * and {@code l} peers in the counter-clockwise direction, where
+ * {@code l} is half of {@link Constants#LEAF_SET_SIZE}. A peer that is
+ * added is kept only if it is among the {@code l} nearest on either
+ * side, and a leaf that is removed is replaced by the next nearest
+ * peer that is added, e.g., from the leaf set of another leaf. The
+ * leaves do not cover the whole ring once a leaf is removed, until they
+ * are repaired from the leaf set of a neighbor.
+ * </p>
+ * 
+ * <p>
+ * The leaves are held in an immutable {@link LeafRing} that is
+ * replaced as a whole and read once per query, so the leaf set is read
+ * without locking while it is updated.
  * </p>
  * 
  * @author stock
@@ -13,11 +31,9 @@ package cs555.system.metadata;
  */
 public class LeafSet {
 
-  private PeerInformation self;
-
-  private PeerInformation cw;
+  private final int size;
 
-  private PeerInformation ccw;
+  private volatile LeafRing ring;
 
   /**
    * Default constructor -
@@ -25,68 +41,133 @@ public class LeafSet {
    * @param self
    */
   public LeafSet(PeerInformation self) {
-    this.self = self;
+    this( self, Math.max( 1, Constants.LEAF_SET_SIZE / 2 ) );
   }
 
   /**
+   * Constructor - with the number of leaves on either side.
    * 
-   * @return true if {@code cw} and {@code ccw} are non {@code null},
-   *         false otherwise.
+   * @param self
+   * @param size the most leaves in each direction
+   */
+  public LeafSet(PeerInformation self, int size) {
+    this.size = size;
+    this.ring = new LeafRing( self, new ArrayList<>(), size, true );
+  }
+
+  /**
+   * 
+   * @return the immutable leaves, for a {@link RoutingSnapshot}
+   */
+  LeafRing ring() {
+    return ring;
+  }
+
+  /**
+   * 
+   * @return true if there is a leaf on either side, false otherwise.
    */
   public boolean isPopulated() {
-    return cw != null && ccw != null;
+    return ring.isPopulated();
   }
 
   /**
-   * Set the peer with either the clockwise or counter clockwise peer.
+   * Add a peer to the leaf set if it is among the nearest on either
+   * side.
    * 
    * @param peer
-   * @param cw true to update the clockwise peer, false otherwise
+   * @return true if the leaf set changed, false otherwise
    */
-  public void setLeaf(PeerInformation peer, boolean cw) {
-    if ( cw )
-    {
-      this.cw = peer;
-    } else
+  public synchronized boolean addLeaf(PeerInformation peer) {
+    return addLeaves( List.of( peer ) );
+  }
+
+  /**
+   * Add the peers to the leaf set that are among the nearest on either
+   * side, e.g., the leaf set of a neighbor.
+   * 
+   * @param peers which may include this peer or current leaves
+   * @return true if the leaf set changed, false otherwise
+   */
+  public synchronized boolean addLeaves(Collection<PeerInformation> peers) {
+    List<PeerInformation> candidates = new ArrayList<>( ring.getLeaves() );
+    candidates.addAll( peers );
+    return update( candidates, ring.isComplete() );
+  }
+
+  /**
+   * Add the leaf set of a neighbor, which replaces the leaves that were
+   * removed, so the leaves may cover the whole ring again.
+   * 
+   * @param peers the leaf set of the neighbor, and the neighbor
+   * @return true if the leaf set changed, false otherwise
+   */
+  public synchronized boolean repair(Collection<PeerInformation> peers) {
+    List<PeerInformation> candidates = new ArrayList<>( ring.getLeaves() );
+    candidates.addAll( peers );
+    return update( candidates, true );
+  }
+
+  /**
+   * Remove a peer from the leaf set, e.g., once it has left the network
+   * or can not be reached.
+   * 
+   * @param peer
+   * @return true if the peer was a leaf, false otherwise
+   */
+  public synchronized boolean removeLeaf(PeerInformation peer) {
+    if ( !ring.contains( peer ) )
     {
-      this.ccw = peer;
+      return false;
     }
+    List<PeerInformation> candidates = new ArrayList<>( ring.getLeaves() );
+    candidates.remove( peer );
+    // the peers beyond the removed leaf are unknown until repaired
+    return update( candidates, false );
   }
 
   /**
-   * Only use when deleting a peer and migrating data
    * 
-   * @param self
+   * @param candidates
+   * @param complete true if no leaf was removed since the last repair
+   * @return true if the leaves, or whether they cover the ring, changed
    */
-  public void setSelf(PeerInformation self) {
-    this.self = self;
+  private boolean update(List<PeerInformation> candidates,
+      boolean complete) {
+    LeafRing updated =
+        new LeafRing( ring.self(), candidates, size, complete );
+    boolean changed = !updated.getLeaves().equals( ring.getLeaves() )
+        || updated.wraps() != ring.wraps();
+    ring = updated;
+    return changed;
   }
 
+  /**
+   * 
+   * @return the nearest clockwise leaf, or {@code null} if there is
+   *         none
+   */
   public PeerInformation getCW() {
-    return cw;
+    return ring.getCW();
   }
 
+  /**
+   * 
+   * @return the nearest counter-clockwise leaf, or {@code null} if
+   *         there is none
+   */
   public PeerInformation getCCW() {
-    return ccw;
+    return ring.getCCW();
   }
 
   /**
    * 
-   * @param other
-   * @return
+   * @return every leaf once in clockwise order, from the furthest
+   *         counter-clockwise, or from this peer if the leaves cover the
+   *         ring
    */
-  public boolean isBetweenClockwise(PeerInformation other) {
-    int o = Integer.parseInt( other.getIdentifier(), 16 );
-    int s = Integer.parseInt( self.getIdentifier(), 16 );
-    int cw = Integer.parseInt( this.cw.getIdentifier(), 16 );
-
-    if ( isBetween( o, cw, s ) )
-    {
-      return true;
-    } else
-    {
-      return false;
-    }
+  public List<PeerInformation> getLeaves() {
+    return ring.getLeaves();
   }
 
   /**
@@ -98,13 +179,15 @@ public class LeafSet {
    * @param b less clockwise item
    * @return true if {@code o} is between {@code a} and {@code b}
    */
-  public boolean isBetween(int o, int a, int b) {
+  public boolean isBetween(long o, long a, long b) {
     if ( a == b )
     {
       return false;
     } else
     {
-      return o > a ^ o < b ^ b < a;
+      return Long.compareUnsigned( o, a ) > 0
+          ^ Long.compareUnsigned( o, b ) < 0
+          ^ Long.compareUnsigned( b, a ) < 0;
     }
   }
 
@@ -113,48 +196,53 @@ public class LeafSet {
    * returns the {@code Leaf} that is closest by identifier to
    * {@code other}.
    * <p>
-   * <b>IMPORTANT:</b> assumes each of the peer identifiers are 16-bits.
+   * <b>IMPORTANT:</b> assumes each of the peer identifiers are
+   * {@link Constants#IDENTIFIER_BIT_LENGTH} bits.
    * </p>
-   *
+   * 
    * @param other peer identifier to check if within bounds
    * @return the {@code Leaf} that is closest by identifier to
    *         {@code other}, <b>or</b> {@code null} if {@code other}
    *         falls outside the leaf set boundaries.
    */
   public PeerInformation getClosestLeaf(String otherIdentifier) {
+    return getClosestLeaf(
+        IdentifierUtilities.identifierToKey( otherIdentifier ) );
+  }
 
-    if ( isPopulated() )
-    {
-      int o = Integer.parseInt( otherIdentifier, 16 );
-      int s = Integer.parseInt( self.getIdentifier(), 16 );
-      int cw = Integer.parseInt( this.cw.getIdentifier(), 16 );
-      int ccw = Integer.parseInt( this.ccw.getIdentifier(), 16 );
-
-      if ( isBetween( o, cw, s ) )
-      {
-        int o_cw = ( cw - o ) & 0xFFFF;
-        int o_s = ( o - s ) & 0xFFFF;
-        return o_cw < o_s ? this.cw : self;
-      } else if ( isBetween( o, s, ccw ) )
-      {
-        int o_ccw = ( o - ccw ) & 0xFFFF;
-        int o_s = ( s - o ) & 0xFFFF;
-        return o_ccw < o_s ? this.ccw : self;
-      }
-    } else
-    {
-      return self;
-    }
-    return null;
+  /**
+   * Check if the {@code other} key falls within this leaf set, without
+   * parsing any identifiers.
+   * 
+   * @see #getClosestLeaf(String)
+   * @param o key of the peer identifier to check if within bounds
+   * @return the {@code Leaf} that is closest by identifier to
+   *         {@code o}, <b>or</b> {@code null} if {@code o} falls
+   *         outside the leaf set boundaries.
+   */
+  public PeerInformation getClosestLeaf(long o) {
+    return ring.closest( o );
+  }
+
+  /**
+   * 
+   * @param identifier of the content
+   * @param k the most peers to return, including the owner
+   * @return the {@code k} peers closest by identifier to the content,
+   *         owner first, or an empty list if it falls outside the leaf
+   *         set boundaries
+   */
+  public List<PeerInformation> getReplicas(String identifier, int k) {
+    return ring.replicas( IdentifierUtilities.identifierToKey( identifier ),
+        k );
   }
 
   /**
    * Remove all leaves from the leaf set
    * 
    */
-  public void reset() {
-    this.cw = null;
-    this.ccw = null;
+  public synchronized void reset() {
+    ring = new LeafRing( ring.self(), new ArrayList<>(), size, true );
   }
 
   /**
@@ -163,18 +251,7 @@ public class LeafSet {
    */
   @Override
   public String toString() {
-    if ( !this.isPopulated() )
-    {
-      return ( new StringBuilder( "Updated Leaf Set: { " ) ).append( "null" )
-          .append( " ccw <- " ).append( self.getIdentifier() )
-          .append( " -> cw " ).append( "null" ).append( " }" ).toString();
-    } else
-    {
-      return ( new StringBuilder( "Updated Leaf Set: { " ) )
-          .append( ccw.getIdentifier() ).append( " ccw <- " )
-          .append( self.getIdentifier() ).append( " -> cw " )
-          .append( cw.getIdentifier() ).append( " }" ).toString();
-    }
+    return "Updated Leaf Set: " + ring.toString();
   }
 
 }
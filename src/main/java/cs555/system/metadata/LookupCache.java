@@ -0,0 +1,126 @@
+package cs555.system.metadata;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the peer that owns a content identifier, so a
+ * repeated lookup for the same content can be sent directly to its
+ * owner rather than routed through the network.
+ * 
+ * <p>
+ * The least recently used entry is evicted once the cache holds
+ * {@code capacity} entries, and an entry expires {@code ttl}
+ * milliseconds after it was added. An entry that is stale is still
+ * safe to use, as the peer it names will route the lookup onward if
+ * it is no longer the owner.
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+public class LookupCache {
+
+  private final int capacity;
+
+  private final long ttl;
+
+  private final Map<Long, Entry> entries;
+
+  /**
+   * Default constructor -
+   * 
+   * @param capacity most entries held, or zero to disable the cache
+   * @param ttl milliseconds an entry is valid for
+   */
+  public LookupCache(int capacity, long ttl) {
+    this.capacity = capacity;
+    this.ttl = ttl;
+    this.entries = new LinkedHashMap<Long, Entry>( 16, 0.75f, true ) {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+        return size() > LookupCache.this.capacity;
+      }
+    };
+  }
+
+  /**
+   * 
+   * @param key of the content identifier
+   * @return the owner of the content, or {@code null} if it is not
+   *         cached or has expired
+   */
+  public synchronized PeerInformation get(long key) {
+    Entry entry = entries.get( key );
+    if ( entry == null )
+    {
+      return null;
+    }
+    if ( System.currentTimeMillis() > entry.expires )
+    {
+      entries.remove( key );
+      return null;
+    }
+    return entry.owner;
+  }
+
+  /**
+   * 
+   * @param key of the content identifier
+   * @param owner the peer that holds the content
+   */
+  public synchronized void put(long key, PeerInformation owner) {
+    if ( capacity > 0 )
+    {
+      entries.put( key,
+          new Entry( owner, System.currentTimeMillis() + ttl ) );
+    }
+  }
+
+  /**
+   * Remove every entry owned by a peer, e.g., once it is unreachable.
+   * 
+   * @param owner
+   */
+  public synchronized void remove(PeerInformation owner) {
+    entries.values().removeIf( entry -> entry.owner.equals( owner ) );
+  }
+
+  /**
+   * Remove every entry, e.g., once the leaf set changes and ownership
+   * of the content around this peer has moved.
+   * 
+   */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  /**
+   * 
+   * @return the number of entries, including any that have expired
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * An owner and the time the entry expires.
+   * 
+   * @author stock
+   *
+   */
+  private static class Entry {
+
+    private final PeerInformation owner;
+
+    private final long expires;
+
+    private Entry(PeerInformation owner, long expires) {
+      this.owner = owner;
+      this.expires = expires;
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package cs555.system.metadata;
 
+import cs555.system.util.IdentifierUtilities;
+
 /**
  * Contains information related to a specific peer in the network.
  * 
@@ -10,6 +12,8 @@ public class PeerInformation {
 
   String identifier;
 
+  long key;
+
   final String host;
 
   final int port;
@@ -23,6 +27,22 @@ public class PeerInformation {
    */
   public PeerInformation(String identifier, String host, int port) {
     this.identifier = identifier;
+    this.key = IdentifierUtilities.identifierToKey( identifier );
+    this.host = host;
+    this.port = port;
+  }
+
+  /**
+   * Constructor for a peer whose identifier is known by its key, e.g.,
+   * when decoded from a message.
+   * 
+   * @param key
+   * @param host
+   * @param port
+   */
+  public PeerInformation(long key, String host, int port) {
+    this.identifier = IdentifierUtilities.keyToIdentifier( key );
+    this.key = key;
     this.host = host;
     this.port = port;
   }
@@ -35,6 +55,15 @@ public class PeerInformation {
     return this.identifier;
   }
 
+  /**
+   * 
+   * @return the identifier from the peer as an unsigned integer, so
+   *         routing does not have to parse the hexadecimal identifier
+   */
+  public long getKey() {
+    return this.key;
+  }
+
   /**
    * 
    * @return the host address from the peer
@@ -61,6 +90,7 @@ public class PeerInformation {
    */
   public void setIdentifier(String identifier) {
     this.identifier = identifier;
+    this.key = IdentifierUtilities.identifierToKey( identifier );
   }
 
   @Override
@@ -2,6 +2,8 @@ package cs555.system.metadata;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -10,12 +12,19 @@ import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import cs555.system.util.Constants;
+import cs555.system.util.IdentifierUtilities;
+import cs555.system.util.SegmentStore;
 
 /**
  * Class to maintain the information needed for a given peer. This
  * includes the Distributed Hash Table (DHT), leaf set, and its own
  * information.
  * 
+ * <p>
+ * The DHT and leaf set are updated through this class, which publishes
+ * a new {@link RoutingSnapshot} after each update for lookups to read.
+ * </p>
+ * 
  * @author stock
  *
  */
@@ -23,30 +32,63 @@ public class PeerMetadata {
 
   private final RoutingTable table;
 
+  private final Proximity proximity;
+
   private final PeerInformation self;
 
   private final LeafSet leaf;
 
+  private volatile RoutingSnapshot routing;
+
+  private final LookupCache cache;
+
+  private final FileCache stored;
+
+  private final SegmentStore storage;
+
   private final Lock lock;
 
   private final Condition condition;
 
-  private boolean initialized;
+  private volatile boolean initialized;
 
   private final Map<String, String> files;
 
+  private final Map<String, List<String>> contents;
+
   /**
-   * Default Constructor -
+   * Default Constructor - without a cache of content owners.
    * 
    */
   public PeerMetadata(String host, int port) {
-    this.table = new RoutingTable();
+    this( host, port, new LookupCache( 0, 0 ), new FileCache( 0 ), null );
+  }
+
+  /**
+   * Constructor - with a cache of content owners that is invalidated
+   * as peers are removed from the routing table.
+   * 
+   * @param host
+   * @param port
+   * @param cache
+   * @param stored cache of the content of files stored on this peer
+   * @param storage the files on this peer are stored in
+   */
+  public PeerMetadata(String host, int port, LookupCache cache,
+      FileCache stored, SegmentStore storage) {
+    this.proximity = new Proximity();
+    this.table = new RoutingTable( proximity );
     this.self = new PeerInformation( null, host, port );
     this.leaf = new LeafSet( this.self );
+    this.cache = cache;
+    this.stored = stored;
+    this.storage = storage;
     this.lock = new ReentrantLock();
     this.condition = lock.newCondition();
     this.initialized = false;
     this.files = new HashMap<>();
+    this.contents = new HashMap<>();
+    publish();
   }
 
   /**
@@ -55,11 +97,31 @@ public class PeerMetadata {
    * 
    */
   public void initialized() {
-    initialized = true;
+    lock.lock();
+    try
+    {
+      initialized = true;
+      condition.signalAll();
+    } finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Wait until this peer is initialized. The lock is not held once
+   * this returns.
+   * 
+   * @throws InterruptedException
+   */
+  public void awaitInitialized() throws InterruptedException {
+    lock.lock();
     try
     {
-      lock.lock();
-      condition.signal();
+      while ( !initialized )
+      {
+        condition.await();
+      }
     } finally
     {
       lock.unlock();
@@ -82,6 +144,23 @@ public class PeerMetadata {
     return table;
   }
 
+  /**
+   * 
+   * @return the latest snapshot of the DHT and leaf set
+   */
+  public RoutingSnapshot routing() {
+    return routing;
+  }
+
+  /**
+   * Publish the current DHT and leaf set, once they have been updated.
+   * 
+   */
+  private synchronized void publish() {
+    routing = new RoutingSnapshot( self, table.getTable(),
+        table.getCandidates(), leaf.ring() );
+  }
+
   /**
    * 
    * @return the leaf set for this peer
@@ -92,35 +171,52 @@ public class PeerMetadata {
 
   /**
    * 
-   * @return
+   * @return the round trip times measured to other peers
    */
-  public Map<String, String> files() {
-    return files;
+  public Proximity proximity() {
+    return proximity;
   }
 
   /**
    * 
-   * @return the {@code ReentrantLock} for the {@code Condition}
+   * @return the owners of content recently looked up through this peer
    */
-  public Lock getLock() {
-    return lock;
+  public LookupCache cache() {
+    return cache;
   }
 
   /**
    * 
-   * @return true if the peer has its DHT and leaf set initialized,
-   *         false otherwise
+   * @return the content of files stored on this peer that is held in
+   *         memory
    */
-  public boolean isInitialized() {
-    return initialized;
+  public FileCache stored() {
+    return stored;
+  }
+
+  /**
+   * 
+   * @return the log the files on this peer are stored in
+   */
+  public SegmentStore storage() {
+    return storage;
   }
 
   /**
    * 
    * @return
    */
-  public Condition getCondition() {
-    return condition;
+  public Map<String, String> files() {
+    return files;
+  }
+
+  /**
+   * 
+   * @return true if the peer has its DHT and leaf set initialized,
+   *         false otherwise
+   */
+  public boolean isInitialized() {
+    return initialized;
   }
 
   /**
@@ -143,12 +239,100 @@ public class PeerMetadata {
   public synchronized void addSelfToTable() {
     for ( int i = 0; i < Constants.NUMBER_OF_ROWS; i++ )
     {
-      table.addPeerToTable( self, i );
+      table.setTableIndex( self, i );
     }
+    publish();
+  }
+
+  /**
+   * Replace the DHT with one constructed by the peers a join was
+   * routed through.
+   * 
+   * @param table that is no longer modified by the caller
+   */
+  public synchronized void setTable(PeerInformation[][] table) {
+    this.table.setTable( table );
+    publish();
   }
 
   /**
-   * Add a peer to all applicable locations in the routing table.
+   * Add a peer to the leaf set if it is among the nearest on either
+   * side.
+   * 
+   * @param peer
+   * @return true if the leaf set changed, false otherwise
+   */
+  public synchronized boolean addLeaf(PeerInformation peer) {
+    return addLeaves( List.of( peer ) );
+  }
+
+  /**
+   * Add the peers to the leaf set that are among the nearest on either
+   * side.
+   * 
+   * @param peers
+   * @return true if the leaf set changed, false otherwise
+   */
+  public synchronized boolean addLeaves(Collection<PeerInformation> peers) {
+    boolean changed = leaf.addLeaves( peers );
+    if ( changed )
+    {
+      publish();
+    }
+    return changed;
+  }
+
+  /**
+   * Add the leaf set of a neighbor that replaces the leaves that were
+   * removed.
+   * 
+   * @param peers the leaf set of the neighbor, and the neighbor
+   * @return true if the leaf set changed, false otherwise
+   */
+  public synchronized boolean repairLeaves(Collection<PeerInformation> peers) {
+    boolean changed = leaf.repair( peers );
+    if ( changed )
+    {
+      publish();
+    }
+    return changed;
+  }
+
+  /**
+   * Remove a peer from the leaf set.
+   * 
+   * @param peer
+   * @return true if the peer was a leaf, false otherwise
+   */
+  public synchronized boolean removeLeaf(PeerInformation peer) {
+    boolean removed = leaf.removeLeaf( peer );
+    if ( removed )
+    {
+      publish();
+    }
+    return removed;
+  }
+
+  /**
+   * Remove every peer from the DHT and leaf set, leaving this peer as
+   * the only one in the network.
+   * 
+   */
+  public synchronized void resetRouting() {
+    table.reset();
+    for ( int i = 0; i < Constants.NUMBER_OF_ROWS; i++ )
+    {
+      table.setTableIndex( self, i );
+    }
+    leaf.reset();
+    cache.clear();
+    proximity.clear();
+    publish();
+  }
+
+  /**
+   * Add a peer to all applicable locations in the routing table, where
+   * it is routed to if it is the nearest peer of the entry.
    * 
    * @param peer
    * @return true if the DHT already contained the peer, false
@@ -158,40 +342,67 @@ public class PeerMetadata {
     boolean contains = false;
     for ( int row = 0; row < Constants.NUMBER_OF_ROWS; ++row )
     {
-      int selfCol = Character.digit( self.getIdentifier().charAt( row ), 16 );
-      int destCol = Character.digit( peer.getIdentifier().charAt( row ), 16 );
+      int selfCol = IdentifierUtilities.digit( self.getKey(), row );
+      int destCol = IdentifierUtilities.digit( peer.getKey(), row );
 
       if ( selfCol - destCol != 0 )
       {
-        PeerInformation previous = table.getTableIndex( row, destCol );
-        if ( previous != null && previous.equals( peer ) )
-        {
-          contains = true;
-        }
+        contains = List.of( table.getCandidates( row, destCol ) )
+            .contains( peer );
         table.addPeerToTable( peer, row );
         break;
       }
     }
+    publish();
     return contains;
   }
 
+  /**
+   * Record the round trip time measured to a peer, and rank it again in
+   * the routing table.
+   * 
+   * @param peer
+   * @param nanos round trip time of the sample
+   * @return true if the peer is now routed to in place of another
+   *         peer, false otherwise
+   */
+  public synchronized boolean measured(PeerInformation peer, long nanos) {
+    proximity.update( peer, nanos );
+    for ( int row = 0; row < Constants.NUMBER_OF_ROWS; ++row )
+    {
+      int destCol = IdentifierUtilities.digit( peer.getKey(), row );
+      if ( IdentifierUtilities.digit( self.getKey(), row ) != destCol )
+      {
+        PeerInformation previous = table.getTableIndex( row, destCol );
+        table.addPeerToTable( peer, row );
+        publish();
+        return previous != null && !previous.equals( peer )
+            && peer.equals( table.getTableIndex( row, destCol ) );
+      }
+    }
+    return false;
+  }
+
   /**
    * Remove a peer from all applicable entries in this routing table.
    * 
    * @param peer to remove, if it exists
    */
   public synchronized boolean removePeerFromTable(PeerInformation peer) {
+    cache.remove( peer );
+    proximity.remove( peer );
     boolean show = false;
     for ( int row = 0; row < Constants.NUMBER_OF_ROWS; ++row )
     {
-      int col = Character.digit( peer.getIdentifier().charAt( row ), 16 );
-      PeerInformation other = table.getTableIndex( row, col );
-      if ( peer.equals( other ) )
+      if ( table.removePeerFromTable( peer, row ) )
       {
         show = true;
-        table.removePeerFromTable( row, col );
       }
     }
+    if ( show )
+    {
+      publish();
+    }
     return show;
   }
 
@@ -205,7 +416,59 @@ public class PeerMetadata {
       if ( !files.containsKey( filename ) )
       {
         files.put( filename, identifier );
+        contents.computeIfAbsent( identifier, k -> new ArrayList<>( 1 ) )
+            .add( filename );
+      }
+    }
+  }
+
+  /**
+   * 
+   * @param filename
+   * @return true if the file was stored on this peer, false otherwise
+   */
+  public boolean removeFile(String filename) {
+    synchronized ( files )
+    {
+      String identifier = files.remove( filename );
+      stored.remove( filename );
+      if ( identifier == null )
+      {
+        return false;
       }
+      contents.computeIfPresent( identifier, ( k, v ) ->
+      {
+        v.remove( filename );
+        return v.isEmpty() ? null : v;
+      } );
+      return true;
+    }
+  }
+
+  /**
+   * 
+   * @param identifier of the content
+   * @return true if a file with the content identifier is stored on
+   *         this peer, false otherwise
+   */
+  public boolean hasContent(String identifier) {
+    synchronized ( files )
+    {
+      return contents.containsKey( identifier );
+    }
+  }
+
+  /**
+   * 
+   * @param identifier of the content
+   * @return the names of the files stored on this peer with the content
+   *         identifier
+   */
+  public List<String> filenames(String identifier) {
+    synchronized ( files )
+    {
+      return new ArrayList<>(
+          contents.getOrDefault( identifier, Collections.emptyList() ) );
     }
   }
 
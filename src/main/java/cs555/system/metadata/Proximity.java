@@ -0,0 +1,84 @@
+package cs555.system.metadata;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Round trip times measured from this peer to other peers, used to
+ * prefer the nearest of the peers that share a prefix in the routing
+ * table.
+ * 
+ * <p>
+ * The time kept for a peer is the minimum of its samples, so the
+ * handshake of a new connection or a message queued ahead of the
+ * sample does not count against it. A peer that has not been measured
+ * is ranked after every peer that has.
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+public class Proximity {
+
+  /**
+   * Round trip time of a peer that has not been measured.
+   */
+  public static final long UNKNOWN = Long.MAX_VALUE;
+
+  private final Map<Long, Long> times;
+
+  /**
+   * Default constructor -
+   * 
+   */
+  public Proximity() {
+    this.times = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * 
+   * @param peer
+   * @return the round trip time in nanoseconds, or {@link #UNKNOWN} if
+   *         the peer has not been measured
+   */
+  public long get(PeerInformation peer) {
+    return times.getOrDefault( peer.getKey(), UNKNOWN );
+  }
+
+  /**
+   * 
+   * @param peer
+   * @return true if the peer has been measured, false otherwise
+   */
+  public boolean isMeasured(PeerInformation peer) {
+    return times.containsKey( peer.getKey() );
+  }
+
+  /**
+   * Record a sample of the round trip time to a peer.
+   * 
+   * @param peer
+   * @param nanos round trip time of the sample
+   * @return the round trip time kept for the peer
+   */
+  public long update(PeerInformation peer, long nanos) {
+    return times.merge( peer.getKey(), Math.max( 0, nanos ), Math::min );
+  }
+
+  /**
+   * Forget a peer, e.g., once it has left the network.
+   * 
+   * @param peer
+   */
+  public void remove(PeerInformation peer) {
+    times.remove( peer.getKey() );
+  }
+
+  /**
+   * Remove every measurement.
+   * 
+   */
+  public void clear() {
+    times.clear();
+  }
+}
@@ -0,0 +1,143 @@
+package cs555.system.metadata;
+
+import java.util.List;
+
+/**
+ * Immutable view of the routing table and leaf set of a peer, as they
+ * were at a single point in time.
+ * 
+ * <p>
+ * A new snapshot is published by {@link PeerMetadata} each time the
+ * routing table or leaf set changes, so a lookup reads one snapshot
+ * without locking and never sees the table and leaf set part way
+ * through an update.
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+public final class RoutingSnapshot {
+
+  private final PeerInformation self;
+
+  private final PeerInformation[][] table;
+
+  private final PeerInformation[][][] candidates;
+
+  private final LeafRing leaves;
+
+  /**
+   * Default constructor -
+   * 
+   * @param self
+   * @param table that is never modified once published
+   * @param candidates of each entry of the table, nearest first
+   * @param leaves
+   */
+  RoutingSnapshot(PeerInformation self, PeerInformation[][] table,
+      PeerInformation[][][] candidates, LeafRing leaves) {
+    this.self = self;
+    this.table = table;
+    this.candidates = candidates;
+    this.leaves = leaves;
+  }
+
+  /**
+   * 
+   * @return this peers information
+   */
+  public PeerInformation self() {
+    return self;
+  }
+
+  /**
+   * 
+   * @return the routing table, which must not be modified
+   */
+  public PeerInformation[][] table() {
+    return table;
+  }
+
+  /**
+   * 
+   * @param row
+   * @param col
+   * @return the peer in the routing table, or {@code null} if there is
+   *         none
+   */
+  public PeerInformation getTableIndex(int row, int col) {
+    return table[ row ][ col ];
+  }
+
+  /**
+   * 
+   * @param row
+   * @param col
+   * @return the peer in the routing table followed by its alternates,
+   *         nearest first, which must not be modified
+   */
+  public PeerInformation[] getCandidates(int row, int col) {
+    return candidates[ row ][ col ];
+  }
+
+  /**
+   * 
+   * @return the nearest clockwise leaf, or {@code null} if there is
+   *         none
+   */
+  public PeerInformation getCW() {
+    return leaves.getCW();
+  }
+
+  /**
+   * 
+   * @return the nearest counter-clockwise leaf, or {@code null} if
+   *         there is none
+   */
+  public PeerInformation getCCW() {
+    return leaves.getCCW();
+  }
+
+  /**
+   * 
+   * @return every leaf once in clockwise order, from the furthest
+   *         counter-clockwise, or from this peer if the leaves cover the
+   *         ring
+   */
+  public List<PeerInformation> getLeaves() {
+    return leaves.getLeaves();
+  }
+
+  /**
+   * 
+   * @return true if there is a leaf on either side, false otherwise
+   */
+  public boolean isPopulated() {
+    return leaves.isPopulated();
+  }
+
+  /**
+   * 
+   * @see LeafSet#getClosestLeaf(long)
+   * @param o key of the peer identifier to check if within bounds
+   * @return the leaf that is closest by identifier to {@code o},
+   *         <b>or</b> {@code null} if {@code o} falls outside the leaf
+   *         set boundaries.
+   */
+  public PeerInformation getClosestLeaf(long o) {
+    return leaves.closest( o );
+  }
+
+  /**
+   * 
+   * @see LeafSet#getReplicas(String, int)
+   * @param o key of the content identifier
+   * @param k the most peers to return, including the owner
+   * @return the {@code k} peers closest by identifier to {@code o},
+   *         owner first, or an empty list if it falls outside the leaf
+   *         set boundaries
+   */
+  public List<PeerInformation> getReplicas(long o, int k) {
+    return leaves.replicas( o, k );
+  }
+}
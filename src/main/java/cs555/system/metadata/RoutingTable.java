@@ -1,30 +1,57 @@
 package cs555.system.metadata;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import cs555.system.util.Constants;
+import cs555.system.util.IdentifierUtilities;
 import cs555.system.util.Properties;
 
 /**
  * Container for the Distributed Hash Table (DHT) and all the helper
  * methods for updating, adding and removing peers from said table.
  * 
+ * <p>
+ * The table is copy-on-write. Updates are serialized and publish a
+ * new table, so it is read without locking, and the arrays returned
+ * are never modified once published. Peers update the table through
+ * {@link PeerMetadata}, so that a new {@link RoutingSnapshot} is
+ * published with it.
+ * </p>
+ * 
+ * <p>
+ * Each entry holds up to {@link Constants#ROUTING_TABLE_ALTERNATES}
+ * alternates along with the peer that is routed to, ranked by their
+ * round trip time to this peer, so the nearest of the peers that share
+ * a prefix is used and the next nearest replaces it once removed.
+ * </p>
+ * 
  * @author stock
  *
  */
 public class RoutingTable {
 
-  private PeerInformation[][] table;
+  private volatile PeerInformation[][] table;
+
+  private volatile PeerInformation[][][] candidates;
+
+  private final Comparator<PeerInformation> nearest;
 
   /**
    * Default Constructor -
    * 
+   * @param proximity round trip times the entries are ranked by
    */
-  protected RoutingTable() {
-    this.table = new PeerInformation[ Constants.NUMBER_OF_ROWS ][ 16 ];
+  protected RoutingTable(Proximity proximity) {
+    this.nearest = Comparator.comparingLong( proximity::get );
+    this.table = new PeerInformation[ Constants.NUMBER_OF_ROWS ][
+        Constants.NUMBER_OF_COLUMNS ];
+    this.candidates = candidates( table );
   }
 
   /**
    * 
-   * @return the table
+   * @return the table, which must not be modified
    */
   public PeerInformation[][] getTable() {
     return table;
@@ -32,16 +59,39 @@ public class RoutingTable {
 
   /**
    * 
-   * @param table
+   * @param table that is no longer modified by the caller
    */
-  public void setTable(PeerInformation[][] table) {
+  public synchronized void setTable(PeerInformation[][] table) {
+    this.candidates = candidates( table );
     this.table = table;
   }
 
+  /**
+   * 
+   * @param table to rank the candidates of
+   * @return the entry of each cell as its only candidate
+   */
+  private static PeerInformation[][][] candidates(PeerInformation[][] table) {
+    PeerInformation[][][] candidates =
+        new PeerInformation[ Constants.NUMBER_OF_ROWS ][
+            Constants.NUMBER_OF_COLUMNS ][];
+    for ( int row = 0; row < Constants.NUMBER_OF_ROWS; ++row )
+    {
+      for ( int col = 0; col < Constants.NUMBER_OF_COLUMNS; ++col )
+      {
+        PeerInformation peer = table[ row ][ col ];
+        candidates[ row ][ col ] = peer == null ? new PeerInformation[ 0 ]
+            : new PeerInformation[] { peer };
+      }
+    }
+    return candidates;
+  }
+
   /**
    * 
    * @param index
-   * @return the row of the table as specified by the index
+   * @return the row of the table as specified by the index, which
+   *         must not be modified
    */
   public PeerInformation[] getTableRow(int index) {
     return table[ index ];
@@ -58,32 +108,123 @@ public class RoutingTable {
   }
 
   /**
+   * 
+   * @return the peers of every entry, nearest first, which must not be
+   *         modified
+   */
+  public PeerInformation[][][] getCandidates() {
+    return candidates;
+  }
+
+  /**
+   * 
+   * @param row
+   * @param col
+   * @return the peer routed to followed by its alternates, nearest
+   *         first, which must not be modified
+   */
+  public PeerInformation[] getCandidates(int row, int col) {
+    return candidates[ row ][ col ];
+  }
+
+  /**
+   * Add a peer to an entry, or rank it again once its round trip time
+   * has changed. The peer is routed to if it is the nearest, and is
+   * otherwise kept as an alternate if it is nearer than one of them.
    * 
    * @param peer
    * @param row
+   * @return true if the peer is in the entry, false otherwise
    */
-  public void addPeerToTable(PeerInformation peer, int row) {
-    int col = Character.digit( peer.getIdentifier().charAt( row ), 16 );
-    table[ row ][ col ] = peer;
+  public synchronized boolean addPeerToTable(PeerInformation peer,
+      int row) {
+    int col = IdentifierUtilities.digit( peer.getKey(), row );
+    List<PeerInformation> entry = new ArrayList<>();
+    entry.add( peer );
+    for ( PeerInformation other : candidates[ row ][ col ] )
+    {
+      if ( !other.equals( peer ) )
+      {
+        entry.add( other );
+      }
+    }
+    // a stable sort keeps the earlier of peers that are as near
+    entry.subList( 1, entry.size() ).sort( nearest );
+    int index = 1;
+    while ( index < entry.size()
+        && nearest.compare( entry.get( index ), peer ) <= 0 )
+    {
+      entry.set( index - 1, entry.get( index ) );
+      entry.set( index++, peer );
+    }
+    int capacity = 1 + Constants.ROUTING_TABLE_ALTERNATES;
+    while ( entry.size() > capacity )
+    {
+      entry.remove( entry.size() - 1 );
+    }
+    set( row, col, entry );
+    return entry.contains( peer );
+  }
+
+  /**
+   * Replace an entry with only the given peer, e.g., this peer in the
+   * entries that share its own prefix.
+   * 
+   * @param peer
+   * @param row
+   */
+  public synchronized void setTableIndex(PeerInformation peer, int row) {
+    set( row, IdentifierUtilities.digit( peer.getKey(), row ),
+        List.of( peer ) );
+  }
+
+  /**
+   * Remove a peer from an entry of the routing table, so that the
+   * nearest alternate is routed to in its place, or the entry is
+   * {@code null} if there is none.
+   * 
+   * @param peer
+   * @param row
+   * @return true if the entry contained the peer, false otherwise
+   */
+  public synchronized boolean removePeerFromTable(PeerInformation peer,
+      int row) {
+    int col = IdentifierUtilities.digit( peer.getKey(), row );
+    List<PeerInformation> entry =
+        new ArrayList<>( List.of( candidates[ row ][ col ] ) );
+    if ( !entry.remove( peer ) )
+    {
+      return false;
+    }
+    set( row, col, entry );
+    return true;
   }
 
   /**
-   * Remove a peer from a routing table by setting the entry to
-   * {@code null}.
+   * Publish a copy of the table with a single entry replaced.
    * 
    * @param row
    * @param col
+   * @param entry peers of the entry, nearest first
    */
-  public void removePeerFromTable(int row, int col) {
-    table[ row ][ col ] = null;
+  private void set(int row, int col, List<PeerInformation> entry) {
+    PeerInformation[][][] candidates = this.candidates.clone();
+    candidates[ row ] = candidates[ row ].clone();
+    candidates[ row ][ col ] = entry.toArray( new PeerInformation[ 0 ] );
+    PeerInformation[][] copy = table.clone();
+    copy[ row ] = copy[ row ].clone();
+    copy[ row ][ col ] = entry.isEmpty() ? null : entry.get( 0 );
+    this.candidates = candidates;
+    this.table = copy;
   }
 
   /**
    * Remove all entries in the DHT.
    * 
    */
-  public void reset() {
-    this.table = new PeerInformation[ Constants.NUMBER_OF_ROWS ][ 16 ];
+  public synchronized void reset() {
+    setTable( new PeerInformation[ Constants.NUMBER_OF_ROWS ][
+        Constants.NUMBER_OF_COLUMNS ] );
   }
 
   /**
@@ -91,8 +232,12 @@ public class RoutingTable {
    * 
    */
   public void display() {
-    String lineSeparator = new String( new char[ 113 ] ).replace( "\0", "-" );
+    int width = Constants.NUMBER_OF_ROWS;
+    String lineSeparator =
+        "-".repeat( Constants.NUMBER_OF_COLUMNS * ( width + 3 ) + 1 );
+    String format = "%" + width + "s";
     System.out.println( lineSeparator );
+    PeerInformation[][] table = this.table;
     StringBuilder sb = new StringBuilder();
     for ( int i = 0; i < Constants.NUMBER_OF_ROWS; i++ )
     {
@@ -101,16 +246,16 @@ public class RoutingTable {
       {
         if ( peer == null )
         {
-          sb.append( "----" );
+          sb.append( "-".repeat( width ) );
         } else
         {
           if ( Properties.SYSTEM_DHT_STYLE.contentEquals( "SHORT" ) )
           {
-            sb.append( String.format( "%4s",
+            sb.append( String.format( format,
                 peer.getIdentifier().substring( 0, i + 1 ) ) );
           } else
           {
-            sb.append( String.format( "%4s", peer.getIdentifier() ) );
+            sb.append( String.format( format, peer.getIdentifier() ) );
           }
         }
         sb.append( " | " );
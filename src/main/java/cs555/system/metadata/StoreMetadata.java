@@ -2,14 +2,23 @@ package cs555.system.metadata;
 
 import java.io.File;
 import java.nio.file.Path;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import cs555.system.util.Constants;
+import cs555.system.util.Properties;
 
 /**
  * Class containing metadata for the store. This is updated every time
  * an upload or read operation is performed.
  * 
+ * <p>
+ * Each item in flight is identified by its own request identifier and
+ * carries its own transfer type, so any number of uploads and reads,
+ * even of the same content, may be outstanding at the same time.
+ * </p>
+ * 
  * @author stock
  *
  */
@@ -23,9 +32,11 @@ public class StoreMetadata {
 
   private final int port;
 
-  private final Map<String, DataItem> items;
+  private final Map<Long, DataItem> items;
+
+  private final AtomicLong requests;
 
-  private boolean dataTransferType;
+  private final LookupCache cache;
 
   /**
    * Default constructor - sets the host and port for the Store, and
@@ -38,8 +49,10 @@ public class StoreMetadata {
   public StoreMetadata(String host, int port) {
     this.host = host;
     this.port = port;
-    this.items = new HashMap<>();
-    this.dataTransferType = false;
+    this.items = new ConcurrentHashMap<>();
+    this.requests = new AtomicLong();
+    this.cache = new LookupCache( Properties.LOOKUP_CACHE_SIZE,
+        Properties.LOOKUP_CACHE_TTL );
   }
 
   /**
@@ -47,40 +60,44 @@ public class StoreMetadata {
    * @param identifier
    * @param localPath
    * @param fileSystemPath
-   * @return
+   * @param type {@link #WRITE} or {@link #READ}
+   * @return the new data item, with a new request identifier
    */
-  public PeerInformation addDataItem(String identifier, Path localPath,
-      String fileSystemPath) {
+  public DataItem addDataItem(String identifier, Path localPath,
+      String fileSystemPath, boolean type) {
     PeerInformation item = new PeerInformation( identifier, host, port );
-    items.put( identifier,
-        new DataItem( item, identifier, localPath, fileSystemPath ) );
-    return item;
+    DataItem data = new DataItem( requests.incrementAndGet(), item,
+        identifier, localPath, fileSystemPath, type );
+    items.put( data.getRequest(), data );
+    return data;
   }
 
   /**
-   * Remove and return data item from items.
    * 
-   * @param identifier
-   * @return
+   * @param request identifier of the request
+   * @return the data item in flight, or {@code null} if there is none
    */
-  public DataItem getDataItem(String identifier) {
-    return items.remove( identifier );
+  public DataItem getDataItem(long request) {
+    return items.get( request );
   }
 
   /**
+   * Remove and return data item from items once it has completed.
    * 
-   * @return
+   * @param request identifier of the request
+   * @return the data item, or {@code null} if it already completed
    */
-  public boolean getDataTransferType() {
-    return dataTransferType;
+  public DataItem removeDataItem(long request) {
+    return items.remove( request );
   }
 
   /**
    * 
-   * @param type
+   * @return the peers known to own content written or read by this
+   *         Store
    */
-  public void setDataTransferType(boolean type) {
-    dataTransferType = type;
+  public LookupCache cache() {
+    return cache;
   }
 
   /**
@@ -98,19 +115,26 @@ public class StoreMetadata {
    */
   public class DataItem {
 
+    private final long request;
+
     private final PeerInformation item;
 
     private final Path localPath;
 
     private final String fileSystemPath;
 
+    private final boolean type;
+
+    private final CompletableFuture<DataItem> future;
+
     /**
      * Default constructor
      * 
      * @param identifier
      */
-    private DataItem(PeerInformation item, String identifier, Path localPath,
-        String fileSystemPath) {
+    private DataItem(long request, PeerInformation item, String identifier,
+        Path localPath, String fileSystemPath, boolean type) {
+      this.request = request;
       this.item = item;
       this.localPath = localPath;
       this.fileSystemPath =
@@ -118,6 +142,17 @@ public class StoreMetadata {
               ? fileSystemPath.substring( 1 )
               : fileSystemPath ) ).append( Constants.SEPERATOR )
                   .append( identifier ).toString();
+      this.type = type;
+      this.future = new CompletableFuture<>();
+    }
+
+    /**
+     * 
+     * @return the identifier of the request, which is carried by every
+     *         message belonging to it
+     */
+    public long getRequest() {
+      return request;
     }
 
     /**
@@ -147,6 +182,23 @@ public class StoreMetadata {
       return fileSystemPath;
     }
 
+    /**
+     * 
+     * @return {@link StoreMetadata#WRITE} or {@link StoreMetadata#READ}
+     */
+    public boolean getDataTransferType() {
+      return type;
+    }
+
+    /**
+     * 
+     * @return the future completed with this item once the transfer
+     *         has succeeded, or exceptionally if it has failed
+     */
+    public CompletableFuture<DataItem> getFuture() {
+      return future;
+    }
+
   }
 
 }
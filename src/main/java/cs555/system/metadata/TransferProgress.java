@@ -0,0 +1,81 @@
+package cs555.system.metadata;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the files a Store command has submitted and completed, to
+ * report the progress and throughput of the command while it runs.
+ * 
+ * @author stock
+ *
+ */
+public class TransferProgress {
+
+  private final long start;
+
+  private final AtomicInteger submitted;
+
+  private final AtomicInteger succeeded;
+
+  private final AtomicInteger failed;
+
+  private final AtomicLong bytes;
+
+  /**
+   * Default constructor - starts timing the command.
+   * 
+   */
+  public TransferProgress() {
+    this.start = System.nanoTime();
+    this.submitted = new AtomicInteger();
+    this.succeeded = new AtomicInteger();
+    this.failed = new AtomicInteger();
+    this.bytes = new AtomicLong();
+  }
+
+  /**
+   * A file has been submitted to the network.
+   * 
+   */
+  public void submit() {
+    submitted.incrementAndGet();
+  }
+
+  /**
+   * A file has completed.
+   * 
+   * @param success true if the file was transferred, false otherwise
+   * @param length number of bytes transferred
+   * @return the number of files that have completed
+   */
+  public int complete(boolean success, long length) {
+    bytes.addAndGet( length );
+    if ( success )
+    {
+      return succeeded.incrementAndGet() + failed.get();
+    }
+    return failed.incrementAndGet() + succeeded.get();
+  }
+
+  /**
+   * 
+   * @return the number of files that failed
+   */
+  public int getFailed() {
+    return failed.get();
+  }
+
+  @Override
+  public String toString() {
+    int s = succeeded.get(), f = failed.get();
+    long b = bytes.get();
+    double seconds =
+        Math.max( System.nanoTime() - start, 1 ) / 1_000_000_000.0;
+    return String.format(
+        "Completed %d / %d files ( %d failed ) | %.2f MB in %.2f s | "
+            + "%.1f files/s, %.2f MB/s",
+        s + f, submitted.get(), f, b / 1048576.0, seconds,
+        ( s + f ) / seconds, b / 1048576.0 / seconds );
+  }
+}
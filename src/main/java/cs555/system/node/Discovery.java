@@ -1,7 +1,8 @@
 package cs555.system.node;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Date;
@@ -9,10 +10,9 @@ import java.util.List;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import cs555.system.metadata.PeerInformation;
 import cs555.system.transport.TCPConnection;
-import cs555.system.transport.TCPServerThread;
+import cs555.system.util.ConnectionUtilities;
 import cs555.system.util.Logger;
 import cs555.system.util.Properties;
 import cs555.system.wireformats.DiscoverNodeResponse;
@@ -33,7 +33,7 @@ import cs555.system.wireformats.Protocol;
  * <li>Detect collisions</li>
  * </ul>
  * </p>
- *
+ * 
  * @author stock
  *
  */
@@ -59,21 +59,20 @@ public class Discovery implements Node {
 
   /**
    * Stands-up the discovery as an entry point to the class.
-   *
+   * 
    * @param args
    */
   public static void main(String[] argas) {
     LOG.info( "Discovery node starting up at: " + new Date() );
 
-    try ( ServerSocket serverSocket =
-        new ServerSocket( Properties.DISCOVERY_PORT ) )
+    try ( ServerSocketChannel serverChannel = ServerSocketChannel.open() )
     {
+      serverChannel.bind( new InetSocketAddress( Properties.DISCOVERY_PORT ) );
       Discovery discovery = new Discovery();
-      ExecutorService executorService = Executors.newCachedThreadPool();
+      ExecutorService executorService = ConnectionUtilities.executorService();
 
-      ( new Thread(
-          new TCPServerThread( discovery, serverSocket, executorService ),
-          "Server Thread" ) ).start();
+      ( new Thread( ConnectionUtilities.serverThread( discovery,
+          serverChannel, executorService ), "Server Thread" ) ).start();
 
       discovery.interact();
     } catch ( IOException e )
@@ -135,7 +134,7 @@ public class Discovery implements Node {
         break;
 
       case Protocol.DISCOVER_NODE_REQUEST :
-        select( connection, ( ( GenericPeerMessage ) event ).getPeer() );
+        select( connection, ( GenericPeerMessage ) event );
         break;
     }
   }
@@ -180,8 +179,7 @@ public class Discovery implements Node {
       try
       {
         connection.getTCPSender()
-            .sendData( ( new GenericMessage( Protocol.IDENTIFIER_COLLISION ) )
-                .getBytes() );
+            .sendData( new GenericMessage( Protocol.IDENTIFIER_COLLISION ) );
         LOG.debug( "MSG SEND to Peer" );
       } catch ( IOException e )
       {
@@ -190,7 +188,7 @@ public class Discovery implements Node {
       }
     } else
     {
-      select( connection, peer );
+      select( connection, request );
       registeredNodes.add( peer );
       LOG.info( ( new StringBuilder() )
           .append( "New peer has been registered with Discovery: " )
@@ -203,10 +201,10 @@ public class Discovery implements Node {
    * registered nodes.
    * 
    * @param connection
-   * @param peer
+   * @param request from the peer or Store to discover a node for
    */
   private synchronized void select(TCPConnection connection,
-      PeerInformation peer) {
+      GenericPeerMessage request) {
     DiscoverNodeResponse response;
     int numberOfNodes = registeredNodes.size();
     if ( numberOfNodes == 0 )
@@ -216,11 +214,13 @@ public class Discovery implements Node {
     {
       int index = random.nextInt( numberOfNodes );
       PeerInformation source = registeredNodes.get( index );
-      response = new DiscoverNodeResponse( source, peer );
+      response = new DiscoverNodeResponse( source, request.getPeer() );
     }
+    // the Store correlates the response with its request
+    response.setRequest( request.getRequest() );
     try
     {
-      connection.getTCPSender().sendData( response.getBytes() );
+      connection.getTCPSender().sendData( response );
     } catch ( IOException e )
     {
       LOG.error( "Unable to send response message to node. " + e.toString() );
@@ -2,30 +2,48 @@ package cs555.system.node;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Paths;
 import java.util.Date;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Stream;
+import cs555.system.metadata.ContentCache;
+import cs555.system.metadata.FileCache;
+import cs555.system.metadata.LookupCache;
 import cs555.system.metadata.PeerInformation;
 import cs555.system.metadata.PeerMetadata;
+import cs555.system.metadata.RoutingSnapshot;
 import cs555.system.transport.TCPConnection;
-import cs555.system.transport.TCPServerThread;
+import cs555.system.util.CacheUtilities;
 import cs555.system.util.ConnectionUtilities;
 import cs555.system.util.Constants;
 import cs555.system.util.FileUtilities;
 import cs555.system.util.IdentifierUtilities;
 import cs555.system.util.Logger;
+import cs555.system.util.MigrationUtilities;
 import cs555.system.util.Properties;
+import cs555.system.util.SegmentStore;
 import cs555.system.wireformats.DiscoverNodeResponse;
 import cs555.system.wireformats.DiscoverPeerRequest;
 import cs555.system.wireformats.Event;
 import cs555.system.wireformats.GenericMessage;
 import cs555.system.wireformats.GenericPeerMessage;
 import cs555.system.wireformats.JoinNetwork;
+import cs555.system.wireformats.LeafSetMessage;
 import cs555.system.wireformats.Protocol;
 
 /**
@@ -34,7 +52,7 @@ import cs555.system.wireformats.Protocol;
  * 
  * These tasks include communicating with the network and storing data
  * from a client Store application.
- *
+ * 
  * @author stock
  *
  */
@@ -50,14 +68,26 @@ public class Peer implements Node {
 
   private static final String VERIFY_LEAFSET = "verify-leafset";
 
+  private static final String DISPLAY_CACHE = "display-cache";
+
   private static final String EXIT = "exit";
 
   private static final String HELP = "help";
 
+  private static final int PING_PROBES = 2;
+
+  private static final int ROUTING_ATTEMPTS = 4;
+
   private final ConnectionUtilities connections;
 
   private final PeerMetadata metadata;
 
+  private final MigrationUtilities migrations;
+
+  private final CacheUtilities caches;
+
+  private final Map<Long, Long> reads;
+
   private ExecutorService executorService;
 
 
@@ -65,33 +95,59 @@ public class Peer implements Node {
    * Default constructor - creates a new peer tying the <b>host:port</b>
    * combination for the node as the identifier for itself.
    * 
+   * <p>
+   * The files stored by a peer that is no longer running on this host
+   * are recovered, and are migrated to their owners once the peer has
+   * joined the network.
+   * </p>
+   * 
    * @param host
    * @param port
+   * @throws IOException if the storage for the files could not be
+   *         opened
    */
-  private Peer(String host, int port) {
-    this.metadata = new PeerMetadata( host, port );
-    this.executorService = Executors.newCachedThreadPool();
+  private Peer(String host, int port) throws IOException {
+    long start = System.currentTimeMillis();
+    SegmentStore storage = SegmentStore.claim(
+        Paths.get( Properties.STORAGE_DIRECTORY, host ),
+        Properties.STORAGE_SEGMENT_SIZE, Properties.STORAGE_COMPACTION_RATIO,
+        Properties.STORAGE_SNAPSHOT_INTERVAL );
+    this.metadata = new PeerMetadata( host, port,
+        new LookupCache( Properties.LOOKUP_CACHE_SIZE,
+            Properties.LOOKUP_CACHE_TTL ),
+        new FileCache( Properties.FILE_CACHE_SIZE ), storage );
+    storage.files().forEach( metadata::addFile );
+    LOG.info( "Recovered " + storage.size() + " files from "
+        + storage.segments() + " segments in "
+        + ( System.currentTimeMillis() - start ) + " ms." );
+    this.executorService = ConnectionUtilities.executorService();
     this.connections = new ConnectionUtilities( executorService );
+    this.migrations = new MigrationUtilities( this, metadata, connections,
+        executorService );
+    this.caches = new CacheUtilities( this, metadata, connections,
+        executorService, new ContentCache( Properties.READ_CACHE_SIZE,
+            Properties.READ_CACHE_TTL ) );
+    this.reads = new ConcurrentHashMap<>();
   }
 
   /**
    * Start listening for incoming connections and establish connection
    * into the peer network.
-   *
+   * 
    * @param args
    */
   public static void main(String[] args) {
-    try ( ServerSocket serverSocket = new ServerSocket( 0 ) )
+    try ( ServerSocketChannel serverChannel = ServerSocketChannel.open() )
     {
+      serverChannel.bind( new InetSocketAddress( 0 ) );
       Peer node = new Peer( InetAddress.getLocalHost().getHostName(),
-          serverSocket.getLocalPort() );
+          serverChannel.socket().getLocalPort() );
 
       LOG.info( "Peer node starting up at: " + new Date() + ", on "
           + node.metadata.self().getConnection() );
 
-      ( new Thread(
-          new TCPServerThread( node, serverSocket, node.executorService ),
-          "Server Thread" ) ).start();
+      ( new Thread( ConnectionUtilities.serverThread( node, serverChannel,
+          node.executorService ), "Server Thread" ) ).start();
 
       node.discoverConnection( args, null );
       node.interact();
@@ -124,8 +180,9 @@ public class Peer implements Node {
     {
       try
       {
-        metadata.setIdentifier( String.format( "%04X",
-            ( 0xFFFF & Integer.parseInt( args[ 0 ], 16 ) ) ) );
+        metadata.setIdentifier(
+            IdentifierUtilities.keyToIdentifier( Constants.IDENTIFIER_MASK
+                & Long.parseUnsignedLong( args[ 0 ], 16 ) ) );
       } catch ( NumberFormatException e )
       {
         metadata.setIdentifier( IdentifierUtilities.timestampToIdentifier() );
@@ -136,7 +193,7 @@ public class Peer implements Node {
     }
     GenericPeerMessage request = new GenericPeerMessage(
         Protocol.REGISTER_REQUEST, metadata.self(), false );
-    connection.getTCPSender().sendData( request.getBytes() );
+    connection.getTCPSender().sendData( request );
   }
 
   /**
@@ -172,6 +229,10 @@ public class Peer implements Node {
           verifyApplicationLeafSet( null, null );
           break;
 
+        case DISPLAY_CACHE :
+          LOG.info( metadata.stored().toString() );
+          break;
+
         case EXIT :
           exit();
           running = false;
@@ -193,7 +254,7 @@ public class Peer implements Node {
     System.exit( 0 );
   }
 
-  private synchronized void exit() {
+  private void exit() {
     try
     {
       // 1. Exit from Discovery
@@ -201,8 +262,8 @@ public class Peer implements Node {
           .establishConnection( this, Properties.DISCOVERY_HOST,
               Properties.DISCOVERY_PORT )
           .getTCPSender()
-          .sendData( ( new GenericPeerMessage( Protocol.UNREGISTER_REQUEST,
-              metadata.self() ).getBytes() ) );
+          .sendData( new GenericPeerMessage( Protocol.UNREGISTER_REQUEST,
+              metadata.self() ) );
     } catch ( IOException e )
     {
       LOG.error( "Unable to send required requests to Discovery for exiting"
@@ -211,37 +272,43 @@ public class Peer implements Node {
     }
     if ( metadata.leaf().isPopulated() )
     {
-      // 2. Migrate data to leaf set
+      // 2. Migrate data to the nearest leaf on either side, and wait for
+      // it to be acknowledged
       PeerInformation cw = metadata.leaf().getCW();
-      metadata.leaf().setSelf( cw );
-      metadata.files().entrySet().removeIf( entry -> FileUtilities
-          .migrateData( this, metadata, executorService, entry, cw ) );
-
       PeerInformation ccw = metadata.leaf().getCCW();
-      metadata.leaf().setSelf( ccw );
-      metadata.files().entrySet().removeIf( entry -> FileUtilities
-          .migrateData( this, metadata, executorService, entry, ccw ) );
+      List<PeerInformation> leaves = metadata.leaf().getLeaves();
+      CompletableFuture<Void> clockwise = migrations.migrate( cw,
+          identifier -> !cw.equals( ccw ) && isCloser( cw, ccw, identifier ) );
+      CompletableFuture<Void> counterClockwise = migrations.migrate( ccw,
+          identifier -> cw.equals( ccw ) || !isCloser( cw, ccw, identifier ) );
       try
       {
-        // 3. Update leaf sets
+        CompletableFuture.allOf( clockwise, counterClockwise )
+            .get( Properties.MIGRATION_TIMEOUT, TimeUnit.MILLISECONDS );
+      } catch ( ExecutionException | TimeoutException e )
+      {
+        LOG.error( "Not every file was migrated before exiting. "
+            + e.toString() );
+      } catch ( InterruptedException e )
+      {
+        Thread.currentThread().interrupt();
+      }
+      try
+      {
+        // 3. Update leaf sets, each leaf replacing this peer with the
+        // nearest of the other leaves
         if ( cw.equals( ccw ) )
         {
-          ConnectionUtilities
-              .establishConnection( this, cw.getHost(), cw.getPort() )
-              .getTCPSender().sendData(
-                  ( new GenericMessage( Protocol.RESET_PEER ) ).getBytes() );
+          connections.send( this, cw,
+              new GenericMessage( Protocol.RESET_PEER ) );
         } else
         {
-          ConnectionUtilities
-              .establishConnection( this, cw.getHost(), cw.getPort() )
-              .getTCPSender().sendData(
-                  ( new GenericPeerMessage( Protocol.FORWARD_LEAF_IDENTIFIER,
-                      ccw, Constants.COUNTER_CLOCKWISE ) ).getBytes() );
-          ConnectionUtilities
-              .establishConnection( this, ccw.getHost(), ccw.getPort() )
-              .getTCPSender().sendData(
-                  ( new GenericPeerMessage( Protocol.FORWARD_LEAF_IDENTIFIER,
-                      cw, Constants.CLOCKWISE ) ).getBytes() );
+          LeafSetMessage message = new LeafSetMessage(
+              Protocol.REMOVE_LEAF_IDENTIFIER, metadata.self(), leaves );
+          for ( PeerInformation leaf : leaves )
+          {
+            connections.send( this, leaf, message );
+          }
         }
         // 4. Update routing tables... or have other peers catch exception
         // when finding closest peers
@@ -253,10 +320,36 @@ public class Peer implements Node {
       }
     } else
     {
-      LOG.error( "There are no peers in the network. All files are lost." );
+      LOG.error( "There are no peers in the network. The files are kept "
+          + "until a peer on this host recovers them." );
+    }
+    connections.closeCachedConnections();
+    try
+    {
+      // 5. Snapshot the index of the files that were not migrated
+      metadata.storage().close();
+    } catch ( IOException e )
+    {
+      LOG.error( "Unable to close the storage. " + e.toString() );
     }
   }
 
+  /**
+   * 
+   * @param cw
+   * @param ccw
+   * @param identifier of a file
+   * @return true if the file is no further from the clockwise leaf
+   *         than the counter-clockwise leaf, false otherwise
+   */
+  private static boolean isCloser(PeerInformation cw, PeerInformation ccw,
+      String identifier) {
+    long key = IdentifierUtilities.identifierToKey( identifier );
+    return Long.compareUnsigned(
+        IdentifierUtilities.distance( cw.getKey(), key ),
+        IdentifierUtilities.distance( ccw.getKey(), key ) ) <= 0;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -300,22 +393,70 @@ public class Peer implements Node {
         lookup( event, connection );
         break;
 
+      case Protocol.DISCOVER_PEER_RESPONSE :
+        cacheOwner( event );
+        break;
+
       case Protocol.STORE_DATA_REQUEST :
-        FileUtilities.write( metadata, event, connection );
+        written( FileUtilities.write( metadata, event, connection ) );
+        break;
+
+      case Protocol.STORE_DATA_BATCH_RESPONSE :
+        migrations.acknowledge( event );
+        break;
+
+      case Protocol.STORE_DATA_BATCH_REQUEST :
+        written( FileUtilities.writeBatch( metadata, event, connection ) );
         break;
 
       case Protocol.READ_DATA_REQUEST :
-        FileUtilities.read( metadata, event, connection );
+        if ( !caches.read( event, connection ) )
+        {
+          FileUtilities.read( metadata, event, connection );
+        }
+        break;
+
+      case Protocol.CACHE_DATA :
+        caches.cached( event );
+        break;
+
+      case Protocol.CACHE_INVALIDATE :
+        caches.invalidated( event );
+        break;
+
+      case Protocol.DATA_CHUNK_BEGIN :
+      case Protocol.DATA_CHUNK :
+      case Protocol.DATA_CHUNK_END :
+        written( FileUtilities.receive( metadata, event, connection ) );
         break;
 
       case Protocol.VERIFY_APPLICAITON_LEAVES :
-        connection.close();
         verifyApplicationLeafSet( ( DiscoverPeerRequest ) event, connection );
         break;
 
       case Protocol.RESET_PEER :
         reset( connection );
         break;
+
+      case Protocol.REMOVE_LEAF_IDENTIFIER :
+        removeLeaf( ( LeafSetMessage ) event );
+        break;
+
+      case Protocol.LEAF_SET_REQUEST :
+        leafSetRequest( ( LeafSetMessage ) event );
+        break;
+
+      case Protocol.LEAF_SET_RESPONSE :
+        leafSetResponse( ( LeafSetMessage ) event );
+        break;
+
+      case Protocol.PING_REQUEST :
+        pong( ( GenericPeerMessage ) event, connection );
+        break;
+
+      case Protocol.PING_RESPONSE :
+        measured( ( GenericPeerMessage ) event );
+        break;
     }
   }
 
@@ -324,25 +465,259 @@ public class Peer implements Node {
    * 
    * @param connection
    */
-  private synchronized void reset(TCPConnection connection) {
-    connection.close();
-    metadata.table().reset();
-    metadata.addSelfToTable();
-    metadata.leaf().reset();
+  private void reset(TCPConnection connection) {
+    metadata.resetRouting();
     LOG.info( "Initial Routing Table: " );
     metadata.table().display();
     LOG.info( metadata.leaf().toString() );
   }
 
+  /**
+   * Replace a leaf that is leaving the network with the nearest of its
+   * leaves.
+   * 
+   * @param message from the peer leaving the network
+   */
+  private void removeLeaf(LeafSetMessage message) {
+    PeerInformation peer = message.getPeer();
+    metadata.removeLeaf( peer );
+    metadata.removePeerFromTable( peer );
+    addLeaves( message.getLeaves(), true );
+    migrations.forget( peer );
+    leavesChanged();
+  }
+
+  /**
+   * Remove the leaves another peer found to have failed, then respond
+   * with this leaf set so the other peer can replace them.
+   * 
+   * @param request
+   */
+  private void leafSetRequest(LeafSetMessage request) {
+    for ( PeerInformation failed : request.getLeaves() )
+    {
+      removeFailedPeer( failed );
+    }
+    addLeaves( List.of( request.getPeer() ) );
+    try
+    {
+      connections.send( this, request.getPeer(),
+          new LeafSetMessage( Protocol.LEAF_SET_RESPONSE, metadata.self(),
+              metadata.leaf().getLeaves() ) );
+    } catch ( IOException e )
+    {
+      LOG.error( "Unable to send the leaf set to peer ( "
+          + request.getPeer().toString() + " ). " + e.toString() );
+    }
+  }
+
+  /**
+   * Replace failed leaves with the leaf set of a neighboring peer.
+   * 
+   * @param response
+   */
+  private void leafSetResponse(LeafSetMessage response) {
+    List<PeerInformation> peers = new ArrayList<>( response.getLeaves() );
+    peers.add( response.getPeer() );
+    if ( addLeaves( peers, true ) )
+    {
+      leavesChanged();
+    }
+  }
+
+  /**
+   * Replicate files that were just written to this peer, and invalidate
+   * the copies of their previous versions cached on other peers.
+   * 
+   * @param filenames written
+   */
+  private void written(List<String> filenames) {
+    migrations.replicate( filenames );
+    caches.invalidate( filenames );
+  }
+
+  /**
+   * Ownership of the content around this peer has moved once the leaf
+   * set changed, so the owners looked up and the reads directed to each
+   * replica are forgotten, and the files on this peer are replicated to
+   * the peers now closest to them.
+   * 
+   */
+  private void leavesChanged() {
+    metadata.cache().clear();
+    reads.clear();
+    LOG.info( metadata.leaf().toString() );
+    migrations.replicate();
+  }
+
+  /**
+   * Measure the round trip time to a peer that has not been measured,
+   * so the nearest of the peers sharing a prefix is routed to. Each
+   * probe carries the time it was sent, which is echoed back.
+   * 
+   * @param peer
+   */
+  private void ping(PeerInformation peer) {
+    if ( peer.equals( metadata.self() )
+        || metadata.proximity().isMeasured( peer ) )
+    {
+      return;
+    }
+    try
+    {
+      for ( int i = 0; i < PING_PROBES; ++i )
+      {
+        GenericPeerMessage request =
+            new GenericPeerMessage( Protocol.PING_REQUEST, metadata.self() );
+        request.setRequest( System.nanoTime() );
+        connections.send( this, peer, request );
+      }
+    } catch ( IOException e )
+    {
+      removeFailedPeer( peer );
+    }
+  }
+
+  /**
+   * Echo a probe back to the peer measuring its round trip time.
+   * 
+   * @param request
+   * @param connection the probe was received on
+   */
+  private void pong(GenericPeerMessage request, TCPConnection connection) {
+    GenericPeerMessage response =
+        new GenericPeerMessage( Protocol.PING_RESPONSE, metadata.self() );
+    response.setRequest( request.getRequest() );
+    try
+    {
+      connection.getTCPSender().sendData( response );
+    } catch ( IOException e )
+    {
+      LOG.debug( "Unable to respond to probe. " + e.toString() );
+    }
+  }
+
+  /**
+   * Record the round trip time of an echoed probe, which may replace a
+   * further peer in the routing table.
+   * 
+   * @param response
+   */
+  private void measured(GenericPeerMessage response) {
+    PeerInformation peer = response.getPeer();
+    long nanos = System.nanoTime() - response.getRequest();
+    if ( metadata.measured( peer, nanos ) )
+    {
+      LOG.info( "Routing to nearer peer ( " + peer.toString() + " ) at "
+          + TimeUnit.NANOSECONDS.toMicros( nanos ) + " us." );
+      metadata.table().display();
+    }
+  }
+
+  /**
+   * Add peers to the leaf set, and to the routing table.
+   * 
+   * @param peers
+   * @return true if the leaf set changed, false otherwise
+   */
+  private boolean addLeaves(List<PeerInformation> peers) {
+    return addLeaves( peers, false );
+  }
+
+  /**
+   * Add peers to the leaf set, and to the routing table.
+   * 
+   * @param peers
+   * @param repair true if the peers are the leaf set of a neighbor that
+   *        replaces the leaves that were removed
+   * @return true if the leaf set changed, false otherwise
+   */
+  private boolean addLeaves(List<PeerInformation> peers, boolean repair) {
+    for ( PeerInformation peer : peers )
+    {
+      if ( !peer.equals( metadata.self() ) )
+      {
+        metadata.addPeerToTable( peer );
+      }
+    }
+    boolean changed = repair ? metadata.repairLeaves( peers )
+        : metadata.addLeaves( peers );
+    peers.forEach( this::ping );
+    return changed;
+  }
+
+  /**
+   * Remove a peer that can not be reached from the routing table and leaf
+   * set. If it was a leaf, the nearest leaf on either side is asked for
+   * its leaf set to replace it, or the nearest peer of the routing table
+   * on a side left without any leaves.
+   * 
+   * @param peer that can not be reached
+   */
+  private void removeFailedPeer(PeerInformation peer) {
+    if ( peer == null || peer.equals( metadata.self() ) )
+    {
+      return;
+    }
+    if ( metadata.removePeerFromTable( peer ) )
+    {
+      LOG.info( ( new StringBuilder( "The peer ( " ).append( peer.toString() )
+          .append( " ) was removed from the routing table." ).toString() ) );
+      metadata.table().display();
+    }
+    if ( !metadata.removeLeaf( peer ) )
+    {
+      return;
+    }
+    // the copies the peer held are replaced from the remaining replicas
+    migrations.forget( peer );
+    leavesChanged();
+    LeafSetMessage request = new LeafSetMessage( Protocol.LEAF_SET_REQUEST,
+        metadata.self(), List.of( peer ) );
+    Set<PeerInformation> neighbors = new HashSet<>();
+    PeerInformation cw = metadata.leaf().getCW();
+    PeerInformation ccw = metadata.leaf().getCCW();
+    neighbors.add( cw == null ? nearest( true ) : cw );
+    neighbors.add( ccw == null ? nearest( false ) : ccw );
+    neighbors.remove( null );
+    for ( PeerInformation neighbor : neighbors )
+    {
+      try
+      {
+        connections.send( this, neighbor, request );
+      } catch ( IOException e )
+      {
+        removeFailedPeer( neighbor );
+      }
+    }
+  }
+
+  /**
+   * 
+   * @param clockwise true to search clockwise, false otherwise
+   * @return the peer of the routing table nearest to this peer in the
+   *         direction, or {@code null} if there is none
+   */
+  private PeerInformation nearest(boolean clockwise) {
+    long self = metadata.self().getKey();
+    return Stream.of( metadata.routing().table() ).flatMap( Stream::of )
+        .filter( Objects::nonNull )
+        .filter( peer -> !peer.equals( metadata.self() ) )
+        .min( Comparator.comparing( peer -> clockwise
+            ? IdentifierUtilities.clockwise( self, peer.getKey() )
+            : IdentifierUtilities.clockwise( peer.getKey(), self ),
+            Long::compareUnsigned ) )
+        .orElse( null );
+  }
+
   /**
    * Process the response message from the peer regarding the status of
-   * the migrations operation.
+   * the migrations operation, deleting the file once it was written.
    * 
    * @param event
    * @param connection
    */
   private void migrationResponse(Event event, TCPConnection connection) {
-    connection.close();
     GenericPeerMessage response = ( GenericPeerMessage ) event;
 
     StringBuilder sb =
@@ -354,6 +729,7 @@ public class Peer implements Node {
     }
     sb.append( "successful!" );
     LOG.info( sb.toString() );
+    migrations.acknowledge( event );
   }
 
   /**
@@ -366,7 +742,9 @@ public class Peer implements Node {
    */
   private void verifyApplicationLeafSet(DiscoverPeerRequest request,
       TCPConnection connection) {
-    if ( metadata.leaf().isPopulated() )
+    RoutingSnapshot routing = metadata.routing();
+    PeerInformation cw = routing.getCW();
+    if ( routing.isPopulated() )
     {
       try
       {
@@ -375,17 +753,11 @@ public class Peer implements Node {
           DiscoverPeerRequest data = new DiscoverPeerRequest(
               Protocol.VERIFY_APPLICAITON_LEAVES, metadata.self() );
           data.addNetworkTraceRoute( metadata.self().getIdentifier() );
-          ConnectionUtilities
-              .establishConnection( this, metadata.leaf().getCW().getHost(),
-                  metadata.leaf().getCW().getPort() )
-              .getTCPSender().sendData( ( data.getBytes() ) );
+          connections.send( this, cw, data );
         } else if ( !request.getDestination().equals( metadata.self() ) )
         {
           request.addNetworkTraceRoute( metadata.self().getIdentifier() );
-          ConnectionUtilities
-              .establishConnection( this, metadata.leaf().getCW().getHost(),
-                  metadata.leaf().getCW().getPort() )
-              .getTCPSender().sendData( request.getBytes() );
+          connections.send( this, cw, request );
         } else
         {
           request.addNetworkTraceRoute( metadata.self().getIdentifier() );
@@ -419,78 +791,275 @@ public class Peer implements Node {
    * <p>
    * This operation is done by checking if the request identifier falls
    * within the leaf set, otherwise the lookup is done within the DHT.
+   * The peer a request enters the network through first checks its
+   * cache of owners, and is told of the owner once the lookup is
+   * resolved.
+   * </p>
+   * 
+   * <p>
+   * A read is served by the first peer it is routed through that holds
+   * a copy of the content, on disk or in its cache, and the peer it
+   * entered through is sent a copy to cache. Otherwise the owner
+   * directs it to one of the replicas, which serves it, or routes it
+   * back to the owner if its copy has not arrived yet.
    * </p>
    * 
    * @param event
    * @param connection
    */
   private void lookup(Event event, TCPConnection connection) {
-    connection.close();
     DiscoverPeerRequest request = ( DiscoverPeerRequest ) event;
+    boolean revisit = request.getNetworkTraceIdentifiers()
+        .contains( metadata.self().getIdentifier() );
     request.addNetworkTraceRoute( metadata.self().getIdentifier() );
-    String next = "";
-    PeerInformation closest = metadata.leaf()
-        .getClosestLeaf( request.getDestination().getIdentifier() );
-    try
+    boolean entry = request.getSource() == null;
+    if ( entry )
     {
-      // 1. check if within bounds of leafset
-      if ( closest != null )
+      request.setSource( metadata.self() );
+      request.setCache( request.isRead() && caches.isEnabled() );
+    }
+    // a hop that can not be reached is removed before the next attempt
+    for ( int attempt = 0; attempt < ROUTING_ATTEMPTS; ++attempt )
+    {
+      String next = "";
+      RoutingSnapshot routing = metadata.routing();
+      PeerInformation closest =
+          routing.getClosestLeaf( request.getDestination().getKey() );
+      PeerInformation hop = closest;
+      try
       {
-        if ( closest.equals( metadata.self() ) )
+        // 0. serve a read from the copy on this peer, or its cache
+        String identifier = request.getDestination().getIdentifier();
+        boolean stored = metadata.hasContent( identifier );
+        if ( request.isRead() && !metadata.self().equals( closest )
+            && ( stored || caches.contains( identifier ) ) )
+        {
+          if ( respond( request ) )
+          {
+            LOG.info( "Served a read of " + identifier
+                + " from the copy on this peer." );
+            if ( stored )
+            {
+              caches.push( request );
+            }
+          }
+          return;
+        }
+        // 1. check if within bounds of leafset
+        if ( closest != null )
         {
-          connection = ConnectionUtilities.establishConnection( this,
-              request.getDestination().getHost(),
-              request.getDestination().getPort() );
-          connection.submitTo( executorService );
-          next = request.getDestination().getIdentifier();
+          PeerInformation replica = request.isRead() && !revisit
+              && closest.equals( metadata.self() )
+                  ? replica( routing, request ) : metadata.self();
+          if ( !replica.equals( metadata.self() ) )
+          {
+            hop = replica;
+            connections.send( this, replica, request );
+            next = replica.getIdentifier();
+          } else if ( closest.equals( metadata.self() ) )
+          {
+            notifySource( request );
+            if ( !respond( request ) )
+            {
+              return;
+            }
+            if ( request.isRead() )
+            {
+              caches.push( request );
+            }
+            next = request.getDestination().getIdentifier();
+          } else
+          {
+            connections.send( this, closest, request );
+            next = closest.getIdentifier();
+          }
         } else
         {
-          connection = ConnectionUtilities.establishConnection( this,
-              closest.getHost(), closest.getPort() );
-          next = closest.getIdentifier();
+          // 2. check the owners recently looked up, then the DHT and
+          // leaves
+          hop = entry ? metadata.cache()
+              .get( request.getDestination().getKey() ) : null;
+          if ( hop == null || hop.equals( metadata.self() ) )
+          {
+            hop = IdentifierUtilities.nextHop( routing,
+                request.getDestination() );
+          }
+          next = forward( routing, request.getDestination(), hop, request )
+              .getIdentifier();
         }
-      } else
+        LOG.info( request.toString() + next );
+        return;
+      } catch ( IOException e )
       {
-        // 2. check in DHT and leaves
-        closest =
-            IdentifierUtilities.closest( metadata, request.getDestination() );
-        connection = ConnectionUtilities.establishConnection( this,
-            closest.getHost(), closest.getPort() );
-        next = closest.getIdentifier();
+        if ( hop == null || hop.equals( metadata.self() ) )
+        {
+          LOG.error( "Unable to route the lookup of "
+              + request.getDestination().getIdentifier() + ". "
+              + e.toString() );
+          return;
+        }
+        metadata.cache().remove( hop );
+        removeFailedPeer( hop );
       }
-      connection.getTCPSender().sendData( request.getBytes() );
-      LOG.info( request.toString() + next );
+    }
+    LOG.error( "Unable to route the lookup of "
+        + request.getDestination().getIdentifier() + " after "
+        + ROUTING_ATTEMPTS + " attempts." );
+  }
+
+  /**
+   * Send a resolved request back to the Store, which transfers the
+   * content over the same connection. The connection to the Store is
+   * pooled for its next request.
+   * 
+   * @param request resolved at this peer
+   * @return true if the Store was reached, false otherwise
+   */
+  private boolean respond(DiscoverPeerRequest request) {
+    try
+    {
+      connections.send( this, request.getDestination(), request );
+      return true;
     } catch ( IOException e )
     {
-      if ( metadata.removePeerFromTable( closest ) )
+      LOG.error( "Unable to reach the Store at "
+          + request.getDestination().getConnection() + ". " + e.toString() );
+      return false;
+    }
+  }
+
+  /**
+   * Choose the replica that serves a read routed to this peer as the
+   * owner of the content. The replica directed the fewest reads since
+   * the leaf set last changed is chosen, and the nearest of those, so
+   * reads are spread over every copy. A replica the read was already
+   * routed through does not hold a copy yet, and is skipped.
+   * 
+   * @param routing the owner was found with
+   * @param request to read the content
+   * @return the replica to serve the read, which may be this peer
+   */
+  private PeerInformation replica(RoutingSnapshot routing,
+      DiscoverPeerRequest request) {
+    PeerInformation self = metadata.self();
+    PeerInformation replica = null;
+    long fewest = 0, nearest = 0;
+    for ( PeerInformation peer : routing.getReplicas(
+        request.getDestination().getKey(), Constants.REPLICATION_FACTOR ) )
+    {
+      if ( !peer.equals( self ) && request.getNetworkTraceIdentifiers()
+          .contains( peer.getIdentifier() ) )
       {
-        LOG.info( ( new StringBuilder( "The peer ( " )
-            .append( closest.toString() )
-            .append( " ) was removed from the routing table." ).toString() ) );
-        metadata.table().display();
+        continue;
+      }
+      long count = reads.getOrDefault( peer.getKey(), 0L );
+      long rtt = peer.equals( self ) ? 0 : metadata.proximity().get( peer );
+      if ( replica == null || count < fewest
+          || ( count == fewest && rtt < nearest ) )
+      {
+        replica = peer;
+        fewest = count;
+        nearest = rtt;
       }
-      lookup( event, connection );
-      return;
     }
+    if ( replica == null )
+    {
+      return self;
+    }
+    reads.merge( replica.getKey(), 1L, Long::sum );
+    return replica;
   }
 
   /**
-   * Update the leaf set from a peer who recently joined the network.
+   * Send a message to the next hop towards a destination. If the hop
+   * can not be reached, the message is sent to the nearest alternate of
+   * the routing table entry the hop was taken from instead, which is as
+   * close to the destination.
    * 
+   * @param routing the hop was found with
+   * @param destination of the message
+   * @param hop
    * @param event
+   * @return the peer the message was sent to
+   * @throws IOException if neither the hop nor an alternate could be
+   *         reached
    */
-  private synchronized void updateLeafSet(Event event) {
-    GenericPeerMessage request = ( GenericPeerMessage ) event;
-    metadata.leaf().setLeaf( request.getPeer(), request.getFlag() );
-    if ( metadata.leaf().isPopulated() )
+  private PeerInformation forward(RoutingSnapshot routing,
+      PeerInformation destination, PeerInformation hop, Event event)
+      throws IOException {
+    try
     {
-      LOG.info( metadata.leaf().toString() );
-      synchronized ( metadata.files() )
+      connections.send( this, hop, event );
+      return hop;
+    } catch ( IOException e )
+    {
+      for ( PeerInformation alternate : IdentifierUtilities
+          .alternates( routing, destination, hop ) )
       {
-        metadata.files().entrySet()
-            .removeIf( entry -> FileUtilities.migrateData( this, metadata,
-                executorService, entry, request.getPeer() ) );
+        try
+        {
+          connections.send( this, alternate, event );
+          LOG.info( "Failed over from peer ( " + hop.toString()
+              + " ) to alternate ( " + alternate.toString() + " )." );
+          removeFailedPeer( hop );
+          return alternate;
+        } catch ( IOException alternateException )
+        {
+          removeFailedPeer( alternate );
+        }
       }
+      throw e;
+    }
+  }
+
+  /**
+   * Tell the peer a resolved lookup entered the network through that
+   * this peer owns the content, so the next lookup for it is sent here
+   * directly.
+   * 
+   * @param request resolved at this peer
+   */
+  private void notifySource(DiscoverPeerRequest request) {
+    PeerInformation source = request.getSource();
+    if ( request.getType() == Protocol.DISCOVER_PEER_REQUEST
+        && !source.equals( metadata.self() ) )
+    {
+      try
+      {
+        connections.send( this, source,
+            new GenericPeerMessage( Protocol.DISCOVER_PEER_RESPONSE,
+                metadata.self(), request.getDestination().getIdentifier(),
+                Constants.SUCCESS ) );
+      } catch ( IOException e )
+      {
+        LOG.debug( "Unable to send owner to source peer. " + e.toString() );
+      }
+    }
+  }
+
+  /**
+   * Remember the owner of a content identifier that was looked up
+   * through this peer.
+   * 
+   * @param event
+   */
+  private void cacheOwner(Event event) {
+    GenericPeerMessage response = ( GenericPeerMessage ) event;
+    metadata.cache().put(
+        IdentifierUtilities.identifierToKey( response.getMessage() ),
+        response.getPeer() );
+  }
+
+  /**
+   * Update the leaf set from a peer who recently joined the network.
+   * 
+   * @param event
+   */
+  private void updateLeafSet(Event event) {
+    GenericPeerMessage request = ( GenericPeerMessage ) event;
+    if ( metadata.addLeaf( request.getPeer() ) )
+    {
+      leavesChanged();
     }
     updateRoutingTable( event );
   }
@@ -501,13 +1070,14 @@ public class Peer implements Node {
    * 
    * @param event
    */
-  private synchronized void updateRoutingTable(Event event) {
+  private void updateRoutingTable(Event event) {
     PeerInformation peer = ( ( GenericPeerMessage ) event ).getPeer();
     if ( !metadata.addPeerToTable( peer ) )
     {
       LOG.info( "Updating Routing Table with " + peer.getIdentifier() );
       metadata.table().display();
     }
+    ping( peer );
   }
 
   /**
@@ -520,9 +1090,8 @@ public class Peer implements Node {
    * @param event
    * @param connection to original request
    */
-  private synchronized void join(Event event, TCPConnection connection) {
+  private void join(Event event, TCPConnection connection) {
     JoinNetwork request = ( JoinNetwork ) event;
-    connection.close();
     if ( metadata.self().equals( request.getDestination() ) )
     {
       initializeDHT( request );
@@ -531,19 +1100,14 @@ public class Peer implements Node {
     {
       try
       {
-        metadata.getLock().lock();
-        while ( !metadata.isInitialized() )
-        {
-          metadata.getCondition().await();
-        }
-        constructDHT( request );
+        metadata.awaitInitialized();
       } catch ( InterruptedException e )
       {
         e.printStackTrace();
-      } finally
-      {
-        metadata.getLock().unlock();
+        Thread.currentThread().interrupt();
+        return;
       }
+      constructDHT( request );
     }
   }
 
@@ -552,29 +1116,41 @@ public class Peer implements Node {
    * 
    * @param request
    */
-  private synchronized void constructDHT(JoinNetwork request) {
+  private void constructDHT(JoinNetwork request) {
 
     int modifiedLcp = IdentifierUtilities.longestCommonPrefixLength(
         metadata.self().getIdentifier(),
         request.getDestination().getIdentifier() ) + 1;
     int row = request.getRow();
+    RoutingSnapshot routing = metadata.routing();
 
     if ( modifiedLcp > row )
     {
       for ( int i = 0; i < modifiedLcp - row; ++i )
       {
-        request.setTableRow( metadata.table().getTableRow( request.getRow() ) );
+        request.setTableRow( routing.table()[ request.getRow() ] );
+        for ( int col = 0; col < Constants.NUMBER_OF_COLUMNS; ++col )
+        {
+          PeerInformation[] candidates =
+              routing.getCandidates( request.getRow(), col );
+          if ( candidates.length > 1 )
+          {
+            request.addAlternates(
+                List.of( candidates ).subList( 1, candidates.length ) );
+          }
+        }
         request.incrementRow();
       }
     }
     request.addNetworkTraceRoute( metadata.self().getIdentifier() );
 
-    String next = "";
-    PeerInformation closest = metadata.leaf()
-        .getClosestLeaf( request.getDestination().getIdentifier() );
-    try
+    // a hop that can not be reached is removed before the next attempt
+    for ( int attempt = 0; attempt < ROUTING_ATTEMPTS; ++attempt )
     {
-      TCPConnection connection;
+      routing = metadata.routing();
+      PeerInformation closest =
+          routing.getClosestLeaf( request.getDestination().getKey() );
+      PeerInformation peer;
 
       // 1. check if within bounds of leafset
       if ( closest != null )
@@ -582,97 +1158,76 @@ public class Peer implements Node {
         if ( closest.equals( metadata.self() ) )
         {
           LOG.debug( "Found closest node and responding to destination." ); // B.
-          if ( !metadata.leaf().isPopulated() )
-          {
-            request.setCW( metadata.self() );
-            request.setCCW( metadata.self() );
-          } else
-          {
-            if ( metadata.leaf()
-                .isBetweenClockwise( request.getDestination() ) )
-            {
-              request.setCW( metadata.leaf().getCW() );
-              request.setCCW( metadata.self() );
-            } else
-            {
-              request.setCW( metadata.self() );
-              request.setCCW( metadata.leaf().getCCW() );
-            }
-          }
-          connection = ConnectionUtilities.establishConnection( this,
-              request.getDestination().getHost(),
-              request.getDestination().getPort() );
-          next = request.getDestination().getIdentifier();
+          // the joining peer selects its leaves from this leaf set
+          List<PeerInformation> leaves =
+              new ArrayList<>( routing.getLeaves() );
+          leaves.add( metadata.self() );
+          request.setLeaves( leaves );
+          peer = request.getDestination();
         } else
         {
-          connection = ConnectionUtilities.establishConnection( this,
-              closest.getHost(), closest.getPort() );
-          next = closest.getIdentifier();
+          peer = closest;
         }
       } else
       {
         // 2. check in DHT and leaves
-        closest =
-            IdentifierUtilities.closest( metadata, request.getDestination() );
-        connection = ConnectionUtilities.establishConnection( this,
-            closest.getHost(), closest.getPort() );
-        next = closest.getIdentifier();
+        peer = IdentifierUtilities.nextHop( routing, request.getDestination() );
       }
-      connection.getTCPSender().sendData( request.getBytes() );
-      LOG.info( request.toString() + next );
-    } catch ( IOException e )
-    {
-      if ( metadata.removePeerFromTable( closest ) )
+      try
+      {
+        String next = forward( routing, request.getDestination(), peer,
+            request ).getIdentifier();
+        LOG.info( request.toString() + next );
+        return;
+      } catch ( IOException e )
       {
-        LOG.info( ( new StringBuilder( "The peer ( " )
-            .append( closest.toString() )
-            .append( " ) was removed from the routing table." ).toString() ) );
-        metadata.table().display();
+        if ( peer.equals( request.getDestination() )
+            || peer.equals( metadata.self() ) )
+        {
+          LOG.error( "Unable to reach the joining peer ( "
+              + request.getDestination().toString() + " ). " + e.toString() );
+          return;
+        }
+        removeFailedPeer( peer );
       }
-      constructDHT( request );
-      return;
     }
+    LOG.error( "Unable to route the join of peer ( "
+        + request.getDestination().toString() + " ) after " + ROUTING_ATTEMPTS
+        + " attempts." );
   }
 
   /**
-   * The leaf set is constructed using the row containing the greatest
-   * common prefix with the peer joining the network.
+   * The leaf set is constructed from the leaf set of the peer that is
+   * numerically closest to the peer joining the network.
    * 
-   * A peer will have two leaves, one on either side of it, following
-   * the form:
+   * A peer will have up to half of {@link Constants#LEAF_SET_SIZE}
+   * leaves on either side of it, following the form:
    * 
    * <p>
    * <tt>{ counter-clockwise <- this -> clockwise }</tt>
    * </p>
    * 
+   * Each of the leaves is told of this peer, so it can be added to their
+   * leaf sets.
+   * 
    * @param joinRequest
    * 
    */
   private void constructLeafSet(JoinNetwork joinRequest) {
-    PeerInformation cw = joinRequest.getCW(), ccw = joinRequest.getCCW();
-    try
-    {
-      GenericPeerMessage request = new GenericPeerMessage(
-          Protocol.FORWARD_LEAF_IDENTIFIER, metadata.self() );
-
-      TCPConnection connection = connections.cacheConnection( this, cw, false );
-      metadata.leaf().setLeaf( cw, Constants.CLOCKWISE );
-      metadata.addPeerToTable( cw );
-      request.setFlag( Constants.COUNTER_CLOCKWISE );
-      LOG.debug( "Sending Data to: " + cw.toString() );
-      connection.getTCPSender().sendData( request.getBytes() );
-
-      connection = connections.cacheConnection( this, ccw, false );
-      metadata.leaf().setLeaf( ccw, Constants.COUNTER_CLOCKWISE );
-      metadata.addPeerToTable( ccw );
-      request.setFlag( Constants.CLOCKWISE );
-      LOG.debug( "Sending Data to: " + ccw.toString() );
-      connection.getTCPSender().sendData( request.getBytes() );
-
-    } catch ( IOException e )
+    GenericPeerMessage request = new GenericPeerMessage(
+        Protocol.FORWARD_LEAF_IDENTIFIER, metadata.self() );
+    for ( PeerInformation leaf : metadata.leaf().getLeaves() )
     {
-      LOG.error( "Unable to send leaf set request to peers. " + e.toString() );
-      e.printStackTrace();
+      try
+      {
+        LOG.debug( "Sending Data to: " + leaf.toString() );
+        connections.send( this, leaf, request );
+      } catch ( IOException e )
+      {
+        LOG.error( "Unable to send leaf set request to peer ( "
+            + leaf.toString() + " ). " + e.toString() );
+        removeFailedPeer( leaf );
+      }
     }
     LOG.info( metadata.leaf().toString() );
   }
@@ -685,9 +1240,11 @@ public class Peer implements Node {
    * 
    * @param request
    */
-  private synchronized void initializeDHT(JoinNetwork request) {
+  private void initializeDHT(JoinNetwork request) {
     LOG.debug( "Initializing Peer" );
-    metadata.table().setTable( request.getTable() );
+    metadata.setTable( request.getTable() );
+    request.getAlternates().forEach( metadata::addPeerToTable );
+    addLeaves( request.getLeaves() );
 
     StringBuilder sb = new StringBuilder( "Network Route Trace:" );
     for ( String s : request.getNetworkTraceIdentifiers() )
@@ -696,33 +1253,21 @@ public class Peer implements Node {
     }
     LOG.info( sb.toString() );
 
-    byte[] data;
-    try
-    {
-      data = new GenericPeerMessage( Protocol.FORWARD_PEER_IDENTIFIER,
-          metadata.self() ).getBytes();
-    } catch ( IOException e )
-    {
-      LOG.error(
-          "Unable to send create output stream for message. " + e.toString() );
-      e.printStackTrace();
-      return;
-    }
+    GenericPeerMessage data = new GenericPeerMessage(
+        Protocol.FORWARD_PEER_IDENTIFIER, metadata.self() );
     Set<PeerInformation> processed = new HashSet<>();
     processed.add( metadata.self() );
-    processed.add( request.getCW() );
-    processed.add( request.getCCW() );
-    Stream.of( metadata.table().getTable() ).flatMap( Stream::of )
-        .forEach( peer ->
+    processed.addAll( metadata.leaf().getLeaves() );
+    Stream.of( metadata.table().getCandidates() ).flatMap( Stream::of )
+        .flatMap( Stream::of ).forEach( peer ->
         {
           if ( peer != null && !processed.contains( peer ) )
           {
             LOG.debug( "Sending Data to: " + peer.toString() );
             try
             {
-              TCPConnection connection =
-                  connections.cacheConnection( this, peer, false );
-              connection.getTCPSender().sendData( data );
+              connections.send( this, peer, data );
+              ping( peer );
             } catch ( NumberFormatException | IOException e )
             {
               metadata.removePeerFromTable( peer );
@@ -731,7 +1276,6 @@ public class Peer implements Node {
           }
         } );
     constructLeafSet( request );
-    connections.closeCachedConnections();
 
     metadata.addSelfToTable();
     LOG.info( "Initial Routing Table: " );
@@ -764,10 +1308,8 @@ public class Peer implements Node {
           "Connecting to the DHT through source node: " + source.toString() );
       try
       {
-        TCPConnection sourceConnection = ConnectionUtilities
-            .establishConnection( this, source.getHost(), source.getPort() );
-        sourceConnection.getTCPSender()
-            .sendData( ( new JoinNetwork( metadata.self() ) ).getBytes() );
+        connections.send( this, source,
+            new JoinNetwork( metadata.self() ) );
       } catch ( IOException e )
       {
         LOG.error( "Unable to send message to source node. " + e.toString() );
@@ -798,6 +1340,10 @@ public class Peer implements Node {
         .append( "\t: route a request in the clockwise and " )
         .append( "clounter-clockwise directions for correctness.\n" );
 
+    sb.append( "\n\t" ).append( DISPLAY_CACHE )
+        .append( "\t: display the files held in memory, with the hits, " )
+        .append( "misses and evictions of the cache.\n" );
+
     sb.append( "\n\t" ).append( EXIT )
         .append( "\t\t: gracefully leave the network and distribute stored " )
         .append( "files.\n" );
@@ -2,41 +2,32 @@ package cs555.system.node;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.ServerSocket;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Date;
 import java.util.Scanner;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import cs555.system.metadata.PeerInformation;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 import cs555.system.metadata.StoreMetadata;
 import cs555.system.metadata.StoreMetadata.DataItem;
-import cs555.system.transport.TCPConnection;
-import cs555.system.transport.TCPServerThread;
-import cs555.system.util.ConnectionUtilities;
-import cs555.system.util.Constants;
-import cs555.system.util.IdentifierUtilities;
+import cs555.system.metadata.TransferProgress;
 import cs555.system.util.Logger;
 import cs555.system.util.Properties;
-import cs555.system.wireformats.DataTransfer;
-import cs555.system.wireformats.DiscoverNodeResponse;
-import cs555.system.wireformats.DiscoverPeerRequest;
-import cs555.system.wireformats.Event;
-import cs555.system.wireformats.GenericMessage;
-import cs555.system.wireformats.GenericPeerMessage;
-import cs555.system.wireformats.Protocol;
 
 /**
  * Client Store application responsible for delivering or reading data
- * into the peer-to-peer network.
+ * into the peer-to-peer network from the command line.
+ * 
+ * <p>
+ * Requests are made through a {@link StoreClient}, and commands keep up
+ * to {@link Properties#STORE_WINDOW} files in flight at once.
+ * </p>
  * 
  * @author stock
  *
  */
-public class Store implements Node {
+public class Store {
 
   private static final Logger LOG = Logger.getInstance();
 
@@ -50,43 +41,35 @@ public class Store implements Node {
 
   private static final String HELP = "help";
 
-  private final StoreMetadata metadata;
+  private final StoreClient client;
 
-  private final ExecutorService executorService;
+  private final Semaphore window;
 
-  private final Object lock;
+  private volatile TransferProgress progress;
 
   /**
-   * Default constructor - creates a new peer tying the <b>host:port</b>
-   * combination for the node as the identifier for itself.
+   * Default constructor - creates a new command line for the client.
    * 
-   * @param host
-   * @param port
+   * @param client
    */
-  private Store(String host, int port) {
-    this.metadata = new StoreMetadata( host, port );
-    this.executorService = Executors.newCachedThreadPool();
-    this.lock = new Object();
+  private Store(StoreClient client) {
+    this.client = client;
+    this.window = new Semaphore( Properties.STORE_WINDOW );
+    this.progress = new TransferProgress();
   }
 
   /**
    * Start listening for incoming connections and establish connection
    * into the peer network.
-   *
+   * 
    * @param args
    * @throws InterruptedException
    */
   public static void main(String[] args) throws InterruptedException {
     LOG.info( "Store node starting up at: " + new Date() );
-    try ( ServerSocket serverSocket = new ServerSocket( 0 ) )
+    try ( StoreClient client = StoreClient.open() )
     {
-      Store node = new Store( InetAddress.getLocalHost().getHostName(),
-          serverSocket.getLocalPort() );
-
-      ( new Thread(
-          new TCPServerThread( node, serverSocket, node.executorService ),
-          "Server Thread" ) ).start();
-
+      Store node = new Store( client );
       if ( args.length == 0 )
       {
         node.interact();
@@ -179,8 +162,6 @@ public class Store implements Node {
           + "get /greta.jpeg data/" );
       return;
     }
-    metadata.setDataTransferType( StoreMetadata.READ );
-
     // start with '/'
     String fileSystemPath = input[ 1 ].startsWith( File.separator ) ? input[ 1 ]
         : File.separator + input[ 1 ];
@@ -193,8 +174,9 @@ public class Store implements Node {
     Path localPath = Paths.get( lp + fileSystemPath.substring(
         fileSystemPath.lastIndexOf( File.separator ) + 1,
         fileSystemPath.length() ) );
-    discover( localPath, fileSystemPath );
-    this.await();
+    progress = new TransferProgress();
+    submit( localPath, fileSystemPath, StoreMetadata.READ );
+    drain();
   }
 
   /**
@@ -222,7 +204,7 @@ public class Store implements Node {
           + "upload data/greta.jpeg /" );
       return;
     }
-    metadata.setDataTransferType( StoreMetadata.WRITE );
+    progress = new TransferProgress();
     Path inputPath = Paths.get( input[ 1 ] );
 
     if ( Files.isDirectory( inputPath ) )
@@ -242,6 +224,7 @@ public class Store implements Node {
     {
       addFile( Paths.get( input[ 1 ] ), input );
     }
+    drain();
   }
 
   /**
@@ -257,236 +240,72 @@ public class Store implements Node {
       String fileSystemPath = input[ 2 ].endsWith( File.separator ) ? input[ 2 ]
           : input[ 2 ] + File.separator;
       fileSystemPath += path.getFileName().toString();
-      discover( path, fileSystemPath );
-      this.await();
+      submit( path, fileSystemPath, StoreMetadata.WRITE );
     }
   }
 
   /**
-   * Wait for response back from server before proceeding.
+   * Wait for room in the window of files in flight, then begin the
+   * transfer of the next file.
    * 
+   * @param localPath
+   * @param fileSystemPath
+   * @param type {@link StoreMetadata#WRITE} or {@link StoreMetadata#READ}
    */
-  public void await() {
-    synchronized ( lock )
-    {
-      try
-      {
-        lock.wait();
-      } catch ( InterruptedException e )
-      {
-        LOG.error( "Unable to wait before sending next file in directory. "
-            + e.toString() );
-        e.printStackTrace();
-      }
-    }
-  }
-
-  /**
-   * Initialize the transfer between the Store and the network for both
-   * the the read and writing transfer types.
-   * 
-   * @param localPath for where the file is / will be stored on the
-   *        local file system
-   * @param fileSystemPath for where the file is to be stored / read
-   *        from in the network file system
-   * 
-   */
-  private void discover(Path localPath, String fileSystemPath) {
-    String identifier =
-        IdentifierUtilities.CRC16CCITT( fileSystemPath.getBytes() );
-    LOG.info( "Data Has Identifier: " + identifier + ", based off the name "
-        + fileSystemPath );
-    PeerInformation item =
-        metadata.addDataItem( identifier, localPath, fileSystemPath );
+  private void submit(Path localPath, String fileSystemPath, boolean type) {
     try
     {
-      TCPConnection connection = ConnectionUtilities.establishConnection( this,
-          Properties.DISCOVERY_HOST, Properties.DISCOVERY_PORT );
-      connection.submitTo( executorService );
-      connection.getTCPSender().sendData(
-          ( new GenericPeerMessage( Protocol.DISCOVER_NODE_REQUEST, item ) )
-              .getBytes() );
-    } catch ( IOException e )
+      window.acquire();
+    } catch ( InterruptedException e )
     {
-      LOG.error(
-          "Unable to send message to Discovery. Exiting. " + e.toString() );
-      System.exit( 1 );
-    }
-  }
-
-  /**
-   * {@inheritDoc}
-   */
-  @Override
-  public void onEvent(Event event, TCPConnection connection) {
-    LOG.debug( event.toString() );
-    switch ( event.getType() )
-    {
-      case Protocol.DISCOVER_NODE_RESPONSE :
-        connection.close(); // close connection with Discovery
-        dicoverNodeHandler( event );
-        break;
-
-      case Protocol.DISCOVER_PEER_REQUEST :
-        transferData( event, connection );
-        break;
-
-      case Protocol.STORE_DATA_RESPONSE :
-        writeResponse( event, connection );
-        break;
-
-      case Protocol.READ_DATA_RESPONSE :
-        readResponse( event, connection );
-        break;
+      LOG.error( "Unable to wait before sending next file in directory. "
+          + e.toString() );
+      Thread.currentThread().interrupt();
+      return;
     }
-  }
-
-  /**
-   * Process the response message from the peer containing the requested
-   * file.
-   * 
-   * @param event
-   * @param connection
-   */
-  private void readResponse(Event event, TCPConnection connection) {
-    connection.close();
-    DataTransfer response = ( DataTransfer ) event;
-    // peer information ? fs path ? content id ? local path
-    String[] message = response.getDescriptor().split( Constants.SEPERATOR );
-    byte[] data = response.getData();
-    StringBuilder sb =
-        ( new StringBuilder() ).append( "The read request from peer ( " )
-            .append( message[ 0 ] ).append( ") for " ).append( message[ 1 ] )
-            .append( " " ).append( message[ 2 ] ).append( " was " );
-    if ( data == null )
-    {
-      sb.append( "NOT successful!" );
-      LOG.error( sb.toString() );
-    } else
+    progress.submit();
+    CompletableFuture<DataItem> future = type == StoreMetadata.WRITE
+        ? client.put( localPath, fileSystemPath )
+        : client.get( fileSystemPath, localPath );
+    future.whenComplete( ( data, e ) ->
     {
-      sb.append( "successful!" );
-      LOG.info( sb.toString() );
-      String fs = message[ 3 ];
-      try
-      {
-        Files.createDirectories( Paths.get( message[ 3 ] ).getParent() );
-        Files.write( Paths.get( message[ 3 ] ), data );
-        LOG.info( "Finished writing " + fs + " to disk." );
-      } catch ( IOException e )
+      long length = 0;
+      if ( e == null )
       {
-        LOG.error( "Unable to save " + fs + " to disk. " + e.toString() );
-        e.printStackTrace();
+        try
+        {
+          length = Files.size( localPath );
+        } catch ( IOException ex )
+        {
+          LOG.debug(
+              "Unable to size " + localPath.toString() + ". " + ex.toString() );
+        }
       }
-    }
-    synchronized ( lock )
-    {
-      lock.notify();
-    }
-  }
-
-  /**
-   * Process the response message from the peer regarding the status of
-   * the writing operation.
-   * 
-   * @param event
-   * @param connection
-   */
-  private void writeResponse(Event event, TCPConnection connection) {
-    connection.close();
-    GenericPeerMessage response = ( GenericPeerMessage ) event;
-    // fs path ? content id ? local path
-    String[] message = response.getMessage().split( Constants.SEPERATOR );
-    StringBuilder sb =
-        ( new StringBuilder() ).append( "The write request to peer ( " )
-            .append( response.getPeer().toString() ).append( ") for " )
-            .append( message[ 0 ] ).append( " | " ).append( message[ 1 ] )
-            .append( " was " );
-    if ( response.getFlag() == Constants.FAILURE )
-    {
-      sb.append( "NOT successful!" );
-      LOG.error( sb.toString() );
-    } else
-    {
-      sb.append( "successful!" );
-      LOG.info( sb.toString() );
-    }
-    synchronized ( lock )
-    {
-      lock.notify();
-    }
-  }
-
-  /**
-   * Deliver the file to the destination once a peer has responded to
-   * this Store containing details of where to deliver the data.
-   * 
-   * @param event
-   * @param connection to the peer that will hold the data
-   */
-  private void transferData(Event event, TCPConnection connection) {
-    DiscoverPeerRequest request = ( DiscoverPeerRequest ) event;
-
-    StringBuilder sb = new StringBuilder( "Network Route Trace:" );
-    for ( String s : request.getNetworkTraceIdentifiers() )
-    {
-      sb.append( " -> " ).append( s );
-    }
-    LOG.info( sb.toString() );
-    try
-    {
-      DataItem data =
-          metadata.getDataItem( request.getDestination().getIdentifier() );
-      if ( metadata.getDataTransferType() == StoreMetadata.WRITE )
+      int completed = progress.complete( e == null, length );
+      if ( completed % Properties.STORE_PROGRESS_INTERVAL == 0 )
       {
-        byte[] content = Files.readAllBytes( data.getLocalPath() );
-        connection.getTCPSender()
-            .sendData( ( new DataTransfer( Protocol.STORE_DATA_REQUEST, content,
-                data.getFileSystemPath() ) ).getBytes() );
-      } else
-      {
-        // fs path ? content id ? local path
-        String message = data.getFileSystemPath() + Constants.SEPERATOR
-            + data.getLocalPath().toAbsolutePath().toString();
-        connection.getTCPSender().sendData(
-            ( new GenericMessage( Protocol.READ_DATA_REQUEST, message ) )
-                .getBytes() );
+        LOG.info( progress.toString() );
       }
-    } catch ( IOException e )
-    {
-      LOG.error( "Unable to upload file " + e.toString() );
-      connection.close();
-    }
+      window.release();
+    } );
   }
 
   /**
-   * The Discovery will return a peer to connect to in the network for
-   * which a peer discovery message will be propagated to find a peer
-   * with the closest destination to the {@code metadata.item()}.
-   *
-   * @param event message from Discovery
+   * Wait for every file in flight to complete, and report the
+   * throughput of the command.
+   * 
    */
-  private void dicoverNodeHandler(Event event) {
-    DiscoverNodeResponse response = ( DiscoverNodeResponse ) event;
-    PeerInformation source = response.getSourceInformation();
-    if ( response.isInitialPeerConnection() )
-    {
-      LOG.error( "There are no peers in the network. Unable to upload files." );
-      return;
-    }
-    LOG.info(
-        "Connecting to the network through source node: " + source.toString() );
+  private void drain() {
     try
     {
-      ConnectionUtilities
-          .establishConnection( this, source.getHost(), source.getPort() )
-          .getTCPSender()
-          .sendData( ( new DiscoverPeerRequest( Protocol.DISCOVER_PEER_REQUEST,
-              response.getOriginalInformation() ) ).getBytes() );
-    } catch ( IOException e )
+      window.acquire( Properties.STORE_WINDOW );
+      window.release( Properties.STORE_WINDOW );
+    } catch ( InterruptedException e )
     {
-      LOG.error( "Unable to send message to the source node. " + e.toString() );
-      e.printStackTrace();
+      LOG.error( "Unable to wait for the files in flight. " + e.toString() );
+      Thread.currentThread().interrupt();
     }
+    LOG.info( progress.toString() );
   }
 
   /**
@@ -0,0 +1,797 @@
+package cs555.system.node;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import cs555.system.metadata.PeerInformation;
+import cs555.system.metadata.StoreMetadata;
+import cs555.system.metadata.StoreMetadata.DataItem;
+import cs555.system.transport.TCPConnection;
+import cs555.system.util.ConnectionUtilities;
+import cs555.system.util.Constants;
+import cs555.system.util.IdentifierUtilities;
+import cs555.system.util.Logger;
+import cs555.system.util.Properties;
+import cs555.system.util.TransferUtilities;
+import cs555.system.util.TransferUtilities.Transfer;
+import cs555.system.wireformats.DataBatch;
+import cs555.system.wireformats.DataChunk;
+import cs555.system.wireformats.DataTransfer;
+import cs555.system.wireformats.DiscoverNodeResponse;
+import cs555.system.wireformats.DiscoverPeerRequest;
+import cs555.system.wireformats.Event;
+import cs555.system.wireformats.GenericMessage;
+import cs555.system.wireformats.GenericPeerMessage;
+import cs555.system.wireformats.Protocol;
+
+/**
+ * Client for delivering or reading data into the peer-to-peer network
+ * that can be embedded in another application, and is used by the
+ * {@link Store} command line.
+ * 
+ * <p>
+ * Each request is given an identifier that is carried by every message
+ * belonging to it, so any number of requests may be in flight. The
+ * {@link #put(Path, String)} and {@link #get(String, Path)} methods
+ * return a future for the request.
+ * </p>
+ * 
+ * <p>
+ * Discovery is only asked for a peer to enter the network through
+ * until {@link Properties#STORE_ENTRY_PEERS} peers are known, and
+ * connections to peers are pooled, so a request is usually sent
+ * straight to a known owner or entry peer on an open connection. A
+ * request that is not complete after
+ * {@link Properties#STORE_REQUEST_TIMEOUT} milliseconds fails.
+ * </p>
+ * 
+ * <p>
+ * Files small enough to be sent as a single chunk are held back until
+ * the owner of every request in flight is known, and are then sent to
+ * each owner as one {@code STORE_DATA_BATCH_REQUEST} of up to
+ * {@link Properties#STORE_BATCH_SIZE} bytes. A batch is sent after
+ * {@link Properties#STORE_BATCH_DELAY} milliseconds regardless, so a
+ * lookup that is never answered does not hold back the others.
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+public class StoreClient implements Node, AutoCloseable {
+
+  private static final Logger LOG = Logger.getInstance();
+
+  private final StoreMetadata metadata;
+
+  private final ServerSocketChannel serverChannel;
+
+  private final ExecutorService executorService;
+
+  private final ScheduledExecutorService scheduler;
+
+  private final ConnectionUtilities connections;
+
+  private final List<PeerInformation> entries;
+
+  private final Set<Long> routing;
+
+  private final Map<TCPConnection, Batch> batches;
+
+  /**
+   * Default constructor - creates a new client tying the
+   * <b>host:port</b> combination of the server channel as the address
+   * peers respond to.
+   * 
+   * @param host
+   * @param serverChannel bound channel to accept responses on
+   */
+  private StoreClient(String host, ServerSocketChannel serverChannel) {
+    this.metadata =
+        new StoreMetadata( host, serverChannel.socket().getLocalPort() );
+    this.serverChannel = serverChannel;
+    this.executorService = ConnectionUtilities.executorService();
+    ScheduledThreadPoolExecutor scheduler =
+        new ScheduledThreadPoolExecutor( 1, r ->
+        {
+          Thread thread = new Thread( r, "Store Timer" );
+          thread.setDaemon( true );
+          return thread;
+        } );
+    scheduler.setRemoveOnCancelPolicy( true );
+    this.scheduler = scheduler;
+    this.connections = new ConnectionUtilities( executorService );
+    this.entries = new CopyOnWriteArrayList<>();
+    this.routing = ConcurrentHashMap.newKeySet();
+    this.batches = new HashMap<>();
+  }
+
+  /**
+   * Start listening for responses from the network.
+   * 
+   * @return a new client, which should be closed once no longer used
+   * @throws IOException if unable to listen for responses
+   */
+  public static StoreClient open() throws IOException {
+    ServerSocketChannel serverChannel = ServerSocketChannel.open();
+    try
+    {
+      serverChannel.bind( new InetSocketAddress( 0 ) );
+      StoreClient client = new StoreClient(
+          InetAddress.getLocalHost().getHostName(), serverChannel );
+      ( new Thread( ConnectionUtilities.serverThread( client, serverChannel,
+          client.executorService ), "Server Thread" ) ).start();
+      return client;
+    } catch ( IOException e )
+    {
+      serverChannel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Stop listening for responses and close every pooled connection.
+   * Requests still in flight will not complete.
+   * 
+   */
+  @Override
+  public void close() {
+    connections.closeCachedConnections();
+    try
+    {
+      serverChannel.close();
+    } catch ( IOException e )
+    {
+      LOG.debug( "Unable to close the server channel. " + e.toString() );
+    }
+    scheduler.shutdownNow();
+    executorService.shutdown();
+  }
+
+  /**
+   * Upload a file into the peer-to-peer network without waiting for
+   * it to be written.
+   * 
+   * @param localPath of the file to upload
+   * @param fileSystemPath of where the file is stored in the network
+   *        file system, e.g., '/greta.jpeg'
+   * @return a future completed with the item once a peer has written
+   *         the file, or exceptionally if it was not written
+   */
+  public CompletableFuture<DataItem> put(Path localPath,
+      String fileSystemPath) {
+    return discover( localPath, fileSystemPath, StoreMetadata.WRITE );
+  }
+
+  /**
+   * Read a file from the peer-to-peer network without waiting for it
+   * to be read.
+   * 
+   * @param fileSystemPath of where the file is stored in the network
+   *        file system, e.g., '/greta.jpeg'
+   * @param localPath of where the file is saved
+   * @return a future completed with the item once the file has been
+   *         saved, or exceptionally if it was not read
+   */
+  public CompletableFuture<DataItem> get(String fileSystemPath,
+      Path localPath) {
+    return discover( localPath, fileSystemPath, StoreMetadata.READ );
+  }
+
+  /**
+   * Complete the request in flight, completing its future.
+   * 
+   * @param request identifier of the request
+   * @param success true if the file was transferred, false otherwise
+   */
+  private void complete(long request, boolean success) {
+    if ( routing.remove( request ) )
+    {
+      flushBatches();
+    }
+    DataItem data = metadata.removeDataItem( request );
+    if ( data == null )
+    {
+      return;
+    }
+    if ( success )
+    {
+      data.getFuture().complete( data );
+    } else
+    {
+      data.getFuture().completeExceptionally( new IOException(
+          "The request for " + data.item().getIdentifier() + " failed." ) );
+    }
+  }
+
+  /**
+   * Initialize the transfer between the Store and the network for both
+   * the the read and writing transfer types.
+   * 
+   * <p>
+   * The request is sent to the owner of the content if it is known,
+   * otherwise to a known entry peer, and only otherwise is Discovery
+   * asked for a peer to enter the network through.
+   * </p>
+   * 
+   * @param localPath for where the file is / will be stored on the
+   *        local file system
+   * @param fileSystemPath for where the file is to be stored / read
+   *        from in the network file system
+   * @param type {@link StoreMetadata#WRITE} or {@link StoreMetadata#READ}
+   * @return the future of the new request
+   * 
+   */
+  private CompletableFuture<DataItem> discover(Path localPath,
+      String fileSystemPath, boolean type) {
+    String identifier =
+        IdentifierUtilities.contentToIdentifier( fileSystemPath.getBytes() );
+    LOG.info( "Data Has Identifier: " + identifier + ", based off the name "
+        + fileSystemPath );
+    DataItem data =
+        metadata.addDataItem( identifier, localPath, fileSystemPath, type );
+    PeerInformation item = data.item();
+    routing.add( data.getRequest() );
+    expire( data );
+    PeerInformation owner = metadata.cache().get( item.getKey() );
+    if ( owner != null )
+    {
+      try
+      {
+        LOG.info(
+            "Connecting directly to the known owner: " + owner.toString() );
+        request( owner, data );
+        return data.getFuture();
+      } catch ( IOException e )
+      {
+        LOG.info( "Unable to reach the known owner. " + e.toString() );
+        metadata.cache().remove( owner );
+      }
+    }
+    for ( PeerInformation entry = entry(); entry != null; entry = entry() )
+    {
+      try
+      {
+        request( entry, data );
+        return data.getFuture();
+      } catch ( IOException e )
+      {
+        LOG.info( "Unable to reach the entry peer " + entry.toString()
+            + ". " + e.toString() );
+        entries.remove( entry );
+      }
+    }
+    try
+    {
+      TCPConnection connection = ConnectionUtilities.establishConnection( this,
+          Properties.DISCOVERY_HOST, Properties.DISCOVERY_PORT );
+      connection.submitTo( executorService );
+      GenericPeerMessage request =
+          new GenericPeerMessage( Protocol.DISCOVER_NODE_REQUEST, item );
+      request.setRequest( data.getRequest() );
+      connection.getTCPSender().sendData( request );
+    } catch ( IOException e )
+    {
+      LOG.error( "Unable to send message to Discovery. " + e.toString() );
+      complete( data.getRequest(), Constants.FAILURE );
+    }
+    return data.getFuture();
+  }
+
+  /**
+   * Fail the request if it is not complete in time, such as when the
+   * lookup is lost in the network or the peer never responds.
+   * 
+   * @param data the request in flight
+   */
+  private void expire(DataItem data) {
+    if ( Properties.STORE_REQUEST_TIMEOUT == 0 )
+    {
+      return;
+    }
+    long request = data.getRequest();
+    ScheduledFuture<?> timeout = scheduler.schedule( () ->
+    {
+      if ( metadata.getDataItem( request ) != null )
+      {
+        LOG.error( "The request for " + data.item().getIdentifier()
+            + " timed out." );
+        complete( request, Constants.FAILURE );
+      }
+    }, Properties.STORE_REQUEST_TIMEOUT, TimeUnit.MILLISECONDS );
+    data.getFuture().whenComplete( ( item, e ) -> timeout.cancel( false ) );
+  }
+
+  /**
+   * 
+   * @return a random known entry peer, or {@code null} if none are
+   *         known
+   */
+  private PeerInformation entry() {
+    Object[] known = entries.toArray();
+    if ( known.length == 0 )
+    {
+      return null;
+    }
+    return ( PeerInformation ) known[ ThreadLocalRandom.current()
+        .nextInt( known.length ) ];
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void onEvent(Event event, TCPConnection connection) {
+    LOG.debug( event.toString() );
+    switch ( event.getType() )
+    {
+      case Protocol.DISCOVER_NODE_RESPONSE :
+        connection.close(); // close connection with Discovery
+        dicoverNodeHandler( event );
+        break;
+
+      case Protocol.DISCOVER_PEER_REQUEST :
+        transferData( event, connection );
+        break;
+
+      case Protocol.STORE_DATA_RESPONSE :
+        writeResponse( event );
+        break;
+
+      case Protocol.STORE_DATA_BATCH_RESPONSE :
+        writeBatchResponse( event );
+        break;
+
+      case Protocol.READ_DATA_RESPONSE :
+        readResponse( event );
+        break;
+
+      case Protocol.DATA_CHUNK_BEGIN :
+      case Protocol.DATA_CHUNK :
+      case Protocol.DATA_CHUNK_END :
+        readChunk( event );
+        break;
+    }
+  }
+
+  /**
+   * Process a chunk of the requested file as it is streamed from the
+   * peer, saving it to the local path once the transfer has ended.
+   * 
+   * @param event
+   */
+  private void readChunk(Event event) {
+    DataChunk chunk = ( DataChunk ) event;
+    switch ( chunk.getType() )
+    {
+      case Protocol.DATA_CHUNK_BEGIN :
+        // peer information ? fs path ? content id ? local path
+        String[] message = chunk.getDescriptor().split( Constants.SEPERATOR );
+        TransferUtilities.begin( chunk, Paths.get( message[ 3 ] ) );
+        break;
+
+      case Protocol.DATA_CHUNK :
+        TransferUtilities.append( chunk );
+        break;
+
+      case Protocol.DATA_CHUNK_END :
+        Transfer transfer = TransferUtilities.end( chunk );
+        if ( transfer != null )
+        {
+          logReadResponse(
+              transfer.getDescriptor().split( Constants.SEPERATOR ),
+              transfer.isSuccess() );
+          if ( transfer.isSuccess() )
+          {
+            LOG.info( "Finished writing " + transfer.getPath().toString()
+                + " to disk." );
+          }
+          complete( transfer.getRequest(), transfer.isSuccess() );
+        }
+        break;
+    }
+  }
+
+  /**
+   * Log the status of a read request.
+   * 
+   * @param message peer information ? fs path ? content id ? local path
+   * @param success true if the file was read from the peer
+   */
+  private void logReadResponse(String[] message, boolean success) {
+    StringBuilder sb =
+        ( new StringBuilder() ).append( "The read request from peer ( " )
+            .append( message[ 0 ] ).append( ") for " ).append( message[ 1 ] )
+            .append( " " ).append( message[ 2 ] ).append( " was " );
+    if ( success )
+    {
+      sb.append( "successful!" );
+      LOG.info( sb.toString() );
+    } else
+    {
+      sb.append( "NOT successful!" );
+      LOG.error( sb.toString() );
+    }
+  }
+
+  /**
+   * Process the response message from the peer containing the requested
+   * file.
+   * 
+   * @param event
+   */
+  private void readResponse(Event event) {
+    DataTransfer response = ( DataTransfer ) event;
+    // peer information ? fs path ? content id ? local path
+    String[] message = response.getDescriptor().split( Constants.SEPERATOR );
+    byte[] data = response.getData();
+    boolean success = data != null;
+    logReadResponse( message, success );
+    if ( data != null )
+    {
+      String fs = message[ 3 ];
+      try
+      {
+        Files.createDirectories( Paths.get( message[ 3 ] ).getParent() );
+        Files.write( Paths.get( message[ 3 ] ), data );
+        LOG.info( "Finished writing " + fs + " to disk." );
+      } catch ( IOException e )
+      {
+        LOG.error( "Unable to save " + fs + " to disk. " + e.toString() );
+        e.printStackTrace();
+        success = Constants.FAILURE;
+      }
+    }
+    complete( response.getRequest(), success );
+  }
+
+  /**
+   * Process the response message from the peer regarding the status of
+   * the writing operation.
+   * 
+   * @param event
+   */
+  private void writeResponse(Event event) {
+    GenericPeerMessage response = ( GenericPeerMessage ) event;
+    written( response.getPeer(), response.getMessage(), response.getRequest(),
+        response.getFlag() );
+  }
+
+  /**
+   * Process the response message from the peer regarding the status of
+   * writing each file of a batch.
+   * 
+   * @param event
+   */
+  private void writeBatchResponse(Event event) {
+    DataBatch response = ( DataBatch ) event;
+    for ( DataBatch.Entry entry : response.getEntries() )
+    {
+      written( response.getPeer(), entry.getDescriptor(), entry.getRequest(),
+          entry.getFlag() );
+    }
+  }
+
+  /**
+   * Complete a write request once the peer has responded.
+   * 
+   * @param peer that was sent the file
+   * @param descriptor fs path ? content id
+   * @param request identifier of the request
+   * @param success true if the peer wrote the file, false otherwise
+   */
+  private void written(PeerInformation peer, String descriptor, long request,
+      boolean success) {
+    String[] message = descriptor.split( Constants.SEPERATOR );
+    StringBuilder sb =
+        ( new StringBuilder() ).append( "The write request to peer ( " )
+            .append( peer.toString() ).append( ") for " )
+            .append( message[ 0 ] ).append( " | " ).append( message[ 1 ] )
+            .append( " was " );
+    if ( success == Constants.FAILURE )
+    {
+      sb.append( "NOT successful!" );
+      LOG.error( sb.toString() );
+    } else
+    {
+      sb.append( "successful!" );
+      LOG.info( sb.toString() );
+      metadata.cache().put( IdentifierUtilities.identifierToKey( message[ 1 ] ),
+          peer );
+    }
+    complete( request, success );
+  }
+
+  /**
+   * Deliver the file to the destination once a peer has responded to
+   * this Store containing details of where to deliver the data.
+   * 
+   * <p>
+   * The connection is kept open by the peer, so it is not closed once
+   * the transfer is complete.
+   * </p>
+   * 
+   * @param event
+   * @param connection to the peer that will hold the data
+   */
+  private void transferData(Event event, TCPConnection connection) {
+    DiscoverPeerRequest request = ( DiscoverPeerRequest ) event;
+
+    StringBuilder sb = new StringBuilder( "Network Route Trace:" );
+    for ( String s : request.getNetworkTraceIdentifiers() )
+    {
+      sb.append( " -> " ).append( s );
+    }
+    LOG.info( sb.toString() );
+    DataItem data = metadata.getDataItem( request.getRequest() );
+    routing.remove( request.getRequest() );
+    if ( data == null )
+    {
+      LOG.error( "There is no request in flight for "
+          + request.getDestination().getIdentifier() );
+      flushBatches();
+      return;
+    }
+    try
+    {
+      if ( data.getDataTransferType() == StoreMetadata.WRITE )
+      {
+        if ( !batch( data, connection ) )
+        {
+          TransferUtilities.send( connection.getTCPSender(),
+              Protocol.STORE_DATA_REQUEST, data.getFileSystemPath(),
+              data.getLocalPath(), data.getRequest() );
+        }
+      } else
+      {
+        // fs path ? content id ? local path
+        String message = data.getFileSystemPath() + Constants.SEPERATOR
+            + data.getLocalPath().toAbsolutePath().toString();
+        GenericMessage read =
+            new GenericMessage( Protocol.READ_DATA_REQUEST, message );
+        read.setRequest( data.getRequest() );
+        connection.getTCPSender().sendData( read );
+      }
+    } catch ( IOException e )
+    {
+      LOG.error( "Unable to upload file " + e.toString() );
+      connection.close();
+      complete( data.getRequest(), Constants.FAILURE );
+    }
+    flushBatches();
+  }
+
+  /**
+   * Hold back a small file to be sent with the others owned by the same
+   * peer, sending the batch at once if it is full.
+   * 
+   * @param data to write
+   * @param connection to the peer that will hold the data
+   * @return true if the file was added to a batch, false if it should
+   *         be streamed on its own
+   */
+  private boolean batch(DataItem data, TCPConnection connection) {
+    if ( Properties.STORE_BATCH_SIZE == 0 )
+    {
+      return false;
+    }
+    long size;
+    try
+    {
+      size = Files.size( data.getLocalPath() );
+    } catch ( IOException e )
+    {
+      return false;
+    }
+    if ( size > Properties.TRANSFER_CHUNK_SIZE )
+    {
+      return false;
+    }
+    Batch full = null;
+    Batch started = null;
+    synchronized ( batches )
+    {
+      Batch batch = batches.get( connection );
+      if ( batch == null )
+      {
+        batch = new Batch();
+        batches.put( connection, batch );
+        started = batch;
+      }
+      batch.items.add( data );
+      batch.bytes += size;
+      if ( batch.bytes >= Properties.STORE_BATCH_SIZE )
+      {
+        full = batches.remove( connection );
+      }
+    }
+    if ( full != null )
+    {
+      sendBatch( connection, full );
+    } else if ( started != null )
+    {
+      Batch batch = started;
+      scheduler.schedule( () -> flushBatch( connection, batch ),
+          Properties.STORE_BATCH_DELAY, TimeUnit.MILLISECONDS );
+    }
+    return true;
+  }
+
+  /**
+   * Send a batch that has been held back for too long, unless it has
+   * already been sent.
+   * 
+   * @param connection to the peer that will hold the data
+   * @param batch held back for the peer
+   */
+  private void flushBatch(TCPConnection connection, Batch batch) {
+    synchronized ( batches )
+    {
+      if ( !batches.remove( connection, batch ) )
+      {
+        return;
+      }
+    }
+    sendBatch( connection, batch );
+  }
+
+  /**
+   * Send every batch once the owner of every request in flight is
+   * known, as no more files will be added to them until a response
+   * completes a request.
+   * 
+   */
+  private void flushBatches() {
+    List<Map.Entry<TCPConnection, Batch>> ready;
+    synchronized ( batches )
+    {
+      if ( !routing.isEmpty() || batches.isEmpty() )
+      {
+        return;
+      }
+      ready = new ArrayList<>( batches.entrySet() );
+      batches.clear();
+    }
+    for ( Map.Entry<TCPConnection, Batch> batch : ready )
+    {
+      sendBatch( batch.getKey(), batch.getValue() );
+    }
+  }
+
+  /**
+   * Send a batch of small files to the peer that owns them.
+   * 
+   * @param connection to the peer that will hold the data
+   * @param batch
+   */
+  private void sendBatch(TCPConnection connection, Batch batch) {
+    DataBatch request =
+        new DataBatch( Protocol.STORE_DATA_BATCH_REQUEST, null );
+    List<DataItem> sent = new ArrayList<>( batch.items.size() );
+    for ( DataItem data : batch.items )
+    {
+      try
+      {
+        request.add( data.getRequest(), data.getFileSystemPath(),
+            Files.readAllBytes( data.getLocalPath() ), Constants.SUCCESS );
+        sent.add( data );
+      } catch ( IOException e )
+      {
+        LOG.error( "Unable to read " + data.getLocalPath().toString() + ". "
+            + e.toString() );
+        complete( data.getRequest(), Constants.FAILURE );
+      }
+    }
+    if ( sent.isEmpty() )
+    {
+      return;
+    }
+    try
+    {
+      connection.getTCPSender().sendData( request );
+    } catch ( IOException e )
+    {
+      LOG.error( "Unable to upload batch " + e.toString() );
+      connection.close();
+      for ( DataItem data : sent )
+      {
+        complete( data.getRequest(), Constants.FAILURE );
+      }
+    }
+  }
+
+  /**
+   * The Discovery will return a peer to connect to in the network for
+   * which a peer discovery message will be propagated to find a peer
+   * with the closest destination to the {@code metadata.item()}. The
+   * peer is remembered as an entry point for later requests.
+   * 
+   * @param event message from Discovery
+   */
+  private void dicoverNodeHandler(Event event) {
+    DiscoverNodeResponse response = ( DiscoverNodeResponse ) event;
+    PeerInformation source = response.getSourceInformation();
+    DataItem data = metadata.getDataItem( response.getRequest() );
+    if ( data == null )
+    {
+      return;
+    }
+    if ( response.isInitialPeerConnection() )
+    {
+      LOG.error( "There are no peers in the network. Unable to upload files." );
+      complete( response.getRequest(), Constants.FAILURE );
+      return;
+    }
+    LOG.info(
+        "Connecting to the network through source node: " + source.toString() );
+    if ( entries.size() < Properties.STORE_ENTRY_PEERS
+        && !entries.contains( source ) )
+    {
+      entries.add( source );
+    }
+    try
+    {
+      request( source, data );
+    } catch ( IOException e )
+    {
+      LOG.error( "Unable to send message to the source node. " + e.toString() );
+      e.printStackTrace();
+      entries.remove( source );
+      complete( response.getRequest(), Constants.FAILURE );
+    }
+  }
+
+  /**
+   * Send a request into the network through a peer to find the peer
+   * closest to the content identifier of the item.
+   * 
+   * <p>
+   * A read may be served by any peer that holds a copy of the content,
+   * rather than only by its owner.
+   * </p>
+   * 
+   * @param peer to enter the network through
+   * @param data the request in flight
+   * @throws IOException if the peer can not be reached
+   */
+  private void request(PeerInformation peer, DataItem data)
+      throws IOException {
+    DiscoverPeerRequest lookup = new DiscoverPeerRequest(
+        Protocol.DISCOVER_PEER_REQUEST, data.item() );
+    lookup.setRequest( data.getRequest() );
+    lookup.setRead( data.getDataTransferType() == StoreMetadata.READ );
+    // the routed response arrives on a connection from the network
+    connections.send( this, peer, lookup );
+  }
+
+  /**
+   * Small files held back to be sent to the same peer.
+   * 
+   * @author stock
+   *
+   */
+  private static class Batch {
+
+    private final List<DataItem> items = new ArrayList<>();
+
+    private long bytes;
+  }
+
+}
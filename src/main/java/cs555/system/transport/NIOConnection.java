@@ -0,0 +1,437 @@
+package cs555.system.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import cs555.system.node.Node;
+import cs555.system.util.BufferPool;
+import cs555.system.util.Logger;
+import cs555.system.wireformats.Event;
+import cs555.system.wireformats.EventFactory;
+import cs555.system.wireformats.MessageEncoder;
+
+/**
+ * A connection on a non-blocking {@code SocketChannel} that is driven
+ * by an {@link NIOEventLoop} rather than a dedicated
+ * {@link TCPReceiverThread}.
+ * 
+ * <p>
+ * Incoming messages use the same length-prefixed framing as the
+ * {@link TCPSender}. Complete frames are handed to the node in the
+ * order they arrived on the connection, one at a time, so handlers
+ * may still block without stalling the event loop.
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+public class NIOConnection extends TCPConnection {
+
+  private static final Logger LOG = Logger.getInstance();
+
+  private final Node node;
+
+  private final SocketChannel channel;
+
+  private final NIOEventLoop loop;
+
+  private final ExecutorService executorService;
+
+  private final NIOSender sender;
+
+  private final ByteBuffer header;
+
+  private ByteBuffer payload;
+
+  private final Queue<ByteBuffer> outbound;
+
+  private final Queue<Event> inbound;
+
+  private boolean dispatching;
+
+  private SelectionKey key;
+
+  /**
+   * Default constructor -
+   * 
+   * @param node to deliver events to
+   * @param channel non-blocking channel for the connection
+   * @param loop that selects on the channel
+   * @param executorService to run the node handlers on
+   */
+  protected NIOConnection(Node node, SocketChannel channel, NIOEventLoop loop,
+      ExecutorService executorService) {
+    super( channel.socket() );
+    this.node = node;
+    this.channel = channel;
+    this.loop = loop;
+    this.executorService = executorService;
+    this.sender = new NIOSender( this );
+    this.header = ByteBuffer.allocate( Integer.BYTES );
+    this.outbound = new ArrayDeque<>();
+    this.inbound = new ArrayDeque<>();
+    this.dispatching = false;
+  }
+
+  /**
+   * 
+   * @param key the channel is registered under with the selector
+   */
+  protected void setKey(SelectionKey key) {
+    this.key = key;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public TCPSender getTCPSender() {
+    return sender;
+  }
+
+  /**
+   * The connection is already registered with its event loop, so there
+   * is no receiver to submit.
+   * 
+   * {@inheritDoc}
+   */
+  @Override
+  public void submitTo(ExecutorService executorService) {}
+
+  /**
+   * Read as much as is available from the channel, and dispatch every
+   * complete frame to the node.
+   * 
+   * @throws IOException if the channel has reached end-of-stream or
+   *         failed, or a frame is longer than the transport accepts
+   */
+  protected void read() throws IOException {
+    while ( true )
+    {
+      if ( payload == null )
+      {
+        if ( channel.read( header ) < 0 )
+        {
+          throw new IOException( "End of stream" );
+        }
+        if ( header.hasRemaining() )
+        {
+          return;
+        }
+        header.flip();
+        int length = TCPReceiverThread.checkLength( header.getInt() );
+        header.clear();
+        payload = BufferPool.getInstance().acquire( length );
+      }
+      if ( payload.hasRemaining() && channel.read( payload ) < 0 )
+      {
+        throw new IOException( "End of stream" );
+      }
+      if ( payload.hasRemaining() )
+      {
+        return;
+      }
+      touch();
+      payload.flip();
+      Event event;
+      try
+      {
+        event = EventFactory.getInstance().createEvent( payload );
+      } finally
+      {
+        BufferPool.getInstance().release( payload );
+        payload = null;
+      }
+      if ( event != null )
+      {
+        dispatch( event );
+      }
+    }
+  }
+
+  /**
+   * Queue an event for the node, and start draining the queue if it is
+   * not already being drained. This keeps messages on a connection in
+   * order.
+   * 
+   * @param event
+   */
+  private void dispatch(Event event) {
+    synchronized ( inbound )
+    {
+      inbound.add( event );
+      if ( dispatching )
+      {
+        return;
+      }
+      dispatching = true;
+    }
+    executorService.execute( this::drain );
+  }
+
+  /**
+   * Deliver queued events to the node until none remain.
+   * 
+   */
+  private void drain() {
+    while ( true )
+    {
+      Event event;
+      synchronized ( inbound )
+      {
+        event = inbound.poll();
+        if ( event == null )
+        {
+          dispatching = false;
+          return;
+        }
+      }
+      try
+      {
+        node.onEvent( event, this );
+      } catch ( RuntimeException e )
+      {
+        LOG.error( "Unable to process event. " + e.toString() );
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Write a frame to the channel. Writes are attempted directly, and
+   * any remainder is copied and left for the event loop to flush once
+   * the channel is writable, so the frame may be reused once this
+   * returns.
+   * 
+   * @param frame length-prefixed message
+   * @throws IOException if the connection has been closed
+   */
+  protected void write(ByteBuffer frame) throws IOException {
+    synchronized ( outbound )
+    {
+      if ( !isAlive() )
+      {
+        throw new IOException( "Connection is closed" );
+      }
+      if ( outbound.isEmpty() )
+      {
+        channel.write( frame );
+        if ( !frame.hasRemaining() )
+        {
+          touch();
+          return;
+        }
+      }
+      outbound.add(
+          ByteBuffer.allocate( frame.remaining() ).put( frame ).flip() );
+    }
+    loop.requestWrite( this );
+  }
+
+  /**
+   * Write a frame whose content is a region of a file. The region is
+   * transferred directly from the file to the channel, and only the
+   * part the channel does not accept immediately is read into a buffer
+   * and queued for the event loop.
+   * 
+   * @param header length-prefixed message up to the content
+   * @param file to read the content from
+   * @param position in the file of the first byte of content
+   * @param length number of bytes of content
+   * @throws IOException if the connection has been closed, or the file
+   *         ends before the region
+   */
+  protected void write(ByteBuffer header, FileChannel file, long position,
+      int length) throws IOException {
+    synchronized ( outbound )
+    {
+      if ( !isAlive() )
+      {
+        throw new IOException( "Connection is closed" );
+      }
+      if ( outbound.isEmpty() )
+      {
+        channel.write( header );
+        if ( !header.hasRemaining() )
+        {
+          long sent = 0;
+          long n;
+          while ( sent < length && ( n = file.transferTo( position + sent,
+              length - sent, channel ) ) > 0 )
+          {
+            sent += n;
+          }
+          if ( sent == length )
+          {
+            touch();
+            return;
+          }
+          // transferTo never exceeds its count, so sent is below length
+          position += sent;
+          length -= ( int ) sent;
+        }
+      }
+      ByteBuffer frame = ByteBuffer.allocate( header.remaining() + length );
+      frame.put( header );
+      long offset = position - frame.position();
+      while ( frame.hasRemaining() )
+      {
+        if ( file.read( frame, offset + frame.position() ) < 0 )
+        {
+          close();
+          throw new IOException( "Unexpected end of file" );
+        }
+      }
+      frame.flip();
+      outbound.add( frame );
+    }
+    loop.requestWrite( this );
+  }
+
+  /**
+   * Write a frame whose content is held in a separate buffer. Both are
+   * written to the channel at once, and only the part the channel does
+   * not accept immediately is copied and queued for the event loop.
+   * 
+   * @param header length-prefixed message up to the content
+   * @param content of the message
+   * @throws IOException if the connection has been closed
+   */
+  protected void write(ByteBuffer header, ByteBuffer content)
+      throws IOException {
+    synchronized ( outbound )
+    {
+      if ( !isAlive() )
+      {
+        throw new IOException( "Connection is closed" );
+      }
+      if ( outbound.isEmpty() )
+      {
+        channel.write( new ByteBuffer[] { header, content } );
+        if ( !content.hasRemaining() )
+        {
+          touch();
+          return;
+        }
+      }
+      outbound.add(
+          ByteBuffer.allocate( header.remaining() + content.remaining() )
+              .put( header ).put( content ).flip() );
+    }
+    loop.requestWrite( this );
+  }
+
+  /**
+   * Flush queued frames to the channel while it accepts data.
+   * 
+   * @return true if all queued frames have been written, false
+   *         otherwise
+   * @throws IOException
+   */
+  protected boolean flush() throws IOException {
+    synchronized ( outbound )
+    {
+      while ( !outbound.isEmpty() )
+      {
+        ByteBuffer frame = outbound.peek();
+        channel.write( frame );
+        if ( frame.hasRemaining() )
+        {
+          return false;
+        }
+        outbound.poll();
+      }
+      touch();
+      return true;
+    }
+  }
+
+  /**
+   * 
+   * @return the selection key for the channel
+   */
+  protected SelectionKey getKey() {
+    return key;
+  }
+
+  /**
+   * Sender that frames messages for the non-blocking channel.
+   * 
+   * @author stock
+   *
+   */
+  private static class NIOSender extends TCPSender {
+
+    private final NIOConnection connection;
+
+    private NIOSender(NIOConnection connection) {
+      super();
+      this.connection = connection;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sendData(final byte[] data) throws IOException {
+      ByteBuffer frame = ByteBuffer.allocate( Integer.BYTES + data.length );
+      frame.putInt( data.length ).put( data ).flip();
+      connection.write( frame );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sendData(final Event event) throws IOException {
+      ByteBuffer frame = MessageEncoder.frame( event );
+      try
+      {
+        connection.write( frame );
+      } finally
+      {
+        BufferPool.getInstance().release( frame );
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sendData(final Event header, FileChannel file,
+        long position, int length) throws IOException {
+      ByteBuffer frame = MessageEncoder.frame( header );
+      frame.putInt( 0, frame.remaining() - Integer.BYTES + length );
+      try
+      {
+        connection.write( frame, file, position, length );
+      } finally
+      {
+        BufferPool.getInstance().release( frame );
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sendData(final Event header, ByteBuffer content)
+        throws IOException {
+      content = content.duplicate();
+      ByteBuffer frame = MessageEncoder.frame( header );
+      frame.putInt( 0, frame.remaining() - Integer.BYTES + content.remaining() );
+      try
+      {
+        connection.write( frame, content );
+      } finally
+      {
+        BufferPool.getInstance().release( frame );
+      }
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package cs555.system.transport;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import cs555.system.node.Node;
+import cs555.system.util.Logger;
+
+/**
+ * A single thread selecting over many non-blocking connections.
+ * 
+ * The thread is blocked on the selector until a registered channel is
+ * readable, a queued write can make progress, or a new channel is
+ * handed over by the {@link NIOServerThread}.
+ * 
+ * @author stock
+ *
+ */
+public class NIOEventLoop implements Runnable {
+
+  private static final Logger LOG = Logger.getInstance();
+
+  private final Node node;
+
+  private final Selector selector;
+
+  private final ExecutorService executorService;
+
+  private final Queue<SocketChannel> registrations;
+
+  private final Queue<NIOConnection> writes;
+
+  /**
+   * Default constructor -
+   * 
+   * @param node to deliver events to
+   * @param executorService to run the node handlers on
+   * @throws IOException
+   */
+  public NIOEventLoop(Node node, ExecutorService executorService)
+      throws IOException {
+    this.node = node;
+    this.selector = Selector.open();
+    this.executorService = executorService;
+    this.registrations = new ConcurrentLinkedQueue<>();
+    this.writes = new ConcurrentLinkedQueue<>();
+  }
+
+  /**
+   * Hand a newly accepted channel to this event loop.
+   * 
+   * @param channel
+   */
+  public void register(SocketChannel channel) {
+    registrations.add( channel );
+    selector.wakeup();
+  }
+
+  /**
+   * Ask the event loop to flush a connection once it is writable.
+   * 
+   * @param connection
+   */
+  protected void requestWrite(NIOConnection connection) {
+    writes.add( connection );
+    selector.wakeup();
+  }
+
+  /**
+   * Select over the registered channels, reading complete frames and
+   * flushing pending writes.
+   * 
+   * {@inheritDoc}
+   */
+  @Override
+  public void run() {
+    while ( selector.isOpen() )
+    {
+      try
+      {
+        selector.select();
+        processRegistrations();
+        processWrites();
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while ( keys.hasNext() )
+        {
+          SelectionKey key = keys.next();
+          keys.remove();
+          NIOConnection connection = ( NIOConnection ) key.attachment();
+          try
+          {
+            if ( key.isValid() && key.isReadable() )
+            {
+              connection.read();
+            }
+            if ( key.isValid() && key.isWritable() && connection.flush() )
+            {
+              key.interestOps( SelectionKey.OP_READ );
+            }
+          } catch ( IOException | RuntimeException e )
+          {
+            // only the connection that failed is closed, so the loop
+            // keeps serving every other channel
+            LOG.debug( "Closing connection... " + e );
+            key.cancel();
+            connection.close();
+          }
+        }
+      } catch ( IOException e )
+      {
+        LOG.error( "Event loop is terminating. " + e.toString() );
+        break;
+      }
+    }
+  }
+
+  /**
+   * Register channels handed over since the last selection.
+   * 
+   */
+  private void processRegistrations() {
+    SocketChannel channel;
+    while ( ( channel = registrations.poll() ) != null )
+    {
+      try
+      {
+        channel.configureBlocking( false );
+        channel.socket().setTcpNoDelay( true );
+        NIOConnection connection =
+            new NIOConnection( node, channel, this, executorService );
+        connection.setKey(
+            channel.register( selector, SelectionKey.OP_READ, connection ) );
+      } catch ( IOException e )
+      {
+        LOG.error( "Unable to register connection. " + e.toString() );
+        try
+        {
+          channel.close();
+        } catch ( IOException ex )
+        {
+          LOG.debug( "Unable to close connection. " + ex.toString() );
+        }
+      }
+    }
+  }
+
+  /**
+   * Add write interest for connections with frames that could not be
+   * written directly.
+   * 
+   */
+  private void processWrites() {
+    NIOConnection connection;
+    while ( ( connection = writes.poll() ) != null )
+    {
+      SelectionKey key = connection.getKey();
+      if ( key != null && key.isValid() )
+      {
+        key.interestOps( SelectionKey.OP_READ | SelectionKey.OP_WRITE );
+      }
+    }
+  }
+}
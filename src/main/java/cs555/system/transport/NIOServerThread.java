@@ -0,0 +1,75 @@
+package cs555.system.transport;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import cs555.system.node.Node;
+import cs555.system.util.Logger;
+
+/**
+ * Selector based alternative to the {@link TCPServerThread}.
+ * 
+ * Accepted connections are handed round-robin to a fixed set of
+ * {@link NIOEventLoop}s, so the number of threads does not grow with
+ * the number of open connections.
+ * 
+ * @author stock
+ *
+ */
+public class NIOServerThread implements Runnable {
+
+  private static final Logger LOG = Logger.getInstance();
+
+  private ServerSocketChannel serverChannel;
+
+  private final NIOEventLoop[] loops;
+
+  private int next;
+
+  /**
+   * Default constructor - setup the event loops for the server channel.
+   * 
+   * @param node
+   * @param serverChannel
+   * @param executorService to run the node handlers on
+   * @param threads number of event loops
+   * @throws IOException
+   */
+  public NIOServerThread(Node node, ServerSocketChannel serverChannel,
+      ExecutorService executorService, int threads) throws IOException {
+    this.serverChannel = serverChannel;
+    this.loops = new NIOEventLoop[ Math.max( 1, threads ) ];
+    for ( int i = 0; i < loops.length; ++i )
+    {
+      loops[ i ] = new NIOEventLoop( node, executorService );
+      Thread thread = new Thread( loops[ i ], "Event Loop " + i );
+      thread.setDaemon( true );
+      thread.start();
+    }
+    this.next = 0;
+  }
+
+  /**
+   * Listen for incoming connections and register each with an event
+   * loop once connected.
+   * 
+   * {@inheritDoc}
+   */
+  @Override
+  public void run() {
+    while ( serverChannel != null )
+    {
+      try
+      {
+        SocketChannel channel = serverChannel.accept();
+        loops[ next ].register( channel );
+        next = ( next + 1 ) % loops.length;
+      } catch ( IOException e )
+      {
+        LOG.debug( "Closing Server Socket Connection... " + e.toString() );
+        break;
+      }
+    }
+  }
+}
@@ -23,6 +23,10 @@ public class TCPConnection {
 
   private TCPReceiverThread receiver;
 
+  private volatile boolean closed;
+
+  private volatile long lastActive;
+
   /**
    * Default constructor - create a new TCPConnection given a Node,
    * i.e., chunk server or discovery, and the socket for the connection.
@@ -33,8 +37,25 @@ public class TCPConnection {
    */
   public TCPConnection(Node node, Socket socket) throws IOException {
     this.socket = socket;
+    // connections are reused, so small messages must not wait on acks
+    this.socket.setTcpNoDelay( true );
     this.sender = new TCPSender( this.socket );
     this.receiver = new TCPReceiverThread( node, this.socket, this );
+    this.closed = false;
+    this.lastActive = System.currentTimeMillis();
+  }
+
+  /**
+   * Constructor for connections whose sending and receiving is managed
+   * outside of a dedicated receiver thread, e.g., by an
+   * {@link NIOEventLoop}.
+   * 
+   * @param socket
+   */
+  protected TCPConnection(Socket socket) {
+    this.socket = socket;
+    this.closed = false;
+    this.lastActive = System.currentTimeMillis();
   }
 
   /**
@@ -57,6 +78,35 @@ public class TCPConnection {
     return this.sender;
   }
 
+  /**
+   * Check the health of the connection before it is reused.
+   * 
+   * @return true if the connection has not been closed locally, or by
+   *         the receiver reaching the end of the stream, false
+   *         otherwise
+   */
+  public boolean isAlive() {
+    return !closed && socket.isConnected() && !socket.isClosed()
+        && !socket.isInputShutdown() && !socket.isOutputShutdown();
+  }
+
+  /**
+   * 
+   * @return the time, in milliseconds, of the last message sent or
+   *         received on this connection
+   */
+  public long getLastActive() {
+    return lastActive;
+  }
+
+  /**
+   * Mark the connection as being used so it is not evicted as idle.
+   * 
+   */
+  public void touch() {
+    lastActive = System.currentTimeMillis();
+  }
+
   /**
    * Allow the TCPConnection to start receiving messages.
    * 
@@ -72,10 +122,24 @@ public class TCPConnection {
    * 
    */
   public void close() {
+    synchronized ( this )
+    {
+      if ( closed )
+      {
+        return;
+      }
+      closed = true;
+    }
     try
     {
-      this.sender.dout.close();
-      this.receiver.din.close();
+      if ( this.sender != null )
+      {
+        this.sender.dout.close();
+      }
+      if ( this.receiver != null )
+      {
+        this.receiver.din.close();
+      }
       this.socket.close();
     } catch ( IOException e )
     {
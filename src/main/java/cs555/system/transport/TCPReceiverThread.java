@@ -1,10 +1,15 @@
 package cs555.system.transport;
 
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import cs555.system.node.Node;
+import cs555.system.util.BufferPool;
 import cs555.system.util.Logger;
+import cs555.system.util.Properties;
 import cs555.system.wireformats.Event;
 import cs555.system.wireformats.EventFactory;
 
@@ -60,20 +65,75 @@ public class TCPReceiverThread implements Runnable {
     {
       try
       {
-        int len = din.readInt();
+        int len = checkLength( din.readInt() );
 
-        byte[] data = new byte[ len ];
-        din.readFully( data, 0, len );
-
-        EventFactory eventFactory = EventFactory.getInstance();
-        Event event = eventFactory.createEvent( data );
+        Event event;
+        ByteBuffer buffer = BufferPool.getInstance().acquire( len );
+        try
+        {
+          readFully( buffer );
+          connection.touch();
+          buffer.flip();
+          event = EventFactory.getInstance().createEvent( buffer );
+        } finally
+        {
+          BufferPool.getInstance().release( buffer );
+        }
         node.onEvent( event, connection );
 
       } catch ( IOException e )
       {
         LOG.debug( "Closing connection... " + e );
+        connection.close();
         break;
       }
     }
   }
+
+  /**
+   * Validate the length of a frame read from the wire before a buffer
+   * is allocated for it.
+   * 
+   * @param length prefixed to the frame
+   * @return the length
+   * @throws IOException if the length is negative or larger than
+   *         {@link Properties#SYSTEM_TRANSPORT_MAX_FRAME}, in which case
+   *         the connection can not be read any further
+   */
+  static int checkLength(int length) throws IOException {
+    if ( length < 0 || length > Properties.SYSTEM_TRANSPORT_MAX_FRAME )
+    {
+      throw new IOException( "Invalid frame length " + length );
+    }
+    return length;
+  }
+
+  /**
+   * Read from the socket until the buffer is full.
+   * 
+   * @param buffer
+   * @throws IOException if the end of stream is reached first
+   */
+  private void readFully(ByteBuffer buffer) throws IOException {
+    if ( buffer.hasArray() )
+    {
+      din.readFully( buffer.array(), buffer.arrayOffset(), buffer.limit() );
+      buffer.position( buffer.limit() );
+    } else if ( socket.getChannel() != null )
+    {
+      ReadableByteChannel channel = socket.getChannel();
+      while ( buffer.hasRemaining() )
+      {
+        if ( channel.read( buffer ) < 0 )
+        {
+          throw new EOFException();
+        }
+      }
+    } else
+    {
+      byte[] bytes = new byte[ buffer.remaining() ];
+      din.readFully( bytes );
+      buffer.put( bytes );
+    }
+  }
 }
@@ -3,6 +3,14 @@ package cs555.system.transport;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import cs555.system.util.BufferPool;
+import cs555.system.wireformats.Event;
+import cs555.system.wireformats.MessageEncoder;
 
 /**
  * Class used to send data, via <code>byte[]</code> to the receiver.
@@ -18,6 +26,10 @@ public class TCPSender {
 
   protected DataOutputStream dout;
 
+  protected final Lock lock;
+
+  private final WritableByteChannel channel;
+
   /**
    * Default constructor - Initialize the TCPSender data output
    * stream information from the <code>socket</code>.
@@ -27,6 +39,19 @@ public class TCPSender {
    */
   public TCPSender(Socket socket) throws IOException {
     this.dout = new DataOutputStream( socket.getOutputStream() );
+    this.lock = new ReentrantLock();
+    this.channel = socket.getChannel();
+  }
+
+  /**
+   * Constructor for senders that do not write to a blocking socket
+   * stream, e.g., those backed by a non-blocking channel.
+   * 
+   */
+  protected TCPSender() {
+    this.dout = null;
+    this.lock = new ReentrantLock();
+    this.channel = null;
   }
 
   /**
@@ -34,12 +59,166 @@ public class TCPSender {
    * stream. Write the length first, and then the actual data - that way
    * the receiver knows when to stop reading.
    * 
+   * <p>
+   * Writers are serialized with a {@code ReentrantLock} rather than a
+   * monitor so a virtual thread blocked on the socket does not pin its
+   * carrier thread.
+   * </p>
+   * 
    * @throws IOException 
    */
-  public synchronized void sendData(final byte[] data) throws IOException {
+  public void sendData(final byte[] data) throws IOException {
     int len = data.length;
-    dout.writeInt( len );
-    dout.write( data, 0, len );
-    dout.flush();
+    lock.lock();
+    try
+    {
+      dout.writeInt( len );
+      dout.write( data, 0, len );
+      dout.flush();
+    } finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Encode the message into a pooled buffer and write it, with its
+   * length, directly to the socket.
+   * 
+   * @param event the message to send
+   * @throws IOException
+   */
+  public void sendData(final Event event) throws IOException {
+    ByteBuffer frame = MessageEncoder.frame( event );
+    lock.lock();
+    try
+    {
+      write( frame );
+    } finally
+    {
+      lock.unlock();
+      BufferPool.getInstance().release( frame );
+    }
+  }
+
+  /**
+   * Send a message whose content is a region of a file. The header is
+   * written first, and the region follows in the same frame, so the
+   * receiver reads it as any other message.
+   * 
+   * <p>
+   * When the socket is backed by a channel the region is sent with
+   * {@link FileChannel#transferTo}, so the content is never copied into
+   * the heap. Otherwise it is copied through a pooled buffer.
+   * </p>
+   * 
+   * @param header message that encodes everything but the content
+   * @param file to read the content from
+   * @param position in the file of the first byte of content
+   * @param length number of bytes of content
+   * @throws IOException if the frame can not be written completely, in
+   *         which case the connection should no longer be used
+   */
+  public void sendData(final Event header, FileChannel file, long position,
+      int length) throws IOException {
+    BufferPool pool = BufferPool.getInstance();
+    ByteBuffer frame = MessageEncoder.frame( header );
+    frame.putInt( 0, frame.remaining() - Integer.BYTES + length );
+    lock.lock();
+    try
+    {
+      write( frame );
+      if ( channel != null )
+      {
+        long sent = 0;
+        while ( sent < length )
+        {
+          long n = file.transferTo( position + sent, length - sent, channel );
+          if ( n <= 0 )
+          {
+            throw new IOException( "Unexpected end of file" );
+          }
+          sent += n;
+        }
+      } else
+      {
+        ByteBuffer buffer = pool.acquire( length );
+        try
+        {
+          while ( buffer.hasRemaining() )
+          {
+            if ( file.read( buffer, position + buffer.position() ) < 0 )
+            {
+              throw new IOException( "Unexpected end of file" );
+            }
+          }
+          buffer.flip();
+          write( buffer );
+        } finally
+        {
+          pool.release( buffer );
+        }
+      }
+    } finally
+    {
+      lock.unlock();
+      pool.release( frame );
+    }
+  }
+
+  /**
+   * Send a message whose content is held in a buffer, e.g., a file
+   * cached outside of the heap. The header is written first, and the
+   * content follows in the same frame.
+   * 
+   * @param header message that encodes everything but the content
+   * @param content the remaining bytes of which are sent, without
+   *        changing its position
+   * @throws IOException if the frame can not be written completely, in
+   *         which case the connection should no longer be used
+   */
+  public void sendData(final Event header, ByteBuffer content)
+      throws IOException {
+    content = content.duplicate();
+    ByteBuffer frame = MessageEncoder.frame( header );
+    frame.putInt( 0, frame.remaining() - Integer.BYTES + content.remaining() );
+    lock.lock();
+    try
+    {
+      write( frame );
+      write( content );
+    } finally
+    {
+      lock.unlock();
+      BufferPool.getInstance().release( frame );
+    }
+  }
+
+  /**
+   * Write the remaining bytes of the buffer to the channel of the
+   * socket if it has one, otherwise to the data output stream.
+   * 
+   * @param buffer
+   * @throws IOException
+   */
+  private void write(ByteBuffer buffer) throws IOException {
+    if ( channel != null )
+    {
+      while ( buffer.hasRemaining() )
+      {
+        channel.write( buffer );
+      }
+    } else if ( buffer.hasArray() )
+    {
+      dout.write( buffer.array(), buffer.arrayOffset() + buffer.position(),
+          buffer.remaining() );
+      dout.flush();
+    } else
+    {
+      byte[] bytes = new byte[ buffer.remaining() ];
+      buffer.get( bytes );
+      dout.write( bytes );
+      dout.flush();
+    }
   }
 }
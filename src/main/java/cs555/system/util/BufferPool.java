@@ -0,0 +1,130 @@
+package cs555.system.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Singleton pool of buffers that messages are encoded into and decoded
+ * from, so sending and receiving a message does not allocate a new
+ * buffer each time.
+ * 
+ * <p>
+ * Every pooled buffer holds {@link Properties#BUFFER_SIZE} bytes, and
+ * is either on the heap or direct as specified by
+ * {@link Properties#BUFFER_TYPE}. A request for more than that is
+ * served by a temporary buffer that is not returned to the pool.
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+public class BufferPool {
+
+  private static final BufferPool instance = new BufferPool(
+      Properties.BUFFER_SIZE, Properties.BUFFER_TYPE.equals( "DIRECT" ),
+      Properties.BUFFER_POOL_SIZE );
+
+  private final int size;
+
+  private final boolean direct;
+
+  private final int capacity;
+
+  private final Queue<ByteBuffer> buffers;
+
+  private final AtomicInteger available;
+
+  /**
+   * Default constructor -
+   * 
+   * @param size bytes of each pooled buffer
+   * @param direct true to allocate direct buffers, false otherwise
+   * @param capacity most buffers kept once released
+   */
+  private BufferPool(int size, boolean direct, int capacity) {
+    this.size = size;
+    this.direct = direct;
+    this.capacity = capacity;
+    this.buffers = new ConcurrentLinkedQueue<>();
+    this.available = new AtomicInteger();
+  }
+
+  /**
+   * Single instance ensures that singleton instances are created only
+   * when needed.
+   * 
+   * @return Returns the instance for the class
+   */
+  public static BufferPool getInstance() {
+    return instance;
+  }
+
+  /**
+   * Take a buffer from the pool, or allocate one if there are none.
+   * 
+   * @param length number of bytes needed
+   * @return a cleared buffer whose limit is {@code length}
+   */
+  public ByteBuffer acquire(int length) {
+    ByteBuffer buffer = null;
+    if ( length <= size )
+    {
+      buffer = buffers.poll();
+      if ( buffer != null )
+      {
+        available.decrementAndGet();
+      } else
+      {
+        buffer = allocate( size );
+      }
+    } else
+    {
+      buffer = allocate( length );
+    }
+    buffer.clear().limit( length );
+    return buffer;
+  }
+
+  /**
+   * Take a buffer from the pool of the full pooled size.
+   * 
+   * @return a cleared buffer
+   */
+  public ByteBuffer acquire() {
+    return acquire( size );
+  }
+
+  /**
+   * Return a buffer to the pool once it is no longer used. Temporary
+   * buffers, and buffers beyond the capacity of the pool, are left for
+   * the garbage collector.
+   * 
+   * @param buffer
+   */
+  public void release(ByteBuffer buffer) {
+    if ( buffer == null || buffer.capacity() != size
+        || buffer.isDirect() != direct )
+    {
+      return;
+    }
+    if ( available.incrementAndGet() <= capacity )
+    {
+      buffers.offer( buffer );
+    } else
+    {
+      available.decrementAndGet();
+    }
+  }
+
+  /**
+   * 
+   * @param length
+   * @return a new heap or direct buffer
+   */
+  private ByteBuffer allocate(int length) {
+    return direct ? ByteBuffer.allocateDirect( length )
+        : ByteBuffer.allocate( length );
+  }
+}
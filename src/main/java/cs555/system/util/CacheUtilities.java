@@ -0,0 +1,263 @@
+package cs555.system.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import cs555.system.metadata.ContentCache;
+import cs555.system.metadata.PeerInformation;
+import cs555.system.metadata.PeerMetadata;
+import cs555.system.node.Node;
+import cs555.system.transport.TCPConnection;
+import cs555.system.wireformats.DataTransfer;
+import cs555.system.wireformats.DiscoverPeerRequest;
+import cs555.system.wireformats.Event;
+import cs555.system.wireformats.GenericMessage;
+import cs555.system.wireformats.Protocol;
+
+/**
+ * Caches the content of files read through a peer, and keeps the
+ * copies this peer has sent to other peers current.
+ * 
+ * <p>
+ * The peer a read enters the network through asks for a copy of the
+ * content if it does not hold one. The peer that serves the read from
+ * disk sends it a copy, if the file is small enough to be sent as a
+ * single chunk, and remembers that it did. A later read of the file
+ * that is routed through a peer holding a copy is answered there.
+ * </p>
+ * 
+ * <p>
+ * Every file on this peer has a version that is increased when it is
+ * written, e.g., once the Store uploads it again. The copies sent of
+ * the previous version are invalidated with the new version, so none
+ * are served once the new version is written.
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+public class CacheUtilities {
+
+  private static final Logger LOG = Logger.getInstance();
+
+  private final Node node;
+
+  private final PeerMetadata metadata;
+
+  private final ConnectionUtilities connections;
+
+  private final ExecutorService executorService;
+
+  private final ContentCache cache;
+
+  private final Map<String, Long> versions;
+
+  private final Map<String, Set<PeerInformation>> cachers;
+
+  private final AtomicLong clock;
+
+  /**
+   * Default constructor -
+   * 
+   * @param node that holds the files
+   * @param metadata of the peer
+   * @param connections pool used to reach other peers
+   * @param executorService to read the files sent from
+   * @param cache of the content read through this peer
+   */
+  public CacheUtilities(Node node, PeerMetadata metadata,
+      ConnectionUtilities connections, ExecutorService executorService,
+      ContentCache cache) {
+    this.node = node;
+    this.metadata = metadata;
+    this.connections = connections;
+    this.executorService = executorService;
+    this.cache = cache;
+    this.versions = new ConcurrentHashMap<>();
+    this.cachers = new ConcurrentHashMap<>();
+    // versions increase across restarts of a peer with the same
+    // identifier
+    this.clock = new AtomicLong( System.currentTimeMillis() * 1000 );
+  }
+
+  /**
+   * 
+   * @return true if this peer caches content, false otherwise
+   */
+  public boolean isEnabled() {
+    return cache.isEnabled();
+  }
+
+  /**
+   * 
+   * @param identifier of the content
+   * @return true if a copy of the content is cached, false otherwise
+   */
+  public boolean contains(String identifier) {
+    return cache.contains( identifier );
+  }
+
+  /**
+   * Send a copy of the content of a read that was resolved at this
+   * peer to the peer it entered the network through, if it asked for
+   * one. The files are read in the background.
+   * 
+   * @param request a read resolved at this peer, which holds the
+   *        content on disk
+   */
+  public void push(DiscoverPeerRequest request) {
+    PeerInformation source = request.getSource();
+    if ( !request.isCache() || source.equals( metadata.self() ) )
+    {
+      return;
+    }
+    String identifier = request.getDestination().getIdentifier();
+    executorService.execute( () ->
+    {
+      for ( String filename : metadata.filenames( identifier ) )
+      {
+        // the version is read before the content, so a copy is never
+        // newer than its version
+        long version = versions.computeIfAbsent( identifier,
+            k -> clock.incrementAndGet() );
+        cachers.computeIfAbsent( identifier,
+            k -> ConcurrentHashMap.newKeySet() ).add( source );
+        ByteBuffer content = metadata.storage().get( filename );
+        if ( content == null
+            || content.remaining() > Properties.TRANSFER_CHUNK_SIZE )
+        {
+          continue;
+        }
+        byte[] data = new byte[ content.remaining() ];
+        content.get( data );
+        try
+        {
+          DataTransfer copy = new DataTransfer( Protocol.CACHE_DATA, data,
+              metadata.self().getIdentifier() + Constants.SEPERATOR + filename
+                  + Constants.SEPERATOR + identifier );
+          copy.setRequest( version );
+          connections.send( node, source, copy );
+        } catch ( IOException e )
+        {
+          LOG.debug( "Unable to send a copy of " + filename + " to "
+              + source.toString() + ". " + e.toString() );
+        }
+      }
+    } );
+  }
+
+  /**
+   * Invalidate the copies this peer has sent of files that were just
+   * written.
+   * 
+   * @param filenames written
+   */
+  public void invalidate(Collection<String> filenames) {
+    Collection<String> identifiers = new ArrayList<>( filenames.size() );
+    synchronized ( metadata.files() )
+    {
+      for ( String filename : filenames )
+      {
+        String identifier = metadata.files().get( filename );
+        if ( identifier != null )
+        {
+          identifiers.add( identifier );
+        }
+      }
+    }
+    for ( String identifier : identifiers )
+    {
+      long version = clock.incrementAndGet();
+      versions.put( identifier, version );
+      Set<PeerInformation> peers = cachers.remove( identifier );
+      if ( peers == null )
+      {
+        continue;
+      }
+      GenericMessage message =
+          new GenericMessage( Protocol.CACHE_INVALIDATE, metadata.self()
+              .getIdentifier() + Constants.SEPERATOR + identifier );
+      message.setRequest( version );
+      for ( PeerInformation peer : peers )
+      {
+        try
+        {
+          connections.send( node, peer, message );
+        } catch ( IOException e )
+        {
+          LOG.debug( "Unable to invalidate the copy of " + identifier
+              + " on " + peer.toString() + ". " + e.toString() );
+        }
+      }
+    }
+  }
+
+  /**
+   * Cache a copy of a file sent by the peer that served a read.
+   * 
+   * @param event a {@code CACHE_DATA} message
+   */
+  public void cached(Event event) {
+    DataTransfer copy = ( DataTransfer ) event;
+    // holder ? fs path ? content id
+    String[] descriptor = copy.getDescriptor().split( Constants.SEPERATOR );
+    if ( cache.put( descriptor[ 2 ], descriptor[ 1 ], descriptor[ 0 ],
+        copy.getRequest(), copy.getData() ) )
+    {
+      LOG.debug( "Cached a copy of " + descriptor[ 1 ] + " from "
+          + descriptor[ 0 ] );
+    }
+  }
+
+  /**
+   * Remove the copy of a file that was written again on the peer that
+   * sent it.
+   * 
+   * @param event a {@code CACHE_INVALIDATE} message
+   */
+  public void invalidated(Event event) {
+    GenericMessage message = ( GenericMessage ) event;
+    // holder ? content id
+    String[] descriptor = message.getMessage().split( Constants.SEPERATOR );
+    cache.invalidate( descriptor[ 1 ], descriptor[ 0 ], message.getRequest() );
+  }
+
+  /**
+   * Serve a read from the copy cached on this peer, if there is one.
+   * 
+   * @param event a {@code READ_DATA_REQUEST} from the Store
+   * @param connection from the Store that will be used for response
+   * @return true if the read was served from the cache, false if it
+   *         must be read from disk
+   */
+  public boolean read(Event event, TCPConnection connection) {
+    GenericMessage request = ( GenericMessage ) event;
+    // fs path ? content id ? local path
+    String[] message = request.getMessage().split( Constants.SEPERATOR );
+    byte[] data = cache.get( message[ 1 ], message[ 0 ] );
+    if ( data == null )
+    {
+      return false;
+    }
+    DataTransfer response = new DataTransfer( Protocol.READ_DATA_RESPONSE,
+        data, metadata.self().toString() + Constants.SEPERATOR
+            + request.getMessage() );
+    response.setRequest( request.getRequest() );
+    try
+    {
+      connection.getTCPSender().sendData( response );
+      LOG.info( "Served a read of " + message[ 0 ] + " from the cache." );
+    } catch ( IOException e )
+    {
+      LOG.error( "Unable to send message to store. " + e.toString() );
+      connection.close();
+    }
+    return true;
+  }
+}
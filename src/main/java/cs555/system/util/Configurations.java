@@ -1,11 +1,17 @@
 package cs555.system.util;
 
+import java.io.InputStream;
 import java.util.Properties;
 
 /**
  * Singleton class to load properties file for configuration.
  *
+ * <p>
+ * A property set as a system property, e.g.,
+ * {@code -Dsystem.identifier.bits=64}, overrides the properties file.
+ * </p>
  * 
+
  * @author stock
  *
  */
@@ -21,10 +27,13 @@ public final class Configurations {
    */
   private Configurations() {
     this.properties = new Properties();
-    try
+    try ( InputStream in = getClass().getClassLoader()
+        .getResourceAsStream( cs555.system.util.Properties.CONF_NAME ) )
     {
-      properties.load( getClass().getClassLoader()
-          .getResourceAsStream( cs555.system.util.Properties.CONF_NAME ) );
+      if ( in != null )
+      {
+        properties.load( in );
+      }
     } catch ( Exception e )
     {
       e.printStackTrace();
@@ -60,7 +69,7 @@ public final class Configurations {
     String result = null;
     if ( key != null && !key.trim().isEmpty() )
     {
-      result = this.properties.getProperty( key );
+      result = System.getProperty( key, this.properties.getProperty( key ) );
     }
     return result;
   }
@@ -75,7 +84,8 @@ public final class Configurations {
     String result = null;
     if ( key != null && !key.trim().isEmpty() )
     {
-      result = this.properties.getProperty( key, defaultValue );
+      result = System.getProperty( key,
+          this.properties.getProperty( key, defaultValue ) );
     }
     return result;
   }
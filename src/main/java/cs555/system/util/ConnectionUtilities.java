@@ -1,80 +1,185 @@
 package cs555.system.util;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import cs555.system.metadata.PeerInformation;
 import cs555.system.node.Node;
+import cs555.system.transport.NIOServerThread;
 import cs555.system.transport.TCPConnection;
+import cs555.system.transport.TCPServerThread;
+import cs555.system.wireformats.Event;
 
 /**
  * Shared connection utilities between the discovery, peer, and store.
  * 
+ * <p>
+ * Connections to other peers are pooled by their <b>host:port</b>
+ * combination so that routing and data messages reuse a long-lived
+ * socket rather than performing a new TCP handshake for every hop.
+ * Pooled connections are checked for health before reuse,
+ * re-established when broken, and closed after being idle for
+ * {@link Properties#CONNECTION_IDLE_TIMEOUT} milliseconds.
+ * </p>
+ * 
  * @author stock
  *
  */
 public class ConnectionUtilities {
 
+  private static final Logger LOG = Logger.getInstance();
+
   private final Map<String, TCPConnection> temporaryConnections;
 
-  private ExecutorService executorService;
+  private final ExecutorService executorService;
+
+  private final ScheduledExecutorService evictionService;
 
   /**
    * Default constructor -
    * 
-   * @param executorService
+   * @param executorService to submit the receiver of each pooled
+   *        connection to
    * 
    */
   public ConnectionUtilities(ExecutorService executorService) {
     this.temporaryConnections = new HashMap<>();
     this.executorService = executorService;
+    this.evictionService = Executors.newSingleThreadScheduledExecutor( r ->
+    {
+      Thread thread = new Thread( r, "Connection Eviction" );
+      thread.setDaemon( true );
+      return thread;
+    } );
+    long period = Math.max( 1, Properties.CONNECTION_IDLE_TIMEOUT / 2 );
+    this.evictionService.scheduleWithFixedDelay( this::evictIdleConnections,
+        period, period, TimeUnit.MILLISECONDS );
   }
 
   /**
+   * Either establish a new or retrieve a cached connection made
+   * previously. The receiver for a new connection is started so that
+   * responses are delivered to the node and a remote close is
+   * detected.
    * 
-   * @param peer
-   * @param connection
+   * @param node corresponding to the connection
+   * @param peer to connect to
+   * 
+   * @return the cached TCP connection
+   * @throws IOException
    */
-  public void addConnection(PeerInformation peer, TCPConnection connection) {
-    temporaryConnections.putIfAbsent( peer.getIdentifier(), connection );
+  public TCPConnection cacheConnection(Node node, PeerInformation peer)
+      throws IOException {
+    String key = peer.getConnection();
+    synchronized ( temporaryConnections )
+    {
+      TCPConnection connection = temporaryConnections.get( key );
+      if ( connection != null && connection.isAlive() )
+      {
+        connection.touch();
+        return connection;
+      }
+      temporaryConnections.remove( key );
+    }
+    TCPConnection connection = ConnectionUtilities.establishConnection( node,
+        peer.getHost(), peer.getPort() );
+    synchronized ( temporaryConnections )
+    {
+      TCPConnection other = temporaryConnections.get( key );
+      if ( other != null && other.isAlive() )
+      {
+        connection.close();
+        other.touch();
+        return other;
+      }
+      temporaryConnections.put( key, connection );
+    }
+    connection.submitTo( executorService );
+    return connection;
   }
 
   /**
-   * Either establish a new or retrieve a cached connection made
-   * previously.
+   * Send a message to a peer over a pooled connection. If the pooled
+   * connection has gone stale, it is evicted and the message is sent
+   * once more over a newly established connection.
    * 
    * @param node corresponding to the connection
-   * @param peer to connect to
-   * @param startConnection true to start the TCP Receiver Thread, false
-   *        otherwise
+   * @param peer to send the message to
+   * @param event message to send
+   * @return the connection the message was sent on
+   * @throws IOException if the peer can not be reached
+   */
+  public TCPConnection send(Node node, PeerInformation peer, Event event)
+      throws IOException {
+    TCPConnection connection = cacheConnection( node, peer );
+    try
+    {
+      connection.getTCPSender().sendData( event );
+    } catch ( IOException e )
+    {
+      LOG.debug( "Reconnecting to " + peer.getConnection() + ". "
+          + e.toString() );
+      evict( peer, connection );
+      connection = cacheConnection( node, peer );
+      try
+      {
+        connection.getTCPSender().sendData( event );
+      } catch ( IOException ex )
+      {
+        evict( peer, connection );
+        throw ex;
+      }
+    }
+    return connection;
+  }
+
+  /**
+   * Close and remove a connection from the pool, if it is still the
+   * connection associated with the peer.
    * 
-   * @return the cached TCP connection
-   * @throws IOException
-   * @throws NumberFormatException
+   * @param peer
+   * @param connection
    */
-  public TCPConnection cacheConnection(Node node, PeerInformation peer,
-      boolean startConnection) throws IOException {
+  public void evict(PeerInformation peer, TCPConnection connection) {
+    synchronized ( temporaryConnections )
+    {
+      temporaryConnections.remove( peer.getConnection(), connection );
+    }
+    connection.close();
+  }
 
-    TCPConnection connection;
+  /**
+   * Close and remove all connections that are no longer healthy, or
+   * have not been used within the idle timeout.
+   * 
+   */
+  private void evictIdleConnections() {
+    long now = System.currentTimeMillis();
     synchronized ( temporaryConnections )
     {
-      if ( temporaryConnections.containsKey( peer.getIdentifier() ) )
-      {
-        connection = temporaryConnections.get( peer.getIdentifier() );
-      } else
+      Iterator<Entry<String, TCPConnection>> iterator =
+          temporaryConnections.entrySet().iterator();
+      while ( iterator.hasNext() )
       {
-        connection = ConnectionUtilities.establishConnection( node,
-            peer.getHost(), peer.getPort() );
-        temporaryConnections.put( peer.getIdentifier(), connection );
-        if ( startConnection )
+        TCPConnection connection = iterator.next().getValue();
+        if ( !connection.isAlive() || now
+            - connection.getLastActive() > Properties.CONNECTION_IDLE_TIMEOUT )
         {
-          connection.submitTo( executorService );
+          connection.close();
+          iterator.remove();
         }
       }
     }
-    return connection;
   }
 
   /**
@@ -92,9 +197,57 @@ public class ConnectionUtilities {
     }
   }
 
+  /**
+   * Create the executor that receivers and message handlers are run on,
+   * as specified by {@link Properties#SYSTEM_EXECUTOR}.
+   * 
+   * <p>
+   * Virtual threads suit the blocking reads and writes of the
+   * {@link cs555.system.transport.TCPReceiverThread} and
+   * {@link cs555.system.transport.TCPSender}, allowing many thousands of
+   * connections without a platform thread each.
+   * </p>
+   * 
+   * @return a new executor service for the node
+   */
+  public static ExecutorService executorService() {
+    if ( Properties.SYSTEM_EXECUTOR.equalsIgnoreCase( "VIRTUAL" ) )
+    {
+      return Executors.newVirtualThreadPerTaskExecutor();
+    }
+    return Executors.newCachedThreadPool();
+  }
+
+  /**
+   * Create the thread that accepts incoming connections for a node,
+   * using the transport specified by {@link Properties#SYSTEM_TRANSPORT}.
+   * 
+   * @param node to deliver incoming messages to
+   * @param serverChannel bound channel to accept connections on
+   * @param executorService to run receivers or handlers on
+   * @return the server thread to start
+   * @throws IOException
+   */
+  public static Runnable serverThread(Node node,
+      ServerSocketChannel serverChannel, ExecutorService executorService)
+      throws IOException {
+    if ( Properties.SYSTEM_TRANSPORT.equalsIgnoreCase( "NIO" ) )
+    {
+      return new NIOServerThread( node, serverChannel, executorService,
+          Properties.SYSTEM_TRANSPORT_THREADS );
+    }
+    return new TCPServerThread( node, serverChannel.socket(),
+        executorService );
+  }
+
   /**
    * Establish generic connection with a given node.
    * 
+   * <p>
+   * The socket is opened from a {@link SocketChannel} so that files can
+   * be transferred to it directly from a file channel.
+   * </p>
+   * 
    * @param node used to discovery receiving thread
    * @param host name associated with outgoing node
    * @param port number associated with outgoing node
@@ -103,7 +256,8 @@ public class ConnectionUtilities {
    */
   public static TCPConnection establishConnection(Node node, String host,
       Integer port) throws IOException {
-    Socket socketToTheServer = new Socket( host, port );
+    Socket socketToTheServer =
+        SocketChannel.open( new InetSocketAddress( host, port ) ).socket();
     return new TCPConnection( node, socketToTheServer );
   }
 
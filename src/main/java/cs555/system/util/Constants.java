@@ -12,15 +12,50 @@ public interface Constants {
 
   final boolean FAILURE = false;
 
-  final boolean CLOCKWISE = true;
-
-  final boolean COUNTER_CLOCKWISE = false;
-
-  final int IDENTIFIER_BIT_LENGTH = 16;
-
+  /**
+   * Bits in the identifier of a peer or content, which every node in
+   * the network must agree on. It is configured once with
+   * {@code system.identifier.bits}, and read without the rest of the
+   * {@link Properties}.
+   */
+  final int IDENTIFIER_BIT_LENGTH =
+      IdentifierUtilities.bitLength( Configurations.getInstance()
+          .getProperty( "system.identifier.bits", "16" ) );
+
+  /**
+   * One row of the routing table for each hexadecimal digit.
+   */
   final int NUMBER_OF_ROWS = IDENTIFIER_BIT_LENGTH / 4;
 
-  final int LEAF_SET_SIZE = 2;
+  final int NUMBER_OF_COLUMNS = 16;
+
+  /**
+   * Keys are unsigned values of {@link #IDENTIFIER_BIT_LENGTH} bits, and
+   * arithmetic on the ring is masked with this.
+   */
+  final long IDENTIFIER_MASK = -1L >>> ( Long.SIZE - IDENTIFIER_BIT_LENGTH );
+
+  /**
+   * Leaves of a peer in both directions, half of which are clockwise,
+   * configured once with {@code system.leaf.set.size}.
+   */
+  final int LEAF_SET_SIZE = Integer.parseInt( Configurations.getInstance()
+      .getProperty( "system.leaf.set.size", "8" ) );
+
+  /**
+   * Peers kept in each entry of the routing table in addition to the
+   * nearest, configured with {@code system.routing.alternates}.
+   */
+  final int ROUTING_TABLE_ALTERNATES = Integer.parseInt( Configurations
+      .getInstance().getProperty( "system.routing.alternates", "2" ) );
+
+  /**
+   * Peers that hold a copy of each file, the owner and the leaves
+   * nearest to its content identifier, configured with
+   * {@code system.replication.factor}.
+   */
+  final int REPLICATION_FACTOR = Integer.parseInt( Configurations
+      .getInstance().getProperty( "system.replication.factor", "3" ) );
 
   final String SEPERATOR = ">";
 }
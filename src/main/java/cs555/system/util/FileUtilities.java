@@ -1,16 +1,18 @@
 package cs555.system.util;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Map.Entry;
-import java.util.concurrent.ExecutorService;
-import cs555.system.metadata.PeerInformation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import cs555.system.metadata.FileCache;
 import cs555.system.metadata.PeerMetadata;
-import cs555.system.node.Node;
 import cs555.system.transport.TCPConnection;
+import cs555.system.util.TransferUtilities.Transfer;
+import cs555.system.wireformats.DataBatch;
+import cs555.system.wireformats.DataChunk;
 import cs555.system.wireformats.DataTransfer;
 import cs555.system.wireformats.Event;
 import cs555.system.wireformats.GenericMessage;
@@ -33,152 +35,270 @@ public class FileUtilities {
    * the Store with the status of the write operation.
    * 
    * <p>
-   * Data is stored by the specified {@code fileSystemPath} and a unique
-   * host connection string.
+   * Data is appended to the segments of the peer by the specified
+   * {@code fileSystemPath}.
    * </p>
    * 
    * @param metadata
    * @param event
    * @param connection from the Store that will be used for response
+   * @return the name of the file if it was written, to be replicated
    */
-  public static void write(PeerMetadata metadata, Event event,
+  public static List<String> write(PeerMetadata metadata, Event event,
       TCPConnection connection) {
     DataTransfer request = ( DataTransfer ) event;
     String[] descriptor = request.getDescriptor().split( Constants.SEPERATOR );
     metadata.addFile( descriptor[ 0 ], descriptor[ 1 ] );
 
-    Path path = constructPath( metadata, descriptor[ 0 ] );
     boolean success = Constants.SUCCESS;
     try
     {
-      Files.createDirectories( path.getParent() );
-      Files.write( path, request.getData() );
-      LOG.info( "Finished writing " + path.toString() + " to disk." );
+      metadata.storage().put( descriptor[ 0 ], descriptor[ 1 ],
+          request.getData() );
+      metadata.stored().put( descriptor[ 0 ], request.getData() );
+      LOG.info( "Finished writing " + descriptor[ 0 ] + " to disk." );
     } catch ( IOException e )
     {
       LOG.error(
-          "Unable to save " + path.toString() + " to disk. " + e.toString() );
+          "Unable to save " + descriptor[ 0 ] + " to disk. " + e.toString() );
       e.printStackTrace();
+      metadata.stored().remove( descriptor[ 0 ] );
       success = Constants.FAILURE;
     }
+    GenericPeerMessage response = new GenericPeerMessage(
+        Protocol.STORE_DATA_RESPONSE, metadata.self(),
+        request.getDescriptor(), success );
+    response.setRequest( request.getRequest() );
     try
     {
-      connection.getTCPSender()
-          .sendData( ( new GenericPeerMessage( Protocol.STORE_DATA_RESPONSE,
-              metadata.self(), request.getDescriptor(), success ) )
-                  .getBytes() );
+      connection.getTCPSender().sendData( response );
     } catch ( IOException e )
     {
       LOG.error( "Unable to send message to store. " + e.toString() );
       e.printStackTrace();
     }
+    return success ? List.of( descriptor[ 0 ] ) : Collections.emptyList();
   }
 
   /**
-   * Read a file on the request peer if it exists.
+   * Process a batch of small files by saving each of them to disk, and
+   * responding to the Store once with the status of every file.
+   * 
+   * @param metadata
+   * @param event a {@code STORE_DATA_BATCH_REQUEST}
+   * @param connection from the Store that will be used for response
+   * @return the names of the files that were written
+   */
+  public static List<String> writeBatch(PeerMetadata metadata, Event event,
+      TCPConnection connection) {
+    DataBatch request = ( DataBatch ) event;
+    List<String> written = new ArrayList<>( request.getEntries().size() );
+    DataBatch response =
+        new DataBatch( Protocol.STORE_DATA_BATCH_RESPONSE, metadata.self() );
+    for ( DataBatch.Entry entry : request.getEntries() )
+    {
+      String[] descriptor = entry.getDescriptor().split( Constants.SEPERATOR );
+      boolean success = Constants.SUCCESS;
+      try
+      {
+        metadata.storage().put( descriptor[ 0 ], descriptor[ 1 ],
+            entry.getData() );
+        metadata.stored().put( descriptor[ 0 ], entry.getData() );
+        metadata.addFile( descriptor[ 0 ], descriptor[ 1 ] );
+        written.add( descriptor[ 0 ] );
+      } catch ( IOException e )
+      {
+        LOG.error( "Unable to save " + descriptor[ 0 ] + " to disk. "
+            + e.toString() );
+        metadata.stored().remove( descriptor[ 0 ] );
+        success = Constants.FAILURE;
+      }
+      response.add( entry.getRequest(), entry.getDescriptor(), null, success );
+    }
+    LOG.info( "Finished writing a batch of " + request.getEntries().size()
+        + " files to disk." );
+    try
+    {
+      connection.getTCPSender().sendData( response );
+    } catch ( IOException e )
+    {
+      LOG.error( "Unable to send message to store. " + e.toString() );
+      e.printStackTrace();
+    }
+    return written;
+  }
+
+  /**
+   * Process a chunk of an incoming file that is streamed to disk, and
+   * respond to the sender with the status of the write operation once
+   * the transfer has ended.
    * 
    * <p>
-   * Data is stored by the specified {@code fileSystemPath} and a unique
-   * host connection string.
+   * The chunks are received into a temporary file, which is appended
+   * to the segments of the peer once the entire file has arrived.
    * </p>
    * 
    * @param metadata
-   * @param event
-   * @param connection from the Store that will be used for response
+   * @param event a {@code DataChunk} of the transfer
+   * @param connection from the sender that will be used for response
+   * @return the name of the file once it has been written
    */
-  public static void read(PeerMetadata metadata, Event event,
+  public static List<String> receive(PeerMetadata metadata, Event event,
       TCPConnection connection) {
-    GenericMessage request = ( GenericMessage ) event;
-    // fs path ? content id ? local path
-    String[] message = request.getMessage().split( Constants.SEPERATOR );
-    Path path = constructPath( metadata, message[ 0 ] );
+    DataChunk chunk = ( DataChunk ) event;
+    switch ( chunk.getType() )
+    {
+      case Protocol.DATA_CHUNK_BEGIN :
+        TransferUtilities.begin( chunk, metadata.storage()
+            .staging( Long.toHexString( chunk.getTransfer() ) ) );
+        break;
 
-    byte[] data = null;
+      case Protocol.DATA_CHUNK :
+        TransferUtilities.append( chunk );
+        break;
+
+      case Protocol.DATA_CHUNK_END :
+        Transfer transfer = TransferUtilities.end( chunk );
+        if ( transfer == null )
+        {
+          break;
+        }
+        String[] descriptor =
+            transfer.getDescriptor().split( Constants.SEPERATOR );
+        boolean success = transfer.isSuccess() && append( metadata,
+            descriptor[ 0 ], descriptor[ 1 ], transfer.getPath() );
+        GenericPeerMessage response = new GenericPeerMessage(
+            Protocol.STORE_DATA_RESPONSE, metadata.self(),
+            transfer.getDescriptor(), success );
+        response.setRequest( transfer.getRequest() );
+        try
+        {
+          connection.getTCPSender().sendData( response );
+        } catch ( IOException e )
+        {
+          LOG.error( "Unable to send message to store. " + e.toString() );
+          e.printStackTrace();
+        }
+        if ( success )
+        {
+          return List.of( descriptor[ 0 ] );
+        }
+        break;
+    }
+    return Collections.emptyList();
+  }
+
+  /**
+   * Append a file that was received to the segments of the peer, and
+   * delete the temporary file it was received into.
+   * 
+   * @param metadata
+   * @param filename
+   * @param identifier of the content
+   * @param path of the temporary file
+   * @return true if the file was stored, false otherwise
+   */
+  private static boolean append(PeerMetadata metadata, String filename,
+      String identifier, Path path) {
+    boolean success = Constants.SUCCESS;
     try
     {
-      data = Files.readAllBytes( path );
+      metadata.storage().put( filename, identifier, path );
+      // the file was replaced, and is cached once read
+      metadata.stored().remove( filename );
+      metadata.addFile( filename, identifier );
+      LOG.info( "Finished writing " + filename + " to disk." );
     } catch ( IOException e )
     {
-      LOG.error(
-          "Unable to read " + path.toString() + " from disk. " + e.toString() );
-      e.printStackTrace();
+      LOG.error( "Unable to save " + filename + " to disk. " + e.toString() );
+      success = Constants.FAILURE;
     }
     try
     {
-      connection.getTCPSender()
-          .sendData( ( new DataTransfer( Protocol.READ_DATA_RESPONSE, data,
-              ( new StringBuilder( metadata.self().toString() ) )
-                  .append( Constants.SEPERATOR ).append( request.getMessage() )
-                  .toString() ) ).getBytes() );
+      Files.deleteIfExists( path );
     } catch ( IOException e )
     {
-      LOG.error( "Unable to send message to store. " + e.toString() );
-      e.printStackTrace();
+      LOG.error( "Unable to delete " + path.toString() + ". " + e.toString() );
     }
+    return success;
   }
 
   /**
-   * Migrate data from this node to the newly added neighbor, which is
-   * the same as the connection who just joined.
+   * Read a file on the request peer if it exists.
+   * 
+   * <p>
+   * Data is stored by the specified {@code fileSystemPath}. The file is
+   * streamed to the Store in chunks from the segment it is mapped in,
+   * or a response without data is sent if it does not exist.
+   * </p>
+   * 
+   * <p>
+   * The file is sent from the content cached in memory if it is held
+   * there, otherwise it is copied into the cache first if it fits.
+   * </p>
    * 
-   * @param node
    * @param metadata
-   * @param executorService
-   * @param entry key/value pair as fileSystemPath/fileIdentifier
-   * @param leaf
-   * @return true if a file has to be migrated, false otherwise
+   * @param event
+   * @param connection from the Store that will be used for response
    */
-  public static boolean migrateData(Node node, PeerMetadata metadata,
-      ExecutorService executorService, Entry<String, String> entry,
-      PeerInformation leaf) {
-    String k = entry.getKey(), v = entry.getValue();
-    PeerInformation closest = metadata.leaf().getClosestLeaf( v );
-    if ( closest == null || closest.equals( leaf ) )
-    {
-      String fileSystemPath = k + "-" + metadata.self().getConnection();
-      Path path =
-          Paths.get( File.separator, "tmp", "stock", "pastry", fileSystemPath );
-      byte[] data = null;
-      try
+  public static void read(PeerMetadata metadata, Event event,
+      TCPConnection connection) {
+    GenericMessage request = ( GenericMessage ) event;
+    // fs path ? content id ? local path
+    String[] message = request.getMessage().split( Constants.SEPERATOR );
+    String descriptor = ( new StringBuilder( metadata.self().toString() ) )
+        .append( Constants.SEPERATOR ).append( request.getMessage() )
+        .toString();
+    try
+    {
+      ByteBuffer content = cached( metadata, message[ 0 ] );
+      if ( content != null )
       {
-        data = Files.readAllBytes( path );
-        TCPConnection connection = ConnectionUtilities
-            .establishConnection( node, leaf.getHost(), leaf.getPort() );
-        connection.submitTo( executorService );
-        connection.getTCPSender()
-            .sendData( ( new DataTransfer( Protocol.STORE_DATA_REQUEST, data,
-                k + Constants.SEPERATOR + v ) ).getBytes() );
-        LOG.info( ( new StringBuilder() ).append( "The file " )
-            .append( File.separator ).append( k )
-            .append( " is being migrated to " ).append( leaf.toString() )
-            .toString() );
-        Files.delete( path );
-      } catch ( IOException e )
+        TransferUtilities.send( connection.getTCPSender(),
+            Protocol.READ_DATA_RESPONSE, descriptor, content,
+            request.getRequest() );
+      } else
       {
-        LOG.error(
-            "Unable to migrate " + fileSystemPath + ", " + e.toString() );
-        e.printStackTrace();
-        return false;
+        LOG.error( "Unable to read " + message[ 0 ] + " from disk." );
+        DataTransfer response =
+            new DataTransfer( Protocol.READ_DATA_RESPONSE, null, descriptor );
+        response.setRequest( request.getRequest() );
+        connection.getTCPSender().sendData( response );
       }
-      return true;
-    } else
+    } catch ( IOException e )
     {
-      return false;
+      LOG.error( "Unable to send message to store. " + e.toString() );
+      e.printStackTrace();
+      connection.close();
     }
   }
 
   /**
-   * 
-   * Construct the file system path that will be used to read / write a
-   * file on the peer file system.
+   * Get the content of a file from the cache, copying it from its
+   * segment into the cache if it is not held there.
    * 
    * @param metadata
-   * @param filename
-   * @return
+   * @param filename the content is stored as
+   * @return the content of the file, or {@code null} if it is not
+   *         stored on the peer
    */
-  private static Path constructPath(PeerMetadata metadata, String filename) {
-    return Paths.get( File.separator, "tmp", "stock", "pastry",
-        filename + "-" + metadata.self().getConnection() );
+  private static ByteBuffer cached(PeerMetadata metadata, String filename) {
+    FileCache stored = metadata.stored();
+    ByteBuffer content = stored.isEnabled() ? stored.get( filename ) : null;
+    if ( content != null )
+    {
+      return content;
+    }
+    long stamp = stored.stamp();
+    content = metadata.storage().get( filename );
+    if ( content != null && stored.isEnabled()
+        && content.remaining() <= stored.capacity() )
+    {
+      ByteBuffer copy = ByteBuffer.allocateDirect( content.remaining() );
+      copy.put( content.duplicate() ).flip();
+      stored.load( filename, copy, stamp );
+    }
+    return content;
   }
 
 }
@@ -1,18 +1,33 @@
 package cs555.system.util;
 
 import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import cs555.system.metadata.PeerInformation;
 import cs555.system.metadata.PeerMetadata;
+import cs555.system.metadata.RoutingSnapshot;
 
 /**
  * Utilities used for obtaining a hexadecimal or byte representation
  * identifier for a peer or data content.
  * 
+ * <p>
+ * Identifiers are {@link Constants#IDENTIFIER_BIT_LENGTH} bits, and
+ * their keys are unsigned, so keys are compared with
+ * {@link Long#compareUnsigned(long, long)} to support 64-bit
+ * identifiers.
+ * </p>
+ * 
  * @author stock
  *
  */
 public class IdentifierUtilities {
 
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
   /**
    * Converts a set of bytes into a Hexadecimal <tt>String</tt>
    * representation.
@@ -56,14 +71,125 @@ public class IdentifierUtilities {
   }
 
   /**
-   * Uses the current timestamp to generate a 16-bit CRC checksum.
+   * Parse and check the number of bits in an identifier.
    * 
-   * @return a <tt>String</tt> of 16-bit hexadecimal
+   * @param bits a multiple of 4 from 16 to 64
+   * @return the number of bits
+   * @throws IllegalArgumentException if the number of bits can not be
+   *         used for an identifier
+   */
+  public static int bitLength(String bits) {
+    int length = Integer.parseInt( bits.trim() );
+    if ( length < 16 || length > Long.SIZE || length % 4 != 0 )
+    {
+      throw new IllegalArgumentException(
+          "Identifiers must be a multiple of 4 from 16 to 64 bits, not "
+              + bits );
+    }
+    return length;
+  }
+
+  /**
+   * Convert a hexadecimal identifier into its integer key.
+   * 
+   * @param identifier hexadecimal identifier
+   * @return the unsigned value of the identifier, or -1 if the
+   *         identifier is not set or not hexadecimal
+   */
+  public static long identifierToKey(String identifier) {
+    if ( identifier == null )
+    {
+      return -1;
+    }
+    try
+    {
+      return Long.parseUnsignedLong( identifier, 16 );
+    } catch ( NumberFormatException e )
+    {
+      return -1;
+    }
+  }
+
+  /**
+   * Convert an integer key into its hexadecimal identifier.
+   * 
+   * @param key integer identifier
+   * @return the upper case hexadecimal identifier, padded to
+   *         {@link Constants#NUMBER_OF_ROWS} digits
+   */
+  public static String keyToIdentifier(long key) {
+    char[] identifier = new char[ Constants.NUMBER_OF_ROWS ];
+    for ( int row = 0; row < identifier.length; ++row )
+    {
+      identifier[ row ] = HEX[ digit( key, row ) ];
+    }
+    return new String( identifier );
+  }
+
+  /**
+   * Get the digit of a key used to index the columns of a row in the
+   * routing table.
+   * 
+   * @param key integer identifier
+   * @param row of the routing table, i.e., the digit position from the
+   *        most significant digit
+   * @return the hexadecimal digit of the key at the given row
+   */
+  public static int digit(long key, int row) {
+    return ( int ) ( key >>> ( ( Constants.NUMBER_OF_ROWS - 1 - row ) << 2 ) )
+        & 0xF;
+  }
+
+  /**
+   * Uses the current timestamp to generate an identifier.
+   * 
+   * @see #contentToIdentifier(byte[])
+   * @return a <tt>String</tt> of hexadecimal
    */
   public static String timestampToIdentifier() {
     long timestamp = System.currentTimeMillis();
     byte[] bytes = ByteBuffer.allocate( 8 ).putLong( timestamp ).array();
-    return CRC16CCITT( bytes );
+    return contentToIdentifier( bytes );
+  }
+
+  /**
+   * Derive the identifier of some content, e.g., the path of a file.
+   * 
+   * <p>
+   * A 16-bit identifier is the CRC of the content, as it always has
+   * been. Wider identifiers are the leading bits of the SHA-1 digest of
+   * the content, so they are spread evenly over the larger ring and
+   * rarely collide.
+   * </p>
+   * 
+   * @param bytes of the content
+   * @return a <tt>String</tt> of {@link Constants#NUMBER_OF_ROWS}
+   *         hexadecimal digits
+   */
+  public static String contentToIdentifier(byte[] bytes) {
+    if ( Constants.IDENTIFIER_BIT_LENGTH == 16 )
+    {
+      return CRC16CCITT( bytes );
+    }
+    long digest = ByteBuffer.wrap( SHA1( bytes ) ).getLong();
+    return keyToIdentifier(
+        digest >>> ( Long.SIZE - Constants.IDENTIFIER_BIT_LENGTH ) );
+  }
+
+  /**
+   * 
+   * @param bytes
+   * @return the 160-bit SHA-1 digest of the bytes
+   */
+  public static byte[] SHA1(byte[] bytes) {
+    try
+    {
+      return MessageDigest.getInstance( "SHA-1" ).digest( bytes );
+    } catch ( NoSuchAlgorithmException e )
+    {
+      // every Java platform is required to support SHA-1
+      throw new IllegalStateException( e );
+    }
   }
 
   /**
@@ -132,32 +258,159 @@ public class IdentifierUtilities {
     return longest;
   }
 
+  /**
+   * The number of leading hexadecimal digits shared by two keys.
+   * 
+   * @param a
+   * @param b
+   * @return the length of the common prefix, which is
+   *         {@link Constants#NUMBER_OF_ROWS} if the keys are the same
+   */
+  public static int longestCommonPrefixLength(long a, long b) {
+    return ( Long.numberOfLeadingZeros( a ^ b ) - Long.SIZE
+        + Constants.IDENTIFIER_BIT_LENGTH ) >> 2;
+  }
+
+  /**
+   * The distance travelled clockwise around the ring from one key to
+   * another.
+   * 
+   * @param from
+   * @param to
+   * @return the unsigned distance, which must be compared with
+   *         {@link Long#compareUnsigned(long, long)}
+   */
+  public static long clockwise(long from, long to) {
+    return ( to - from ) & Constants.IDENTIFIER_MASK;
+  }
+
+  /**
+   * The shortest distance around the ring between two keys, in either
+   * direction.
+   * 
+   * @param a
+   * @param b
+   * @return the unsigned distance, which must be compared with
+   *         {@link Long#compareUnsigned(long, long)}
+   */
+  public static long distance(long a, long b) {
+    long cw = clockwise( a, b );
+    long ccw = clockwise( b, a );
+    return Long.compareUnsigned( cw, ccw ) < 0 ? cw : ccw;
+  }
+
+  /**
+   * Get the next hop towards the destination from the routing table.
+   * 
+   * <p>
+   * The row is the length of the prefix shared by this peer and the
+   * destination, and the column is the next digit of the destination,
+   * so the entry is found without searching. If that entry is empty,
+   * the closest peer in the table and leaf set is used instead.
+   * </p>
+   * 
+   * @param metadata
+   * @param destination
+   * @return the peer to forward to
+   */
+  public static PeerInformation nextHop(PeerMetadata metadata,
+      PeerInformation destination) {
+    return nextHop( metadata.routing(), destination );
+  }
+
+  /**
+   * Get the next hop towards the destination from a snapshot of the
+   * routing table.
+   * 
+   * @see #nextHop(PeerMetadata, PeerInformation)
+   * @param routing
+   * @param destination
+   * @return the peer to forward to
+   */
+  public static PeerInformation nextHop(RoutingSnapshot routing,
+      PeerInformation destination) {
+    long dest = destination.getKey();
+    int row = longestCommonPrefixLength( routing.self().getKey(), dest );
+    if ( row < Constants.NUMBER_OF_ROWS )
+    {
+      PeerInformation peer =
+          routing.getTableIndex( row, digit( dest, row ) );
+      if ( peer != null )
+      {
+        return peer;
+      }
+    }
+    return closest( routing, destination );
+  }
+
+  /**
+   * Get the alternates of the routing table entry a hop towards the
+   * destination was taken from. Each shares as long a prefix with the
+   * destination as the hop, so a lookup that can not reach the hop is
+   * sent to one of them without routing any further.
+   * 
+   * @param routing
+   * @param destination
+   * @param hop returned by
+   *        {@link #nextHop(RoutingSnapshot, PeerInformation)}
+   * @return the alternates nearest first, or an empty list if the hop
+   *         is not from the entry of the destination
+   */
+  public static List<PeerInformation> alternates(RoutingSnapshot routing,
+      PeerInformation destination, PeerInformation hop) {
+    long dest = destination.getKey();
+    int row = longestCommonPrefixLength( routing.self().getKey(), dest );
+    if ( row >= Constants.NUMBER_OF_ROWS )
+    {
+      return Collections.emptyList();
+    }
+    List<PeerInformation> alternates = new ArrayList<>(
+        List.of( routing.getCandidates( row, digit( dest, row ) ) ) );
+    if ( !alternates.remove( hop ) )
+    {
+      return Collections.emptyList();
+    }
+    return alternates;
+  }
+
   /**
    * Get the closest peer to the destination
-   *
+   * 
    * @param self
    * @param destination
    * @return
    */
   public static PeerInformation closest(PeerMetadata metadata,
       PeerInformation destination) {
+    return closest( metadata.routing(), destination );
+  }
+
+  /**
+   * Get the closest peer to the destination from a snapshot of the
+   * routing table and leaf set.
+   * 
+   * @param routing
+   * @param destination
+   * @return
+   */
+  public static PeerInformation closest(RoutingSnapshot routing,
+      PeerInformation destination) {
 
-    int dest = Integer.parseInt( destination.getIdentifier(), 16 );
-    int diff = Integer.MAX_VALUE, other, temp_diff;
+    long dest = destination.getKey();
+    long diff = -1L, temp_diff;
     PeerInformation closest = null, temp;
+    PeerInformation[][] table = routing.table();
 
     // 1. get closest in table from destination
     for ( int r = 0; r < Constants.NUMBER_OF_ROWS; ++r )
     {
-      for ( int col = 0; col < Constants.IDENTIFIER_BIT_LENGTH; ++col )
+      for ( int col = 0; col < Constants.NUMBER_OF_COLUMNS; ++col )
       {
-        temp = metadata.table().getTableIndex( r, col );
+        temp = table[ r ][ col ];
         if ( temp != null )
         {
-          other = Integer.parseInt( temp.getIdentifier(), 16 );
-          temp_diff =
-              Math.min( ( other - dest ) & 0xFFFF, ( dest - other ) & 0xFFFF );
-          if ( temp_diff < diff )
+          temp_diff = distance( temp.getKey(), dest );
+          if ( Long.compareUnsigned( temp_diff, diff ) < 0 )
           {
             diff = temp_diff;
             closest = temp;
@@ -167,21 +420,13 @@ public class IdentifierUtilities {
     }
     // 4. compare closest in table with leafset. Assumes already checked
     // region within leafset
-    if ( metadata.leaf().isPopulated() )
+    for ( PeerInformation leaf : routing.getLeaves() )
     {
-      other = Integer.parseInt( metadata.leaf().getCW().getIdentifier(), 16 );
-      temp_diff = ( dest - other ) & 0xFFFF;
-      if ( temp_diff < diff )
-      {
-        diff = temp_diff;
-        closest = metadata.leaf().getCW();
-      }
-      other = Integer.parseInt( metadata.leaf().getCCW().getIdentifier(), 16 );
-      temp_diff = ( other - dest ) & 0xFFFF;
-      if ( temp_diff < diff )
+      temp_diff = distance( leaf.getKey(), dest );
+      if ( Long.compareUnsigned( temp_diff, diff ) < 0 )
       {
         diff = temp_diff;
-        closest = metadata.leaf().getCCW();
+        closest = leaf;
       }
     }
     return closest;
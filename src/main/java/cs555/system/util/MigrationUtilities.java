@@ -0,0 +1,476 @@
+package cs555.system.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import cs555.system.metadata.PeerInformation;
+import cs555.system.metadata.PeerMetadata;
+import cs555.system.node.Node;
+import cs555.system.transport.TCPConnection;
+import cs555.system.wireformats.DataBatch;
+import cs555.system.wireformats.Event;
+import cs555.system.wireformats.GenericPeerMessage;
+import cs555.system.wireformats.Protocol;
+
+/**
+ * Migrates the files of a peer to a leaf that has become their owner,
+ * e.g., once a neighbor joins or this peer leaves the network, and
+ * replicates them to the leaves nearest their content identifiers.
+ * 
+ * <p>
+ * Each file is held by the {@link Constants#REPLICATION_FACTOR} peers
+ * closest to its content identifier. The owner copies a file to each of
+ * the other replicas that has not acknowledged it, a peer that is no
+ * longer a replica moves the file to the owner, and a replica that
+ * copied the file as the owner copies it to a nearer peer that has
+ * joined as the owner. Replicas are found from the leaf set, so a file
+ * that falls outside of it is kept as is.
+ * </p>
+ * 
+ * <p>
+ * The files are streamed to the leaf over one pooled connection,
+ * outside of any lock held while routing. Files small enough to be sent
+ * as a single chunk are grouped into batches of up to
+ * {@link Properties#STORE_BATCH_SIZE} bytes, and the rest are streamed
+ * in chunks. A file is only deleted once the leaf has acknowledged it
+ * was written, and is otherwise kept by this peer. A copy is never
+ * deleted.
+ * </p>
+ * 
+ * <p>
+ * A file that is written again while it is being sent supersedes the
+ * transfer in flight, whose acknowledgement then neither records the
+ * peer as a holder nor deletes the file, and the new version is sent.
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+public class MigrationUtilities {
+
+  private static final Logger LOG = Logger.getInstance();
+
+  private final Node node;
+
+  private final PeerMetadata metadata;
+
+  private final ConnectionUtilities connections;
+
+  private final ExecutorService executorService;
+
+  private final Map<Long, Migration> pending;
+
+  private final Map<String, Migration> migrating;
+
+  private final Map<String, Set<PeerInformation>> holders;
+
+  private final AtomicLong requests;
+
+  /**
+   * Default constructor -
+   * 
+   * @param node that owns the files
+   * @param metadata of the peer
+   * @param connections pool used to reach the leaf
+   * @param executorService to stream the files from
+   */
+  public MigrationUtilities(Node node, PeerMetadata metadata,
+      ConnectionUtilities connections, ExecutorService executorService) {
+    this.node = node;
+    this.metadata = metadata;
+    this.connections = connections;
+    this.executorService = executorService;
+    this.pending = new ConcurrentHashMap<>();
+    this.migrating = new ConcurrentHashMap<>();
+    this.holders = new ConcurrentHashMap<>();
+    this.requests = new AtomicLong();
+  }
+
+  /**
+   * Migrate every file that belongs on the leaf. The files are selected
+   * before returning, and then streamed to the leaf in the background.
+   * 
+   * @param leaf to migrate the files to
+   * @param moves true for the content identifier of a file that belongs
+   *        on the leaf
+   * @return a future completed once the leaf has acknowledged, or
+   *         failed to write, every file
+   */
+  public CompletableFuture<Void> migrate(PeerInformation leaf,
+      Predicate<String> moves) {
+    List<Migration> migrations = new ArrayList<>();
+    synchronized ( metadata.files() )
+    {
+      for ( Entry<String, String> entry : metadata.files().entrySet() )
+      {
+        if ( moves.test( entry.getValue() ) )
+        {
+          Migration migration =
+              track( leaf, entry.getKey(), entry.getValue(), false );
+          if ( migration != null )
+          {
+            migrations.add( migration );
+          }
+        }
+      }
+    }
+    if ( migrations.isEmpty() )
+    {
+      return CompletableFuture.completedFuture( null );
+    }
+    LOG.info( "Migrating " + migrations.size() + " files to "
+        + leaf.toString() );
+    executorService.execute( () -> send( leaf, migrations ) );
+    return CompletableFuture.allOf( migrations.stream()
+        .map( m -> m.future ).toArray( CompletableFuture[]::new ) );
+  }
+
+  /**
+   * Replicate files that were just written to this peer, whose earlier
+   * copies on other peers are no longer current.
+   * 
+   * @param filenames written
+   */
+  public void replicate(Collection<String> filenames) {
+    if ( filenames.isEmpty() )
+    {
+      return;
+    }
+    holders.keySet().removeAll( filenames );
+    Set<String> written = new HashSet<>( filenames );
+    for ( Migration migration : pending.values() )
+    {
+      if ( written.contains( migration.filename ) )
+      {
+        migration.superseded = true;
+        migrating.remove( migration.key(), migration );
+      }
+    }
+    synchronize( filenames );
+  }
+
+  /**
+   * Replicate every file on this peer, e.g., once the leaf set has
+   * changed. Only the copies that are missing are sent.
+   * 
+   */
+  public void replicate() {
+    List<String> filenames;
+    synchronized ( metadata.files() )
+    {
+      filenames = new ArrayList<>( metadata.files().keySet() );
+    }
+    synchronize( filenames );
+  }
+
+  /**
+   * Select the files to copy or move to each peer, and then stream them
+   * in the background.
+   * 
+   * @param filenames
+   */
+  private void synchronize(Collection<String> filenames) {
+    PeerInformation self = metadata.self();
+    Map<PeerInformation, List<Migration>> transfers = new HashMap<>();
+    synchronized ( metadata.files() )
+    {
+      for ( String filename : filenames )
+      {
+        String identifier = metadata.files().get( filename );
+        List<PeerInformation> replicas = identifier == null
+            ? Collections.emptyList()
+            : metadata.leaf().getReplicas( identifier,
+                Constants.REPLICATION_FACTOR );
+        if ( replicas.isEmpty() )
+        {
+          continue;
+        }
+        PeerInformation owner = replicas.get( 0 );
+        Set<PeerInformation> held =
+            holders.getOrDefault( filename, Collections.emptySet() );
+        List<PeerInformation> targets = new ArrayList<>();
+        boolean copy = true;
+        if ( owner.equals( self ) )
+        {
+          for ( PeerInformation replica : replicas )
+          {
+            if ( !replica.equals( self ) && !held.contains( replica ) )
+            {
+              targets.add( replica );
+            }
+          }
+        } else if ( !replicas.contains( self ) )
+        {
+          targets.add( owner );
+          copy = false;
+        } else if ( !held.isEmpty() && !held.contains( owner ) )
+        {
+          // this peer was the owner until a nearer peer joined
+          targets.add( owner );
+        }
+        for ( PeerInformation target : targets )
+        {
+          Migration migration = track( target, filename, identifier, copy );
+          if ( migration != null )
+          {
+            transfers.computeIfAbsent( target, k -> new ArrayList<>() )
+                .add( migration );
+          }
+        }
+      }
+    }
+    transfers.forEach( ( peer, migrations ) ->
+    {
+      LOG.info( "Replicating " + migrations.size() + " files to "
+          + peer.toString() );
+      executorService.execute( () -> send( peer, migrations ) );
+    } );
+  }
+
+  /**
+   * Forget the copies held by a peer, e.g., once it has left the
+   * network, so they are sent to the next replica.
+   * 
+   * @param peer
+   */
+  public void forget(PeerInformation peer) {
+    holders.values().forEach( held -> held.remove( peer ) );
+    // transfers the peer will never acknowledge are dropped, so the
+    // files can be sent to it again should it return
+    for ( Migration migration : pending.values() )
+    {
+      if ( migration.peer.equals( peer )
+          && pending.remove( migration.request, migration ) )
+      {
+        migrating.remove( migration.key(), migration );
+        migration.future.complete( null );
+      }
+    }
+  }
+
+  /**
+   * 
+   * @param peer to send the file to
+   * @param filename
+   * @param identifier
+   * @param copy true if the file is kept once acknowledged
+   * @return the pending transfer, or {@code null} if the file is being
+   *         sent to the peer already
+   */
+  private Migration track(PeerInformation peer, String filename,
+      String identifier, boolean copy) {
+    Migration migration = new Migration( requests.incrementAndGet(), peer,
+        filename, identifier, copy );
+    if ( migrating.putIfAbsent( migration.key(), migration ) != null )
+    {
+      return null;
+    }
+    pending.put( migration.request, migration );
+    return migration;
+  }
+
+  /**
+   * Stream the files to the leaf over one connection.
+   * 
+   * @param leaf
+   * @param migrations
+   */
+  private void send(PeerInformation leaf, List<Migration> migrations) {
+    DataBatch batch = new DataBatch( Protocol.STORE_DATA_BATCH_REQUEST, null );
+    long bytes = 0;
+    int next = 0;
+    TCPConnection connection = null;
+    try
+    {
+      connection = connections.cacheConnection( node, leaf );
+      for ( ; next < migrations.size(); ++next )
+      {
+        Migration migration = migrations.get( next );
+        ByteBuffer content = metadata.storage().get( migration.filename );
+        if ( content == null )
+        {
+          LOG.error( "Unable to read " + migration.filename + " from disk." );
+          acknowledge( migration.request, Constants.FAILURE );
+          continue;
+        }
+        if ( content.remaining() > Properties.TRANSFER_CHUNK_SIZE
+            || Properties.STORE_BATCH_SIZE <= 0 )
+        {
+          // the leaf acknowledges once the transfer has ended
+          TransferUtilities.send( connection.getTCPSender(),
+              Protocol.STORE_DATA_REQUEST, migration.descriptor(), content,
+              migration.request );
+          continue;
+        }
+        byte[] data = new byte[ content.remaining() ];
+        content.get( data );
+        batch.add( migration.request, migration.descriptor(), data,
+            Constants.SUCCESS );
+        bytes += data.length;
+        if ( bytes >= Properties.STORE_BATCH_SIZE )
+        {
+          connection.getTCPSender().sendData( batch );
+          batch = new DataBatch( Protocol.STORE_DATA_BATCH_REQUEST, null );
+          bytes = 0;
+        }
+      }
+      if ( !batch.getEntries().isEmpty() )
+      {
+        connection.getTCPSender().sendData( batch );
+      }
+    } catch ( IOException e )
+    {
+      LOG.error( "Unable to migrate files to " + leaf.toString() + ", "
+          + e.toString() );
+      if ( connection != null )
+      {
+        connections.evict( leaf, connection );
+      }
+      // nothing after the failure was sent, nor the unsent batch
+      for ( DataBatch.Entry entry : batch.getEntries() )
+      {
+        acknowledge( entry.getRequest(), Constants.FAILURE );
+      }
+      for ( ; next < migrations.size(); ++next )
+      {
+        acknowledge( migrations.get( next ).request, Constants.FAILURE );
+      }
+    }
+  }
+
+  /**
+   * Process the response from the leaf regarding the status of writing
+   * migrated files, deleting each file that was written.
+   * 
+   * @param event a {@code STORE_DATA_RESPONSE} or
+   *        {@code STORE_DATA_BATCH_RESPONSE}
+   */
+  public void acknowledge(Event event) {
+    if ( event.getType() == Protocol.STORE_DATA_BATCH_RESPONSE )
+    {
+      for ( DataBatch.Entry entry : ( ( DataBatch ) event ).getEntries() )
+      {
+        acknowledge( entry.getRequest(), entry.getFlag() );
+      }
+    } else
+    {
+      GenericPeerMessage response = ( GenericPeerMessage ) event;
+      acknowledge( response.getRequest(), response.getFlag() );
+    }
+  }
+
+  /**
+   * 
+   * @param request identifier of the migrated file
+   * @param success true if the leaf wrote the file, false otherwise
+   */
+  private void acknowledge(long request, boolean success) {
+    Migration migration = pending.remove( request );
+    if ( migration == null )
+    {
+      return;
+    }
+    migrating.remove( migration.key(), migration );
+    if ( migration.superseded )
+    {
+      // the file was written again, and the new version is sent
+      LOG.debug( "The transfer of " + migration.filename + " to "
+          + migration.peer.toString() + " was superseded." );
+    } else if ( success && migration.copy )
+    {
+      holders.computeIfAbsent( migration.filename,
+          k -> ConcurrentHashMap.newKeySet() ).add( migration.peer );
+      LOG.info( ( new StringBuilder() ).append( "The file " )
+          .append( File.separator ).append( migration.filename )
+          .append( " was replicated to " ).append( migration.peer.toString() )
+          .toString() );
+    } else if ( success )
+    {
+      // removed from the store first, so a read that misses the cache
+      // in between can not cache content the peer no longer stores
+      try
+      {
+        metadata.storage().remove( migration.filename );
+      } catch ( IOException e )
+      {
+        LOG.error( "Unable to delete " + migration.filename + ", "
+            + e.toString() );
+      }
+      metadata.removeFile( migration.filename );
+      holders.remove( migration.filename );
+      LOG.info( ( new StringBuilder() ).append( "The file " )
+          .append( File.separator ).append( migration.filename )
+          .append( " was migrated." ).toString() );
+    } else
+    {
+      LOG.error( "Unable to " + ( migration.copy ? "replicate " : "migrate " )
+          + migration.filename + " to " + migration.peer.toString()
+          + ", it is kept on this peer." );
+    }
+    migration.future.complete( null );
+  }
+
+  /**
+   * A file being migrated, or copied to a replica.
+   * 
+   * @author stock
+   * 
+   */
+  private static class Migration {
+
+    private final long request;
+
+    private final PeerInformation peer;
+
+    private final String filename;
+
+    private final String identifier;
+
+    private final boolean copy;
+
+    private final CompletableFuture<Void> future;
+
+    private volatile boolean superseded;
+
+    private Migration(long request, PeerInformation peer, String filename,
+        String identifier, boolean copy) {
+      this.request = request;
+      this.peer = peer;
+      this.filename = filename;
+      this.identifier = identifier;
+      this.copy = copy;
+      this.future = new CompletableFuture<>();
+      this.superseded = false;
+    }
+
+    /**
+     * 
+     * @return fs path ? peer host:port, sent once at a time
+     */
+    private String key() {
+      return filename + Constants.SEPERATOR + peer.getConnection();
+    }
+
+    /**
+     * 
+     * @return fs path ? content id
+     */
+    private String descriptor() {
+      return filename + Constants.SEPERATOR + identifier;
+    }
+  }
+}
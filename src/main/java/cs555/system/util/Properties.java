@@ -20,5 +20,87 @@ public interface Properties {
 
   final String SYSTEM_DHT_STYLE =
       Configurations.getInstance().getProperty( "system.dht.style", "SHORT" );
-  
+
+  final long CONNECTION_IDLE_TIMEOUT =
+      Long.parseLong( Configurations.getInstance()
+          .getProperty( "system.connection.idle.timeout", "60000" ) );
+
+  final String SYSTEM_TRANSPORT =
+      Configurations.getInstance().getProperty( "system.transport", "BLOCKING" );
+
+  final int SYSTEM_TRANSPORT_THREADS = Integer.parseInt(
+      Configurations.getInstance().getProperty( "system.transport.threads",
+          Integer.toString( Runtime.getRuntime().availableProcessors() ) ) );
+
+  final int SYSTEM_TRANSPORT_MAX_FRAME = Integer.parseInt( Configurations
+      .getInstance().getProperty( "system.transport.max.frame", "16777216" ) );
+
+  final String SYSTEM_EXECUTOR =
+      Configurations.getInstance().getProperty( "system.executor", "CACHED" );
+
+  final int TRANSFER_CHUNK_SIZE = Integer.parseInt( Configurations
+      .getInstance().getProperty( "system.transfer.chunk.size", "65536" ) );
+
+  final long TRANSFER_IDLE_TIMEOUT = Long.parseLong( Configurations
+      .getInstance().getProperty( "system.transfer.idle.timeout", "60000" ) );
+
+  final String BUFFER_TYPE =
+      Configurations.getInstance().getProperty( "system.buffer.type", "HEAP" );
+
+  final int BUFFER_SIZE = Integer.parseInt( Configurations.getInstance()
+      .getProperty( "system.buffer.size", "131072" ) );
+
+  final int BUFFER_POOL_SIZE = Integer.parseInt( Configurations.getInstance()
+      .getProperty( "system.buffer.pool.size", "64" ) );
+
+  final int LOOKUP_CACHE_SIZE = Integer.parseInt( Configurations
+      .getInstance().getProperty( "system.lookup.cache.size", "1024" ) );
+
+  final long LOOKUP_CACHE_TTL = Long.parseLong( Configurations.getInstance()
+      .getProperty( "system.lookup.cache.ttl", "30000" ) );
+
+  final long READ_CACHE_SIZE = Long.parseLong( Configurations.getInstance()
+      .getProperty( "system.read.cache.size", "16777216" ) );
+
+  final long READ_CACHE_TTL = Long.parseLong( Configurations.getInstance()
+      .getProperty( "system.read.cache.ttl", "30000" ) );
+
+  final long FILE_CACHE_SIZE = Long.parseLong( Configurations.getInstance()
+      .getProperty( "system.file.cache.size", "33554432" ) );
+
+  final String STORAGE_DIRECTORY = Configurations.getInstance()
+      .getProperty( "system.storage.directory", "/tmp/stock/pastry" );
+
+  final long STORAGE_SEGMENT_SIZE = Long.parseLong( Configurations
+      .getInstance().getProperty( "system.storage.segment.size", "67108864" ) );
+
+  final double STORAGE_COMPACTION_RATIO = Double.parseDouble(
+      Configurations.getInstance()
+          .getProperty( "system.storage.compaction.ratio", "0.5" ) );
+
+  final int STORAGE_SNAPSHOT_INTERVAL = Integer.parseInt(
+      Configurations.getInstance()
+          .getProperty( "system.storage.snapshot.interval", "65536" ) );
+
+  final int STORE_WINDOW = Integer.parseInt( Configurations.getInstance()
+      .getProperty( "system.store.window", "16" ) );
+
+  final int STORE_PROGRESS_INTERVAL = Integer.parseInt( Configurations
+      .getInstance().getProperty( "system.store.progress.interval", "100" ) );
+
+  final int STORE_ENTRY_PEERS = Integer.parseInt( Configurations
+      .getInstance().getProperty( "system.store.entry.peers", "4" ) );
+
+  final int STORE_BATCH_SIZE = Integer.parseInt( Configurations.getInstance()
+      .getProperty( "system.store.batch.size", "1048576" ) );
+
+  final long STORE_BATCH_DELAY = Long.parseLong( Configurations.getInstance()
+      .getProperty( "system.store.batch.delay", "100" ) );
+
+  final long STORE_REQUEST_TIMEOUT = Long.parseLong( Configurations
+      .getInstance().getProperty( "system.store.request.timeout", "120000" ) );
+
+  final long MIGRATION_TIMEOUT = Long.parseLong( Configurations.getInstance()
+      .getProperty( "system.migration.timeout", "30000" ) );
+
 }
@@ -0,0 +1,1104 @@
+package cs555.system.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Log structured storage for the files on a peer. Files are appended
+ * as records to memory mapped segment files, and an index from the
+ * name of each file to its record is kept in memory, so many small
+ * files do not each take a file, and directory entry, on disk.
+ * 
+ * <p>
+ * A record holds a magic number, a checksum, the length of the
+ * content, the lengths of the name and content identifier, and then
+ * the name, identifier and content, where the checksum covers
+ * everything after itself. Removing a file appends a record without
+ * content, a tombstone, with a length of {@link #TOMBSTONE}. A file
+ * that is written again is appended, and the latest record of a file
+ * is the one that counts.
+ * </p>
+ * 
+ * <p>
+ * A file on disk is copied into the log outside of the lock on the
+ * store, so other files are read and written meanwhile. Its record is
+ * reserved at the end of the log first, and added to the index once
+ * the copy is complete. A record whose copy failed is kept as padding,
+ * a record without a name, that is skipped. The file is not written
+ * or removed by another thread, and no segment is compacted or
+ * snapshot taken, until the copy is complete.
+ * </p>
+ * 
+ * <p>
+ * Once the records of a segment that are no longer current reach
+ * {@code compaction} of the segment, those that are current are copied
+ * to the end of the log and the segment is deleted. Content that was
+ * read from the segment remains valid, as the mapping is only released
+ * once every view of it is.
+ * </p>
+ * 
+ * <p>
+ * The segments are the write-ahead log of the index. Every
+ * {@code snapshot} records appended, the segments are forced to disk
+ * and the index is written to a snapshot, with the end of the log at
+ * that time. Opening a store loads the snapshot, and only scans the
+ * records appended after it, so a restart does not read every file.
+ * The log ends at the first record that is incomplete or does not
+ * match its checksum, e.g., if the peer crashed while it was being
+ * written. Without a valid snapshot every segment is scanned.
+ * </p>
+ * 
+ * <p>
+ * Each store is locked by the process that opened it, so a restarted
+ * peer recovers the store of one that is no longer running.
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+public class SegmentStore {
+
+  private static final int MAGIC = 0x5345474D;
+
+  private static final int HEADER = 4 * Integer.BYTES;
+
+  private static final int CHECKSUM = 2 * Integer.BYTES;
+
+  /**
+   * Length of the record that removes a file.
+   */
+  public static final int TOMBSTONE = -1;
+
+  private static final String SEGMENT = "segment-";
+
+  private static final String STAGING = "staging";
+
+  private static final String SNAPSHOT = "index";
+
+  private static final int SNAPSHOT_MAGIC = 0x494E4458;
+
+  private final Path directory;
+
+  private final long segmentSize;
+
+  private final double compaction;
+
+  private final int snapshot;
+
+  private final NavigableMap<Long, Segment> segments;
+
+  private final Map<String, Location> index;
+
+  private final Set<String> writing;
+
+  private Segment active;
+
+  private int appended;
+
+  private long synced;
+
+  private FileChannel lockChannel;
+
+  private FileLock lock;
+
+  /**
+   * Default constructor - the store must be opened before it is used.
+   * 
+   * @param directory the segments are kept in
+   * @param segmentSize bytes of each segment, unless a single file is
+   *        larger
+   * @param compaction the fraction of a segment that must no longer be
+   *        current before it is compacted
+   * @param snapshot records appended between snapshots of the index,
+   *        or zero to only take one when the store is opened and closed
+   */
+  public SegmentStore(Path directory, long segmentSize, double compaction,
+      int snapshot) {
+    this.directory = directory;
+    this.segmentSize = Math.min( segmentSize, Integer.MAX_VALUE );
+    this.compaction = compaction;
+    this.snapshot = snapshot;
+    this.segments = new TreeMap<>();
+    this.index = new HashMap<>();
+    this.writing = new HashSet<>();
+    this.appended = 0;
+    this.synced = 0;
+  }
+
+  /**
+   * Open the first store in the parent directory that is not held by
+   * another process, creating a new store if every one is.
+   * 
+   * @param parent directory of the stores
+   * @param segmentSize bytes of each segment
+   * @param compaction the fraction of a segment that must no longer be
+   *        current before it is compacted
+   * @param snapshot records appended between snapshots of the index
+   * @return the opened store
+   * @throws IOException if a store could not be opened
+   */
+  public static SegmentStore claim(Path parent, long segmentSize,
+      double compaction, int snapshot) throws IOException {
+    for ( int i = 0;; ++i )
+    {
+      SegmentStore store = new SegmentStore( parent.resolve( "store-" + i ),
+          segmentSize, compaction, snapshot );
+      if ( store.open() )
+      {
+        return store;
+      }
+    }
+  }
+
+  /**
+   * Lock the store and recover the index from its snapshot, and the
+   * segments appended to since.
+   * 
+   * @return true if the store was opened, false if it is held by
+   *         another process
+   * @throws IOException if the segments could not be read
+   */
+  public synchronized boolean open() throws IOException {
+    Files.createDirectories( directory );
+    lockChannel = FileChannel.open( directory.resolve( "LOCK" ),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+    try
+    {
+      lock = lockChannel.tryLock();
+    } catch ( OverlappingFileLockException e )
+    {
+      lock = null;
+    }
+    if ( lock == null )
+    {
+      lockChannel.close();
+      return false;
+    }
+    List<Long> identifiers = new ArrayList<>();
+    try ( Stream<Path> paths = Files.list( directory ) )
+    {
+      paths.map( p -> p.getFileName().toString() )
+          .filter( n -> n.startsWith( SEGMENT ) )
+          .forEach( n -> identifiers
+              .add( Long.parseLong( n.substring( SEGMENT.length() ) ) ) );
+    }
+    identifiers.sort( null );
+    for ( long identifier : identifiers )
+    {
+      segments.put( identifier, new Segment( identifier,
+          directory.resolve( SEGMENT + identifier ), -1 ) );
+    }
+    long[] start = restore();
+    for ( Segment segment : segments.values() )
+    {
+      if ( segment.identifier > start[ 0 ] )
+      {
+        recover( segment, 0 );
+      } else if ( segment.identifier == start[ 0 ] )
+      {
+        recover( segment, ( int ) start[ 1 ] );
+      }
+      active = segment;
+    }
+    for ( Segment segment : new ArrayList<>( segments.values() ) )
+    {
+      if ( segment != active )
+      {
+        compact( segment );
+      }
+    }
+    if ( index.isEmpty() )
+    {
+      // nothing is current, so the log can be started again, without a
+      // snapshot of the segments that are deleted
+      Files.deleteIfExists( directory.resolve( SNAPSHOT ) );
+      for ( Segment segment : segments.values() )
+      {
+        Files.deleteIfExists( segment.path );
+      }
+      segments.clear();
+      active = null;
+    }
+    deleteStaging();
+    snapshot();
+    return true;
+  }
+
+  /**
+   * Load the snapshot of the index, if there is a valid one.
+   * 
+   * <p>
+   * A file whose segment has been compacted since the snapshot was
+   * taken is skipped, as its record was either copied to the end of
+   * the log, or is no longer current.
+   * </p>
+   * 
+   * @return the identifier of the segment and the position in it the
+   *         log continues from after the snapshot, or a segment of -1
+   *         if every segment must be scanned
+   */
+  private long[] restore() {
+    long[] start = { -1, 0 };
+    Path path = directory.resolve( SNAPSHOT );
+    if ( !Files.isRegularFile( path ) )
+    {
+      return start;
+    }
+    try ( FileChannel channel = FileChannel.open( path,
+        StandardOpenOption.READ ) )
+    {
+      ByteBuffer buffer =
+          channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+      CRC32C crc = new CRC32C();
+      crc.update( buffer.duplicate().limit( buffer.limit() - Integer.BYTES ) );
+      if ( ( int ) crc.getValue() != buffer.getInt( buffer.limit()
+          - Integer.BYTES ) || buffer.getInt() != SNAPSHOT_MAGIC )
+      {
+        return start;
+      }
+      long last = buffer.getLong();
+      int end = buffer.getInt();
+      Map<Long, Integer> positions = new HashMap<>();
+      for ( int i = buffer.getInt(); i > 0; --i )
+      {
+        positions.put( buffer.getLong(), buffer.getInt() );
+      }
+      // a segment the snapshot does not describe must be scanned, as
+      // must every segment after it
+      if ( !positions.keySet()
+          .containsAll( segments.headMap( last, true ).keySet() ) )
+      {
+        return start;
+      }
+      for ( int i = buffer.getInt(); i > 0; --i )
+      {
+        String filename = string( buffer );
+        String identifier = string( buffer );
+        Segment segment = segments.get( buffer.getLong() );
+        Location location = new Location( segment, identifier,
+            buffer.getInt(), buffer.getInt(), buffer.getInt() );
+        if ( segment != null )
+        {
+          segment.live += location.size;
+          index.put( filename, location );
+        }
+      }
+      positions.forEach( ( k, v ) ->
+      {
+        Segment segment = segments.get( k );
+        if ( segment != null )
+        {
+          segment.position = v;
+        }
+      } );
+      start[ 0 ] = last;
+      start[ 1 ] = end;
+      synced = last;
+    } catch ( IOException | RuntimeException e )
+    {
+      index.clear();
+      segments.values().forEach( segment -> segment.live = 0 );
+    }
+    return start;
+  }
+
+  /**
+   * Force the segments appended to since the last snapshot to disk,
+   * and write a snapshot of the index that replaces it atomically.
+   * 
+   * @throws IOException if the snapshot could not be written, in which
+   *         case the log is replayed from the previous snapshot
+   */
+  public synchronized void snapshot() throws IOException {
+    while ( !writing.isEmpty() )
+    {
+      await();
+    }
+    for ( Segment segment : segments.tailMap( synced, true ).values() )
+    {
+      segment.buffer.force();
+    }
+    long size = 3 * Integer.BYTES + Long.BYTES + Integer.BYTES
+        + ( long ) segments.size() * ( Long.BYTES + Integer.BYTES )
+        + Integer.BYTES;
+    List<byte[]> names = new ArrayList<>( 2 * index.size() );
+    for ( Map.Entry<String, Location> entry : index.entrySet() )
+    {
+      byte[] name = entry.getKey().getBytes( StandardCharsets.UTF_8 );
+      byte[] identifier =
+          entry.getValue().identifier.getBytes( StandardCharsets.UTF_8 );
+      names.add( name );
+      names.add( identifier );
+      size += 2 * Short.BYTES + name.length + identifier.length + Long.BYTES
+          + 3 * Integer.BYTES;
+    }
+    if ( size > Integer.MAX_VALUE )
+    {
+      throw new IOException( "Index is too large to be written" );
+    }
+    ByteBuffer buffer = ByteBuffer.allocate( ( int ) size );
+    buffer.putInt( SNAPSHOT_MAGIC );
+    buffer.putLong( active == null ? -1 : active.identifier );
+    buffer.putInt( active == null ? 0 : active.position );
+    buffer.putInt( segments.size() );
+    for ( Segment segment : segments.values() )
+    {
+      buffer.putLong( segment.identifier ).putInt( segment.position );
+    }
+    buffer.putInt( index.size() );
+    int i = 0;
+    for ( Location location : index.values() )
+    {
+      byte[] name = names.get( i++ );
+      byte[] identifier = names.get( i++ );
+      buffer.putShort( ( short ) name.length ).put( name )
+          .putShort( ( short ) identifier.length ).put( identifier )
+          .putLong( location.segment.identifier ).putInt( location.offset )
+          .putInt( location.size ).putInt( location.length );
+    }
+    CRC32C crc = new CRC32C();
+    crc.update( buffer.array(), 0, buffer.position() );
+    buffer.putInt( ( int ) crc.getValue() ).flip();
+
+    Path temporary = directory.resolve( SNAPSHOT + ".tmp" );
+    try ( FileChannel channel = FileChannel.open( temporary,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING ) )
+    {
+      while ( buffer.hasRemaining() )
+      {
+        channel.write( buffer );
+      }
+      channel.force( true );
+    }
+    Files.move( temporary, directory.resolve( SNAPSHOT ),
+        StandardCopyOption.ATOMIC_MOVE );
+    synced = active == null ? 0 : active.identifier;
+    appended = 0;
+  }
+
+  /**
+   * Take a snapshot of the index once enough records have been
+   * appended since the last one.
+   * 
+   */
+  private void checkpoint() {
+    if ( snapshot > 0 && appended >= snapshot && writing.isEmpty() )
+    {
+      try
+      {
+        snapshot();
+      } catch ( IOException e )
+      {
+        // the log is replayed from the previous snapshot, and another
+        // is taken with the next record appended
+      }
+    }
+  }
+
+  /**
+   * Scan the records of a segment into the index, and end the log at
+   * the first one that is not valid.
+   * 
+   * @param segment
+   * @param position of the first record to scan
+   */
+  private void recover(Segment segment, int position) {
+    ByteBuffer buffer = segment.buffer;
+    while ( position + HEADER <= buffer.capacity()
+        && buffer.getInt( position ) == MAGIC )
+    {
+      int length = buffer.getInt( position + 2 * Integer.BYTES );
+      int names = buffer.getShort( position + 3 * Integer.BYTES ) & 0xFFFF;
+      int identifiers =
+          buffer.getShort( position + 3 * Integer.BYTES + Short.BYTES )
+              & 0xFFFF;
+      long end = ( long ) position + HEADER + names + identifiers
+          + Math.max( length, 0 );
+      if ( length < TOMBSTONE || end > buffer.capacity() )
+      {
+        break;
+      }
+      int size = ( int ) ( end - position );
+      CRC32C crc = new CRC32C();
+      crc.update( buffer.duplicate().limit( position + size )
+          .position( position + CHECKSUM ) );
+      if ( ( int ) crc.getValue() != buffer.getInt( position + Integer.BYTES ) )
+      {
+        break;
+      }
+      String filename = string( buffer, position + HEADER, names );
+      if ( names == 0 )
+      {
+        // padding left by a copy that failed
+      } else if ( length == TOMBSTONE )
+      {
+        supersede( index.remove( filename ) );
+      } else
+      {
+        String identifier =
+            string( buffer, position + HEADER + names, identifiers );
+        Location location =
+            new Location( segment, identifier, position, size, length );
+        segment.live += size;
+        supersede( index.put( filename, location ) );
+      }
+      position += size;
+    }
+    if ( position < buffer.capacity() && buffer.getInt( position ) != 0 )
+    {
+      // an incomplete record is cleared, so no stale record is ever read
+      // past the next append
+      for ( int i = position; i < buffer.capacity(); ++i )
+      {
+        buffer.put( i, ( byte ) 0 );
+      }
+    }
+    segment.position = position;
+  }
+
+  /**
+   * 
+   * @param buffer
+   * @param position
+   * @param length
+   * @return
+   */
+  private static String string(ByteBuffer buffer, int position, int length) {
+    byte[] bytes = new byte[ length ];
+    buffer.get( position, bytes );
+    return new String( bytes, StandardCharsets.UTF_8 );
+  }
+
+  /**
+   * 
+   * @param buffer positioned at a length prefixed string
+   * @return the string
+   */
+  private static String string(ByteBuffer buffer) {
+    byte[] bytes = new byte[ buffer.getShort() & 0xFFFF ];
+    buffer.get( bytes );
+    return new String( bytes, StandardCharsets.UTF_8 );
+  }
+
+  /**
+   * Remove temporary files that content was received into before it
+   * was appended to the log.
+   * 
+   * @throws IOException
+   */
+  private void deleteStaging() throws IOException {
+    Path staging = directory.resolve( STAGING );
+    if ( Files.isDirectory( staging ) )
+    {
+      try ( Stream<Path> paths = Files.list( staging ) )
+      {
+        for ( Path path : ( Iterable<Path> ) paths::iterator )
+        {
+          Files.deleteIfExists( path );
+        }
+      }
+    }
+  }
+
+  /**
+   * 
+   * @param name unique to the content being received
+   * @return a temporary path to receive content into before it is
+   *         appended to the log
+   */
+  public Path staging(String name) {
+    return directory.resolve( STAGING ).resolve( name );
+  }
+
+  /**
+   * 
+   * @return the name and content identifier of every file in the store
+   */
+  public synchronized Map<String, String> files() {
+    Map<String, String> files = new HashMap<>( index.size() );
+    index.forEach( ( k, v ) -> files.put( k, v.identifier ) );
+    return files;
+  }
+
+  /**
+   * 
+   * @param filename
+   * @return a read-only view of the content of the file, or
+   *         {@code null} if it is not stored
+   */
+  public synchronized ByteBuffer get(String filename) {
+    Location location = index.get( filename );
+    if ( location == null )
+    {
+      return null;
+    }
+    return location.segment.view.slice( location.offset + location.size
+        - location.length, location.length );
+  }
+
+  /**
+   * Append the content of a file to the log.
+   * 
+   * @param filename
+   * @param identifier of the content
+   * @param data
+   * @throws IOException if the record could not be appended
+   */
+  public synchronized void put(String filename, String identifier,
+      byte[] data) throws IOException {
+    await( filename );
+    append( filename, identifier, data.length,
+        into -> into.put( data ) );
+    checkpoint();
+  }
+
+  /**
+   * Append the content of a file on disk to the log, e.g., one that was
+   * received in chunks. The content is copied without holding the lock
+   * on the store.
+   * 
+   * @param filename
+   * @param identifier of the content
+   * @param path of the file to read the content from
+   * @throws IOException if the file could not be read, or the record
+   *         could not be appended
+   */
+  public void put(String filename, String identifier, Path path)
+      throws IOException {
+    try ( FileChannel file = FileChannel.open( path, StandardOpenOption.READ ) )
+    {
+      long size = file.size();
+      if ( size > Integer.MAX_VALUE - HEADER )
+      {
+        throw new IOException( "File is too large to be stored" );
+      }
+      Reservation reservation = begin( filename, identifier, ( int ) size );
+      boolean complete = false;
+      try
+      {
+        ByteBuffer into = reservation.content();
+        while ( into.hasRemaining() )
+        {
+          if ( file.read( into ) < 0 )
+          {
+            throw new IOException( "Unexpected end of file" );
+          }
+        }
+        complete = true;
+      } finally
+      {
+        commit( reservation, complete );
+      }
+    }
+  }
+
+  /**
+   * Reserve a record at the end of the log for content that is copied
+   * into it without holding the lock on the store.
+   * 
+   * @param filename
+   * @param identifier of the content
+   * @param length of the content
+   * @return the reserved record, with its header written
+   * @throws IOException if the record could not be reserved
+   */
+  private synchronized Reservation begin(String filename, String identifier,
+      int length) throws IOException {
+    await( filename );
+    byte[] name = name( filename, identifier );
+    byte[] id = identifier.getBytes( StandardCharsets.UTF_8 );
+    long required = ( long ) HEADER + name.length + id.length + length;
+    Segment segment = reserve( required );
+    int size = Math.toIntExact( required );
+    int position = segment.position;
+    ByteBuffer record = segment.buffer.slice( position, size );
+    record.putInt( MAGIC ).putInt( 0 ).putInt( length )
+        .putShort( ( short ) name.length ).putShort( ( short ) id.length )
+        .put( name ).put( id );
+    segment.position += size;
+    writing.add( filename );
+    return new Reservation( filename, identifier, length, segment, position,
+        record );
+  }
+
+  /**
+   * Complete a reserved record and add it to the index, or keep it as
+   * padding if its content could not be copied.
+   * 
+   * @param reservation
+   * @param complete true if the content was copied in full
+   */
+  private void commit(Reservation reservation, boolean complete) {
+    ByteBuffer record = reservation.record;
+    if ( !complete )
+    {
+      record.putInt( 2 * Integer.BYTES, record.capacity() - HEADER )
+          .putShort( 3 * Integer.BYTES, ( short ) 0 )
+          .putShort( 3 * Integer.BYTES + Short.BYTES, ( short ) 0 );
+    }
+    CRC32C crc = new CRC32C();
+    crc.update( record.clear().position( CHECKSUM ) );
+    record.putInt( Integer.BYTES, ( int ) crc.getValue() );
+    synchronized ( this )
+    {
+      writing.remove( reservation.filename );
+      notifyAll();
+      ++appended;
+      if ( complete )
+      {
+        Segment segment = reservation.segment;
+        segment.live += record.capacity();
+        index( reservation.filename,
+            new Location( segment, reservation.identifier,
+                reservation.position, record.capacity(),
+                reservation.length ) );
+      }
+      if ( writing.isEmpty() )
+      {
+        // compaction was deferred while the copies were in flight
+        for ( Segment segment : new ArrayList<>( segments.values() ) )
+        {
+          if ( segment != active )
+          {
+            try
+            {
+              compact( segment );
+            } catch ( IOException e )
+            {
+              // the segment is kept, and compacted once another of its
+              // records is superseded
+            }
+          }
+        }
+        checkpoint();
+      }
+    }
+  }
+
+  /**
+   * Wait until a file that is being copied into the log is complete.
+   * 
+   * @param filename
+   * @throws IOException if interrupted while waiting
+   */
+  private void await(String filename) throws IOException {
+    while ( writing.contains( filename ) )
+    {
+      await();
+    }
+  }
+
+  /**
+   * Wait until a copy into the log is complete.
+   * 
+   * @throws IOException if interrupted while waiting
+   */
+  private void await() throws IOException {
+    try
+    {
+      wait();
+    } catch ( InterruptedException e )
+    {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException( "Interrupted while waiting for a "
+          + "copy into the log" );
+    }
+  }
+
+  /**
+   * Append a tombstone for a file.
+   * 
+   * @param filename
+   * @return true if the file was stored, false otherwise
+   * @throws IOException if the tombstone could not be appended
+   */
+  public synchronized boolean remove(String filename) throws IOException {
+    await( filename );
+    if ( !index.containsKey( filename ) )
+    {
+      return false;
+    }
+    append( filename, "", TOMBSTONE, null );
+    checkpoint();
+    return true;
+  }
+
+  /**
+   * Append a record, and update the index once it is complete.
+   * 
+   * @param filename
+   * @param identifier
+   * @param length of the content, or {@link #TOMBSTONE}
+   * @param content writes exactly {@code length} bytes to the buffer
+   * @throws IOException
+   */
+  private void append(String filename, String identifier, int length,
+      Content content) throws IOException {
+    byte[] name = name( filename, identifier );
+    byte[] id = identifier.getBytes( StandardCharsets.UTF_8 );
+    long required = ( long ) HEADER + name.length + id.length
+        + Math.max( length, 0 );
+    Segment segment = reserve( required );
+    int size = Math.toIntExact( required );
+    int position = segment.position;
+    ByteBuffer record = segment.buffer.slice( position, size );
+    record.putInt( MAGIC ).putInt( 0 ).putInt( length )
+        .putShort( ( short ) name.length ).putShort( ( short ) id.length )
+        .put( name ).put( id );
+    if ( content != null )
+    {
+      content.write( record );
+    }
+    CRC32C crc = new CRC32C();
+    crc.update( record.flip().position( CHECKSUM ) );
+    record.putInt( Integer.BYTES, ( int ) crc.getValue() );
+    segment.position += size;
+    ++appended;
+
+    if ( length == TOMBSTONE )
+    {
+      index( filename, null );
+    } else
+    {
+      segment.live += size;
+      index( filename,
+          new Location( segment, identifier, position, size, length ) );
+    }
+  }
+
+  /**
+   * 
+   * @param filename
+   * @param identifier
+   * @return the name of the file encoded for a record
+   * @throws IOException if the name or identifier can not be recorded
+   */
+  private static byte[] name(String filename, String identifier)
+      throws IOException {
+    byte[] name = filename.getBytes( StandardCharsets.UTF_8 );
+    if ( name.length == 0 )
+    {
+      throw new IOException( "Name of the file is empty" );
+    }
+    if ( name.length > 0xFFFF
+        || identifier.getBytes( StandardCharsets.UTF_8 ).length > 0xFFFF )
+    {
+      throw new IOException( "Name of the file is too long" );
+    }
+    return name;
+  }
+
+  /**
+   * Update the index once a record is complete, compacting the segment
+   * of the record it supersedes.
+   * 
+   * @param filename
+   * @param location of the record, or {@code null} for a tombstone
+   */
+  private void index(String filename, Location location) {
+    Location previous = location == null ? index.remove( filename )
+        : index.put( filename, location );
+    supersede( previous );
+    if ( previous != null && previous.segment != active )
+    {
+      try
+      {
+        compact( previous.segment );
+      } catch ( IOException e )
+      {
+        // the segment is kept, and compacted once another of its
+        // records is superseded
+      }
+    }
+  }
+
+  /**
+   * Get a segment with room for a record, starting a new segment if the
+   * active one is full.
+   * 
+   * @param size of the record
+   * @return the active segment
+   * @throws IOException
+   */
+  private Segment reserve(long size) throws IOException {
+    if ( size > Integer.MAX_VALUE )
+    {
+      throw new IOException( "File is too large to be stored" );
+    }
+    if ( active == null || active.position + size > active.buffer.capacity() )
+    {
+      Segment previous = active;
+      long identifier = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+      active = new Segment( identifier, directory
+          .resolve( SEGMENT + identifier ), Math.max( segmentSize, size ) );
+      segments.put( identifier, active );
+      if ( previous != null )
+      {
+        try
+        {
+          compact( previous );
+        } catch ( IOException e )
+        {
+          // the segment is kept, and compacted once another of its
+          // records is superseded
+        }
+      }
+    }
+    return active;
+  }
+
+  /**
+   * Account for a record that is no longer current.
+   * 
+   * @param location of the record, or {@code null} if there was none
+   */
+  private static void supersede(Location location) {
+    if ( location != null )
+    {
+      location.segment.live -= location.size;
+    }
+  }
+
+  /**
+   * Copy the current records of a segment to the end of the log, and
+   * delete it, if enough of it is no longer current.
+   * 
+   * @param segment that is not active
+   * @throws IOException if a record could not be copied, in which case
+   *         the segment is kept
+   */
+  private void compact(Segment segment) throws IOException {
+    if ( segment.position - segment.live < compaction * segment.position
+        || !segments.containsKey( segment.identifier ) || !writing.isEmpty() )
+    {
+      return;
+    }
+    // removed first, so the records copied do not compact it again
+    segments.remove( segment.identifier );
+    try
+    {
+      copy( segment );
+    } catch ( IOException e )
+    {
+      segments.put( segment.identifier, segment );
+      throw e;
+    }
+    Files.deleteIfExists( segment.path );
+  }
+
+  /**
+   * Copy the current records of a segment to the end of the log. Those
+   * copied before a failure are current in their new location.
+   * 
+   * @param segment
+   * @throws IOException
+   */
+  private void copy(Segment segment) throws IOException {
+    boolean older = !segments.headMap( segment.identifier ).isEmpty();
+    for ( int position = 0; position < segment.position; )
+    {
+      ByteBuffer buffer = segment.buffer;
+      int length = buffer.getInt( position + 2 * Integer.BYTES );
+      int names = buffer.getShort( position + 3 * Integer.BYTES ) & 0xFFFF;
+      int identifiers =
+          buffer.getShort( position + 3 * Integer.BYTES + Short.BYTES )
+              & 0xFFFF;
+      int size = HEADER + names + identifiers + Math.max( length, 0 );
+      String filename = string( buffer, position + HEADER, names );
+      Location location = index.get( filename );
+      if ( length == TOMBSTONE )
+      {
+        // an older segment may still hold the record it removed
+        if ( older && location == null )
+        {
+          append( filename, "", TOMBSTONE, null );
+        }
+      } else if ( location != null && location.segment == segment
+          && location.offset == position )
+      {
+        ByteBuffer data = segment.view.slice( position + size - length,
+            length );
+        append( filename, location.identifier, length,
+            into -> into.put( data ) );
+      }
+      position += size;
+    }
+  }
+
+  /**
+   * Take a snapshot of the index, and release the lock on the store.
+   * Content that was read remains valid.
+   * 
+   * @throws IOException
+   */
+  public synchronized void close() throws IOException {
+    if ( lock != null )
+    {
+      snapshot();
+      lock.release();
+      lockChannel.close();
+      lock = null;
+    }
+  }
+
+  /**
+   * 
+   * @return the number of segments in the log
+   */
+  public synchronized int segments() {
+    return segments.size();
+  }
+
+  /**
+   * 
+   * @return the number of files stored
+   */
+  public synchronized int size() {
+    return index.size();
+  }
+
+  /**
+   * Writes the content of a record into its buffer.
+   * 
+   * @author stock
+   *
+   */
+  @FunctionalInterface
+  private interface Content {
+    void write(ByteBuffer into) throws IOException;
+  }
+
+  /**
+   * A record reserved at the end of the log, whose content is copied
+   * without holding the lock on the store.
+   * 
+   * @author stock
+   *
+   */
+  private static class Reservation {
+
+    private final String filename;
+
+    private final String identifier;
+
+    private final int length;
+
+    private final Segment segment;
+
+    private final int position;
+
+    private final ByteBuffer record;
+
+    private Reservation(String filename, String identifier, int length,
+        Segment segment, int position, ByteBuffer record) {
+      this.filename = filename;
+      this.identifier = identifier;
+      this.length = length;
+      this.segment = segment;
+      this.position = position;
+      this.record = record;
+    }
+
+    /**
+     * 
+     * @return the buffer the content is copied into
+     */
+    private ByteBuffer content() {
+      return record.duplicate();
+    }
+  }
+
+  /**
+   * A segment file and the mapping of it.
+   * 
+   * @author stock
+   *
+   */
+  private static class Segment {
+
+    private final long identifier;
+
+    private final Path path;
+
+    private final MappedByteBuffer buffer;
+
+    private final ByteBuffer view;
+
+    private int position;
+
+    private long live;
+
+    /**
+     * 
+     * @param identifier
+     * @param path
+     * @param capacity of a new segment, or a negative value to map an
+     *        existing segment to its length
+     * @throws IOException
+     */
+    private Segment(long identifier, Path path, long capacity)
+        throws IOException {
+      this.identifier = identifier;
+      this.path = path;
+      try ( FileChannel channel = FileChannel.open( path,
+          StandardOpenOption.CREATE, StandardOpenOption.READ,
+          StandardOpenOption.WRITE ) )
+      {
+        this.buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0,
+            capacity < 0 ? channel.size() : capacity );
+      }
+      this.view = buffer.asReadOnlyBuffer();
+      this.position = 0;
+      this.live = 0;
+    }
+  }
+
+  /**
+   * The record of a file in a segment.
+   * 
+   * @author stock
+   *
+   */
+  private static class Location {
+
+    private final Segment segment;
+
+    private final String identifier;
+
+    private final int offset;
+
+    private final int size;
+
+    private final int length;
+
+    private Location(Segment segment, String identifier, int offset, int size,
+        int length) {
+      this.segment = segment;
+      this.identifier = identifier;
+      this.offset = offset;
+      this.size = size;
+      this.length = length;
+    }
+  }
+}
@@ -0,0 +1,375 @@
+package cs555.system.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import cs555.system.transport.TCPSender;
+import cs555.system.wireformats.DataChunk;
+
+/**
+ * Utilities for streaming a file between nodes as a sequence of
+ * bounded {@link DataChunk} messages, so neither the sender nor the
+ * receiver holds the entire file in memory.
+ * 
+ * <p>
+ * Content is received into a temporary file alongside the destination,
+ * which is moved into place once the sender reports the entire file
+ * was delivered. The temporary file is named for the transfer, so
+ * copies of a file sent by several replicas at once do not collide.
+ * </p>
+ * 
+ * <p>
+ * A transfer that receives no chunk for
+ * {@link Properties#TRANSFER_IDLE_TIMEOUT} milliseconds, such as when
+ * the sender disconnected part way through, is abandoned and its
+ * temporary file removed.
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+public class TransferUtilities {
+
+  private static final Logger LOG = Logger.getInstance();
+
+  private static final String PARTIAL = ".part";
+
+  private static final Random random = new SecureRandom();
+
+  private static final Map<Long, Transfer> transfers =
+      new ConcurrentHashMap<>();
+
+  static
+  {
+    ScheduledExecutorService evictionService =
+        Executors.newSingleThreadScheduledExecutor( r ->
+        {
+          Thread thread = new Thread( r, "Transfer Eviction" );
+          thread.setDaemon( true );
+          return thread;
+        } );
+    long period = Math.max( 1, Properties.TRANSFER_IDLE_TIMEOUT / 2 );
+    evictionService.scheduleWithFixedDelay( TransferUtilities::evictIdle,
+        period, period, TimeUnit.MILLISECONDS );
+  }
+
+  /**
+   * Stream a file from disk to the sender in chunks of
+   * {@link Properties#TRANSFER_CHUNK_SIZE} bytes.
+   * 
+   * <p>
+   * Only the header of each chunk is encoded, and the content is
+   * transferred from the file channel to the socket by the sender, so
+   * the file is not copied through the heap.
+   * </p>
+   * 
+   * @param sender to write the chunks to
+   * @param operation the protocol the transfer stands in for
+   * @param descriptor for the receiver to identify the content
+   * @param path of the file to send
+   * @param request identifier of the Store request the transfer belongs
+   *        to, or zero if it belongs to none
+   * @return true if the entire file was read and sent, false if the
+   *         file could not be opened
+   * @throws IOException if the chunks can not be sent, or the file
+   *         could not be read once the content was being sent
+   */
+  public static boolean send(TCPSender sender, int operation,
+      String descriptor, Path path, long request) throws IOException {
+    long transfer = random.nextLong();
+    DataChunk begin = new DataChunk( transfer, operation, descriptor );
+    begin.setRequest( request );
+    sender.sendData( begin );
+
+    FileChannel file;
+    try
+    {
+      file = FileChannel.open( path, StandardOpenOption.READ );
+    } catch ( IOException e )
+    {
+      LOG.error( "Unable to open " + path.toString() + ". " + e.toString() );
+      sender.sendData(
+          new DataChunk( transfer, Constants.FAILURE ) );
+      return Constants.FAILURE;
+    }
+    try ( file )
+    {
+      long size = file.size();
+      for ( long position = 0; position < size; )
+      {
+        int length = ( int ) Math.min( Properties.TRANSFER_CHUNK_SIZE,
+            size - position );
+        sender.sendData( new DataChunk( transfer, length ), file, position,
+            length );
+        position += length;
+      }
+    }
+    sender.sendData(
+        new DataChunk( transfer, Constants.SUCCESS ) );
+    return Constants.SUCCESS;
+  }
+
+  /**
+   * Stream content held in memory to the sender in chunks of
+   * {@link Properties#TRANSFER_CHUNK_SIZE} bytes, e.g., a file cached
+   * outside of the heap.
+   * 
+   * @param sender to write the chunks to
+   * @param operation the protocol the transfer stands in for
+   * @param descriptor for the receiver to identify the content
+   * @param content the remaining bytes of which are sent
+   * @param request identifier of the Store request the transfer belongs
+   *        to, or zero if it belongs to none
+   * @throws IOException if the chunks can not be sent
+   */
+  public static void send(TCPSender sender, int operation, String descriptor,
+      ByteBuffer content, long request) throws IOException {
+    long transfer = random.nextLong();
+    DataChunk begin = new DataChunk( transfer, operation, descriptor );
+    begin.setRequest( request );
+    sender.sendData( begin );
+
+    int size = content.remaining();
+    for ( int position = 0; position < size; )
+    {
+      int length = Math.min( Properties.TRANSFER_CHUNK_SIZE, size - position );
+      sender.sendData( new DataChunk( transfer, length ),
+          content.slice( content.position() + position, length ) );
+      position += length;
+    }
+    sender.sendData(
+        new DataChunk( transfer, Constants.SUCCESS ) );
+  }
+
+  /**
+   * Begin receiving a transfer to the specified path.
+   * 
+   * @param chunk the {@code DATA_CHUNK_BEGIN} message
+   * @param path destination of the file once received
+   */
+  public static void begin(DataChunk chunk, Path path) {
+    transfers.put( chunk.getTransfer(), new Transfer( chunk, path ) );
+  }
+
+  /**
+   * Append the content of a chunk to its transfer.
+   * 
+   * @param chunk the {@code DATA_CHUNK} message
+   */
+  public static void append(DataChunk chunk) {
+    Transfer transfer = transfers.get( chunk.getTransfer() );
+    if ( transfer != null )
+    {
+      transfer.write( chunk.getData(), chunk.getLength() );
+    }
+  }
+
+  /**
+   * Complete a transfer, moving the file into place if every chunk was
+   * received and written.
+   * 
+   * @param chunk the {@code DATA_CHUNK_END} message
+   * @return the completed transfer, or {@code null} if the transfer
+   *         was never started
+   */
+  public static Transfer end(DataChunk chunk) {
+    Transfer transfer = transfers.remove( chunk.getTransfer() );
+    if ( transfer != null )
+    {
+      transfer.finish( chunk.getFlag() );
+    }
+    return transfer;
+  }
+
+  /**
+   * Abandon every transfer that has not received a chunk within the
+   * idle timeout.
+   * 
+   */
+  private static void evictIdle() {
+    long now = System.currentTimeMillis();
+    for ( Transfer transfer : transfers.values() )
+    {
+      if ( now - transfer.touched > Properties.TRANSFER_IDLE_TIMEOUT
+          && transfers.remove( transfer.transfer, transfer ) )
+      {
+        transfer.fail( new IOException( "No chunk was received for "
+            + Properties.TRANSFER_IDLE_TIMEOUT + " ms" ) );
+      }
+    }
+  }
+
+  /**
+   * State of a transfer being received.
+   * 
+   * @author stock
+   *
+   */
+  public static class Transfer {
+
+    private final long transfer;
+
+    private final int operation;
+
+    private final long request;
+
+    private final String descriptor;
+
+    private final Path path;
+
+    private final Path partial;
+
+    private OutputStream out;
+
+    private boolean success;
+
+    private volatile long touched;
+
+    /**
+     * Default constructor - opens the temporary file for the transfer.
+     * 
+     * @param chunk
+     * @param path
+     */
+    private Transfer(DataChunk chunk, Path path) {
+      this.transfer = chunk.getTransfer();
+      this.operation = chunk.getOperation();
+      this.request = chunk.getRequest();
+      this.descriptor = chunk.getDescriptor();
+      this.path = path;
+      this.partial = path.resolveSibling( path.getFileName() + "."
+          + Long.toHexString( chunk.getTransfer() ) + PARTIAL );
+      this.success = Constants.SUCCESS;
+      this.touched = System.currentTimeMillis();
+      try
+      {
+        Files.createDirectories( path.toAbsolutePath().getParent() );
+        this.out = Files.newOutputStream( partial );
+      } catch ( IOException e )
+      {
+        fail( e );
+      }
+    }
+
+    /**
+     * 
+     * @param data
+     * @param length
+     */
+    private synchronized void write(byte[] data, int length) {
+      touched = System.currentTimeMillis();
+      if ( success )
+      {
+        try
+        {
+          out.write( data, 0, length );
+        } catch ( IOException e )
+        {
+          fail( e );
+        }
+      }
+    }
+
+    /**
+     * 
+     * @param complete true if the sender delivered the entire file
+     */
+    private synchronized void finish(boolean complete) {
+      if ( success )
+      {
+        try
+        {
+          out.close();
+          if ( complete )
+          {
+            Files.move( partial, path, StandardCopyOption.REPLACE_EXISTING );
+          } else
+          {
+            success = Constants.FAILURE;
+            Files.deleteIfExists( partial );
+          }
+        } catch ( IOException e )
+        {
+          fail( e );
+        }
+      }
+    }
+
+    /**
+     * Abandon the transfer, discarding anything already written.
+     * 
+     * @param e the cause
+     */
+    private synchronized void fail(IOException e) {
+      LOG.error(
+          "Unable to save " + path.toString() + " to disk. " + e.toString() );
+      success = Constants.FAILURE;
+      try
+      {
+        if ( out != null )
+        {
+          out.close();
+        }
+        Files.deleteIfExists( partial );
+      } catch ( IOException ex )
+      {
+        LOG.debug( "Unable to remove " + partial.toString() + ". "
+            + ex.toString() );
+      }
+    }
+
+    /**
+     * 
+     * @return the protocol the transfer stands in for
+     */
+    public int getOperation() {
+      return operation;
+    }
+
+    /**
+     * 
+     * @return the identifier of the Store request the transfer belongs
+     *         to, or zero if it belongs to none
+     */
+    public long getRequest() {
+      return request;
+    }
+
+    /**
+     * 
+     * @return the descriptor delivered when the transfer began
+     */
+    public String getDescriptor() {
+      return descriptor;
+    }
+
+    /**
+     * 
+     * @return the destination of the file
+     */
+    public Path getPath() {
+      return path;
+    }
+
+    /**
+     * 
+     * @return true if the entire file was received and saved, false
+     *         otherwise
+     */
+    public synchronized boolean isSuccess() {
+      return success;
+    }
+  }
+}
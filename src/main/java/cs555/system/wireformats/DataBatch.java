@@ -0,0 +1,206 @@
+package cs555.system.wireformats;
+
+import java.util.ArrayList;
+import java.util.List;
+import cs555.system.metadata.PeerInformation;
+import cs555.system.util.Constants;
+
+/**
+ * Message carrying many small files to, or the status of writing them
+ * from, the peer that owns each of them, so they are written as one
+ * group and acknowledged with one response.
+ * 
+ * <p>
+ * A {@code STORE_DATA_BATCH_REQUEST} carries the data of each entry,
+ * and a {@code STORE_DATA_BATCH_RESPONSE} carries the peer that wrote
+ * the entries and the status of each.
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+public class DataBatch implements Event {
+
+  private int type;
+
+  private PeerInformation peer;
+
+  private List<Entry> entries;
+
+  /**
+   * Default constructor - create a new empty batch.
+   * 
+   * @param type
+   * @param peer that wrote the entries, or {@code null} for a request
+   */
+  public DataBatch(int type, PeerInformation peer) {
+    this.type = type;
+    this.peer = peer;
+    this.entries = new ArrayList<>();
+  }
+
+  /**
+   * Constructor - Unmarshall the message from the decoder to the
+   * respective class elements.
+   * 
+   * @param decoder positioned at the start of the message
+   */
+  public DataBatch(MessageDecoder decoder) {
+    this.type = decoder.readVarInt();
+
+    if ( decoder.readBoolean() )
+    {
+      this.peer = decoder.readPeerInformation();
+    }
+
+    int size = decoder.readVarInt();
+    this.entries = new ArrayList<>( size );
+    for ( int i = 0; i < size; ++i )
+    {
+      long request = decoder.readVarLong();
+      String descriptor = decoder.readString();
+      boolean flag = decoder.readBoolean();
+      byte[] data = null;
+      if ( decoder.readBoolean() == Constants.SUCCESS )
+      {
+        data = decoder.readBytes( decoder.readVarInt() );
+      }
+      entries.add( new Entry( request, descriptor, data, flag ) );
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getType() {
+    return type;
+  }
+
+  /**
+   * 
+   * @return the peer that wrote the entries, or {@code null} for a
+   *         request
+   */
+  public PeerInformation getPeer() {
+    return peer;
+  }
+
+  /**
+   * 
+   * @return the entries of the batch
+   */
+  public List<Entry> getEntries() {
+    return entries;
+  }
+
+  /**
+   * Add a file to the batch.
+   * 
+   * @param request identifier of the Store request the file belongs to
+   * @param descriptor fs path ? content id
+   * @param data content of the file, or {@code null} in a response
+   * @param flag status of writing the file in a response
+   */
+  public void add(long request, String descriptor, byte[] data,
+      boolean flag) {
+    entries.add( new Entry( request, descriptor, data, flag ) );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void encode(MessageEncoder encoder) {
+    encoder.writeVarInt( type );
+
+    encoder.writeBoolean( peer != null );
+    if ( peer != null )
+    {
+      encoder.writePeerInformation( peer );
+    }
+
+    encoder.writeVarInt( entries.size() );
+    for ( Entry entry : entries )
+    {
+      encoder.writeVarLong( entry.request );
+      encoder.writeString( entry.descriptor );
+      encoder.writeBoolean( entry.flag );
+      if ( entry.data == null )
+      {
+        encoder.writeBoolean( Constants.FAILURE );
+      } else
+      {
+        encoder.writeBoolean( Constants.SUCCESS );
+        encoder.writeVarInt( entry.data.length );
+        encoder.writeBytes( entry.data, 0, entry.data.length );
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return Protocol.class.getFields()[ type ].getName().toString() + " | "
+        + entries.size() + " files";
+  }
+
+  /**
+   * A file of the batch.
+   * 
+   * @author stock
+   *
+   */
+  public static class Entry {
+
+    private final long request;
+
+    private final String descriptor;
+
+    private final byte[] data;
+
+    private final boolean flag;
+
+    private Entry(long request, String descriptor, byte[] data,
+        boolean flag) {
+      this.request = request;
+      this.descriptor = descriptor;
+      this.data = data;
+      this.flag = flag;
+    }
+
+    /**
+     * 
+     * @return the identifier of the Store request the file belongs to
+     */
+    public long getRequest() {
+      return request;
+    }
+
+    /**
+     * 
+     * @return fs path ? content id
+     */
+    public String getDescriptor() {
+      return descriptor;
+    }
+
+    /**
+     * 
+     * @return the content of the file, or {@code null} in a response
+     */
+    public byte[] getData() {
+      return data;
+    }
+
+    /**
+     * 
+     * @return the status of writing the file in a response
+     */
+    public boolean getFlag() {
+      return flag;
+    }
+  }
+}
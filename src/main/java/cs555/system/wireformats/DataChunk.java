@@ -0,0 +1,228 @@
+package cs555.system.wireformats;
+
+/**
+ * A piece of a file that is streamed between nodes.
+ * 
+ * <p>
+ * A transfer is a {@code DATA_CHUNK_BEGIN} message carrying the
+ * operation being performed and its descriptor, any number of
+ * {@code DATA_CHUNK} messages carrying the content, and a
+ * {@code DATA_CHUNK_END} message carrying whether the sender was able
+ * to read the entire file. Every message of a transfer shares the same
+ * transfer identifier, so transfers may be interleaved on a
+ * connection.
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+public class DataChunk implements Event {
+
+  private int type;
+
+  private long request;
+
+  private long transfer;
+
+  private int operation;
+
+  private boolean flag;
+
+  private String descriptor;
+
+  private byte[] data;
+
+  private int length;
+
+  /**
+   * Constructor for beginning a transfer.
+   * 
+   * @param transfer identifier shared by each chunk of the transfer
+   * @param operation the protocol the transfer stands in for, e.g.,
+   *        {@link Protocol#STORE_DATA_REQUEST}
+   * @param descriptor file system path or peer information as a
+   *        response
+   */
+  public DataChunk(long transfer, int operation, String descriptor) {
+    this( Protocol.DATA_CHUNK_BEGIN, transfer, operation, true, descriptor,
+        null, 0 );
+  }
+
+  /**
+   * Constructor for the content of a transfer.
+   * 
+   * @param transfer identifier shared by each chunk of the transfer
+   * @param data buffer holding the content
+   * @param length number of bytes of the buffer to send
+   */
+  public DataChunk(long transfer, byte[] data, int length) {
+    this( Protocol.DATA_CHUNK, transfer, 0, true, "", data, length );
+  }
+
+  /**
+   * Constructor for the content of a transfer that is read directly
+   * from a file when sent, see {@link #encode(MessageEncoder)}.
+   * 
+   * @param transfer identifier shared by each chunk of the transfer
+   * @param length number of bytes of content that follow the header
+   */
+  public DataChunk(long transfer, int length) {
+    this( Protocol.DATA_CHUNK, transfer, 0, true, "", null, length );
+  }
+
+  /**
+   * Constructor for ending a transfer.
+   * 
+   * @param transfer identifier shared by each chunk of the transfer
+   * @param flag true if the entire file was sent, false otherwise
+   */
+  public DataChunk(long transfer, boolean flag) {
+    this( Protocol.DATA_CHUNK_END, transfer, 0, flag, "", null, 0 );
+  }
+
+  private DataChunk(int type, long transfer, int operation, boolean flag,
+      String descriptor, byte[] data, int length) {
+    this.type = type;
+    this.transfer = transfer;
+    this.operation = operation;
+    this.flag = flag;
+    this.descriptor = descriptor;
+    this.data = data;
+    this.length = length;
+  }
+
+  /**
+   * Constructor - Unmarshall the message from the decoder to the
+   * respective class elements.
+   * 
+   * @param decoder positioned at the start of the message
+   */
+  public DataChunk(MessageDecoder decoder) {
+    this.type = decoder.readVarInt();
+
+    this.request = decoder.readVarLong();
+
+    this.transfer = decoder.readLong();
+
+    this.operation = decoder.readVarInt();
+
+    this.flag = decoder.readBoolean();
+
+    this.descriptor = decoder.readString();
+
+    this.length = decoder.readVarInt();
+    this.data = decoder.readBytes( length );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getType() {
+    return type;
+  }
+
+  /**
+   * 
+   * @return the identifier of the Store request the message belongs
+   *         to, or zero if it belongs to none
+   */
+  public long getRequest() {
+    return request;
+  }
+
+  /**
+   * 
+   * @param request identifier of the Store request the message belongs
+   *        to, which is carried by any response to it
+   */
+  public void setRequest(long request) {
+    this.request = request;
+  }
+
+  /**
+   * 
+   * @return the identifier shared by each chunk of the transfer
+   */
+  public long getTransfer() {
+    return transfer;
+  }
+
+  /**
+   * 
+   * @return the protocol the transfer stands in for
+   */
+  public int getOperation() {
+    return operation;
+  }
+
+  /**
+   * 
+   * @return true if the entire file was sent, false otherwise
+   */
+  public boolean getFlag() {
+    return flag;
+  }
+
+  /**
+   * 
+   * @return get the file system path or the peer information as a
+   *         response
+   */
+  public String getDescriptor() {
+    return descriptor;
+  }
+
+  /**
+   * 
+   * @return the buffer holding the content, of which the first
+   *         {@link #getLength()} bytes are valid
+   */
+  public byte[] getData() {
+    return data;
+  }
+
+  /**
+   * 
+   * @return the number of content bytes in the chunk
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * <p>
+   * The content is last, so a chunk constructed with only the length
+   * of its content encodes the header of the message, which is followed
+   * by the content when sent directly from a file.
+   * </p>
+   */
+  @Override
+  public void encode(MessageEncoder encoder) {
+    encoder.writeVarInt( type );
+
+    encoder.writeVarLong( request );
+
+    encoder.writeLong( transfer );
+
+    encoder.writeVarInt( operation );
+
+    encoder.writeBoolean( flag );
+
+    encoder.writeString( descriptor );
+
+    encoder.writeVarInt( length );
+    if ( data != null && length > 0 )
+    {
+      encoder.writeBytes( data, 0, length );
+    }
+  }
+
+  @Override
+  public String toString() {
+    return Protocol.class.getFields()[ type ].getName().toString();
+  }
+
+}
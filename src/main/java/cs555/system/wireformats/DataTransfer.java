@@ -1,12 +1,5 @@
 package cs555.system.wireformats;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
 import cs555.system.util.Constants;
 
 /**
@@ -18,6 +11,8 @@ public class DataTransfer implements Event {
 
   private int type;
 
+  private long request;
+
   private byte[] data;
 
   private String descriptor;
@@ -33,34 +28,22 @@ public class DataTransfer implements Event {
   }
 
   /**
-   * Constructor - Unmarshall the <code>byte[]</code> to the respective
-   * class elements.
+   * Constructor - Unmarshall the message from the decoder to the
+   * respective class elements.
    * 
-   * @param marshalledBytes is the byte array of the class.
-   * @throws IOException
+   * @param decoder positioned at the start of the message
    */
-  public DataTransfer(byte[] marshalledBytes) throws IOException {
-    ByteArrayInputStream inputStream =
-        new ByteArrayInputStream( marshalledBytes );
-    DataInputStream din =
-        new DataInputStream( new BufferedInputStream( inputStream ) );
+  public DataTransfer(MessageDecoder decoder) {
+    this.type = decoder.readVarInt();
 
-    this.type = din.readInt();
+    this.request = decoder.readVarLong();
 
-    if ( din.readBoolean() == Constants.SUCCESS )
+    if ( decoder.readBoolean() == Constants.SUCCESS )
     {
-      int len = din.readInt();
-      this.data = new byte[ len ];
-      din.readFully( this.data );
+      this.data = decoder.readBytes( decoder.readVarInt() );
     }
 
-    int len = din.readInt();
-    byte[] pathname = new byte[ len ];
-    din.readFully( pathname );
-    this.descriptor = new String( pathname );
-
-    inputStream.close();
-    din.close();
+    this.descriptor = decoder.readString();
   }
 
   /**
@@ -71,6 +54,24 @@ public class DataTransfer implements Event {
     return type;
   }
 
+  /**
+   * 
+   * @return the identifier of the Store request the message belongs
+   *         to, or zero if it belongs to none
+   */
+  public long getRequest() {
+    return request;
+  }
+
+  /**
+   * 
+   * @param request identifier of the Store request the message belongs
+   *        to, which is carried by any response to it
+   */
+  public void setRequest(long request) {
+    this.request = request;
+  }
+
   /**
    * 
    * @return the data as a {@code byte[]}
@@ -92,34 +93,22 @@ public class DataTransfer implements Event {
    * {@inheritDoc}
    */
   @Override
-  public byte[] getBytes() throws IOException {
-    byte[] marshalledBytes = null;
-    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-    DataOutputStream dout =
-        new DataOutputStream( new BufferedOutputStream( outputStream ) );
+  public void encode(MessageEncoder encoder) {
+    encoder.writeVarInt( type );
 
-    dout.writeInt( type );
+    encoder.writeVarLong( request );
 
     if ( data == null )
     {
-      dout.writeBoolean( Constants.FAILURE );
+      encoder.writeBoolean( Constants.FAILURE );
     } else
     {
-      dout.writeBoolean( Constants.SUCCESS );
-      dout.writeInt( data.length );
-      dout.write( data );
+      encoder.writeBoolean( Constants.SUCCESS );
+      encoder.writeVarInt( data.length );
+      encoder.writeBytes( data, 0, data.length );
     }
 
-    byte[] filepath = descriptor.getBytes();
-    dout.writeInt( filepath.length );
-    dout.write( filepath );
-
-    dout.flush();
-    marshalledBytes = outputStream.toByteArray();
-
-    outputStream.close();
-    dout.close();
-    return marshalledBytes;
+    encoder.writeString( descriptor );
   }
 
   @Override
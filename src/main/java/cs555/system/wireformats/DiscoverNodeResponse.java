@@ -1,14 +1,6 @@
 package cs555.system.wireformats;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
 import cs555.system.metadata.PeerInformation;
-import cs555.system.util.MessageUtilities;
 
 /**
  * 
@@ -19,6 +11,8 @@ public class DiscoverNodeResponse implements Event {
 
   private int type;
 
+  private long request;
+
   private boolean initialPeerConnection;
 
   private PeerInformation source;
@@ -48,29 +42,23 @@ public class DiscoverNodeResponse implements Event {
   }
 
   /**
-   * Constructor - Unmarshall the <code>byte[]</code> to the respective
-   * class elements.
+   * Constructor - Unmarshall the message from the decoder to the
+   * respective class elements.
    * 
-   * @param marshalledBytes is the byte array of the class.
-   * @throws IOException
+   * @param decoder positioned at the start of the message
    */
-  public DiscoverNodeResponse(byte[] marshalledBytes) throws IOException {
-    ByteArrayInputStream inputStream =
-        new ByteArrayInputStream( marshalledBytes );
-    DataInputStream din =
-        new DataInputStream( new BufferedInputStream( inputStream ) );
+  public DiscoverNodeResponse(MessageDecoder decoder) {
+    this.type = decoder.readVarInt();
 
-    this.type = din.readInt();
+    this.request = decoder.readVarLong();
 
-    this.initialPeerConnection = din.readBoolean();
+    this.initialPeerConnection = decoder.readBoolean();
 
     if ( !initialPeerConnection )
     {
-      this.source = MessageUtilities.readPeerInformation( din );
-      this.original = MessageUtilities.readPeerInformation( din );
+      this.source = decoder.readPeerInformation();
+      this.original = decoder.readPeerInformation();
     }
-    inputStream.close();
-    din.close();
   }
 
   /**
@@ -81,6 +69,24 @@ public class DiscoverNodeResponse implements Event {
     return type;
   }
 
+  /**
+   * 
+   * @return the identifier of the Store request the message belongs
+   *         to, or zero if it belongs to none
+   */
+  public long getRequest() {
+    return request;
+  }
+
+  /**
+   * 
+   * @param request identifier of the Store request the message belongs
+   *        to, which is carried by any response to it
+   */
+  public void setRequest(long request) {
+    this.request = request;
+  }
+
   /**
    * 
    * @return the peer that will be an entry point to the network
@@ -109,27 +115,18 @@ public class DiscoverNodeResponse implements Event {
    * {@inheritDoc}
    */
   @Override
-  public byte[] getBytes() throws IOException {
-    byte[] marshalledBytes = null;
-    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-    DataOutputStream dout =
-        new DataOutputStream( new BufferedOutputStream( outputStream ) );
+  public void encode(MessageEncoder encoder) {
+    encoder.writeVarInt( type );
 
-    dout.writeInt( type );
+    encoder.writeVarLong( request );
 
-    dout.writeBoolean( initialPeerConnection );
+    encoder.writeBoolean( initialPeerConnection );
 
     if ( !initialPeerConnection )
     {
-      MessageUtilities.writePeerInformation( dout, source );
-      MessageUtilities.writePeerInformation( dout, original );
+      encoder.writePeerInformation( source );
+      encoder.writePeerInformation( original );
     }
-    dout.flush();
-    marshalledBytes = outputStream.toByteArray();
-
-    outputStream.close();
-    dout.close();
-    return marshalledBytes;
   }
 
   @Override
@@ -1,16 +1,8 @@
 package cs555.system.wireformats;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
 import java.util.LinkedHashSet;
 import java.util.Set;
 import cs555.system.metadata.PeerInformation;
-import cs555.system.util.MessageUtilities;
 
 /**
  * 
@@ -21,10 +13,18 @@ public class DiscoverPeerRequest implements Event {
 
   private int type;
 
+  private long request;
+
+  private boolean read;
+
+  private boolean cache;
+
   private int row;
 
   private PeerInformation destination;
 
+  private PeerInformation source;
+
   private Set<String> networkTraceIdentifiers;
 
   /**
@@ -41,37 +41,35 @@ public class DiscoverPeerRequest implements Event {
   }
 
   /**
-   * Constructor - Unmarshall the <code>byte[]</code> to the respective
-   * class elements.
+   * Constructor - Unmarshall the message from the decoder to the
+   * respective class elements.
    * 
-   * @param marshalledBytes is the byte array of the class.
-   * @throws IOException
+   * @param decoder positioned at the start of the message
    */
-  public DiscoverPeerRequest(byte[] marshalledBytes) throws IOException {
-    ByteArrayInputStream inputStream =
-        new ByteArrayInputStream( marshalledBytes );
-    DataInputStream din =
-        new DataInputStream( new BufferedInputStream( inputStream ) );
+  public DiscoverPeerRequest(MessageDecoder decoder) {
+    this.type = decoder.readVarInt();
+
+    this.request = decoder.readVarLong();
+
+    this.read = decoder.readBoolean();
+
+    this.cache = decoder.readBoolean();
 
-    this.type = din.readInt();
+    this.row = decoder.readVarInt();
 
-    this.row = din.readInt();
+    this.destination = decoder.readPeerInformation();
 
-    this.destination = MessageUtilities.readPeerInformation( din );
+    if ( decoder.readBoolean() )
+    {
+      this.source = decoder.readPeerInformation();
+    }
 
-    short len = din.readShort();
+    int len = decoder.readVarInt();
     this.networkTraceIdentifiers = new LinkedHashSet<>( len );
-    int identifierLength;
-    byte[] identifier;
     for ( int i = 0; i < len; ++i )
     {
-      identifierLength = din.readInt();
-      identifier = new byte[ identifierLength ];
-      din.readFully( identifier );
-      networkTraceIdentifiers.add( new String( identifier ) );
+      networkTraceIdentifiers.add( decoder.readIdentifierString() );
     }
-    inputStream.close();
-    din.close();
   }
 
   /**
@@ -82,6 +80,60 @@ public class DiscoverPeerRequest implements Event {
     return type;
   }
 
+  /**
+   * 
+   * @return the identifier of the Store request the message belongs
+   *         to, or zero if it belongs to none
+   */
+  public long getRequest() {
+    return request;
+  }
+
+  /**
+   * 
+   * @param request identifier of the Store request the message belongs
+   *        to, which is carried by any response to it
+   */
+  public void setRequest(long request) {
+    this.request = request;
+  }
+
+  /**
+   * 
+   * @return true if the Store is reading the content, which any peer
+   *         holding a copy of it may serve, false otherwise
+   */
+  public boolean isRead() {
+    return read;
+  }
+
+  /**
+   * 
+   * @param read true if the Store is reading the content, false if it
+   *        is writing it to the owner
+   */
+  public void setRead(boolean read) {
+    this.read = read;
+  }
+
+  /**
+   * 
+   * @return true if the source peer asks for a copy of the content once
+   *         it is read, false otherwise
+   */
+  public boolean isCache() {
+    return cache;
+  }
+
+  /**
+   * 
+   * @param cache true if the source peer caches a copy of the content
+   *        once it is read
+   */
+  public void setCache(boolean cache) {
+    this.cache = cache;
+  }
+
   public int getRow() {
     return row;
   }
@@ -90,6 +142,24 @@ public class DiscoverPeerRequest implements Event {
     return destination;
   }
 
+  /**
+   * 
+   * @return the first peer the request was routed through, or
+   *         {@code null} if it has not entered the network yet
+   */
+  public PeerInformation getSource() {
+    return source;
+  }
+
+  /**
+   * 
+   * @param source the first peer the request is routed through, which
+   *        is told of the owner once the lookup is resolved
+   */
+  public void setSource(PeerInformation source) {
+    this.source = source;
+  }
+
   public Set<String> getNetworkTraceIdentifiers() {
     return networkTraceIdentifiers;
   }
@@ -106,33 +176,31 @@ public class DiscoverPeerRequest implements Event {
    * {@inheritDoc}
    */
   @Override
-  public byte[] getBytes() throws IOException {
-    byte[] marshalledBytes = null;
-    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-    DataOutputStream dout =
-        new DataOutputStream( new BufferedOutputStream( outputStream ) );
+  public void encode(MessageEncoder encoder) {
+    encoder.writeVarInt( type );
 
-    dout.writeInt( type );
+    encoder.writeVarLong( request );
 
-    dout.writeInt( row );
+    encoder.writeBoolean( read );
 
-    MessageUtilities.writePeerInformation( dout, destination );
+    encoder.writeBoolean( cache );
 
-    dout.writeShort( networkTraceIdentifiers.size() );
+    encoder.writeVarInt( row );
 
-    for ( String s : networkTraceIdentifiers )
+    encoder.writePeerInformation( destination );
+
+    encoder.writeBoolean( source != null );
+    if ( source != null )
     {
-      byte[] identifierBytes = s.getBytes();
-      dout.writeInt( identifierBytes.length );
-      dout.write( identifierBytes );
+      encoder.writePeerInformation( source );
     }
 
-    dout.flush();
-    marshalledBytes = outputStream.toByteArray();
+    encoder.writeVarInt( networkTraceIdentifiers.size() );
 
-    outputStream.close();
-    dout.close();
-    return marshalledBytes;
+    for ( String s : networkTraceIdentifiers )
+    {
+      encoder.writeIdentifier( s );
+    }
   }
 
   @Override
@@ -1,6 +1,8 @@
 package cs555.system.wireformats;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import cs555.system.util.BufferPool;
 
 /**
  * Public interface that each message will implement.
@@ -12,20 +14,40 @@ public interface Event {
 
   /**
    * Specify the type of message being sent. This is the first
-   * <code>int</code> from the marshalled byte array.
+   * variable length integer from the marshalled byte array.
    * 
    * @return The protocol for the message is returned depending on the
    *         event.
    */
   public int getType();
 
+  /**
+   * Translates from in-memory to network-bound byte sequence, i.e.,
+   * pack fields into the encoder. The type must be written first.
+   * 
+   * @param encoder to write the fields of the message to
+   */
+  public void encode(MessageEncoder encoder);
+
   /**
    * Translates from in-memory to network-bound byte sequence, i.e.,
    * pack fields into a byte array.
    * 
+   * <p>
+   * Senders write the encoded message directly from a pooled buffer
+   * instead, see {@link MessageEncoder#frame(Event)}.
+   * </p>
+   * 
    * @return Returns an array of bytes of the object.
    * @throws IOException
    */
-  public byte[] getBytes() throws IOException;
+  public default byte[] getBytes() throws IOException {
+    ByteBuffer buffer = MessageEncoder.frame( this );
+    byte[] marshalledBytes = new byte[ buffer.remaining() - Integer.BYTES ];
+    buffer.position( Integer.BYTES );
+    buffer.get( marshalledBytes );
+    BufferPool.getInstance().release( buffer );
+    return marshalledBytes;
+  }
 
 }
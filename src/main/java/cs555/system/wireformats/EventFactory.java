@@ -50,39 +50,78 @@ public class EventFactory {
    * @throws IOException
    */
   public Event createEvent(byte[] marshalledBytes) throws IOException {
-    switch ( ByteBuffer.wrap( marshalledBytes ).getInt() )
+    return createEvent( ByteBuffer.wrap( marshalledBytes ) );
+  }
+
+  /**
+   * Create a new event, i.e., wireformat object from the marshalled
+   * message between the position and limit of the buffer. Nothing
+   * refers to the buffer once the event is created, so it may be
+   * reused.
+   * 
+   * @param buffer containing the message
+   * @return the event object from the buffer.
+   * @throws IOException if the message is malformed
+   */
+  public Event createEvent(ByteBuffer buffer) throws IOException {
+    MessageDecoder decoder = new MessageDecoder( buffer );
+    try
+    {
+      switch ( decoder.peekType() )
+      {
+        case Protocol.REGISTER_REQUEST :
+        case Protocol.UNREGISTER_REQUEST :
+        case Protocol.FORWARD_PEER_IDENTIFIER :
+        case Protocol.FORWARD_LEAF_IDENTIFIER :
+        case Protocol.STORE_DATA_RESPONSE :
+        case Protocol.DISCOVER_NODE_REQUEST :
+        case Protocol.DISCOVER_PEER_RESPONSE :
+        case Protocol.PING_REQUEST :
+        case Protocol.PING_RESPONSE :
+          return new GenericPeerMessage( decoder );
+
+        case Protocol.IDENTIFIER_COLLISION :
+        case Protocol.READ_DATA_REQUEST :
+        case Protocol.RESET_PEER :
+        case Protocol.CACHE_INVALIDATE :
+          return new GenericMessage( decoder );
+
+        case Protocol.DISCOVER_NODE_RESPONSE :
+          return new DiscoverNodeResponse( decoder );
+
+        case Protocol.JOIN_NETWORK_REQUEST :
+          return new JoinNetwork( decoder );
+
+        case Protocol.DISCOVER_PEER_REQUEST :
+        case Protocol.VERIFY_APPLICAITON_LEAVES :
+          return new DiscoverPeerRequest( decoder );
+
+        case Protocol.STORE_DATA_REQUEST :
+        case Protocol.READ_DATA_RESPONSE :
+        case Protocol.CACHE_DATA :
+          return new DataTransfer( decoder );
+
+        case Protocol.DATA_CHUNK_BEGIN :
+        case Protocol.DATA_CHUNK :
+        case Protocol.DATA_CHUNK_END :
+          return new DataChunk( decoder );
+
+        case Protocol.STORE_DATA_BATCH_REQUEST :
+        case Protocol.STORE_DATA_BATCH_RESPONSE :
+          return new DataBatch( decoder );
+
+        case Protocol.LEAF_SET_REQUEST :
+        case Protocol.LEAF_SET_RESPONSE :
+        case Protocol.REMOVE_LEAF_IDENTIFIER :
+          return new LeafSetMessage( decoder );
+
+        default :
+          LOG.error( "Event could not be created. " + decoder.peekType() );
+          return null;
+      }
+    } catch ( RuntimeException e )
     {
-      case Protocol.REGISTER_REQUEST :
-      case Protocol.UNREGISTER_REQUEST :
-      case Protocol.FORWARD_PEER_IDENTIFIER :
-      case Protocol.FORWARD_LEAF_IDENTIFIER :
-      case Protocol.STORE_DATA_RESPONSE :
-      case Protocol.DISCOVER_NODE_REQUEST :
-        return new GenericPeerMessage( marshalledBytes );
-
-      case Protocol.IDENTIFIER_COLLISION :
-      case Protocol.READ_DATA_REQUEST :
-      case Protocol.RESET_PEER :
-        return new GenericMessage( marshalledBytes );
-
-      case Protocol.DISCOVER_NODE_RESPONSE :
-        return new DiscoverNodeResponse( marshalledBytes );
-
-      case Protocol.JOIN_NETWORK_REQUEST :
-        return new JoinNetwork( marshalledBytes );
-
-      case Protocol.DISCOVER_PEER_REQUEST :
-      case Protocol.VERIFY_APPLICAITON_LEAVES :
-        return new DiscoverPeerRequest( marshalledBytes );
-
-      case Protocol.STORE_DATA_REQUEST :
-      case Protocol.READ_DATA_RESPONSE :
-        return new DataTransfer( marshalledBytes );
-
-      default :
-        LOG.error( "Event could not be created. "
-            + ByteBuffer.wrap( marshalledBytes ).getInt() );
-        return null;
+      throw new IOException( "Malformed message. " + e.toString() );
     }
   }
 }
@@ -1,13 +1,5 @@
 package cs555.system.wireformats;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
-
 /**
  * 
  * @author stock
@@ -17,6 +9,8 @@ public class GenericMessage implements Event {
 
   private int type;
 
+  private long request;
+
   private String message;
 
   /**
@@ -38,27 +32,17 @@ public class GenericMessage implements Event {
   }
 
   /**
-   * Constructor - Unmarshall the <code>byte[]</code> to the respective
-   * class elements.
+   * Constructor - Unmarshall the message from the decoder to the
+   * respective class elements.
    * 
-   * @param marshalledBytes is the byte array of the class.
-   * @throws IOException
+   * @param decoder positioned at the start of the message
    */
-  public GenericMessage(byte[] marshalledBytes) throws IOException {
-    ByteArrayInputStream inputStream =
-        new ByteArrayInputStream( marshalledBytes );
-    DataInputStream din =
-        new DataInputStream( new BufferedInputStream( inputStream ) );
+  public GenericMessage(MessageDecoder decoder) {
+    this.type = decoder.readVarInt();
 
-    this.type = din.readInt();
+    this.request = decoder.readVarLong();
 
-    int len = din.readInt();
-    byte[] pathname = new byte[ len ];
-    din.readFully( pathname );
-    this.message = new String( pathname );
-
-    inputStream.close();
-    din.close();
+    this.message = decoder.readString();
   }
 
   /**
@@ -69,6 +53,24 @@ public class GenericMessage implements Event {
     return type;
   }
 
+  /**
+   * 
+   * @return the identifier of the Store request the message belongs
+   *         to, or zero if it belongs to none
+   */
+  public long getRequest() {
+    return request;
+  }
+
+  /**
+   * 
+   * @param request identifier of the Store request the message belongs
+   *        to, which is carried by any response to it
+   */
+  public void setRequest(long request) {
+    this.request = request;
+  }
+
   /**
    * 
    * @return
@@ -81,24 +83,12 @@ public class GenericMessage implements Event {
    * {@inheritDoc}
    */
   @Override
-  public byte[] getBytes() throws IOException {
-    byte[] marshalledBytes = null;
-    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-    DataOutputStream dout =
-        new DataOutputStream( new BufferedOutputStream( outputStream ) );
-
-    dout.writeInt( type );
-
-    byte[] msg = message.getBytes();
-    dout.writeInt( msg.length );
-    dout.write( msg );
-    
-    dout.flush();
-    marshalledBytes = outputStream.toByteArray();
-
-    outputStream.close();
-    dout.close();
-    return marshalledBytes;
+  public void encode(MessageEncoder encoder) {
+    encoder.writeVarInt( type );
+
+    encoder.writeVarLong( request );
+
+    encoder.writeString( message );
   }
 
   @Override
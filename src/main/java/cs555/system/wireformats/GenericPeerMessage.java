@@ -1,14 +1,6 @@
 package cs555.system.wireformats;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
 import cs555.system.metadata.PeerInformation;
-import cs555.system.util.MessageUtilities;
 
 /**
  * Register message type to initialize itself with another node.
@@ -24,6 +16,8 @@ public class GenericPeerMessage implements Event {
 
   private int type;
 
+  private long request;
+
   private PeerInformation peer;
 
   private String message;
@@ -74,31 +68,21 @@ public class GenericPeerMessage implements Event {
   }
 
   /**
-   * Constructor - Unmarshall the <code>byte[]</code> to the respective
-   * class elements.
+   * Constructor - Unmarshall the message from the decoder to the
+   * respective class elements.
    * 
-   * @param marshalledBytes is the byte array of the class.
-   * @throws IOException
+   * @param decoder positioned at the start of the message
    */
-  public GenericPeerMessage(byte[] marshalledBytes) throws IOException {
-    ByteArrayInputStream inputStream =
-        new ByteArrayInputStream( marshalledBytes );
-    DataInputStream din =
-        new DataInputStream( new BufferedInputStream( inputStream ) );
-
-    this.type = din.readInt();
+  public GenericPeerMessage(MessageDecoder decoder) {
+    this.type = decoder.readVarInt();
 
-    this.peer = MessageUtilities.readPeerInformation( din );
+    this.request = decoder.readVarLong();
 
-    int len = din.readInt();
-    byte[] msg = new byte[ len ];
-    din.readFully( msg );
-    this.message = new String( msg );
+    this.peer = decoder.readPeerInformation();
 
-    this.flag = din.readBoolean();
+    this.message = decoder.readString();
 
-    inputStream.close();
-    din.close();
+    this.flag = decoder.readBoolean();
   }
 
   /**
@@ -109,6 +93,24 @@ public class GenericPeerMessage implements Event {
     return type;
   }
 
+  /**
+   * 
+   * @return the identifier of the Store request the message belongs
+   *         to, or zero if it belongs to none
+   */
+  public long getRequest() {
+    return request;
+  }
+
+  /**
+   * 
+   * @param request identifier of the Store request the message belongs
+   *        to, which is carried by any response to it
+   */
+  public void setRequest(long request) {
+    this.request = request;
+  }
+
   /**
    * 
    * @return the peer from the connection
@@ -171,28 +173,16 @@ public class GenericPeerMessage implements Event {
    * {@inheritDoc}
    */
   @Override
-  public byte[] getBytes() throws IOException {
-    byte[] marshalledBytes = null;
-    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-    DataOutputStream dout =
-        new DataOutputStream( new BufferedOutputStream( outputStream ) );
-
-    dout.writeInt( type );
-
-    MessageUtilities.writePeerInformation( dout, peer );
+  public void encode(MessageEncoder encoder) {
+    encoder.writeVarInt( type );
 
-    byte[] msg = message.getBytes();
-    dout.writeInt( msg.length );
-    dout.write( msg );
+    encoder.writeVarLong( request );
 
-    dout.writeBoolean( flag );
+    encoder.writePeerInformation( peer );
 
-    dout.flush();
-    marshalledBytes = outputStream.toByteArray();
+    encoder.writeString( message );
 
-    outputStream.close();
-    dout.close();
-    return marshalledBytes;
+    encoder.writeBoolean( flag );
   }
 
   /**
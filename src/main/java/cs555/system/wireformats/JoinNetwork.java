@@ -1,17 +1,12 @@
 package cs555.system.wireformats;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import cs555.system.metadata.PeerInformation;
 import cs555.system.util.Constants;
-import cs555.system.util.MessageUtilities;
 
 /**
  * 
@@ -24,12 +19,12 @@ public class JoinNetwork implements Event {
 
   private PeerInformation destination;
 
-  private PeerInformation cw;
-
-  private PeerInformation ccw;
+  private List<PeerInformation> leaves;
 
   private PeerInformation[][] table;
 
+  private List<PeerInformation> alternates;
+
   private Set<String> networkTraceIdentifiers;
 
   private short row;
@@ -43,71 +38,69 @@ public class JoinNetwork implements Event {
   public JoinNetwork(PeerInformation destination) {
     this.type = Protocol.JOIN_NETWORK_REQUEST;
     this.destination = destination;
+    this.leaves = new ArrayList<>();
     this.table = new PeerInformation[ Constants.NUMBER_OF_ROWS ][ 16 ];
+    this.alternates = new ArrayList<>();
     this.networkTraceIdentifiers = new LinkedHashSet<>();
     this.row = 0;
     this.canAddRow = true;
   }
 
   /**
-   * Constructor - Unmarshall the <code>byte[]</code> to the respective
-   * class elements.
+   * Constructor - Unmarshall the message from the decoder to the
+   * respective class elements.
    * 
-   * @param marshalledBytes is the byte array of the class.
-   * @throws IOException
+   * @param decoder positioned at the start of the message
    */
-  public JoinNetwork(byte[] marshalledBytes) throws IOException {
-    ByteArrayInputStream inputStream =
-        new ByteArrayInputStream( marshalledBytes );
-    DataInputStream din =
-        new DataInputStream( new BufferedInputStream( inputStream ) );
-
-    this.type = din.readInt();
+  public JoinNetwork(MessageDecoder decoder) {
+    this.type = decoder.readVarInt();
 
-    this.destination = MessageUtilities.readPeerInformation( din );
+    this.destination = decoder.readPeerInformation();
 
-    if ( din.readBoolean() )
+    int size = decoder.readVarInt();
+    this.leaves = new ArrayList<>( size );
+    for ( int i = 0; i < size; ++i )
     {
-      cw = MessageUtilities.readPeerInformation( din );
-      ccw = MessageUtilities.readPeerInformation( din );
+      leaves.add( decoder.readPeerInformation() );
     }
 
     this.table = new PeerInformation[ Constants.NUMBER_OF_ROWS ][ 16 ];
 
     for ( int row = 0; row < Constants.NUMBER_OF_ROWS; ++row )
     {
-      if ( din.readBoolean() )
+      // bit i of the mask is set if column i of the row is populated
+      int columns = decoder.readVarInt();
+      if ( columns != 0 )
       {
         table[ row ] = new PeerInformation[ 16 ];
 
         for ( int i = 0; i < 16; ++i )
         {
-          if ( din.readBoolean() )
+          if ( ( columns & ( 1 << i ) ) != 0 )
           {
-            table[ row ][ i ] = MessageUtilities.readPeerInformation( din );
+            table[ row ][ i ] = decoder.readPeerInformation();
           }
         }
       }
     }
 
-    short len = din.readShort();
+    size = decoder.readVarInt();
+    this.alternates = new ArrayList<>( size );
+    for ( int i = 0; i < size; ++i )
+    {
+      alternates.add( decoder.readPeerInformation() );
+    }
+
+    int len = decoder.readVarInt();
     this.networkTraceIdentifiers = new LinkedHashSet<>( len );
-    int identifierLength;
-    byte[] identifier;
     for ( int i = 0; i < len; ++i )
     {
-      identifierLength = din.readInt();
-      identifier = new byte[ identifierLength ];
-      din.readFully( identifier );
-      networkTraceIdentifiers.add( new String( identifier ) );
+      networkTraceIdentifiers.add( decoder.readIdentifierString() );
     }
 
-    this.row = din.readShort();
-
-    this.canAddRow = din.readBoolean();
+    this.row = ( short ) decoder.readVarInt();
 
-    inputStream.close();
-    din.close();
+    this.canAddRow = decoder.readBoolean();
   }
 
   /**
@@ -122,18 +115,28 @@ public class JoinNetwork implements Event {
     return destination;
   }
 
-  public PeerInformation getCW() {
-    return cw;
-  }
-
-  public PeerInformation getCCW() {
-    return ccw;
+  /**
+   * 
+   * @return the peer the join ended at and its leaves, from which the
+   *         joining peer selects its own leaf set
+   */
+  public List<PeerInformation> getLeaves() {
+    return leaves;
   }
 
   public PeerInformation[][] getTable() {
     return table;
   }
 
+  /**
+   * 
+   * @return the alternates of the routing table entries added to the
+   *         table, which the joining peer places in its own entries
+   */
+  public List<PeerInformation> getAlternates() {
+    return alternates;
+  }
+
   public short getRow() {
     return row;
   }
@@ -142,18 +145,18 @@ public class JoinNetwork implements Event {
     return canAddRow;
   }
 
-  public void setCW(PeerInformation cw) {
-    this.cw = cw;
-  }
-
-  public void setCCW(PeerInformation ccw) {
-    this.ccw = ccw;
+  public void setLeaves(Collection<PeerInformation> leaves) {
+    this.leaves = new ArrayList<>( leaves );
   }
 
   public void setTableRow(PeerInformation[] row) {
     table[ this.row ] = row;
   }
 
+  public void addAlternates(Collection<PeerInformation> alternates) {
+    this.alternates.addAll( alternates );
+  }
+
   public Set<String> getNetworkTraceIdentifiers() {
     return networkTraceIdentifiers;
   }
@@ -174,66 +177,55 @@ public class JoinNetwork implements Event {
    * {@inheritDoc}
    */
   @Override
-  public byte[] getBytes() throws IOException {
-    byte[] marshalledBytes = null;
-    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-    DataOutputStream dout =
-        new DataOutputStream( new BufferedOutputStream( outputStream ) );
-
-    dout.writeInt( type );
+  public void encode(MessageEncoder encoder) {
+    encoder.writeVarInt( type );
 
-    MessageUtilities.writePeerInformation( dout, destination );
+    encoder.writePeerInformation( destination );
 
-    if ( cw == null && ccw == null )
+    encoder.writeVarInt( leaves.size() );
+    for ( PeerInformation leaf : leaves )
     {
-      dout.writeBoolean( false );
-    } else
-    {
-      dout.writeBoolean( true );
-      MessageUtilities.writePeerInformation( dout, cw );
-      MessageUtilities.writePeerInformation( dout, ccw );
+      encoder.writePeerInformation( leaf );
     }
     for ( PeerInformation[] row : table )
     {
-      if ( row == null )
-      {
-        dout.writeBoolean( false );
-      } else
+      int columns = 0;
+      if ( row != null )
       {
-        dout.writeBoolean( true );
-        for ( PeerInformation peer : row )
+        for ( int i = 0; i < row.length; ++i )
         {
-          if ( peer == null )
+          if ( row[ i ] != null )
           {
-            dout.writeBoolean( false );
-          } else
-          {
-            dout.writeBoolean( true );
-            MessageUtilities.writePeerInformation( dout, peer );
+            columns |= 1 << i;
           }
         }
       }
+      encoder.writeVarInt( columns );
+      for ( int i = 0; columns != 0 && i < row.length; ++i )
+      {
+        if ( row[ i ] != null )
+        {
+          encoder.writePeerInformation( row[ i ] );
+        }
+      }
     }
 
-    dout.writeShort( networkTraceIdentifiers.size() );
-
-    for ( String s : networkTraceIdentifiers )
+    encoder.writeVarInt( alternates.size() );
+    for ( PeerInformation alternate : alternates )
     {
-      byte[] identifierBytes = s.getBytes();
-      dout.writeInt( identifierBytes.length );
-      dout.write( identifierBytes );
+      encoder.writePeerInformation( alternate );
     }
 
-    dout.writeShort( row );
+    encoder.writeVarInt( networkTraceIdentifiers.size() );
 
-    dout.writeBoolean( canAddRow );
+    for ( String s : networkTraceIdentifiers )
+    {
+      encoder.writeIdentifier( s );
+    }
 
-    dout.flush();
-    marshalledBytes = outputStream.toByteArray();
+    encoder.writeVarInt( row );
 
-    outputStream.close();
-    dout.close();
-    return marshalledBytes;
+    encoder.writeBoolean( canAddRow );
   }
 
   @Override
@@ -0,0 +1,110 @@
+package cs555.system.wireformats;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import cs555.system.metadata.PeerInformation;
+
+/**
+ * Message carrying a peer and a list of peers, used to maintain the
+ * leaf sets of neighboring peers.
+ * 
+ * <p>
+ * A {@code LEAF_SET_REQUEST} carries the leaves the sender found to
+ * have failed, and asks for the leaf set of the receiver. A
+ * {@code LEAF_SET_RESPONSE} carries the leaf set of the sender, and a
+ * {@code REMOVE_LEAF_IDENTIFIER} carries the leaf set of a peer that is
+ * leaving the network, so its leaves can replace it.
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+public class LeafSetMessage implements Event {
+
+  private int type;
+
+  private PeerInformation peer;
+
+  private List<PeerInformation> leaves;
+
+  /**
+   * Default constructor -
+   * 
+   * @param type
+   * @param peer that sent the message
+   * @param leaves
+   */
+  public LeafSetMessage(int type, PeerInformation peer,
+      Collection<PeerInformation> leaves) {
+    this.type = type;
+    this.peer = peer;
+    this.leaves = new ArrayList<>( leaves );
+  }
+
+  /**
+   * Constructor - Unmarshall the message from the decoder to the
+   * respective class elements.
+   * 
+   * @param decoder positioned at the start of the message
+   */
+  public LeafSetMessage(MessageDecoder decoder) {
+    this.type = decoder.readVarInt();
+    this.peer = decoder.readPeerInformation();
+
+    int size = decoder.readVarInt();
+    this.leaves = new ArrayList<>( size );
+    for ( int i = 0; i < size; ++i )
+    {
+      leaves.add( decoder.readPeerInformation() );
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int getType() {
+    return type;
+  }
+
+  /**
+   * 
+   * @return the peer that sent the message
+   */
+  public PeerInformation getPeer() {
+    return peer;
+  }
+
+  /**
+   * 
+   * @return the failed peers of a request, or the leaves of the sender
+   */
+  public List<PeerInformation> getLeaves() {
+    return leaves;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void encode(MessageEncoder encoder) {
+    encoder.writeVarInt( type );
+    encoder.writePeerInformation( peer );
+
+    encoder.writeVarInt( leaves.size() );
+    for ( PeerInformation leaf : leaves )
+    {
+      encoder.writePeerInformation( leaf );
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return Protocol.class.getFields()[ type ].getName().toString() + " | "
+        + peer.toString() + " | " + leaves.size() + " leaves";
+  }
+}
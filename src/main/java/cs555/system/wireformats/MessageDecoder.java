@@ -0,0 +1,177 @@
+package cs555.system.wireformats;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import cs555.system.metadata.PeerInformation;
+import cs555.system.util.Constants;
+import cs555.system.util.IdentifierUtilities;
+
+/**
+ * Reads the fields of a message, as written by the
+ * {@link MessageEncoder}, from a buffer.
+ * 
+ * <p>
+ * Everything that is read is copied out of the buffer, so the buffer
+ * can be reused once the message is decoded.
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+public class MessageDecoder {
+
+  private static final int IDENTIFIER_BYTES =
+      ( Constants.IDENTIFIER_BIT_LENGTH + Byte.SIZE - 1 ) / Byte.SIZE;
+
+  private final ByteBuffer buffer;
+
+  /**
+   * Default constructor -
+   * 
+   * @param buffer to read from its current position up to its limit
+   */
+  public MessageDecoder(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * Read the type of the message without consuming it, so the message
+   * can read it again when decoded.
+   * 
+   * @return the type of the message
+   */
+  public int peekType() {
+    int position = buffer.position();
+    int type = readVarInt();
+    buffer.position( position );
+    return type;
+  }
+
+  /**
+   * 
+   * @return the next four bytes as an integer
+   */
+  public int readInt() {
+    return buffer.getInt();
+  }
+
+  /**
+   * 
+   * @return the next eight bytes as a long
+   */
+  public long readLong() {
+    return buffer.getLong();
+  }
+
+  /**
+   * 
+   * @return the next byte as a boolean
+   */
+  public boolean readBoolean() {
+    return buffer.get() != 0;
+  }
+
+  /**
+   * 
+   * @return the next variable length integer
+   */
+  public int readVarInt() {
+    int value = 0;
+    for ( int shift = 0; shift < Integer.SIZE; shift += 7 )
+    {
+      byte b = buffer.get();
+      value |= ( b & 0x7F ) << shift;
+      if ( b >= 0 )
+      {
+        return value;
+      }
+    }
+    throw new IllegalStateException( "Variable length integer is too long" );
+  }
+
+  /**
+   * 
+   * @return the next variable length long
+   */
+  public long readVarLong() {
+    long value = 0;
+    for ( int shift = 0; shift < Long.SIZE; shift += 7 )
+    {
+      byte b = buffer.get();
+      value |= ( long ) ( b & 0x7F ) << shift;
+      if ( b >= 0 )
+      {
+        return value;
+      }
+    }
+    throw new IllegalStateException( "Variable length long is too long" );
+  }
+
+  /**
+   * 
+   * @return the next string, which may be {@code null}
+   */
+  public String readString() {
+    int length = readVarInt() - 1;
+    if ( length < 0 )
+    {
+      return null;
+    }
+    String s;
+    if ( buffer.hasArray() )
+    {
+      s = new String( buffer.array(), buffer.arrayOffset() + buffer.position(),
+          length, StandardCharsets.UTF_8 );
+      buffer.position( buffer.position() + length );
+    } else
+    {
+      s = new String( readBytes( length ), StandardCharsets.UTF_8 );
+    }
+    return s;
+  }
+
+  /**
+   * 
+   * @param length number of bytes to read
+   * @return a copy of the next {@code length} bytes
+   */
+  public byte[] readBytes(int length) {
+    byte[] bytes = new byte[ length ];
+    buffer.get( bytes );
+    return bytes;
+  }
+
+  /**
+   * 
+   * @return the key of the next identifier
+   */
+  public long readIdentifier() {
+    long key = 0;
+    for ( int i = 0; i < IDENTIFIER_BYTES; ++i )
+    {
+      key = ( key << Byte.SIZE ) | ( buffer.get() & 0xFF );
+    }
+    return key;
+  }
+
+  /**
+   * 
+   * @return the next identifier as hexadecimal
+   */
+  public String readIdentifierString() {
+    return IdentifierUtilities.keyToIdentifier( readIdentifier() );
+  }
+
+  /**
+   * Construct the {@code PeerInformation} object from the identifier,
+   * host and port of a peer.
+   * 
+   * @return the new {@code PeerInformation} object
+   */
+  public PeerInformation readPeerInformation() {
+    long key = readIdentifier();
+    String host = readString();
+    int port = readVarInt();
+    return new PeerInformation( key, host, port );
+  }
+}
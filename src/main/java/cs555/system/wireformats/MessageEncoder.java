@@ -0,0 +1,218 @@
+package cs555.system.wireformats;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import cs555.system.metadata.PeerInformation;
+import cs555.system.util.BufferPool;
+import cs555.system.util.Constants;
+import cs555.system.util.IdentifierUtilities;
+
+/**
+ * Writes the fields of a message into a buffer from the
+ * {@link BufferPool}.
+ * 
+ * <p>
+ * Lengths and small integers are written as variable length integers,
+ * strings as UTF-8, and identifiers as fixed width binary of
+ * {@link Constants#IDENTIFIER_BIT_LENGTH} bits. If the message
+ * outgrows the buffer, it is moved to a larger one.
+ * </p>
+ * 
+ * @author stock
+ *
+ */
+public class MessageEncoder {
+
+  private static final int IDENTIFIER_BYTES =
+      ( Constants.IDENTIFIER_BIT_LENGTH + Byte.SIZE - 1 ) / Byte.SIZE;
+
+  private ByteBuffer buffer;
+
+  /**
+   * Default constructor -
+   * 
+   * @param buffer to write to from its current position
+   */
+  public MessageEncoder(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * Encode an event into a pooled buffer, prefixed with its length as
+   * it is framed on a connection.
+   * 
+   * @param event to encode
+   * @return the buffer ready to be written, which should be released
+   *         to the {@link BufferPool} once written
+   */
+  public static ByteBuffer frame(Event event) {
+    ByteBuffer buffer = BufferPool.getInstance().acquire();
+    buffer.position( Integer.BYTES );
+    MessageEncoder encoder = new MessageEncoder( buffer );
+    event.encode( encoder );
+    buffer = encoder.getBuffer();
+    buffer.flip();
+    buffer.putInt( 0, buffer.limit() - Integer.BYTES );
+    return buffer;
+  }
+
+  /**
+   * 
+   * @return the buffer, which may have been replaced by a larger one
+   */
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * Move to a larger buffer if there are fewer than {@code length}
+   * bytes remaining.
+   * 
+   * @param length
+   */
+  private void ensure(int length) {
+    if ( buffer.remaining() < length )
+    {
+      BufferPool pool = BufferPool.getInstance();
+      ByteBuffer larger = pool.acquire(
+          Math.max( buffer.capacity() << 1, buffer.position() + length ) );
+      buffer.flip();
+      larger.put( buffer );
+      pool.release( buffer );
+      buffer = larger;
+    }
+  }
+
+  /**
+   * 
+   * @param value written as four bytes
+   */
+  public void writeInt(int value) {
+    ensure( Integer.BYTES );
+    buffer.putInt( value );
+  }
+
+  /**
+   * 
+   * @param value written as eight bytes
+   */
+  public void writeLong(long value) {
+    ensure( Long.BYTES );
+    buffer.putLong( value );
+  }
+
+  /**
+   * 
+   * @param value written as a single byte
+   */
+  public void writeBoolean(boolean value) {
+    ensure( 1 );
+    buffer.put( value ? ( byte ) 1 : ( byte ) 0 );
+  }
+
+  /**
+   * Write a non-negative integer seven bits at a time, so small values
+   * take a single byte.
+   * 
+   * @param value
+   */
+  public void writeVarInt(int value) {
+    ensure( 5 );
+    while ( ( value & ~0x7F ) != 0 )
+    {
+      buffer.put( ( byte ) ( ( value & 0x7F ) | 0x80 ) );
+      value >>>= 7;
+    }
+    buffer.put( ( byte ) value );
+  }
+
+  /**
+   * Write a non-negative long seven bits at a time, so small values
+   * take a single byte.
+   * 
+   * @param value
+   */
+  public void writeVarLong(long value) {
+    ensure( 10 );
+    while ( ( value & ~0x7FL ) != 0 )
+    {
+      buffer.put( ( byte ) ( ( value & 0x7F ) | 0x80 ) );
+      value >>>= 7;
+    }
+    buffer.put( ( byte ) value );
+  }
+
+  /**
+   * Write a string as UTF-8 following its length. The length is offset
+   * by one so a {@code null} string can be written as zero.
+   * 
+   * @param s
+   */
+  public void writeString(String s) {
+    if ( s == null )
+    {
+      writeVarInt( 0 );
+      return;
+    }
+    int length = s.length();
+    for ( int i = 0; i < length; ++i )
+    {
+      if ( s.charAt( i ) >= 0x80 )
+      {
+        byte[] bytes = s.getBytes( StandardCharsets.UTF_8 );
+        writeVarInt( bytes.length + 1 );
+        writeBytes( bytes, 0, bytes.length );
+        return;
+      }
+    }
+    // ASCII is written without encoding the string to a new array
+    writeVarInt( length + 1 );
+    ensure( length );
+    for ( int i = 0; i < length; ++i )
+    {
+      buffer.put( ( byte ) s.charAt( i ) );
+    }
+  }
+
+  /**
+   * 
+   * @param bytes
+   * @param offset
+   * @param length
+   */
+  public void writeBytes(byte[] bytes, int offset, int length) {
+    ensure( length );
+    buffer.put( bytes, offset, length );
+  }
+
+  /**
+   * 
+   * @param key of the identifier
+   */
+  public void writeIdentifier(long key) {
+    ensure( IDENTIFIER_BYTES );
+    for ( int i = IDENTIFIER_BYTES - 1; i >= 0; --i )
+    {
+      buffer.put( ( byte ) ( key >>> ( i * Byte.SIZE ) ) );
+    }
+  }
+
+  /**
+   * 
+   * @param identifier hexadecimal identifier
+   */
+  public void writeIdentifier(String identifier) {
+    writeIdentifier( IdentifierUtilities.identifierToKey( identifier ) );
+  }
+
+  /**
+   * Write the identifier, host and port of a peer.
+   * 
+   * @param peer
+   */
+  public void writePeerInformation(PeerInformation peer) {
+    writeIdentifier( peer.getKey() );
+    writeString( peer.getHost() );
+    writeVarInt( peer.getPort() );
+  }
+}
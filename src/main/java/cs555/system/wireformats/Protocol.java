@@ -40,4 +40,28 @@ public interface Protocol {
   final int VERIFY_APPLICAITON_LEAVES = 14;
   
   final int RESET_PEER = 15;
+
+  final int DATA_CHUNK_BEGIN = 16;
+
+  final int DATA_CHUNK = 17;
+
+  final int DATA_CHUNK_END = 18;
+
+  final int STORE_DATA_BATCH_REQUEST = 19;
+
+  final int STORE_DATA_BATCH_RESPONSE = 20;
+
+  final int LEAF_SET_REQUEST = 21;
+
+  final int LEAF_SET_RESPONSE = 22;
+
+  final int REMOVE_LEAF_IDENTIFIER = 23;
+
+  final int PING_REQUEST = 24;
+
+  final int PING_RESPONSE = 25;
+
+  final int CACHE_DATA = 26;
+
+  final int CACHE_INVALIDATE = 27;
 }
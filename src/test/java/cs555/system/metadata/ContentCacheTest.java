@@ -0,0 +1,71 @@
+package cs555.system.metadata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class ContentCacheTest {
+
+  @Test
+  public void testEvictLeastRecentlyUsedBytes() {
+    ContentCache cache = new ContentCache( 10, 60000 );
+    assertTrue( cache.put( "0001", "a", "1111", 1, new byte[ 4 ] ) );
+    assertTrue( cache.put( "0002", "b", "1111", 1, new byte[ 4 ] ) );
+    cache.get( "0001", "a" );
+    assertTrue( cache.put( "0003", "c", "1111", 1, new byte[ 4 ] ) );
+    assertTrue( cache.contains( "0001" ) );
+    assertFalse( cache.contains( "0002" ) );
+    assertTrue( cache.contains( "0003" ) );
+    assertEquals( 8, cache.bytes() );
+
+    // larger than the cache
+    assertFalse( cache.put( "0004", "d", "1111", 1, new byte[ 11 ] ) );
+    assertEquals( 2, cache.size() );
+  }
+
+  @Test
+  public void testFilename() {
+    ContentCache cache = new ContentCache( 10, 60000 );
+    byte[] data = { 1, 2, 3 };
+    cache.put( "0001", "a", "1111", 1, data );
+    assertArrayEquals( data, cache.get( "0001", "a" ) );
+    assertNull( cache.get( "0001", "b" ) );
+  }
+
+  @Test
+  public void testInvalidate() {
+    ContentCache cache = new ContentCache( 10, 60000 );
+    cache.put( "0001", "a", "1111", 5, new byte[ 4 ] );
+    cache.invalidate( "0001", "1111", 7 );
+    assertFalse( cache.contains( "0001" ) );
+    assertEquals( 0, cache.bytes() );
+
+    // a copy sent before the file was written again arrives late
+    assertFalse( cache.put( "0001", "a", "1111", 6, new byte[ 4 ] ) );
+    assertTrue( cache.put( "0001", "a", "2222", 6, new byte[ 4 ] ) );
+    assertTrue( cache.put( "0001", "a", "1111", 7, new byte[ 4 ] ) );
+    assertEquals( 4, cache.bytes() );
+  }
+
+  @Test
+  public void testExpire() throws InterruptedException {
+    ContentCache cache = new ContentCache( 10, 0 );
+    cache.put( "0001", "a", "1111", 1, new byte[ 4 ] );
+    cache.invalidate( "0002", "1111", 7 );
+    Thread.sleep( 5 );
+    assertFalse( cache.contains( "0001" ) );
+    assertEquals( 0, cache.size() );
+    assertTrue( cache.put( "0002", "b", "1111", 6, new byte[ 4 ] ) );
+  }
+
+  @Test
+  public void testDisabled() {
+    ContentCache cache = new ContentCache( 0, 60000 );
+    assertFalse( cache.isEnabled() );
+    assertFalse( cache.put( "0001", "a", "1111", 1, new byte[ 1 ] ) );
+    assertFalse( cache.contains( "0001" ) );
+  }
+}
@@ -0,0 +1,78 @@
+package cs555.system.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class FileCacheTest {
+
+  @Test
+  public void testEvictLeastRecentlyUsedBytes() {
+    FileCache cache = new FileCache( 10 );
+    assertTrue( cache.put( "a", new byte[ 4 ] ) );
+    assertTrue( cache.put( "b", new byte[ 4 ] ) );
+    assertNotNull( cache.get( "a" ) );
+    assertTrue( cache.put( "c", new byte[ 4 ] ) );
+    assertNotNull( cache.get( "a" ) );
+    assertNull( cache.get( "b" ) );
+    assertNotNull( cache.get( "c" ) );
+    assertEquals( 8, cache.bytes() );
+    assertEquals( 1, cache.evictions() );
+    assertEquals( 4, cache.evicted() );
+    assertEquals( 3, cache.hits() );
+    assertEquals( 1, cache.misses() );
+
+    // larger than the cache, and the older content is not kept
+    assertFalse( cache.put( "a", new byte[ 11 ] ) );
+    assertEquals( 1, cache.size() );
+    assertEquals( 4, cache.bytes() );
+  }
+
+  @Test
+  public void testContent() {
+    FileCache cache = new FileCache( 10 );
+    cache.put( "a", new byte[] { 1, 2, 3 } );
+    ByteBuffer content = cache.get( "a" );
+    assertTrue( content.isDirect() );
+    assertTrue( content.isReadOnly() );
+    assertEquals( 3, content.remaining() );
+    content.get();
+    assertEquals( 2, content.get() );
+
+    // each view has its own position
+    assertEquals( 3, cache.get( "a" ).remaining() );
+  }
+
+  @Test
+  public void testLoad() {
+    FileCache cache = new FileCache( 10 );
+    long stamp = cache.stamp();
+    assertTrue( cache.load( "a", ByteBuffer.allocateDirect( 4 ), stamp ) );
+    assertEquals( 4, cache.bytes() );
+
+    // a file written while another was read from disk
+    stamp = cache.stamp();
+    cache.put( "b", new byte[ 2 ] );
+    assertFalse( cache.load( "a", ByteBuffer.allocateDirect( 3 ), stamp ) );
+    assertEquals( 4, cache.get( "a" ).remaining() );
+
+    stamp = cache.stamp();
+    cache.remove( "a" );
+    assertFalse( cache.load( "a", ByteBuffer.allocateDirect( 3 ), stamp ) );
+    assertNull( cache.get( "a" ) );
+    assertEquals( 2, cache.bytes() );
+  }
+
+  @Test
+  public void testDisabled() {
+    FileCache cache = new FileCache( 0 );
+    assertFalse( cache.isEnabled() );
+    assertFalse( cache.put( "a", new byte[ 1 ] ) );
+    assertNull( cache.get( "a" ) );
+    assertEquals( 0, cache.size() );
+  }
+}
@@ -1,7 +1,10 @@
 package cs555.system.metadata;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
 import org.junit.Test;
 
 public class LeafSetTest {
@@ -9,7 +12,7 @@ public class LeafSetTest {
 
   @Test
   public void testIsBetween() {
-    LeafSet set = new LeafSet( null );
+    LeafSet set = new LeafSet( null, 1 );
     int a = 1;
     int b = 5;
     assertTrue( set.isBetween( 15, a, b ) );
@@ -36,13 +39,13 @@ public class LeafSetTest {
     PeerInformation self;
 
     self = new PeerInformation( "5555", null, 0 );
-    LeafSet set = new LeafSet( self );
+    LeafSet set = new LeafSet( self, 1 );
 
     PeerInformation cw = new PeerInformation( "1111", null, 0 );
-    set.setLeaf( cw, true );
+    set.addLeaf( cw );
 
     PeerInformation ccw = new PeerInformation( "3333", null, 0 );
-    set.setLeaf( ccw, false );
+    set.addLeaf( ccw );
 
     assertTrue( set.getClosestLeaf( "7777" ).equals( self ) );
     assertTrue( set.getClosestLeaf( "4444" ).equals( self ) );
@@ -54,13 +57,13 @@ public class LeafSetTest {
     /** -------------------------------------- */
 
     self = new PeerInformation( "5555", null, 0 );
-    set = new LeafSet( self );
+    set = new LeafSet( self, 1 );
 
     cw = new PeerInformation( "8888", null, 0 );
-    set.setLeaf( cw, true );
+    set.addLeaf( cw );
 
     ccw = new PeerInformation( "BBBB", null, 0 );
-    set.setLeaf( ccw, false );
+    set.addLeaf( ccw );
 
     assertTrue( set.getClosestLeaf( "6666" ).equals( self ) );
     assertTrue( set.getClosestLeaf( "BBBB" ).equals( ccw ) );
@@ -73,13 +76,13 @@ public class LeafSetTest {
     /** -------------------------------------- */
 
     self = new PeerInformation( "0001", null, 0 );
-    set = new LeafSet( self );
+    set = new LeafSet( self, 1 );
 
     cw = new PeerInformation( "5555", null, 0 );
-    set.setLeaf( cw, true );
+    set.addLeaf( cw );
 
     ccw = new PeerInformation( "AAAA", null, 0 );
-    set.setLeaf( ccw, false );
+    set.addLeaf( ccw );
 
     assertTrue( set.getClosestLeaf( "0000" ).equals( self ) );
     assertTrue( set.getClosestLeaf( "FFFF" ).equals( self ) );
@@ -93,13 +96,13 @@ public class LeafSetTest {
     /** -------------------------------------- */
 
     self = new PeerInformation( "FFFF", null, 0 );
-    set = new LeafSet( self );
+    set = new LeafSet( self, 1 );
 
     cw = new PeerInformation( "5555", null, 0 );
-    set.setLeaf( cw, true );
+    set.addLeaf( cw );
 
     ccw = new PeerInformation( "AAAA", null, 0 );
-    set.setLeaf( ccw, false );
+    set.addLeaf( ccw );
 
     assertTrue( set.getClosestLeaf( "0000" ).equals( self ) );
     assertTrue( set.getClosestLeaf( "FFFE" ).equals( self ) );
@@ -113,13 +116,13 @@ public class LeafSetTest {
     /** -------------------------------------- */
 
     self = new PeerInformation( "5555", null, 0 );
-    set = new LeafSet( self );
+    set = new LeafSet( self, 1 );
 
     cw = new PeerInformation( "FFFF", null, 0 );
-    set.setLeaf( cw, true );
+    set.addLeaf( cw );
 
     ccw = new PeerInformation( "3333", null, 0 );
-    set.setLeaf( ccw, false );
+    set.addLeaf( ccw );
 
     assertTrue( set.getClosestLeaf( "FFFE" ).equals( cw ) );
     assertTrue( set.getClosestLeaf( "FF00" ).equals( cw ) );
@@ -132,13 +135,13 @@ public class LeafSetTest {
     /** -------------------------------------- */
 
     self = new PeerInformation( "5555", null, 0 );
-    set = new LeafSet( self );
+    set = new LeafSet( self, 1 );
 
     cw = new PeerInformation( "0000", null, 0 );
-    set.setLeaf( cw, true );
+    set.addLeaf( cw );
 
     ccw = new PeerInformation( "3333", null, 0 );
-    set.setLeaf( ccw, false );
+    set.addLeaf( ccw );
 
     assertTrue( set.getClosestLeaf( "FFFE" ).equals( cw ) );
     assertTrue( set.getClosestLeaf( "FF00" ).equals( cw ) );
@@ -151,13 +154,13 @@ public class LeafSetTest {
     /** -------------------------------------- */
 
     self = new PeerInformation( "5555", null, 0 );
-    set = new LeafSet( self );
+    set = new LeafSet( self, 1 );
 
     cw = new PeerInformation( "AAAA", null, 0 );
-    set.setLeaf( cw, true );
+    set.addLeaf( cw );
 
     ccw = new PeerInformation( "FFFF", null, 0 );
-    set.setLeaf( ccw, false );
+    set.addLeaf( ccw );
 
     assertTrue( set.getClosestLeaf( "0000" ).equals( ccw ) );
     assertTrue( set.getClosestLeaf( "5500" ).equals( self ) );
@@ -169,13 +172,13 @@ public class LeafSetTest {
     /** -------------------------------------- */
 
     self = new PeerInformation( "5555", null, 0 );
-    set = new LeafSet( self );
+    set = new LeafSet( self, 1 );
 
     cw = new PeerInformation( "AAAA", null, 0 );
-    set.setLeaf( cw, true );
+    set.addLeaf( cw );
 
     ccw = new PeerInformation( "0000", null, 0 );
-    set.setLeaf( ccw, false );
+    set.addLeaf( ccw );
 
     assertTrue( set.getClosestLeaf( "0001" ).equals( ccw ) );
     assertTrue( set.getClosestLeaf( "5500" ).equals( self ) );
@@ -190,13 +193,17 @@ public class LeafSetTest {
 
     // After : { EC52 <- 0685 -> 0685 }
     self = new PeerInformation( "0685", null, 0 );
-    set = new LeafSet( self );
+    set = new LeafSet( self, 1 );
+
+    PeerInformation failed = new PeerInformation( "F414", null, 0 );
+    set.addLeaf( failed );
 
     cw = new PeerInformation( "0685", null, 0 );
-    set.setLeaf( cw, true );
+    set.addLeaf( cw );
 
     ccw = new PeerInformation( "EC52", null, 0 );
-    set.setLeaf( ccw, false );
+    set.addLeaf( ccw );
+    set.removeLeaf( failed );
 
     assertTrue( set.getClosestLeaf( "F4F6" ).equals( ccw ) );
     assertTrue( set.getClosestLeaf( "0500" ).equals( cw ) );
@@ -207,13 +214,13 @@ public class LeafSetTest {
 
     // After : { EC52 <- EC52 -> 0685 }
     self = new PeerInformation( "EC52", null, 0 );
-    set = new LeafSet( self );
+    set = new LeafSet( self, 1 );
 
     cw = new PeerInformation( "0685", null, 0 );
-    set.setLeaf( cw, true );
+    set.addLeaf( cw );
 
     ccw = new PeerInformation( "EC52", null, 0 );
-    set.setLeaf( ccw, false );
+    set.addLeaf( ccw );
 
     assertTrue( set.getClosestLeaf( "F414" ).equals( ccw ) );
     assertTrue( set.getClosestLeaf( "0500" ).equals( cw ) );
@@ -221,14 +228,120 @@ public class LeafSetTest {
     /** -------------------------------------- */
 
     self = new PeerInformation( "1B3C", null, 0 );
-    set = new LeafSet( self );
+    set = new LeafSet( self, 1 );
 
     cw = new PeerInformation( "8153", null, 0 );
-    set.setLeaf( cw, true );
+    set.addLeaf( cw );
 
     ccw = new PeerInformation( "C99C", null, 0 );
-    set.setLeaf( ccw, false );
+    set.addLeaf( ccw );
 
     assertTrue( set.getClosestLeaf( "B6DB" ) == null );
   }
+
+  @Test
+  public void testWideLeafSet() {
+    PeerInformation self = new PeerInformation( "8000", null, 0 );
+    LeafSet set = new LeafSet( self, 3 );
+    PeerInformation[] peers = new PeerInformation[ 8 ];
+    String[] identifiers =
+        { "1000", "7000", "7800", "7C00", "8400", "8800", "9000", "F000" };
+    for ( int i = 0; i < peers.length; ++i )
+    {
+      peers[ i ] = new PeerInformation( identifiers[ i ], null, 0 );
+    }
+    assertTrue( set.addLeaves( Arrays.asList( peers ) ) );
+
+    // only the three nearest on either side are kept
+    assertEquals( Arrays.asList( peers ).subList( 1, 7 ), set.getLeaves() );
+    assertEquals( peers[ 4 ], set.getCW() );
+    assertEquals( peers[ 3 ], set.getCCW() );
+    assertFalse( set.addLeaf( peers[ 0 ] ) );
+
+    assertEquals( peers[ 5 ], set.getClosestLeaf( "8A00" ) );
+    assertEquals( peers[ 6 ], set.getClosestLeaf( "9000" ) );
+    assertEquals( peers[ 1 ], set.getClosestLeaf( "7100" ) );
+    assertEquals( peers[ 4 ], set.getClosestLeaf( "8200" ) );
+    assertEquals( self, set.getClosestLeaf( "81FF" ) );
+    assertNull( set.getClosestLeaf( "9001" ) );
+    assertNull( set.getClosestLeaf( "6FFF" ) );
+
+    // a removed leaf is replaced by the next nearest peer added
+    assertTrue( set.removeLeaf( peers[ 6 ] ) );
+    assertFalse( set.removeLeaf( peers[ 6 ] ) );
+    PeerInformation next = new PeerInformation( "9800", null, 0 );
+    assertTrue( set.addLeaves( Arrays.asList( next, peers[ 0 ] ) ) );
+    assertEquals( next, set.getLeaves().get( 5 ) );
+    assertEquals( peers[ 5 ], set.getClosestLeaf( "8FFF" ) );
+    assertEquals( next, set.getClosestLeaf( "9400" ) );
+  }
+
+  @Test
+  public void testRemovedLeaf() {
+    PeerInformation self = new PeerInformation( "8000", null, 0 );
+    LeafSet set = new LeafSet( self, 2 );
+    PeerInformation[] peers = new PeerInformation[ 6 ];
+    String[] identifiers = { "7000", "7800", "8800", "9000", "9800", "A000" };
+    for ( int i = 0; i < peers.length; ++i )
+    {
+      peers[ i ] = new PeerInformation( identifiers[ i ], null, 0 );
+    }
+    set.addLeaves( Arrays.asList( peers ).subList( 0, 4 ) );
+    assertNull( set.getClosestLeaf( "A000" ) );
+
+    // too few leaves remain to fill either side, but the peers beyond
+    // the removed leaf are unknown, so the leaves do not cover the ring
+    assertTrue( set.removeLeaf( peers[ 2 ] ) );
+    assertEquals( Arrays.asList( peers[ 0 ], peers[ 1 ], peers[ 3 ] ),
+        set.getLeaves() );
+    assertNull( set.getClosestLeaf( "A000" ) );
+    assertNull( set.getClosestLeaf( "1000" ) );
+    assertEquals( peers[ 3 ], set.getClosestLeaf( "8C00" ) );
+    assertEquals( self, set.getClosestLeaf( "8700" ) );
+
+    // a side left without any leaves covers nothing past this peer
+    assertTrue( set.removeLeaf( peers[ 3 ] ) );
+    assertEquals( self, set.getClosestLeaf( "8000" ) );
+    assertNull( set.getClosestLeaf( "8001" ) );
+    assertNull( set.getCW() );
+    assertEquals( peers[ 1 ], set.getCCW() );
+
+    // the leaf set of a neighbor replaces the removed leaves
+    assertTrue( set.repair( Arrays.asList( peers ).subList( 3, 6 ) ) );
+    assertEquals( peers[ 3 ], set.getCW() );
+    assertEquals( peers[ 4 ], set.getClosestLeaf( "9600" ) );
+    assertNull( set.getClosestLeaf( "A000" ) );
+
+    // in a small network the repaired leaves cover the ring again
+    set = new LeafSet( self, 2 );
+    set.addLeaves( Arrays.asList( peers ).subList( 0, 3 ) );
+    assertEquals( peers[ 2 ], set.getClosestLeaf( "C000" ) );
+    assertTrue( set.removeLeaf( peers[ 2 ] ) );
+    assertNull( set.getClosestLeaf( "C000" ) );
+    assertTrue( set.repair( Arrays.asList( peers[ 1 ] ) ) );
+    assertEquals( self, set.getClosestLeaf( "C000" ) );
+  }
+
+  @Test
+  public void testReplicas() {
+    PeerInformation self = new PeerInformation( "5000", null, 0 );
+    LeafSet set = new LeafSet( self, 2 );
+    PeerInformation a = new PeerInformation( "1000", null, 0 );
+    PeerInformation b = new PeerInformation( "3000", null, 0 );
+    PeerInformation c = new PeerInformation( "7000", null, 0 );
+    PeerInformation d = new PeerInformation( "9000", null, 0 );
+    set.addLeaves( Arrays.asList( a, b, c, d ) );
+
+    // the owner is first, and a tie goes to the clockwise peer
+    assertEquals( Arrays.asList( c, self, d ), set.getReplicas( "6000", 3 ) );
+    assertEquals( Arrays.asList( a, b, self ), set.getReplicas( "1000", 3 ) );
+    assertEquals( Arrays.asList( b ), set.getReplicas( "2FFF", 1 ) );
+    assertEquals( 5, set.getReplicas( "5000", 8 ).size() );
+    assertTrue( set.getReplicas( "C000", 3 ).isEmpty() );
+
+    // the leaves cover the ring
+    set = new LeafSet( self, 2 );
+    set.addLeaves( Arrays.asList( a, d ) );
+    assertEquals( Arrays.asList( a, self, d ), set.getReplicas( "F000", 3 ) );
+  }
 }
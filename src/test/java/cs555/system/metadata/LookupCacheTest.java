@@ -0,0 +1,52 @@
+package cs555.system.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+public class LookupCacheTest {
+
+  @Test
+  public void testEvictLeastRecentlyUsed() {
+    LookupCache cache = new LookupCache( 2, 60000 );
+    PeerInformation a = new PeerInformation( "1111", null, 0 );
+    PeerInformation b = new PeerInformation( "2222", null, 0 );
+    cache.put( 0x0001, a );
+    cache.put( 0x0002, b );
+    cache.get( 0x0001 );
+    cache.put( 0x0003, b );
+    assertEquals( a, cache.get( 0x0001 ) );
+    assertNull( cache.get( 0x0002 ) );
+    assertEquals( b, cache.get( 0x0003 ) );
+  }
+
+  @Test
+  public void testExpire() throws InterruptedException {
+    LookupCache cache = new LookupCache( 2, 0 );
+    cache.put( 0x0001, new PeerInformation( "1111", null, 0 ) );
+    Thread.sleep( 5 );
+    assertNull( cache.get( 0x0001 ) );
+    assertEquals( 0, cache.size() );
+  }
+
+  @Test
+  public void testRemoveOwner() {
+    LookupCache cache = new LookupCache( 4, 60000 );
+    PeerInformation a = new PeerInformation( "1111", null, 0 );
+    PeerInformation b = new PeerInformation( "2222", null, 0 );
+    cache.put( 0x0001, a );
+    cache.put( 0x0002, b );
+    cache.put( 0x0003, a );
+    cache.remove( a );
+    assertNull( cache.get( 0x0001 ) );
+    assertNull( cache.get( 0x0003 ) );
+    assertEquals( b, cache.get( 0x0002 ) );
+  }
+
+  @Test
+  public void testDisabled() {
+    LookupCache cache = new LookupCache( 0, 60000 );
+    cache.put( 0x0001, new PeerInformation( "1111", null, 0 ) );
+    assertNull( cache.get( 0x0001 ) );
+  }
+}
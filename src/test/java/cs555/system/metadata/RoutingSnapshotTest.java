@@ -0,0 +1,83 @@
+package cs555.system.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import cs555.system.util.IdentifierUtilities;
+import java.util.Arrays;
+
+public class RoutingSnapshotTest {
+
+  @Test
+  public void testPublishedOnUpdate() {
+    PeerMetadata metadata = new PeerMetadata( null, 0 );
+    metadata.setIdentifier( "8000" );
+    metadata.addSelfToTable();
+    RoutingSnapshot before = metadata.routing();
+
+    PeerInformation a = new PeerInformation( "1234", null, 0 );
+    metadata.addPeerToTable( a );
+    RoutingSnapshot after = metadata.routing();
+
+    assertNull( before.getTableIndex( 0, 1 ) );
+    assertEquals( a, after.getTableIndex( 0, 1 ) );
+    assertFalse( after.isPopulated() );
+    assertEquals( metadata.self(), after.getClosestLeaf( 0x1234 ) );
+  }
+
+  @Test
+  public void testAlternates() {
+    PeerMetadata metadata = new PeerMetadata( null, 0 );
+    metadata.setIdentifier( "8000" );
+    metadata.addSelfToTable();
+    PeerInformation a = new PeerInformation( "1000", null, 0 );
+    PeerInformation b = new PeerInformation( "1111", null, 0 );
+    PeerInformation c = new PeerInformation( "2000", null, 0 );
+    metadata.addPeerToTable( a );
+    metadata.addPeerToTable( b );
+    metadata.addPeerToTable( c );
+    metadata.measured( b, 10 );
+    RoutingSnapshot routing = metadata.routing();
+    PeerInformation destination = new PeerInformation( "1234", null, 0 );
+
+    PeerInformation hop = IdentifierUtilities.nextHop( routing, destination );
+    assertEquals( b, hop );
+    assertEquals( Arrays.asList( a ),
+        IdentifierUtilities.alternates( routing, destination, hop ) );
+    assertTrue(
+        IdentifierUtilities.alternates( routing, destination, c ).isEmpty() );
+
+    // the alternate is routed to once the hop is removed
+    metadata.removePeerFromTable( hop );
+    assertEquals( a,
+        IdentifierUtilities.nextHop( metadata.routing(), destination ) );
+    assertEquals( hop, routing.getTableIndex( 0, 1 ) );
+  }
+
+  @Test
+  public void testLeafSet() {
+    PeerMetadata metadata = new PeerMetadata( null, 0 );
+    metadata.setIdentifier( "8000" );
+    metadata.addSelfToTable();
+    PeerInformation cw = new PeerInformation( "8010", null, 0 );
+    PeerInformation ccw = new PeerInformation( "7FF0", null, 0 );
+    metadata.addLeaf( cw );
+    RoutingSnapshot half = metadata.routing();
+    metadata.addLeaf( ccw );
+    RoutingSnapshot routing = metadata.routing();
+
+    assertEquals( Arrays.asList( cw ), half.getLeaves() );
+    assertTrue( routing.isPopulated() );
+    assertEquals( Arrays.asList( cw, ccw ), routing.getLeaves() );
+    assertEquals( cw, routing.getClosestLeaf( 0x800F ) );
+    assertEquals( ccw, routing.getClosestLeaf( 0x7FF1 ) );
+    // fewer peers than the leaf set holds, so every key is within it
+    assertEquals( ccw, routing.getClosestLeaf( 0x1234 ) );
+
+    metadata.resetRouting();
+    assertFalse( metadata.routing().isPopulated() );
+    assertTrue( routing.isPopulated() );
+  }
+}
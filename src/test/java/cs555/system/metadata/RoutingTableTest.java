@@ -0,0 +1,61 @@
+package cs555.system.metadata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class RoutingTableTest {
+
+  @Test
+  public void testNearestIsRoutedTo() {
+    Proximity proximity = new Proximity();
+    RoutingTable table = new RoutingTable( proximity );
+    PeerInformation a = new PeerInformation( "1000", null, 0 );
+    PeerInformation b = new PeerInformation( "1111", null, 0 );
+    PeerInformation c = new PeerInformation( "1222", null, 0 );
+    PeerInformation d = new PeerInformation( "1333", null, 0 );
+
+    // peers that have not been measured are kept in the order added
+    assertTrue( table.addPeerToTable( a, 0 ) );
+    assertTrue( table.addPeerToTable( b, 0 ) );
+    assertEquals( a, table.getTableIndex( 0, 1 ) );
+    PeerInformation[] before = table.getTableRow( 0 );
+
+    proximity.update( b, 100 );
+    table.addPeerToTable( b, 0 );
+    assertEquals( b, table.getTableIndex( 0, 1 ) );
+    assertEquals( a, before[ 1 ] );
+
+    proximity.update( c, 50 );
+    table.addPeerToTable( c, 0 );
+    assertArrayEquals( new PeerInformation[] { c, b, a },
+        table.getCandidates( 0, 1 ) );
+
+    // an entry is full, and the peer is no nearer than the alternates
+    assertFalse( table.addPeerToTable( d, 0 ) );
+    proximity.update( d, 10 );
+    assertTrue( table.addPeerToTable( d, 0 ) );
+    assertArrayEquals( new PeerInformation[] { d, c, b },
+        table.getCandidates( 0, 1 ) );
+
+    assertTrue( table.removePeerFromTable( d, 0 ) );
+    assertFalse( table.removePeerFromTable( d, 0 ) );
+    assertEquals( c, table.getTableIndex( 0, 1 ) );
+  }
+
+  @Test
+  public void testMinimumRoundTripTime() {
+    Proximity proximity = new Proximity();
+    PeerInformation a = new PeerInformation( "1000", null, 0 );
+    assertFalse( proximity.isMeasured( a ) );
+    assertEquals( Proximity.UNKNOWN, proximity.get( a ) );
+    proximity.update( a, 300 );
+    proximity.update( a, 100 );
+    proximity.update( a, 200 );
+    assertEquals( 100, proximity.get( a ) );
+    proximity.remove( a );
+    assertFalse( proximity.isMeasured( a ) );
+  }
+}
@@ -2,6 +2,7 @@ package cs555.system.util;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 import org.junit.Test;
 import cs555.system.metadata.PeerInformation;
 import cs555.system.metadata.PeerMetadata;
@@ -47,6 +48,87 @@ public class IdentifierUtilitiesTest {
         IdentifierUtilities.longestCommonPrefixLength( "AAAA", "BBBB" ) );
   }
 
+  @Test
+  public void testLongestCommonPrefixLengthOfKeys() {
+    assertEquals( 4,
+        IdentifierUtilities.longestCommonPrefixLength( 0xAAAA, 0xAAAA ) );
+    assertEquals( 3,
+        IdentifierUtilities.longestCommonPrefixLength( 0xAAAA, 0xAAAB ) );
+    assertEquals( 2,
+        IdentifierUtilities.longestCommonPrefixLength( 0xAAAA, 0xAABB ) );
+    assertEquals( 1,
+        IdentifierUtilities.longestCommonPrefixLength( 0xAAAA, 0xABBB ) );
+    assertEquals( 0,
+        IdentifierUtilities.longestCommonPrefixLength( 0xAAAA, 0x2AAA ) );
+  }
+
+  @Test
+  public void testDigit() {
+    assertEquals( 0x1, IdentifierUtilities.digit( 0x1234, 0 ) );
+    assertEquals( 0x2, IdentifierUtilities.digit( 0x1234, 1 ) );
+    assertEquals( 0x3, IdentifierUtilities.digit( 0x1234, 2 ) );
+    assertEquals( 0x4, IdentifierUtilities.digit( 0x1234, 3 ) );
+    assertEquals( 0xF, IdentifierUtilities.digit( 0xF00D, 0 ) );
+  }
+
+  @Test
+  public void testDistance() {
+    long max = Constants.IDENTIFIER_MASK;
+    assertEquals( 0x10, IdentifierUtilities.clockwise( 0x10, 0x20 ) );
+    assertEquals( max - 0xF, IdentifierUtilities.clockwise( 0x20, 0x10 ) );
+    // the shortest way around the ring wraps past zero
+    assertEquals( 2, IdentifierUtilities.distance( max, 1 ) );
+    assertEquals( 2, IdentifierUtilities.distance( 1, max ) );
+  }
+
+  @Test
+  public void testContentToIdentifier() {
+    String identifier =
+        IdentifierUtilities.contentToIdentifier( "/greta.jpeg".getBytes() );
+    assertEquals( Constants.NUMBER_OF_ROWS, identifier.length() );
+    assertEquals( identifier, IdentifierUtilities.keyToIdentifier(
+        IdentifierUtilities.identifierToKey( identifier ) ) );
+  }
+
+  @Test
+  public void testBitLength() {
+    assertEquals( 64, IdentifierUtilities.bitLength( "64" ) );
+    for ( String bits : new String[] { "8", "18", "128" } )
+    {
+      try
+      {
+        IdentifierUtilities.bitLength( bits );
+        fail( bits + " bits should not be accepted" );
+      } catch ( IllegalArgumentException e )
+      {
+      }
+    }
+  }
+
+  @Test
+  public void testNextHop() {
+    PeerMetadata metadata = new PeerMetadata( null, 0 );
+    PeerInformation a = new PeerInformation( "D294", null, 0 );
+    PeerInformation b = new PeerInformation( "D8FE", null, 0 );
+    PeerInformation c = new PeerInformation( "5678", null, 0 );
+
+    metadata.setIdentifier( "D161" );
+    metadata.addPeerToTable( a );
+    metadata.addPeerToTable( b );
+    metadata.addPeerToTable( c );
+    metadata.addSelfToTable();
+
+    // entry sharing the next digit of the destination
+    assertEquals( b, IdentifierUtilities.nextHop( metadata,
+        new PeerInformation( "D825", null, 0 ) ) );
+    assertEquals( c, IdentifierUtilities.nextHop( metadata,
+        new PeerInformation( "5000", null, 0 ) ) );
+
+    // no entry, so the closest peer is used
+    assertEquals( a, IdentifierUtilities.nextHop( metadata,
+        new PeerInformation( "D400", null, 0 ) ) );
+  }
+
   @Test
   public void testIdentifierCompare() {
     String l = "ABCD", r = "ABCC";
@@ -152,10 +234,9 @@ public class IdentifierUtilitiesTest {
     t.addPeerToTable( a, 1 );
     t.addPeerToTable( b, 2 );
 
-    metadata.leaf().setLeaf( c, Constants.CLOCKWISE );
-    metadata.leaf().setLeaf( a, Constants.COUNTER_CLOCKWISE );
-
     metadata.setIdentifier( "1111" );
+    metadata.addLeaf( c );
+    metadata.addLeaf( a );
     metadata.addSelfToTable();
     // t.display();
     System.out.println( metadata.leaf().toString() );
@@ -202,10 +283,9 @@ public class IdentifierUtilitiesTest {
     t.addPeerToTable( k, 1 );
     t.addPeerToTable( l, 1 );
 
-    metadata.leaf().setLeaf( h, Constants.CLOCKWISE );
-    metadata.leaf().setLeaf( g, Constants.COUNTER_CLOCKWISE );
-
     metadata.setIdentifier( "D161" );
+    metadata.addLeaf( h );
+    metadata.addLeaf( g );
     metadata.addSelfToTable();
 //     t.display();
     System.out.println( metadata.leaf().toString() );
@@ -0,0 +1,235 @@
+package cs555.system.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SegmentStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static byte[] bytes(ByteBuffer content) {
+    byte[] data = new byte[ content.remaining() ];
+    content.get( data );
+    return data;
+  }
+
+  @Test
+  public void testPutGetRemove() throws IOException {
+    SegmentStore store =
+        new SegmentStore( folder.getRoot().toPath(), 1024, 0.5, 0 );
+    assertTrue( store.open() );
+    store.put( "a/b.txt", "0001", new byte[] { 1, 2, 3 } );
+    store.put( "c.txt", "0002", new byte[ 0 ] );
+    assertArrayEquals( new byte[] { 1, 2, 3 },
+        bytes( store.get( "a/b.txt" ) ) );
+    assertEquals( 0, store.get( "c.txt" ).remaining() );
+    assertTrue( store.get( "c.txt" ).isReadOnly() );
+
+    store.put( "a/b.txt", "0001", new byte[] { 4 } );
+    assertEquals( 4, store.get( "a/b.txt" ).get() );
+    assertTrue( store.remove( "a/b.txt" ) );
+    assertFalse( store.remove( "a/b.txt" ) );
+    assertNull( store.get( "a/b.txt" ) );
+    assertEquals( 1, store.size() );
+  }
+
+  @Test
+  public void testPutPath() throws IOException {
+    Path directory = folder.newFolder( "store" ).toPath();
+    SegmentStore store = new SegmentStore( directory, 65536, 0.5, 0 );
+    assertTrue( store.open() );
+    Path staged = folder.newFile( "staged" ).toPath();
+    Files.write( staged, new byte[] { 1, 2, 3 } );
+    store.put( "a", "0001", staged );
+    assertArrayEquals( new byte[] { 1, 2, 3 }, bytes( store.get( "a" ) ) );
+
+    // a directory opens with a size, but can not be read, so its record
+    // is left as padding in the log
+    try
+    {
+      store.put( "c", "0003", folder.newFolder( "unreadable" ).toPath() );
+    } catch ( IOException e )
+    {
+      // expected
+    }
+    assertNull( store.get( "c" ) );
+    store.put( "b", "0002", new byte[] { 4 } );
+    store.close();
+    Files.delete( directory.resolve( "index" ) );
+
+    SegmentStore recovered = new SegmentStore( directory, 65536, 0.5, 0 );
+    assertTrue( recovered.open() );
+    assertEquals( 2, recovered.size() );
+    assertEquals( "0001", recovered.files().get( "a" ) );
+    assertEquals( 4, recovered.get( "b" ).get() );
+  }
+
+  @Test
+  public void testRecover() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    SegmentStore store = new SegmentStore( directory, 64, 0.5, 0 );
+    assertTrue( store.open() );
+    for ( int i = 0; i < 10; ++i )
+    {
+      store.put( "f" + i, "000" + i, new byte[] { ( byte ) i } );
+    }
+    store.put( "f1", "0001", new byte[] { 11 } );
+    store.remove( "f2" );
+    Path staged = store.staging( "transfer" );
+    Files.createDirectories( staged.getParent() );
+    Files.write( staged, new byte[] { 1 } );
+
+    // still held by the store
+    assertFalse( new SegmentStore( directory, 64, 0.5, 0 ).open() );
+    store.close();
+
+    SegmentStore recovered = new SegmentStore( directory, 64, 0.5, 0 );
+    assertTrue( recovered.open() );
+    Map<String, String> files = recovered.files();
+    assertEquals( 9, files.size() );
+    assertFalse( files.containsKey( "f2" ) );
+    assertEquals( "0009", files.get( "f9" ) );
+    assertEquals( 11, recovered.get( "f1" ).get() );
+    assertFalse( Files.exists( staged ) );
+  }
+
+  @Test
+  public void testIncompleteRecord() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    SegmentStore store = new SegmentStore( directory, 1024, 0.5, 0 );
+    assertTrue( store.open() );
+    store.put( "a", "0001", new byte[ 8 ] );
+    store.put( "b", "0002", new byte[ 8 ] );
+    store.close();
+    // as if the peer crashed before a snapshot covered the records
+    Files.delete( directory.resolve( "index" ) );
+
+    // corrupt the last byte of content of the second record
+    try ( FileChannel channel = FileChannel.open(
+        directory.resolve( "segment-0" ), StandardOpenOption.WRITE ) )
+    {
+      channel.write( ByteBuffer.wrap( new byte[] { 1 } ), 2 * ( 16 + 13 ) - 1 );
+    }
+    SegmentStore recovered = new SegmentStore( directory, 1024, 0.5, 0 );
+    assertTrue( recovered.open() );
+    assertEquals( 1, recovered.size() );
+    assertNull( recovered.get( "b" ) );
+
+    // the log continues from the end of the last complete record
+    recovered.put( "c", "0003", new byte[ 8 ] );
+    recovered.close();
+    SegmentStore reopened = new SegmentStore( directory, 1024, 0.5, 0 );
+    assertTrue( reopened.open() );
+    assertEquals( 2, reopened.size() );
+    assertEquals( 8, reopened.get( "c" ).remaining() );
+  }
+
+  @Test
+  public void testSnapshot() throws IOException {
+    Path directory = folder.newFolder( "store" ).toPath();
+    SegmentStore store = new SegmentStore( directory, 1024, 0.5, 2 );
+    assertTrue( store.open() );
+    store.put( "a", "0001", new byte[ 8 ] );
+    store.put( "b", "0002", new byte[ 8 ] );
+    store.put( "c", "0003", new byte[ 8 ] );
+
+    // the files on disk as if the peer crashed, with a snapshot of a
+    // and b, and c only in the log
+    Path crashed = folder.newFolder( "crashed" ).toPath();
+    try ( Stream<Path> paths = Files.list( directory ) )
+    {
+      for ( Path path : ( Iterable<Path> ) paths::iterator )
+      {
+        if ( Files.isRegularFile( path ) )
+        {
+          Files.copy( path, crashed.resolve( path.getFileName() ) );
+        }
+      }
+    }
+    // a record covered by the snapshot is not scanned again
+    try ( FileChannel channel = FileChannel.open(
+        crashed.resolve( "segment-0" ), StandardOpenOption.WRITE ) )
+    {
+      channel.write( ByteBuffer.wrap( new byte[] { 1 } ), 16 + 13 - 1 );
+    }
+    SegmentStore recovered = new SegmentStore( crashed, 1024, 0.5, 2 );
+    assertTrue( recovered.open() );
+    assertEquals( 3, recovered.size() );
+    assertEquals( "0003", recovered.files().get( "c" ) );
+
+    // the log continues after the records replayed
+    recovered.put( "d", "0004", new byte[ 8 ] );
+    recovered.remove( "b" );
+    recovered.close();
+    SegmentStore reopened = new SegmentStore( crashed, 1024, 0.5, 2 );
+    assertTrue( reopened.open() );
+    assertEquals( 3, reopened.size() );
+    assertNull( reopened.get( "b" ) );
+    assertEquals( 8, reopened.get( "d" ).remaining() );
+  }
+
+  @Test
+  public void testCompaction() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    SegmentStore store = new SegmentStore( directory, 64, 0.5, 0 );
+    assertTrue( store.open() );
+    // each record is 32 bytes, so two fit in a segment
+    store.put( "a", "0001", new byte[ 11 ] );
+    store.put( "b", "0002", new byte[ 11 ] );
+    store.put( "c", "0003", new byte[ 11 ] );
+    assertEquals( 2, store.segments() );
+
+    ByteBuffer before = store.get( "a" );
+    store.remove( "a" );
+    // the first segment is half removed, so b is copied forward
+    assertFalse( Files.exists( directory.resolve( "segment-0" ) ) );
+    assertEquals( 11, store.get( "b" ).remaining() );
+    assertEquals( 11, before.remaining() );
+    store.close();
+
+    SegmentStore recovered = new SegmentStore( directory, 64, 0.5, 0 );
+    assertTrue( recovered.open() );
+    assertEquals( 2, recovered.size() );
+    assertNull( recovered.get( "a" ) );
+  }
+
+  @Test
+  public void testLargerThanSegment() throws IOException {
+    SegmentStore store =
+        new SegmentStore( folder.getRoot().toPath(), 64, 0.5, 0 );
+    assertTrue( store.open() );
+    store.put( "a", "0001", new byte[ 100 ] );
+    store.put( "b", "0002", new byte[ 1 ] );
+    assertEquals( 100, store.get( "a" ).remaining() );
+    assertEquals( 1, store.get( "b" ).remaining() );
+  }
+
+  @Test
+  public void testEmptyStoreIsReset() throws IOException {
+    Path directory = folder.getRoot().toPath();
+    SegmentStore store = new SegmentStore( directory, 64, 0.5, 0 );
+    assertTrue( store.open() );
+    store.put( "a", "0001", new byte[ 1 ] );
+    store.remove( "a" );
+    store.close();
+
+    SegmentStore recovered = new SegmentStore( directory, 64, 0.5, 0 );
+    assertTrue( recovered.open() );
+    assertEquals( 0, recovered.segments() );
+  }
+}
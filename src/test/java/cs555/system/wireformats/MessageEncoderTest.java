@@ -0,0 +1,172 @@
+package cs555.system.wireformats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+import cs555.system.metadata.PeerInformation;
+
+public class MessageEncoderTest {
+
+  private static MessageDecoder roundTrip(Event event) {
+    ByteBuffer buffer = ByteBuffer.allocate( 4096 );
+    event.encode( new MessageEncoder( buffer ) );
+    buffer.flip();
+    return new MessageDecoder( buffer );
+  }
+
+  @Test
+  public void testVarInt() {
+    ByteBuffer buffer = ByteBuffer.allocate( 64 );
+    MessageEncoder encoder = new MessageEncoder( buffer );
+    int[] values = { 0, 1, 127, 128, 16383, 16384, 65535, Integer.MAX_VALUE };
+    for ( int value : values )
+    {
+      encoder.writeVarInt( value );
+    }
+    buffer.flip();
+    MessageDecoder decoder = new MessageDecoder( buffer );
+    for ( int value : values )
+    {
+      assertEquals( value, decoder.readVarInt() );
+    }
+    assertFalse( buffer.hasRemaining() );
+  }
+
+  @Test
+  public void testVarLong() {
+    ByteBuffer buffer = ByteBuffer.allocate( 64 );
+    MessageEncoder encoder = new MessageEncoder( buffer );
+    long[] values = { 0L, 127L, 128L, 1L << 35, Long.MAX_VALUE };
+    for ( long value : values )
+    {
+      encoder.writeVarLong( value );
+    }
+    buffer.flip();
+    MessageDecoder decoder = new MessageDecoder( buffer );
+    for ( long value : values )
+    {
+      assertEquals( value, decoder.readVarLong() );
+    }
+    assertFalse( buffer.hasRemaining() );
+  }
+
+  @Test
+  public void testString() {
+    ByteBuffer buffer = ByteBuffer.allocate( 64 );
+    MessageEncoder encoder = new MessageEncoder( buffer );
+    encoder.writeString( "/data/cam.jpeg" );
+    encoder.writeString( "" );
+    encoder.writeString( null );
+    encoder.writeString( "caf\u00e9" );
+    buffer.flip();
+    MessageDecoder decoder = new MessageDecoder( buffer );
+    assertEquals( "/data/cam.jpeg", decoder.readString() );
+    assertEquals( "", decoder.readString() );
+    assertNull( decoder.readString() );
+    assertEquals( "caf\u00e9", decoder.readString() );
+  }
+
+  @Test
+  public void testPeerInformation() {
+    PeerInformation peer = new PeerInformation( "0A3F", "localhost", 5001 );
+    GenericPeerMessage response = new GenericPeerMessage(
+        Protocol.STORE_DATA_RESPONSE, peer, "/cam.jpeg>BEC4", true );
+    response.setRequest( 300 );
+    GenericPeerMessage message =
+        new GenericPeerMessage( roundTrip( response ) );
+
+    assertEquals( Protocol.STORE_DATA_RESPONSE, message.getType() );
+    assertEquals( "0A3F", message.getIdentifier() );
+    assertEquals( 0x0A3F, message.getPeer().getKey() );
+    assertEquals( "localhost", message.getHost() );
+    assertEquals( 5001, message.getPort() );
+    assertEquals( "/cam.jpeg>BEC4", message.getMessage() );
+    assertEquals( 300, message.getRequest() );
+    assertTrue( message.getFlag() );
+  }
+
+  @Test
+  public void testJoinNetwork() {
+    PeerInformation destination = new PeerInformation( "B6DB", "a", 1 );
+    PeerInformation[] row = new PeerInformation[ 16 ];
+    row[ 0 ] = new PeerInformation( "0123", "b", 2 );
+    row[ 15 ] = new PeerInformation( "F123", "c", 3 );
+
+    JoinNetwork join = new JoinNetwork( destination );
+    join.setTableRow( row );
+    join.incrementRow();
+    join.addNetworkTraceRoute( "1111" );
+    join.addNetworkTraceRoute( "B294" );
+    join.setLeaves( Arrays.asList( row[ 15 ], row[ 0 ] ) );
+    join.addAlternates( Arrays.asList( destination ) );
+
+    JoinNetwork message = new JoinNetwork( roundTrip( join ) );
+    assertEquals( destination, message.getDestination() );
+    assertEquals( Arrays.asList( row[ 15 ], row[ 0 ] ), message.getLeaves() );
+    assertEquals( Arrays.asList( destination ), message.getAlternates() );
+    assertArrayEquals( row, message.getTable()[ 0 ] );
+    assertArrayEquals( new PeerInformation[ 16 ], message.getTable()[ 1 ] );
+    assertArrayEquals( new String[] { "1111", "B294" },
+        message.getNetworkTraceIdentifiers().toArray() );
+    assertEquals( 1, message.getRow() );
+    assertTrue( message.canAddRow() );
+  }
+
+  @Test
+  public void testLeafSetMessage() {
+    PeerInformation peer = new PeerInformation( "B6DB", "a", 1 );
+    PeerInformation cw = new PeerInformation( "C123", "b", 2 );
+    PeerInformation ccw = new PeerInformation( "A123", "c", 3 );
+
+    LeafSetMessage message = new LeafSetMessage( roundTrip(
+        new LeafSetMessage( Protocol.LEAF_SET_RESPONSE, peer,
+            Arrays.asList( ccw, cw ) ) ) );
+    assertEquals( Protocol.LEAF_SET_RESPONSE, message.getType() );
+    assertEquals( peer, message.getPeer() );
+    assertEquals( Arrays.asList( ccw, cw ), message.getLeaves() );
+  }
+
+  @Test
+  public void testDataChunk() {
+    byte[] data = { 1, 2, 3, 4, 5 };
+    DataChunk message =
+        new DataChunk( roundTrip( new DataChunk( 42L, data, 3 ) ) );
+    assertEquals( Protocol.DATA_CHUNK, message.getType() );
+    assertEquals( 42L, message.getTransfer() );
+    assertEquals( 3, message.getLength() );
+    assertArrayEquals( new byte[] { 1, 2, 3 }, message.getData() );
+  }
+
+  @Test
+  public void testDataBatch() {
+    DataBatch request =
+        new DataBatch( Protocol.STORE_DATA_BATCH_REQUEST, null );
+    request.add( 7L, "cam.jpeg>BEC4", new byte[] { 1, 2 }, true );
+    request.add( 8L, "mice.png>B6DB", new byte[ 0 ], true );
+    DataBatch message = new DataBatch( roundTrip( request ) );
+    assertEquals( Protocol.STORE_DATA_BATCH_REQUEST, message.getType() );
+    assertNull( message.getPeer() );
+    assertEquals( 2, message.getEntries().size() );
+    assertEquals( 7L, message.getEntries().get( 0 ).getRequest() );
+    assertEquals( "cam.jpeg>BEC4",
+        message.getEntries().get( 0 ).getDescriptor() );
+    assertArrayEquals( new byte[] { 1, 2 },
+        message.getEntries().get( 0 ).getData() );
+    assertArrayEquals( new byte[ 0 ],
+        message.getEntries().get( 1 ).getData() );
+
+    PeerInformation peer = new PeerInformation( "BEEF", "localhost", 5001 );
+    DataBatch response =
+        new DataBatch( Protocol.STORE_DATA_BATCH_RESPONSE, peer );
+    response.add( 7L, "cam.jpeg>BEC4", null, false );
+    message = new DataBatch( roundTrip( response ) );
+    assertEquals( peer, message.getPeer() );
+    assertNull( message.getEntries().get( 0 ).getData() );
+    assertFalse( message.getEntries().get( 0 ).getFlag() );
+  }
+}